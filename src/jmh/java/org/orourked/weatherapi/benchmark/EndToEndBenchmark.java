@@ -0,0 +1,95 @@
+package org.orourked.weatherapi.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orourked.weatherapi.WeatherApiApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Measures saving and querying readings through the HTTP endpoints of a running application,
+ * against a local MongoDB. The database is set with -Dbenchmark.mongodb.uri (by default a server on
+ * localhost, such as one started with "docker run -p 27017:27017 mongo"); the benchmark uses its
+ * own weatherBenchmark database, which is dropped afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+  private static final String DATABASE = "weatherBenchmark";
+  private static final String QUERY =
+      "{\"sensorIds\": [\"sensor1\", \"sensor2\"], \"metrics\": [\"temperature\", \"humidity\"],"
+          + " \"stats\": [\"average\", \"max\"], \"startDate\": \"2024-01-01\","
+          + " \"endDate\": \"2099-01-01\"}";
+
+  private final AtomicInteger sensor = new AtomicInteger();
+  private ConfigurableApplicationContext context;
+  private HttpClient httpClient;
+  private String baseUrl;
+
+  @Setup
+  public void setUp() {
+    context =
+        SpringApplication.run(
+            WeatherApiApplication.class,
+            "--spring.data.mongodb.uri="
+                + System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017"),
+            "--spring.data.mongodb.database=" + DATABASE,
+            "--server.port=0",
+            "--weather.query-cache.enabled=false",
+            "--logging.level.root=WARN");
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    baseUrl = "http://localhost:" + port + "/api/weather";
+    httpClient = HttpClient.newHttpClient();
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.getBean(MongoTemplate.class).getDb().drop();
+    context.close();
+  }
+
+  @Benchmark
+  public int save() throws Exception {
+    String reading =
+        "{\"sensorId\": \"sensor"
+            + sensor.incrementAndGet() % 10
+            + "\", \"location\": \"Galway\", \"temperature\": 18.5, \"humidity\": 60,"
+            + " \"windspeed\": 10, \"pressure\": 1015}";
+    return post("/save", reading);
+  }
+
+  @Benchmark
+  public int query() throws Exception {
+    return post("/query", QUERY);
+  }
+
+  private int post(String path, String body) throws Exception {
+    HttpRequest request =
+        HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+}
@@ -0,0 +1,123 @@
+package org.orourked.weatherapi.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orourked.weatherapi.dto.WeatherQueryRequest;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+
+/**
+ * Measures JSON encoding and decoding of large lists of readings and query results (as maps and as
+ * typed rows), and decoding of query requests, with an object mapper configured like the
+ * application's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+  private static final TypeReference<List<WeatherData>> READINGS = new TypeReference<>() {};
+
+  @Param({"100", "10000"})
+  private int size;
+
+  private ObjectMapper objectMapper;
+  private List<WeatherData> readings;
+  private List<Map<String, Object>> results;
+  private List<SensorResult> typedResults;
+  private byte[] readingsJson;
+  private byte[] requestJson;
+
+  @Setup
+  public void setUp() throws Exception {
+    objectMapper =
+        new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    readings = new ArrayList<>(size);
+    results = new ArrayList<>(size);
+    typedResults = new ArrayList<>(size);
+    SensorResult.Columns columns =
+        SensorResult.Columns.of(WeatherData.METRICS, List.of("average", "max", "min"));
+    LocalDateTime timestamp = LocalDateTime.of(2024, 11, 13, 10, 0);
+    for (int i = 0; i < size; i++) {
+      readings.add(
+          new WeatherData()
+              .setId(Integer.toHexString(i))
+              .setSensorId("sensor" + i % 50)
+              .setLocation("Galway")
+              .setTemperature(18.5)
+              .setHumidity(60)
+              .setWindspeed(10.0)
+              .setPressure(1015)
+              .setTimestamp(timestamp.plusMinutes(i)));
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("sensorId", "sensor" + i);
+      for (String metric : WeatherData.METRICS) {
+        result.put("avg" + metric, 12.3);
+        result.put("max" + metric, 45.6);
+        result.put("min" + metric, 7.8);
+      }
+      results.add(result);
+      double[] values = columns.newValues();
+      for (int column = 0; column < columns.size(); column++) {
+        values[column] = result.get(columns.name(column)) instanceof Double value ? value : 0;
+      }
+      typedResults.add(new SensorResult("sensor" + i, null, columns, values));
+    }
+    readingsJson = objectMapper.writeValueAsBytes(readings);
+    requestJson =
+        objectMapper.writeValueAsBytes(
+            new WeatherQueryRequest()
+                .setSensorIds(List.of("sensor1", "sensor2", "sensor3"))
+                .setMetrics(WeatherData.METRICS)
+                .setStats(List.of("average", "max", "min"))
+                .setStartDate("2024-11-02")
+                .setEndDate("2024-11-08"));
+  }
+
+  @Benchmark
+  public byte[] encodeReadings() throws Exception {
+    return objectMapper.writeValueAsBytes(readings);
+  }
+
+  @Benchmark
+  public List<WeatherData> decodeReadings() throws Exception {
+    return objectMapper.readValue(readingsJson, READINGS);
+  }
+
+  @Benchmark
+  public byte[] encodeQueryResults() throws Exception {
+    return objectMapper.writeValueAsBytes(results);
+  }
+
+  @Benchmark
+  public byte[] encodeTypedQueryResults() throws Exception {
+    return objectMapper.writeValueAsBytes(typedResults);
+  }
+
+  @Benchmark
+  public WeatherQueryRequest decodeQueryRequest() throws Exception {
+    return objectMapper.readValue(requestJson, WeatherQueryRequest.class);
+  }
+}
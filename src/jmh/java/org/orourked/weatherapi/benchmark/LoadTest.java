@@ -0,0 +1,179 @@
+package org.orourked.weatherapi.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.orourked.weatherapi.WeatherApiApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Compares the request execution modes under concurrent load: blocking handlers on the Tomcat
+ * platform thread pool, blocking handlers on virtual threads (Java 21 or later), and the reactive
+ * endpoints. For each mode the application is started against a local MongoDB, seeded with
+ * readings, and sent a fixed number of queries with a fixed number in flight. Throughput and
+ * latency percentiles are printed as one JSON line per mode.
+ *
+ * <p>Options are system properties: benchmark.mongodb.uri (default a server on localhost),
+ * load.modes (default "platform,virtual,reactive"), load.requests (default 20000) and
+ * load.concurrency (default 500). The readings are stored in a weatherLoadTest database, which is
+ * dropped afterwards.
+ */
+public class LoadTest {
+  private static final String DATABASE = "weatherLoadTest";
+  private static final int SENSORS = 20;
+  private static final String QUERY =
+      "{\"sensorIds\": [\"sensor1\", \"sensor2\"], \"metrics\": [\"temperature\", \"humidity\"],"
+          + " \"stats\": [\"average\", \"max\"], \"startDate\": \"2024-01-01\","
+          + " \"endDate\": \"2099-01-01\"}";
+
+  public static void main(String[] args) throws Exception {
+    List<String> modes =
+        Arrays.asList(System.getProperty("load.modes", "platform,virtual,reactive").split(","));
+    int requests = Integer.getInteger("load.requests", 20000);
+    int concurrency = Integer.getInteger("load.concurrency", 500);
+    for (String option : modes) {
+      String mode = option.trim();
+      if ("virtual".equals(mode) && Runtime.version().feature() < 21) {
+        System.err.println("Skipping virtual: virtual threads need Java 21 or later");
+        continue;
+      }
+      run(mode, requests, concurrency);
+    }
+  }
+
+  /**
+   * Starts the application in one execution mode and measures it.
+   *
+   * @param mode platform, virtual or reactive.
+   * @param requests the number of queries to send.
+   * @param concurrency the number of queries in flight at once.
+   */
+  private static void run(String mode, int requests, int concurrency) throws Exception {
+    ConfigurableApplicationContext context =
+        SpringApplication.run(
+            WeatherApiApplication.class,
+            "--spring.data.mongodb.uri="
+                + System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017"),
+            "--spring.data.mongodb.database=" + DATABASE,
+            "--server.port=0",
+            "--spring.threads.virtual.enabled=" + "virtual".equals(mode),
+            "--weather.reactive.enabled=" + "reactive".equals(mode),
+            "--weather.query-cache.enabled=false",
+            "--weather.rollups.enabled=false",
+            "--logging.level.root=WARN");
+    try {
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      String baseUrl = "http://localhost:" + port + "/api/weather";
+      HttpClient httpClient = HttpClient.newHttpClient();
+      seed(httpClient, baseUrl);
+      String queryUrl = baseUrl + ("reactive".equals(mode) ? "/reactive/query" : "/query");
+
+      // Warm up, then measure.
+      load(httpClient, queryUrl, requests / 10, concurrency);
+      long start = System.nanoTime();
+      long[] latencies = load(httpClient, queryUrl, requests, concurrency);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      Arrays.sort(latencies);
+      System.out.printf(
+          "{\"mode\": \"%s\", \"requests\": %d, \"concurrency\": %d, \"throughput\": %.1f,"
+              + " \"p50Ms\": %.2f, \"p99Ms\": %.2f, \"maxMs\": %.2f}%n",
+          mode,
+          requests,
+          concurrency,
+          requests / seconds,
+          percentile(latencies, 0.50),
+          percentile(latencies, 0.99),
+          latencies[latencies.length - 1] / 1e6);
+    } finally {
+      context.getBean(MongoTemplate.class).getDb().drop();
+      context.close();
+    }
+  }
+
+  /**
+   * Saves a batch of readings for the queries to aggregate.
+   *
+   * @param httpClient the client.
+   * @param baseUrl the URL of the weather endpoints.
+   */
+  private static void seed(HttpClient httpClient, String baseUrl) throws Exception {
+    StringBuilder readings = new StringBuilder("[");
+    for (int i = 0; i < SENSORS * 50; i++) {
+      if (i > 0) {
+        readings.append(',');
+      }
+      readings
+          .append("{\"sensorId\": \"sensor")
+          .append(i % SENSORS)
+          .append("\", \"location\": \"Galway\", \"temperature\": ")
+          .append(10 + i % 15)
+          .append(", \"humidity\": 60, \"windspeed\": 10, \"pressure\": 1015}");
+    }
+    readings.append(']');
+    HttpRequest request =
+        HttpRequest.newBuilder(URI.create(baseUrl + "/save/batch"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(readings.toString()))
+            .build();
+    httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+  }
+
+  /**
+   * Sends queries asynchronously, keeping at most the given number in flight.
+   *
+   * @param httpClient the client.
+   * @param url the query endpoint.
+   * @param requests the number of queries to send.
+   * @param concurrency the number of queries in flight at once.
+   * @return the latency of each query in nanoseconds.
+   */
+  private static long[] load(HttpClient httpClient, String url, int requests, int concurrency)
+      throws Exception {
+    HttpRequest request =
+        HttpRequest.newBuilder(URI.create(url))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(QUERY))
+            .build();
+    long[] latencies = new long[requests];
+    AtomicInteger failures = new AtomicInteger();
+    Semaphore inFlight = new Semaphore(concurrency);
+    List<CompletableFuture<?>> futures = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      int index = i;
+      inFlight.acquire();
+      long start = System.nanoTime();
+      futures.add(
+          httpClient
+              .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+              .whenComplete(
+                  (response, e) -> {
+                    latencies[index] = System.nanoTime() - start;
+                    if (e != null || response.statusCode() != 200) {
+                      failures.incrementAndGet();
+                    }
+                    inFlight.release();
+                  }));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    if (failures.get() > 0) {
+      System.err.println(failures.get() + " of " + requests + " queries failed");
+    }
+    return latencies;
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)]
+        / 1e6;
+  }
+}
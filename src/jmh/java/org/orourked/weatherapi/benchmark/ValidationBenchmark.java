@@ -0,0 +1,77 @@
+package org.orourked.weatherapi.benchmark;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orourked.weatherapi.dto.WeatherQueryRequest;
+import org.orourked.weatherapi.dto.WeatherSaveRequest;
+
+/** Measures bean validation of save and query requests, as run for every request received. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+  private ValidatorFactory validatorFactory;
+  private Validator validator;
+  private WeatherSaveRequest validSaveRequest;
+  private WeatherSaveRequest invalidSaveRequest;
+  private WeatherQueryRequest queryRequest;
+
+  @Setup
+  public void setUp() {
+    validatorFactory = Validation.buildDefaultValidatorFactory();
+    validator = validatorFactory.getValidator();
+    validSaveRequest = new WeatherSaveRequest();
+    validSaveRequest.setSensorId("sensor10");
+    validSaveRequest.setLocation("Galway");
+    validSaveRequest.setTemperature(18.5);
+    validSaveRequest.setHumidity(60.0);
+    validSaveRequest.setWindspeed(10.0);
+    validSaveRequest.setPressure(1015.0);
+    invalidSaveRequest = new WeatherSaveRequest();
+    invalidSaveRequest.setSensorId("sensor10");
+    queryRequest =
+        new WeatherQueryRequest()
+            .setSensorIds(List.of("sensor1", "sensor2"))
+            .setMetrics(List.of("temperature", "humidity"))
+            .setStats(List.of("average"));
+  }
+
+  @TearDown
+  public void tearDown() {
+    validatorFactory.close();
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<WeatherSaveRequest>> validSaveRequest() {
+    return validator.validate(validSaveRequest);
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<WeatherSaveRequest>> invalidSaveRequest() {
+    return validator.validate(invalidSaveRequest);
+  }
+
+  @Benchmark
+  public Set<ConstraintViolation<WeatherQueryRequest>> queryRequest() {
+    return validator.validate(queryRequest);
+  }
+}
@@ -0,0 +1,78 @@
+package org.orourked.weatherapi.database;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Measures building the query aggregation pipeline and rendering it to the documents sent to
+ * MongoDB, in the same way as MongoTemplate, for the largest query: every metric and stat, over a
+ * date range and for the latest readings. The template variants bind the sensors and dates into
+ * the cached stages, as the query path does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+  private static final List<String> SENSOR_IDS =
+      List.of("sensor1", "sensor2", "sensor3", "sensor4", "sensor5");
+  private static final List<String> METRICS =
+      List.of("temperature", "humidity", "windspeed", "pressure");
+  private static final List<String> STATS = List.of("average", "max", "min", "sum");
+
+  private final WeatherAggregation weatherAggregation = new WeatherAggregation();
+  private MongoConverter converter;
+
+  @Setup
+  public void setUp() {
+    MappingMongoConverter mappingConverter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    mappingConverter.afterPropertiesSet();
+    converter = mappingConverter;
+  }
+
+  @Benchmark
+  public List<Document> dateRangePipeline() {
+    Aggregation aggregation =
+        weatherAggregation.buildQueryPipeline(
+            SENSOR_IDS, METRICS, STATS, LocalDate.of(2024, 11, 2), LocalDate.of(2024, 11, 8));
+    return WeatherQueryPlans.toPipeline(aggregation, converter);
+  }
+
+  @Benchmark
+  public List<Document> latestReadingPipeline() {
+    Aggregation aggregation =
+        weatherAggregation.buildQueryPipeline(SENSOR_IDS, METRICS, STATS, null, null);
+    return WeatherQueryPlans.toPipeline(aggregation, converter);
+  }
+
+  @Benchmark
+  public List<Document> dateRangePipelineFromTemplate() {
+    return weatherAggregation.renderQueryPipeline(
+        SENSOR_IDS, METRICS, STATS, LocalDate.of(2024, 11, 2), LocalDate.of(2024, 11, 8), converter);
+  }
+
+  @Benchmark
+  public List<Document> latestReadingPipelineFromTemplate() {
+    return weatherAggregation.renderLatestPipeline(SENSOR_IDS, METRICS, converter);
+  }
+}
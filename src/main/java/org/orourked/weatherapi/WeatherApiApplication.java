@@ -1,11 +1,46 @@
 package org.orourked.weatherapi;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class WeatherApiApplication {
   public static void main(String[] args) {
     SpringApplication.run(WeatherApiApplication.class, args);
   }
+
+  /**
+   * Writes responses as CBOR for clients that accept application/cbor. Built from the application's
+   * Jackson settings, so dates and fields are written the same way as in JSON responses.
+   *
+   * @param builder the Jackson builder configured by Spring Boot.
+   * @return the message converter.
+   */
+  @Bean
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(
+      Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2CborHttpMessageConverter(
+        builder.factory(new CBORFactory()).build());
+  }
+
+  /**
+   * Writes responses as Smile for clients that accept application/x-jackson-smile.
+   *
+   * @param builder the Jackson builder configured by Spring Boot.
+   * @return the message converter.
+   */
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(
+      Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2SmileHttpMessageConverter(
+        builder.factory(new SmileFactory()).build());
+  }
 }
@@ -0,0 +1,47 @@
+package org.orourked.weatherapi;
+
+import java.util.Set;
+import org.springframework.boot.autoconfigure.AutoConfigurationImportFilter;
+import org.springframework.boot.autoconfigure.AutoConfigurationMetadata;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+
+/**
+ * Leaves out the reactive MongoDB client, template and repositories unless
+ * weather.reactive.enabled is set, so that a second client with its own connection pool is only
+ * opened for the reactive endpoints. The reactive driver is always on the classpath, so the
+ * auto-configurations' own conditions would otherwise always match. Registered in
+ * META-INF/spring.factories.
+ */
+public class WeatherReactiveAutoConfigurationFilter
+    implements AutoConfigurationImportFilter, EnvironmentAware {
+  static final Set<String> REACTIVE_AUTO_CONFIGURATIONS =
+      Set.of(
+          "org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration",
+          "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration",
+          "org.springframework.boot.autoconfigure.data.mongo"
+              + ".MongoReactiveRepositoriesAutoConfiguration");
+
+  private Environment environment;
+
+  @Override
+  public void setEnvironment(Environment environment) {
+    this.environment = environment;
+  }
+
+  @Override
+  public boolean[] match(
+      String[] autoConfigurationClasses, AutoConfigurationMetadata autoConfigurationMetadata) {
+    boolean enabled = environment.getProperty("weather.reactive.enabled", Boolean.class, false);
+    boolean[] matches = new boolean[autoConfigurationClasses.length];
+    for (int i = 0; i < autoConfigurationClasses.length; i++) {
+      // Classes already filtered out by an earlier filter are null.
+      String autoConfigurationClass = autoConfigurationClasses[i];
+      matches[i] =
+          enabled
+              || autoConfigurationClass == null
+              || !REACTIVE_AUTO_CONFIGURATIONS.contains(autoConfigurationClass);
+    }
+    return matches;
+  }
+}
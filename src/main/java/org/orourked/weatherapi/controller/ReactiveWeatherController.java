@@ -0,0 +1,97 @@
+package org.orourked.weatherapi.controller;
+
+import jakarta.validation.Valid;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.orourked.weatherapi.dto.WeatherQueryRequest;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.service.ReactiveWeatherService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BindingResult;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variants of the read endpoints of {@link WeatherController}, backed by the reactive
+ * MongoDB driver. Requests are handled asynchronously, so no request thread is held while waiting
+ * for the database. Only enabled when weather.reactive.enabled is set. Queries bypass the query
+ * cache, as described on {@link ReactiveWeatherService}.
+ */
+@RestController
+@RequestMapping("api/weather/reactive")
+@ConditionalOnProperty(name = "weather.reactive.enabled", havingValue = "true")
+public class ReactiveWeatherController {
+
+  @Autowired private ReactiveWeatherService reactiveWeatherService;
+  private static final Logger logger = LoggerFactory.getLogger(ReactiveWeatherController.class);
+
+  /**
+   * Endpoint to retrieve all weather data records. Records are streamed as newline delimited JSON
+   * when requested with the application/x-ndjson media type.
+   *
+   * @return all WeatherData objects available in the database.
+   *     <p>Example usage: curl -X GET http://localhost:8080/api/weather/reactive
+   */
+  @GetMapping
+  public Flux<WeatherData> getAllWeatherData() {
+    return reactiveWeatherService.getAllWeatherData();
+  }
+
+  /**
+   * Endpoint to retrieve weather data by a specific location.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @return the WeatherData objects that match the specified location.
+   *     <p>Example usage: curl -X GET "http://localhost:8080/api/weather/reactive/location/Galway"
+   */
+  @GetMapping("/location/{location}")
+  public Flux<WeatherData> getWeatherDataByLocation(@PathVariable String location) {
+    return reactiveWeatherService.getWeatherDataByLocation(location);
+  }
+
+  /**
+   * Endpoint to query weather data based on specified criteria, accepting the same request as
+   * /api/weather/query. Interval and downsampled series are only served by /api/weather/query.
+   *
+   * @param request a WeatherQueryRequest object containing the filter criteria.
+   * @return a list of weather data matching the query parameters.
+   */
+  @PostMapping("/query")
+  public Mono<ResponseEntity<?>> queryWeatherData(
+      @Valid @RequestBody WeatherQueryRequest request, BindingResult bindingResult) {
+    if (bindingResult.hasErrors()) {
+      Map<String, String> errorResponse = new HashMap<>();
+      for (FieldError fieldError : bindingResult.getFieldErrors()) {
+        errorResponse.put("message", fieldError.getDefaultMessage());
+        logger.error("Validation failed: {}", fieldError.getDefaultMessage());
+      }
+      return Mono.just(ResponseEntity.badRequest().body(errorResponse));
+    }
+    if (request.getInterval() != null || request.getDownsample() != null) {
+      return Mono.just(
+          ResponseEntity.badRequest()
+              .body(Map.of("message", "interval and downsample are not supported here")));
+    }
+    Mono<List<SensorResult>> results =
+        reactiveWeatherService.queryWeatherData(
+            request.getSensorIds(),
+            request.getMetrics(),
+            request.getStats(),
+            request.getStartDate(),
+            request.getEndDate());
+    return results.map(ResponseEntity::ok);
+  }
+}
@@ -1,29 +1,72 @@
 package org.orourked.weatherapi.controller;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.orourked.weatherapi.database.WeatherQueryMetrics;
+import org.orourked.weatherapi.database.WeatherSlowQueryLog;
+import org.orourked.weatherapi.dto.WeatherBatchSaveResponse;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.dto.WeatherImportResponse;
 import org.orourked.weatherapi.dto.WeatherQueryRequest;
 import org.orourked.weatherapi.dto.WeatherSaveRequest;
+import org.orourked.weatherapi.dto.WeatherSaveResult;
+import org.orourked.weatherapi.model.SensorResult;
 import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.service.WeatherAccessLog;
+import org.orourked.weatherapi.service.WeatherBulkExport;
+import org.orourked.weatherapi.service.WeatherBulkImport;
+import org.orourked.weatherapi.service.WeatherReadingParser;
 import org.orourked.weatherapi.service.WeatherService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.util.StreamUtils;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * This class defines REST API endpoints for accessing and querying weather data. Allows querying
@@ -34,8 +77,30 @@ import org.springframework.web.bind.annotation.RestController;
 public class WeatherController {
 
   @Autowired private WeatherService weatherService;
+  @Autowired private Validator validator;
+  @Autowired private ObjectMapper responseMapper;
+  @Autowired private MappingJackson2CborHttpMessageConverter cborConverter;
+  @Autowired private MappingJackson2SmileHttpMessageConverter smileConverter;
+  @Autowired private WeatherQueryMetrics weatherQueryMetrics;
+  @Autowired private WeatherSlowQueryLog weatherSlowQueryLog;
+  @Autowired private WeatherAccessLog weatherAccessLog;
+  @Autowired private WeatherBulkImport weatherBulkImport;
+  @Autowired private WeatherBulkExport weatherBulkExport;
   private static final Logger logger = LoggerFactory.getLogger(WeatherController.class);
   private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+  private static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+  private static final String TEXT_CSV_VALUE = "text/csv";
+  private static final MediaType NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+  private static final MediaType SMILE = MediaType.parseMediaType(APPLICATION_SMILE_VALUE);
+  private static final List<MediaType> QUERY_FORMATS =
+      List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, SMILE);
+
+  @Value("${weather.ingest.batch.max-size:10000}")
+  private int maxBatchSize;
+
+  @Value("${weather.pagination.max-limit:1000}")
+  private int maxPageLimit;
 
   /**
    * Endpoint to retrieve all weather data records.
@@ -61,51 +126,318 @@ public class WeatherController {
   }
 
   /**
-   * Endpoint to query weather data based on specified criteria, logging the request details with
-   * timestamp and attempts to parse the request body for logging.
+   * Endpoint to retrieve a page of weather data records, ordered by timestamp. Pass the "next"
+   * cursor of a page as the "after" parameter to read the following page; once the last page has
+   * been read, polling with its cursor returns readings saved since.
+   *
+   * @param limit the maximum number of records to return.
+   * @param after the cursor returned with the previous page.
+   * @param since the earliest timestamp to include.
+   * @param until the timestamp before which records are included.
+   * @return a page of WeatherData objects and the cursor for the next page.
+   *     <p>Example usage: curl -X GET "http://localhost:8080/api/weather?limit=100&after=..."
+   */
+  @GetMapping(params = "limit")
+  public WeatherDataPage getWeatherDataPage(
+      @RequestParam int limit,
+      @RequestParam(required = false) String after,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime since,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime until) {
+    checkPageLimit(limit);
+    return weatherService.getWeatherDataPage(null, limit, after, since, until);
+  }
+
+  /**
+   * Endpoint to retrieve a page of weather data records for a location, ordered by timestamp.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @param limit the maximum number of records to return.
+   * @param after the cursor returned with the previous page.
+   * @param since the earliest timestamp to include.
+   * @param until the timestamp before which records are included.
+   * @return a page of the matching WeatherData objects and the cursor for the next page.
+   *     <p>Example usage: curl -X GET
+   *     "http://localhost:8080/api/weather/location/Galway?limit=100&since=2024-11-01T00:00:00"
+   */
+  @GetMapping(value = "/location/{location}", params = "limit")
+  public WeatherDataPage getWeatherDataPageByLocation(
+      @PathVariable String location,
+      @RequestParam int limit,
+      @RequestParam(required = false) String after,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime since,
+      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime until) {
+    checkPageLimit(limit);
+    return weatherService.getWeatherDataPage(location, limit, after, since, until);
+  }
+
+  /**
+   * Endpoint to stream all weather data records as newline delimited JSON. Records are written to
+   * the response as they are read from the database cursor, so memory use stays constant however
+   * large the collection is.
+   *
+   * @return a stream of all WeatherData objects, one JSON object per line.
+   *     <p>Example usage: curl -H "Accept: application/x-ndjson" http://localhost:8080/api/weather
+   */
+  @GetMapping(produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamAllWeatherData() {
+    return stream(weatherService.streamAllWeatherData(), NDJSON);
+  }
+
+  /**
+   * Endpoint to stream all weather data records as a JSON array, written to the response as they
+   * are read from the database cursor.
+   *
+   * @return a stream of all WeatherData objects as a chunked JSON array.
+   *     <p>Example usage: curl -X GET "http://localhost:8080/api/weather?stream=true"
+   */
+  @GetMapping(params = "stream=true")
+  public ResponseEntity<StreamingResponseBody> streamAllWeatherDataAsArray() {
+    return stream(weatherService.streamAllWeatherData(), MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Endpoint to export all weather data records as a CBOR or Smile array, depending on the Accept
+   * header. Records are written as they are read from the database cursor, with the same fields as
+   * the JSON responses, but are several times faster to encode and decode and smaller on the wire.
+   *
+   * @param accept the Accept header, naming application/cbor or application/x-jackson-smile.
+   * @return a stream of all WeatherData objects as a binary array.
+   *     <p>Example usage: curl -H "Accept: application/cbor" http://localhost:8080/api/weather -o
+   *     weather.cbor
+   */
+  @GetMapping(produces = {MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
+  public ResponseEntity<StreamingResponseBody> streamAllWeatherDataBinary(
+      @RequestHeader(HttpHeaders.ACCEPT) String accept) {
+    return stream(weatherService.streamAllWeatherData(), binaryFormat(accept));
+  }
+
+  /**
+   * Endpoint to stream the weather data records for a location as newline delimited JSON.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @return a stream of the matching WeatherData objects, one JSON object per line.
+   *     <p>Example usage: curl -H "Accept: application/x-ndjson"
+   *     http://localhost:8080/api/weather/location/Galway
+   */
+  @GetMapping(value = "/location/{location}", produces = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamWeatherDataByLocation(
+      @PathVariable String location) {
+    return stream(weatherService.streamWeatherDataByLocation(location), NDJSON);
+  }
+
+  /**
+   * Endpoint to export the weather data records for a location as a CBOR or Smile array, depending
+   * on the Accept header.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @param accept the Accept header, naming application/cbor or application/x-jackson-smile.
+   * @return a stream of the matching WeatherData objects as a binary array.
+   *     <p>Example usage: curl -H "Accept: application/x-jackson-smile"
+   *     http://localhost:8080/api/weather/location/Galway -o galway.smile
+   */
+  @GetMapping(
+      value = "/location/{location}",
+      produces = {MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
+  public ResponseEntity<StreamingResponseBody> streamWeatherDataByLocationBinary(
+      @PathVariable String location, @RequestHeader(HttpHeaders.ACCEPT) String accept) {
+    return stream(weatherService.streamWeatherDataByLocation(location), binaryFormat(accept));
+  }
+
+  /**
+   * Endpoint to stream the weather data records for a location as a JSON array.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @return a stream of the matching WeatherData objects as a chunked JSON array.
+   *     <p>Example usage: curl -X GET
+   *     "http://localhost:8080/api/weather/location/Galway?stream=true"
+   */
+  @GetMapping(value = "/location/{location}", params = "stream=true")
+  public ResponseEntity<StreamingResponseBody> streamWeatherDataByLocationAsArray(
+      @PathVariable String location) {
+    return stream(
+        weatherService.streamWeatherDataByLocation(location), MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Endpoint to export all weather data records as CSV, in the format the import endpoint reads.
+   * Rows are written as they are read from the database cursor, so memory use stays constant.
+   *
+   * @return a stream of all WeatherData objects, one CSV row each under a header.
+   *     <p>Example usage: curl -H "Accept: text/csv" http://localhost:8080/api/weather -o
+   *     weather.csv
+   */
+  @GetMapping(produces = TEXT_CSV_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportAllWeatherDataCsv() {
+    return exportCsv(weatherService.streamAllWeatherData());
+  }
+
+  /**
+   * Endpoint to export the weather data records for a location as CSV.
+   *
+   * @param location the location to search for in the WeatherData collection.
+   * @return a stream of the matching WeatherData objects, one CSV row each under a header.
+   *     <p>Example usage: curl -H "Accept: text/csv"
+   *     http://localhost:8080/api/weather/location/Galway -o galway.csv
+   */
+  @GetMapping(value = "/location/{location}", produces = TEXT_CSV_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportWeatherDataByLocationCsv(
+      @PathVariable String location) {
+    return exportCsv(weatherService.streamWeatherDataByLocation(location));
+  }
+
+  /**
+   * Endpoint to query weather data based on specified criteria. Each request is recorded in the
+   * access log; the request body itself is only logged at DEBUG.
    *
    * @param request a WeatherQueryRequest object containing the filter criteria.
+   * @param accept the Accept header, or null for JSON.
+   * @param profile whether to add a Server-Timing header with the time spent in each stage.
    * @return a list of weather data matching the query parameters.
    *     <p>Example usage:
    *     <p>curl -X POST -H "Content-Type: application/json" -d '{ "sensorIds": ["sensor4",
    *     "sensor1"], "metrics": ["temperature", "humidity", "pressure", "windspeed"], "stats":
    *     ["average", "max", "min"], "startDate": "2024-11-02", "endDate": "2024-11-08"}'
    *     http://localhost:8080/api/weather/query
+   *     <p>Adding "interval" (e.g. "1h") returns one row per sensor and time bucket instead, and
+   *     adding "downsample" ("lttb" or "minmax") returns a subset of the raw readings; both need a
+   *     date range and return at most "maxPoints" rows per sensor.
+   *     <p>The response is JSON, CBOR or Smile depending on the Accept header. The time taken by
+   *     each stage is recorded by weather.query.stage and the whole request by
+   *     weather.query.requests. Requests slower than weather.query.slow-log.threshold-ms are
+   *     logged with their pipelines, and "?profile=true" returns the stage times in a
+   *     Server-Timing header.
    */
   @PostMapping("/query")
   public ResponseEntity<?> queryWeatherData(
-      @Valid @RequestBody WeatherQueryRequest request, BindingResult bindingResult) {
+      @Valid @RequestBody WeatherQueryRequest request,
+      BindingResult bindingResult,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestParam(defaultValue = "false") boolean profile) {
+    long start = System.nanoTime();
+    boolean series = request.getInterval() != null || request.getDownsample() != null;
+    WeatherAccessLog.Endpoint accessLogEndpoint =
+        series ? WeatherAccessLog.Endpoint.SERIES : WeatherAccessLog.Endpoint.QUERY;
+    if (bindingResult.hasErrors()) {
+      Map<String, String> errorResponse = new HashMap<>();
+      for (FieldError fieldError : bindingResult.getFieldErrors()) {
+        errorResponse.put("message", fieldError.getDefaultMessage());
+        logger.error("Validation failed: {}", fieldError.getDefaultMessage());
+      }
+      weatherAccessLog.record(accessLogEndpoint, HttpStatus.BAD_REQUEST.value(), start, 0, null);
+
+      return ResponseEntity.badRequest().body(errorResponse);
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Received query: {}", describe(request));
+    }
+    String endpoint = series ? "series" : "query";
+    int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    int rows = 0;
+    WeatherQueryMetrics.Profile queryProfile = weatherQueryMetrics.startProfile();
     try {
-      if (bindingResult.hasErrors()) {
-        Map<String, String> errorResponse = new HashMap<>();
-        for (FieldError fieldError : bindingResult.getFieldErrors()) {
-          errorResponse.put("message", fieldError.getDefaultMessage());
-          logger.error("Validation failed: {}", fieldError.getDefaultMessage());
-        }
+      MediaType format = queryFormat(accept);
+      List<?> results;
+      if (series) {
+        results =
+            weatherService.queryWeatherSeries(
+                request.getSensorIds(),
+                request.getMetrics(),
+                request.getStats(),
+                request.getStartDate(),
+                request.getEndDate(),
+                request.getInterval(),
+                request.getDownsample(),
+                request.getMaxPoints());
+      } else {
+        results =
+            weatherService.queryWeatherData(
+                request.getSensorIds(),
+                request.getMetrics(),
+                request.getStats(),
+                request.getStartDate(),
+                request.getEndDate());
+      }
 
-        return ResponseEntity.badRequest().body(errorResponse);
+      ResponseEntity<byte[]> response = serialize(results, format);
+      status = HttpStatus.OK.value();
+      rows = results.size();
+      queryProfile.setResult(rows, response.getBody().length);
+      weatherQueryMetrics.recordRequest(
+          endpoint,
+          request.getMetrics().size(),
+          WeatherService.parseDate(request.getStartDate()),
+          WeatherService.parseDate(request.getEndDate()),
+          start);
+      long elapsed = System.nanoTime() - start;
+      if (weatherSlowQueryLog.isSlow(elapsed)) {
+        weatherSlowQueryLog.log(endpoint, describe(request), queryProfile, elapsed);
       }
-      String requestJson = objectMapper.writeValueAsString(request);
-      logger.info("Received request at {} with body: {}", LocalDateTime.now(), requestJson);
-    } catch (JsonProcessingException e) {
-      logger.error("Failed to parse request body", e);
+      if (profile) {
+        return ResponseEntity.ok()
+            .headers(response.getHeaders())
+            .header("Server-Timing", queryProfile.serverTiming(elapsed))
+            .body(response.getBody());
+      }
+      return response;
+    } catch (ResponseStatusException e) {
+      status = e.getStatusCode().value();
+      throw e;
+    } finally {
+      weatherQueryMetrics.endProfile();
+      weatherAccessLog.record(accessLogEndpoint, status, start, rows, null);
     }
-    List<Map> results =
-        weatherService.queryWeatherData(
-            request.getSensorIds(),
-            request.getMetrics(),
-            request.getStats(),
-            request.getStartDate(),
-            request.getEndDate());
+  }
+
+  /**
+   * Endpoint to read running statistics of each sensor, maintained in memory as readings are saved,
+   * for the current hour, the current day (since midnight) or a rolling window of recent minutes.
+   * Besides the query stats, variance, stddev and count are available at no extra cost.
+   *
+   * @param sensorIds the sensors to include; every sensor if omitted.
+   * @param metrics the metrics to include; every metric if omitted.
+   * @param stats the stats to include; average, min and max if omitted.
+   * @param window hour, day or rolling; day if omitted.
+   * @return one row per sensor with readings in the window, including when the statistics start.
+   *     <p>Example usage: curl -X GET
+   *     "http://localhost:8080/api/weather/stats/live?sensorIds=sensor1&stats=average,stddev"
+   */
+  @GetMapping("/stats/live")
+  public List<Map<String, Object>> getLiveStats(
+      @RequestParam(required = false) List<String> sensorIds,
+      @RequestParam(required = false) List<String> metrics,
+      @RequestParam(required = false) List<String> stats,
+      @RequestParam(defaultValue = "day") String window) {
+    return weatherService.getLiveStats(sensorIds, metrics, stats, window);
+  }
 
-    return ResponseEntity.ok(results);
+  /**
+   * Endpoint to follow newly saved readings as Server-Sent Events, instead of polling. Each reading
+   * is sent as a "reading" event holding the reading as JSON. A subscriber that falls behind
+   * receives only the newest reading of each sensor.
+   *
+   * @param sensorIds the sensors to follow; every sensor if omitted.
+   * @param location the location to follow; every location if omitted.
+   * @return the event stream.
+   *     <p>Example usage: curl -N "http://localhost:8080/api/weather/live?location=Galway"
+   */
+  @GetMapping(value = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter followReadings(
+      @RequestParam(required = false) List<String> sensorIds,
+      @RequestParam(required = false) String location) {
+    return weatherService.subscribeToReadings(sensorIds, location);
   }
 
   /**
    * Endpoint to save new weather metric data to the database.
    *
    * @param request weather data to save.
-   * @return ResponseEntity object with descriptive string and Http response status.
+   * @return ResponseEntity object with descriptive string and Http response status. The status is
+   *     201 if the data was saved, 202 if it was queued by the write-behind buffer, or 429 if the
+   *     write-behind buffer is full.
    *     <p>Example usage:
    *     <p>curl -X POST http://localhost:8080/api/weather/save -H "Content-Type: application/json"
    *     -d '{ "sensorId": "sensor10", "location": "Galway", "temperature": 18.5, "humidity": 60,
@@ -114,6 +446,7 @@ public class WeatherController {
   @PostMapping("/save")
   public ResponseEntity<Object> saveWeatherData(
       @Valid @RequestBody WeatherSaveRequest request, BindingResult bindingResult) {
+    long start = System.nanoTime();
     try {
       if (bindingResult.hasErrors()) {
         Map<String, String> errorResponse = new HashMap<>();
@@ -121,27 +454,449 @@ public class WeatherController {
           errorResponse.put("message", fieldError.getDefaultMessage());
           logger.error("Validation failed: {}", fieldError.getDefaultMessage());
         }
+        weatherAccessLog.record(
+            WeatherAccessLog.Endpoint.SAVE,
+            HttpStatus.BAD_REQUEST.value(),
+            start,
+            0,
+            request.getSensorId());
 
         return ResponseEntity.badRequest().body(errorResponse);
       }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Received reading: {}", objectMapper.writeValueAsString(request));
+      }
 
-      WeatherData weatherData = new WeatherData();
-      weatherData.setSensorId(request.getSensorId());
-      weatherData.setLocation(request.getLocation());
-      weatherData.setTemperature(request.getTemperature());
-      weatherData.setHumidity(request.getHumidity());
-      weatherData.setWindspeed(request.getWindspeed());
-      weatherData.setPressure(request.getPressure());
-      weatherData.setTimestamp(LocalDateTime.now());
-      weatherService.saveWeatherData(weatherData);
-      String requestJson = objectMapper.writeValueAsString(request);
-      logger.info("Received request at {} with body: {}", LocalDateTime.now(), requestJson);
+      boolean queued = weatherService.saveWeatherData(toWeatherData(request));
       Map<String, String> successResponse = new HashMap<>();
-      successResponse.put("message", "Weather data saved successfully");
-      return ResponseEntity.status(HttpStatus.CREATED).body(successResponse);
+      HttpStatus status;
+      if (queued) {
+        successResponse.put("message", "Weather data accepted for saving");
+        status = HttpStatus.ACCEPTED;
+      } else {
+        successResponse.put("message", "Weather data saved successfully");
+        status = HttpStatus.CREATED;
+      }
+      weatherAccessLog.record(
+          WeatherAccessLog.Endpoint.SAVE, status.value(), start, 1, request.getSensorId());
+      return ResponseEntity.status(status).body(successResponse);
+    } catch (ResponseStatusException e) {
+      weatherAccessLog.record(
+          WeatherAccessLog.Endpoint.SAVE,
+          e.getStatusCode().value(),
+          start,
+          0,
+          request.getSensorId());
+      throw e;
     } catch (Exception e) {
       logger.info("Failed to parse request body", e);
+      weatherAccessLog.record(
+          WeatherAccessLog.Endpoint.SAVE,
+          HttpStatus.BAD_REQUEST.value(),
+          start,
+          0,
+          request.getSensorId());
       return ResponseEntity.badRequest().body("Failed to save weather data");
     }
   }
+
+  /**
+   * Endpoint to save a batch of weather metric readings, supplied as a JSON array. The array is
+   * read one reading at a time and each is bound and validated individually, then all valid
+   * readings are written with a single unordered bulk insert, so one bad reading (including one
+   * with a field of the wrong type) does not reject the whole batch.
+   *
+   * @param body the request body stream.
+   * @return ResponseEntity holding the result of each reading. The status is 201 if every reading
+   *     was saved, or 207 if one or more readings were rejected.
+   *     <p>Example usage:
+   *     <p>curl -X POST http://localhost:8080/api/weather/save/batch -H "Content-Type:
+   *     application/json" -d '[{ "sensorId": "sensor10", "location": "Galway", "temperature": 18.5,
+   *     "humidity": 60, "windspeed": 10, "pressure": 1015 }]'
+   */
+  @PostMapping(value = "/save/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Object> saveWeatherDataBatch(InputStream body) throws IOException {
+    long start = System.nanoTime();
+    SaveBatch batch = new SaveBatch();
+    try (JsonParser parser = responseMapper.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        return rejectBatch("Expected a JSON array of readings", start);
+      }
+      for (JsonToken token = parser.nextToken();
+          token != JsonToken.END_ARRAY && !batch.isFull();
+          token = parser.nextToken()) {
+        // Bind one element at a time, so that a reading with a field of the wrong type is
+        // rejected on its own rather than failing the whole array
+        JsonNode element = parser.readValueAsTree();
+        try {
+          batch.add(responseMapper.treeToValue(element, WeatherSaveRequest.class));
+        } catch (JsonProcessingException e) {
+          batch.reject("Malformed reading");
+        }
+      }
+    } catch (JsonProcessingException e) {
+      return rejectBatch("Malformed batch: " + e.getOriginalMessage(), start);
+    }
+    return saveBatch(batch, start);
+  }
+
+  /**
+   * Endpoint to save a batch of weather metric readings, supplied as newline delimited JSON (one
+   * reading per line). Lines that cannot be parsed are reported as rejected rather than failing the
+   * whole batch.
+   *
+   * @param body the request body stream.
+   * @return ResponseEntity holding the result of each reading.
+   *     <p>Example usage:
+   *     <p>curl -X POST http://localhost:8080/api/weather/save/batch -H "Content-Type:
+   *     application/x-ndjson" --data-binary @readings.ndjson
+   */
+  @PostMapping(value = "/save/batch", consumes = APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<Object> saveWeatherDataBatchNdjson(InputStream body) throws IOException {
+    long start = System.nanoTime();
+    SaveBatch batch = new SaveBatch();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    String line;
+    while (!batch.isFull() && (line = reader.readLine()) != null) {
+      if (line.isBlank()) {
+        continue;
+      }
+      try {
+        // The same mapper as the JSON array, so both accept the same readings
+        batch.add(responseMapper.readValue(line, WeatherSaveRequest.class));
+      } catch (JsonProcessingException e) {
+        batch.reject("Malformed reading");
+      }
+    }
+    return saveBatch(batch, start);
+  }
+
+  /**
+   * Endpoint to import readings in bulk from CSV or newline delimited JSON, with their own
+   * timestamps, for backfilling historical data. The body is parsed as it streams in and written
+   * with parallel bulk inserts, and progress is checkpointed under the import id, so posting the
+   * same body with the same id resumes an interrupted import.
+   *
+   * @param id the import id; a new one is generated if omitted.
+   * @param contentType the Content-Type header, text/csv or application/x-ndjson.
+   * @param body the request body stream.
+   * @return ResponseEntity holding the totals of the import and the first rejected records. The
+   *     status is 201 if every record was imported, or 207 if any were rejected or failed.
+   *     <p>Example usage: curl -X POST "http://localhost:8080/api/weather/import?id=backfill-2023"
+   *     -H "Content-Type: text/csv" --data-binary @readings-2023.csv
+   */
+  @PostMapping(value = "/import", consumes = {TEXT_CSV_VALUE, APPLICATION_NDJSON_VALUE})
+  public ResponseEntity<WeatherImportResponse> importWeatherData(
+      @RequestParam(required = false) String id,
+      @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+      InputStream body) {
+    long start = System.nanoTime();
+    WeatherReadingParser.Format format =
+        MediaType.parseMediaType(contentType).isCompatibleWith(NDJSON)
+            ? WeatherReadingParser.Format.NDJSON
+            : WeatherReadingParser.Format.CSV;
+    int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    long imported = 0;
+    try {
+      WeatherImportResponse response =
+          weatherBulkImport.importReadings(
+              id != null ? id : UUID.randomUUID().toString(), format, body);
+      HttpStatus httpStatus =
+          response.getFailed() == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+      status = httpStatus.value();
+      imported = response.getImported();
+      return ResponseEntity.status(httpStatus).body(response);
+    } catch (ResponseStatusException e) {
+      status = e.getStatusCode().value();
+      throw e;
+    } finally {
+      weatherAccessLog.record(
+          WeatherAccessLog.Endpoint.IMPORT,
+          status,
+          start,
+          (int) Math.min(imported, Integer.MAX_VALUE),
+          null);
+    }
+  }
+
+  /**
+   * Saves the valid readings of a batch and builds the per-reading results.
+   *
+   * @param batch the parsed and validated readings.
+   * @param start the value of {@link System#nanoTime()} when the request started.
+   * @return ResponseEntity holding the result of each reading.
+   */
+  private ResponseEntity<Object> saveBatch(SaveBatch batch, long start) {
+    if (batch.isFull()) {
+      Map<String, String> errorResponse = new HashMap<>();
+      errorResponse.put("message", "Batch exceeds the maximum of " + maxBatchSize + " readings");
+      weatherAccessLog.record(
+          WeatherAccessLog.Endpoint.SAVE_BATCH,
+          HttpStatus.PAYLOAD_TOO_LARGE.value(),
+          start,
+          batch.size,
+          null);
+      return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(errorResponse);
+    }
+
+    WeatherSaveResult[] results = new WeatherSaveResult[batch.size];
+    for (WeatherSaveResult rejected : batch.rejected) {
+      results[rejected.getIndex()] = rejected;
+    }
+    Map<Integer, String> failures = weatherService.saveAllWeatherData(batch.validReadings);
+    for (int i = 0; i < batch.validIndexes.size(); i++) {
+      int index = batch.validIndexes.get(i);
+      String failure = failures.get(i);
+      results[index] =
+          failure == null
+              ? new WeatherSaveResult(
+                  index, HttpStatus.CREATED.value(), "Weather data saved successfully")
+              : new WeatherSaveResult(
+                  index, HttpStatus.INTERNAL_SERVER_ERROR.value(), "Failed to save weather data");
+      if (failure != null) {
+        logger.error("Failed to save reading {} of batch: {}", index, failure);
+      }
+    }
+
+    int saved = batch.validIndexes.size() - failures.size();
+    int failed = batch.size - saved;
+    HttpStatus status = failed == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS;
+    weatherAccessLog.record(
+        WeatherAccessLog.Endpoint.SAVE_BATCH, status.value(), start, batch.size, null);
+    return ResponseEntity.status(status)
+        .body(new WeatherBatchSaveResponse(saved, failed, List.of(results)));
+  }
+
+  /**
+   * Rejects a batch whose body is not a JSON array of readings.
+   *
+   * @param message the reason the batch was rejected.
+   * @param start the value of {@link System#nanoTime()} when the request started.
+   * @return ResponseEntity with status 400 holding the message.
+   */
+  private ResponseEntity<Object> rejectBatch(String message, long start) {
+    weatherAccessLog.record(
+        WeatherAccessLog.Endpoint.SAVE_BATCH, HttpStatus.BAD_REQUEST.value(), start, 0, null);
+    Map<String, String> errorResponse = new HashMap<>();
+    errorResponse.put("message", message);
+    return ResponseEntity.badRequest().body(errorResponse);
+  }
+
+  /**
+   * Checks that a requested page size is within the allowed range.
+   *
+   * @param limit the requested page size.
+   * @throws ResponseStatusException with status 400 if the page size is out of range.
+   */
+  private void checkPageLimit(int limit) {
+    if (limit < 1 || limit > maxPageLimit) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST, "Limit must be between 1 and " + maxPageLimit);
+    }
+  }
+
+  /**
+   * Validates a single reading of a batch.
+   *
+   * @param request the reading to validate.
+   * @return the validation failure messages, or null if the reading is valid.
+   */
+  private String validate(WeatherSaveRequest request) {
+    if (request == null) {
+      return "Reading is required";
+    }
+    Set<ConstraintViolation<WeatherSaveRequest>> violations = validator.validate(request);
+    if (violations.isEmpty()) {
+      return null;
+    }
+    Set<String> messages = new TreeSet<>();
+    for (ConstraintViolation<WeatherSaveRequest> violation : violations) {
+      messages.add(violation.getMessage());
+    }
+    return String.join(", ", messages);
+  }
+
+  /**
+   * Converts a save request into a weather data record, timestamped with the current time.
+   *
+   * @param request the validated save request.
+   * @return the weather data record to store.
+   */
+  private static WeatherData toWeatherData(WeatherSaveRequest request) {
+    WeatherData weatherData = new WeatherData();
+    weatherData.setSensorId(request.getSensorId());
+    weatherData.setLocation(request.getLocation());
+    weatherData.setTemperature(request.getTemperature());
+    weatherData.setHumidity(request.getHumidity());
+    weatherData.setWindspeed(request.getWindspeed());
+    weatherData.setPressure(request.getPressure());
+    weatherData.setTimestamp(LocalDateTime.now());
+    return weatherData;
+  }
+
+  /**
+   * Picks the binary format to export in, taking the first of CBOR and Smile the Accept header
+   * names.
+   *
+   * @param accept the Accept header.
+   * @return application/cbor or application/x-jackson-smile.
+   */
+  private static MediaType binaryFormat(String accept) {
+    for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+      if (mediaType.isCompatibleWith(MediaType.APPLICATION_CBOR)) {
+        return MediaType.APPLICATION_CBOR;
+      }
+      if (mediaType.isCompatibleWith(SMILE)) {
+        return SMILE;
+      }
+    }
+    return MediaType.APPLICATION_CBOR;
+  }
+
+  /**
+   * Picks the format of a query response, taking the most preferred of JSON, CBOR and Smile the
+   * Accept header names. JSON is used when there is no Accept header or it accepts anything.
+   *
+   * @param accept the Accept header, or null.
+   * @return application/json, application/cbor or application/x-jackson-smile.
+   * @throws ResponseStatusException with status 406 if the header accepts none of them.
+   */
+  private static MediaType queryFormat(String accept) {
+    if (accept == null) {
+      return MediaType.APPLICATION_JSON;
+    }
+    List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+    mediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+    for (MediaType mediaType : mediaTypes) {
+      for (MediaType format : QUERY_FORMATS) {
+        if (mediaType.isCompatibleWith(format)) {
+          return format;
+        }
+      }
+    }
+    throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Unsupported response format");
+  }
+
+  /**
+   * Describes a query request for the slow query log and debug logging.
+   *
+   * @param request the request.
+   * @return the request as JSON.
+   */
+  private static String describe(WeatherQueryRequest request) {
+    try {
+      return objectMapper.writeValueAsString(request);
+    } catch (JsonProcessingException e) {
+      return "unavailable";
+    }
+  }
+
+  /**
+   * Returns the object mapper that writes a format, configured like the message converter for it.
+   *
+   * @param format JSON, newline delimited JSON, CBOR or Smile.
+   * @return the object mapper.
+   */
+  private ObjectMapper mapperFor(MediaType format) {
+    if (format.equals(MediaType.APPLICATION_CBOR)) {
+      return cborConverter.getObjectMapper();
+    }
+    return format.equals(SMILE) ? smileConverter.getObjectMapper() : responseMapper;
+  }
+
+  /**
+   * Serializes a query response up front rather than leaving it to the message converters, so that
+   * the time it takes can be recorded as the serialization stage of the query.
+   *
+   * @param body the response body.
+   * @param format the format to write it in.
+   * @return ResponseEntity with the serialized body.
+   */
+  private ResponseEntity<byte[]> serialize(Object body, MediaType format) {
+    long start = System.nanoTime();
+    byte[] bytes;
+    try {
+      bytes = mapperFor(format).writeValueAsBytes(body);
+    } catch (JsonProcessingException e) {
+      throw new ResponseStatusException(
+          HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write response", e);
+    }
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.SERIALIZATION, start);
+    return ResponseEntity.ok().contentType(format).body(bytes);
+  }
+
+  /**
+   * Builds a response that writes records to the client one at a time as they are read from the
+   * stream, closing the stream (and its database cursor) once done.
+   *
+   * @param weatherData the records to write.
+   * @param format newline delimited JSON, or a JSON, CBOR or Smile array.
+   * @return ResponseEntity with the streaming body.
+   */
+  private ResponseEntity<StreamingResponseBody> stream(
+      Stream<WeatherData> weatherData, MediaType format) {
+    ObjectWriter writer =
+        mapperFor(format).writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    boolean ndjson = format.equals(NDJSON);
+    StreamingResponseBody body =
+        outputStream -> {
+          try (weatherData;
+              SequenceWriter sequenceWriter =
+                  ndjson
+                      ? writer
+                          .withRootValueSeparator("\n")
+                          .writeValues(StreamUtils.nonClosing(outputStream))
+                      : writer.writeValuesAsArray(StreamUtils.nonClosing(outputStream))) {
+            Iterator<WeatherData> records = weatherData.iterator();
+            while (records.hasNext()) {
+              sequenceWriter.write(records.next());
+            }
+          }
+        };
+    return ResponseEntity.ok().contentType(format).body(body);
+  }
+
+  /**
+   * Builds a response that writes records to the client as CSV as they are read from the stream,
+   * closing the stream (and its database cursor) once done.
+   *
+   * @param weatherData the records to write.
+   * @return ResponseEntity with the streaming body.
+   */
+  private ResponseEntity<StreamingResponseBody> exportCsv(Stream<WeatherData> weatherData) {
+    StreamingResponseBody body =
+        outputStream ->
+            weatherBulkExport.export(weatherData, WeatherReadingParser.Format.CSV, outputStream);
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(TEXT_CSV_VALUE)).body(body);
+  }
+
+  // The readings of a batch as they are parsed. Each is validated and converted on arrival, so only
+  // the valid readings and the rejections are held rather than every parsed request.
+  private final class SaveBatch {
+    private final List<WeatherSaveResult> rejected = new ArrayList<>();
+    private final List<WeatherData> validReadings = new ArrayList<>();
+    private final List<Integer> validIndexes = new ArrayList<>();
+    private int size;
+
+    // Validates the next reading and keeps it if it is valid.
+    private void add(WeatherSaveRequest request) {
+      String error = validate(request);
+      if (error != null) {
+        reject(error);
+      } else {
+        validReadings.add(toWeatherData(request));
+        validIndexes.add(size++);
+      }
+    }
+
+    // Rejects the next reading.
+    private void reject(String message) {
+      rejected.add(new WeatherSaveResult(size++, HttpStatus.BAD_REQUEST.value(), message));
+    }
+
+    // Whether the batch has grown past the maximum size, at which point parsing stops.
+    private boolean isFull() {
+      return size > maxBatchSize;
+    }
+  }
 }
@@ -0,0 +1,101 @@
+package org.orourked.weatherapi.database;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.bson.Document;
+import org.orourked.weatherapi.model.SensorResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Reactive counterpart of {@link WeatherAggregation}, running the same pipelines through the
+ * reactive MongoDB driver. Latest reading queries read the maintained latest readings once they
+ * are ready, and date range queries are answered from the hot tier when it holds the whole range.
+ * Date range queries are routed to the rollups the same way as on the blocking path, which they
+ * must be once raw readings have been compacted into them; combining rollups with the raw edges
+ * takes several dependent queries that are only implemented on the blocking path, so these run
+ * there, on the bounded elastic scheduler, as do queries over {@link WeatherPartitions
+ * partitioned} readings. Other queries aggregate the raw readings. Only created when
+ * weather.reactive.enabled is set.
+ */
+@Repository
+@ConditionalOnProperty(name = "weather.reactive.enabled", havingValue = "true")
+public class ReactiveWeatherAggregation {
+  @Autowired private ReactiveMongoTemplate reactiveMongoTemplate;
+  @Autowired private WeatherAggregation weatherAggregation;
+  @Autowired private WeatherLatest weatherLatest;
+  @Autowired private WeatherHotTier weatherHotTier;
+  @Autowired private WeatherPartitions weatherPartitions;
+  @Autowired private WeatherRollups weatherRollups;
+
+  /**
+   * Queries weather data statistics, or the latest readings when no date range is given.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
+   * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query.
+   * @return the result row of each sensor, emitted once the query completes.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  public Mono<List<SensorResult>> queryWeatherData(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate) {
+    boolean hasDateRange = startDate != null && endDate != null;
+    if (hasDateRange && weatherHotTier.covers(sensorIds, startDate, endDate)) {
+      // Answered in memory in microseconds, so it is not worth moving off the calling thread.
+      return Mono.just(
+          weatherHotTier.queryWeatherData(sensorIds, metrics, stats, startDate, endDate));
+    }
+    if (!hasDateRange && weatherLatest.isReady()) {
+      return aggregate(
+          weatherAggregation.renderLatestPipeline(
+              sensorIds, metrics, reactiveMongoTemplate.getConverter()),
+          WeatherLatest.COLLECTION,
+          SensorResult.Columns.of(metrics));
+    }
+    if (weatherPartitions.isEnabled()
+        || (hasDateRange
+            && (weatherRollups.isEnabled() || weatherRollups.getCompactedUntil() != null))) {
+      return Mono.fromCallable(
+              () ->
+                  weatherAggregation.queryWeatherData(
+                      sensorIds, metrics, stats, startDate, endDate))
+          .subscribeOn(Schedulers.boundedElastic());
+    }
+    return aggregate(
+        weatherAggregation.renderQueryPipeline(
+            sensorIds, metrics, stats, startDate, endDate, reactiveMongoTemplate.getConverter()),
+        "weatherData",
+        hasDateRange ? SensorResult.Columns.of(metrics, stats) : SensorResult.Columns.of(metrics));
+  }
+
+  /**
+   * Runs a pipeline, decoding the returned documents straight into result rows.
+   *
+   * @param stages the rendered pipeline.
+   * @param collection the collection to aggregate.
+   * @param columns the value columns the pipeline projects.
+   * @return the result rows, emitted once the query completes.
+   */
+  private Mono<List<SensorResult>> aggregate(
+      List<Document> stages, String collection, SensorResult.Columns columns) {
+    SensorResultCodec codec = new SensorResultCodec(columns);
+    return reactiveMongoTemplate
+        .execute(
+            collection,
+            mongoCollection ->
+                mongoCollection
+                    .withCodecRegistry(codec.registry(mongoCollection.getCodecRegistry()))
+                    .aggregate(stages, SensorResult.class))
+        .collectList();
+  }
+}
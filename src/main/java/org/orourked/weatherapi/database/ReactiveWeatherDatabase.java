@@ -0,0 +1,22 @@
+package org.orourked.weatherapi.database;
+
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+/**
+ * Reactive counterpart of {@link WeatherDatabase}, reading weather data records through the
+ * reactive MongoDB driver without blocking a thread while waiting for the database.
+ */
+@Repository
+public interface ReactiveWeatherDatabase extends ReactiveMongoRepository<WeatherData, String> {
+  /**
+   * Finds the WeatherData records that match the specified location.
+   *
+   * @param location the location to search for in the WeatherData collection
+   * @return the WeatherData objects associated with the specified location, emitted as they are
+   *     read
+   */
+  Flux<WeatherData> findByLocation(String location);
+}
@@ -0,0 +1,111 @@
+package org.orourked.weatherapi.database;
+
+import java.util.Date;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.orourked.weatherapi.model.SensorResult;
+
+/**
+ * Decodes the documents returned by the query pipelines straight from BSON into {@link
+ * SensorResult} rows, reading each numeric field into its column without building a Document or
+ * boxing the value. Fields that are not columns of the query are skipped. Rows are encoded in the
+ * same shape as the pipeline documents (sensorId, timestamp when set, then each column, with null
+ * for a missing value), so a row written back, such as into a cache collection, decodes to an equal
+ * row.
+ */
+class SensorResultCodec implements Codec<SensorResult> {
+
+  private final SensorResult.Columns columns;
+
+  SensorResultCodec(SensorResult.Columns columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * Builds a codec registry that decodes rows with this codec and everything else with a base
+   * registry, for use with {@code withCodecRegistry} on a collection.
+   *
+   * @param base the collection's own registry.
+   * @return the combined registry.
+   */
+  CodecRegistry registry(CodecRegistry base) {
+    return CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(this), base);
+  }
+
+  /**
+   * Decodes a row from a document that was read from the server as raw BSON.
+   *
+   * @param document the document.
+   * @return the row.
+   */
+  SensorResult decode(RawBsonDocument document) {
+    return decode(document.asBsonReader(), DecoderContext.builder().build());
+  }
+
+  @Override
+  public SensorResult decode(BsonReader reader, DecoderContext decoderContext) {
+    String sensorId = null;
+    Date timestamp = null;
+    double[] values = columns.newValues();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      BsonType type = reader.getCurrentBsonType();
+      if ("sensorId".equals(name) && type == BsonType.STRING) {
+        sensorId = reader.readString();
+      } else if ("timestamp".equals(name) && type == BsonType.DATE_TIME) {
+        timestamp = new Date(reader.readDateTime());
+      } else {
+        int column = columns.indexOf(name);
+        if (column >= 0 && type == BsonType.DOUBLE) {
+          values[column] = reader.readDouble();
+        } else if (column >= 0 && type == BsonType.INT32) {
+          values[column] = reader.readInt32();
+        } else if (column >= 0 && type == BsonType.INT64) {
+          values[column] = reader.readInt64();
+        } else if (column >= 0 && type == BsonType.DECIMAL128) {
+          values[column] = reader.readDecimal128().doubleValue();
+        } else {
+          reader.skipValue();
+        }
+      }
+    }
+    reader.readEndDocument();
+    return new SensorResult(sensorId, timestamp, columns, values);
+  }
+
+  @Override
+  public void encode(BsonWriter writer, SensorResult value, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    if (value.getSensorId() == null) {
+      writer.writeNull("sensorId");
+    } else {
+      writer.writeString("sensorId", value.getSensorId());
+    }
+    if (value.getTimestamp() != null) {
+      writer.writeDateTime("timestamp", value.getTimestamp().getTime());
+    }
+    SensorResult.Columns resultColumns = value.getColumns();
+    for (int column = 0; column < resultColumns.size(); column++) {
+      double columnValue = value.getValue(column);
+      if (Double.isNaN(columnValue)) {
+        writer.writeNull(resultColumns.name(column));
+      } else {
+        writer.writeDouble(resultColumns.name(column), columnValue);
+      }
+    }
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<SensorResult> getEncoderClass() {
+    return SensorResult.class;
+  }
+}
@@ -1,43 +1,251 @@
 package org.orourked.weatherapi.database;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.orourked.weatherapi.model.SensorResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
-import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.GroupOperation;
 import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
 import org.springframework.data.mongodb.core.aggregation.SortOperation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class WeatherAggregation {
   @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherRollups weatherRollups;
+  @Autowired private WeatherQueryPlans weatherQueryPlans;
+  @Autowired private WeatherLatest weatherLatest;
+  @Autowired private WeatherHotTier weatherHotTier;
+  @Autowired private WeatherQueryExecutor weatherQueryExecutor;
+  @Autowired private WeatherQueryMetrics weatherQueryMetrics;
+  @Autowired private WeatherPartitions weatherPartitions;
+
+  // Rendered pipeline stages that follow the $match stages, keyed by the shape of the query.
+  private final Cache<List<Object>, List<Document>> pipelineTemplates =
+      Caffeine.newBuilder().maximumSize(1000).build();
 
   /**
    * Queries weather data based on: one, more or all sensor IDs metrics such as temperature
    * statistics such as min, max or average date range. Builds an aggregation pipeline to filter,
-   * sort, group, and project data for a MongoDB collection.
+   * sort, group, and project data for a MongoDB collection. Date range queries are answered from
+   * the in-process hot tier when it holds the whole range, otherwise from the pre-aggregated rollups
+   * where these are maintained, and latest reading queries from the maintained latest reading of
+   * each sensor. Queries over many sensors run as parallel queries over chunks of the sensors.
+   * When readings are {@link WeatherPartitions partitioned}, date range queries merge summaries of
+   * the overlapping partitions and latest reading queries read the newest partitions first. Date
+   * range queries always go through the rollups once raw readings have been compacted into them.
    *
    * @param sensorIds List of sensor IDs to include in the results.
    * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
    * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
    * @param startDate Start date for the query.
    * @param endDate End date for the query.
-   * @return List of results mapped as a list of key-value pairs.
+   * @return the result row of each sensor, ordered by sensorId.
    */
-  public List<Map> queryWeatherData(
+  public List<SensorResult> queryWeatherData(
       List<String> sensorIds,
       List<String> metrics,
       List<String> stats,
       LocalDate startDate,
       LocalDate endDate) {
 
+    boolean hasDateRange = startDate != null && endDate != null;
+    if (hasDateRange && weatherHotTier.covers(sensorIds, startDate, endDate)) {
+      return weatherHotTier.queryWeatherData(sensorIds, metrics, stats, startDate, endDate);
+    }
+    if (hasDateRange
+        && (weatherRollups.isEnabled()
+            || weatherRollups.getCompactedUntil() != null
+            || weatherPartitions.isEnabled())) {
+      return weatherRollups.queryWeatherData(sensorIds, metrics, stats, startDate, endDate);
+    }
+    if (!hasDateRange && weatherLatest.isReady()) {
+      return queryLatestWeatherData(sensorIds, metrics, stats);
+    }
+    if (!hasDateRange && weatherPartitions.isEnabled()) {
+      return queryLatestPartitioned(sensorIds, metrics, stats);
+    }
+
+    return aggregateInChunks(
+        sensorIds,
+        chunk ->
+            renderQueryPipeline(
+                chunk, metrics, stats, startDate, endDate, mongoTemplate.getConverter()),
+        "weatherData",
+        hasDateRange ? SensorResult.Columns.of(metrics, stats) : SensorResult.Columns.of(metrics));
+  }
+
+  /**
+   * Runs an aggregation pipeline over chunks of the sensors in parallel. Every pipeline ends by
+   * sorting on sensorId and the chunks are in sensor order, so the concatenated results are too.
+   * The returned documents are kept as raw BSON until the cursor is drained and then decoded
+   * straight into result rows by a {@link SensorResultCodec}, so that the time spent on the server
+   * and the time spent mapping the results are recorded as separate stages.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param pipeline renders the pipeline for one chunk of sensor IDs.
+   * @param collection the collection to aggregate.
+   * @param columns the value columns the pipeline projects.
+   * @return the result rows.
+   */
+  private List<SensorResult> aggregateInChunks(
+      List<String> sensorIds,
+      Function<List<String>, List<Document>> pipeline,
+      String collection,
+      SensorResult.Columns columns) {
+    SensorResultCodec codec = new SensorResultCodec(columns);
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.currentProfile();
+    List<SensorResult> results = new ArrayList<>();
+    for (List<SensorResult> partial :
+        weatherQueryExecutor.fanOut(
+            sensorIds,
+            chunk -> {
+              long start = System.nanoTime();
+              List<Document> stages = pipeline.apply(chunk);
+              weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.PIPELINE, start);
+              if (profile != null) {
+                profile.addPipeline(collection, stages);
+              }
+              // Check the query plan when diagnostics are enabled, then execute the aggregation.
+              weatherQueryPlans.check(stages, collection);
+              start = System.nanoTime();
+              List<RawBsonDocument> documents =
+                  mongoTemplate.execute(
+                      collection,
+                      mongoCollection ->
+                          mongoCollection
+                              .aggregate(stages, RawBsonDocument.class)
+                              .into(new ArrayList<>()));
+              weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.EXECUTION, start);
+              start = System.nanoTime();
+              List<SensorResult> rows = new ArrayList<>(documents.size());
+              for (RawBsonDocument document : documents) {
+                rows.add(codec.decode(document));
+              }
+              weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.MAPPING, start);
+              return rows;
+            })) {
+      results.addAll(partial);
+    }
+    return results;
+  }
+
+  /**
+   * Renders the pipeline that computes the query results from the raw readings, as sent to the
+   * server. Only the $match stages depend on the sensors and dates; the stages after them depend
+   * only on the metrics, the stats and whether there is a date range, so they are built and
+   * rendered once per query shape and reused.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
+   * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query.
+   * @param converter the converter of the template that runs the pipeline.
+   * @return the pipeline stages.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  List<Document> renderQueryPipeline(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate,
+      MongoConverter converter) {
+    boolean hasDateRange = startDate != null && endDate != null;
+    // Stats are not used without a date range, so they are left out of the key.
+    List<Object> key = Arrays.asList("query", metrics, hasDateRange ? stats : null, hasDateRange);
+    List<Document> template =
+        pipelineTemplates.get(
+            key,
+            k -> {
+              List<Document> stages =
+                  WeatherQueryPlans.toPipeline(
+                      buildQueryPipeline(List.of(), metrics, stats, startDate, endDate),
+                      converter);
+              return List.copyOf(stages.subList(hasDateRange ? 2 : 1, stages.size()));
+            });
+    List<Document> pipeline = new ArrayList<>(template.size() + 2);
+    pipeline.add(new Document("$match", new Document("sensorId", new Document("$in", sensorIds))));
+    if (hasDateRange) {
+      pipeline.add(
+          new Document(
+              "$match",
+              new Document(
+                  "timestamp",
+                  new Document("$gte", toDate(startDate)).append("$lte", toDate(endDate)))));
+    }
+    pipeline.addAll(template);
+    return pipeline;
+  }
+
+  /**
+   * Renders the pipeline that reads the latest reading of each sensor, reusing the stages after
+   * the $match stage for each set of metrics.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per sensor.
+   * @param converter the converter of the template that runs the pipeline.
+   * @return the pipeline stages.
+   */
+  List<Document> renderLatestPipeline(
+      List<String> sensorIds, List<String> metrics, MongoConverter converter) {
+    List<Document> template =
+        pipelineTemplates.get(
+            Arrays.asList("latest", metrics),
+            k -> {
+              List<Document> stages =
+                  WeatherQueryPlans.toPipeline(
+                      buildLatestPipeline(List.of(), metrics, null), converter);
+              return List.copyOf(stages.subList(1, stages.size()));
+            });
+    List<Document> pipeline = new ArrayList<>(template.size() + 1);
+    pipeline.add(new Document("$match", new Document("_id", new Document("$in", sensorIds))));
+    pipeline.addAll(template);
+    return pipeline;
+  }
+
+  // Converts a date to the start of that day, the way MongoTemplate converts dates in queries.
+  private static Date toDate(LocalDate date) {
+    return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+  }
+
+  /**
+   * Builds the aggregation pipeline that computes the query results from the raw readings.
+   * Package-private so that it can be shared with {@link ReactiveWeatherAggregation} and
+   * benchmarked on its own.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
+   * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query.
+   * @return Aggregation pipeline for the query.
+   */
+  Aggregation buildQueryPipeline(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate) {
     // Define the various stages of the aggregation pipeline.
     AggregationOperation matchOperation = createMatchOperation(sensorIds);
     AggregationOperation dateFilterOperation = createDateFilterOperation(startDate, endDate);
@@ -47,20 +255,83 @@ public class WeatherAggregation {
         createProjectionOperation(metrics, stats, startDate, endDate);
 
     // Build the aggregation pipeline.
-    Aggregation aggregation =
-        buildAggregationPipeline(
-            matchOperation,
-            dateFilterOperation,
-            sortOperation,
-            groupOperation,
-            projectOperation,
-            startDate,
-            endDate);
+    return buildAggregationPipeline(
+        matchOperation,
+        dateFilterOperation,
+        sortOperation,
+        groupOperation,
+        projectOperation,
+        startDate,
+        endDate);
+  }
 
-    // Execute the aggregation.
-    AggregationResults<Map> results =
-        mongoTemplate.aggregate(aggregation, "weatherData", Map.class);
-    return results.getMappedResults();
+  /**
+   * Queries the latest reading of each sensor from the maintained latest readings.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per sensor.
+   * @param stats List of statistics, unused for latest readings.
+   * @return the latest reading of each sensor, ordered by sensorId.
+   */
+  private List<SensorResult> queryLatestWeatherData(
+      List<String> sensorIds, List<String> metrics, List<String> stats) {
+    return aggregateInChunks(
+        sensorIds,
+        chunk -> renderLatestPipeline(chunk, metrics, mongoTemplate.getConverter()),
+        WeatherLatest.COLLECTION,
+        SensorResult.Columns.of(metrics));
+  }
+
+  /**
+   * Queries the latest reading of each sensor from the partitioned raw readings, newest partition
+   * first, only reading older partitions for the sensors that have no reading in the newer ones.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per sensor.
+   * @param stats List of statistics, unused for latest readings.
+   * @return the latest reading of each sensor, ordered by sensorId.
+   */
+  private List<SensorResult> queryLatestPartitioned(
+      List<String> sensorIds, List<String> metrics, List<String> stats) {
+    List<String> collections = new ArrayList<>(weatherPartitions.collectionsFor(null, null));
+    Collections.reverse(collections);
+    Map<String, SensorResult> latest = new TreeMap<>();
+    List<String> remaining = sensorIds;
+    for (String collection : collections) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      for (SensorResult result :
+          aggregateInChunks(
+              remaining,
+              chunk ->
+                  renderQueryPipeline(
+                      chunk, metrics, stats, null, null, mongoTemplate.getConverter()),
+              collection,
+              SensorResult.Columns.of(metrics))) {
+        latest.put(result.getSensorId(), result);
+      }
+      remaining = remaining.stream().filter(sensorId -> !latest.containsKey(sensorId)).toList();
+    }
+    return new ArrayList<>(latest.values());
+  }
+
+  /**
+   * Builds the aggregation pipeline that reads the latest reading of each sensor from the {@link
+   * WeatherLatest} collection, which holds one document per sensor in the same shape as the
+   * grouped readings of the full pipeline.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per sensor.
+   * @param stats List of statistics, unused for latest readings.
+   * @return Aggregation pipeline for the query.
+   */
+  Aggregation buildLatestPipeline(
+      List<String> sensorIds, List<String> metrics, List<String> stats) {
+    return Aggregation.newAggregation(
+        Aggregation.match(Criteria.where("_id").in(sensorIds)),
+        createProjectionOperation(metrics, stats, null, null),
+        Aggregation.sort(Sort.by(Sort.Direction.ASC, "sensorId")));
   }
 
   /**
@@ -88,12 +359,15 @@ public class WeatherAggregation {
   }
 
   /**
-   * Creates a sort operation to sort the query results by timestamp in descending order.
+   * Creates a sort operation to sort the query results by sensorId, then by timestamp in descending
+   * order. Matching the {sensorId, timestamp} index lets the sort and the following group by
+   * sensorId run as a DISTINCT_SCAN that reads one entry per sensor, rather than a blocking sort.
    *
-   * @return Sort operation for timestamp field in descending order.
+   * @return Sort operation for sensorId and then timestamp field in descending order.
    */
   private SortOperation createSortOperation() {
-    return Aggregation.sort(Sort.by(Sort.Direction.DESC, "timestamp"));
+    return Aggregation.sort(
+        Sort.by(Sort.Direction.ASC, "sensorId").and(Sort.by(Sort.Direction.DESC, "timestamp")));
   }
 
   /**
@@ -113,22 +387,11 @@ public class WeatherAggregation {
       groupOperation = Aggregation.group("sensorId");
       for (String metric : metrics) {
         for (String stat : stats) {
-          switch (stat) {
-            case "average":
-              groupOperation = groupOperation.avg(metric).as("avg" + metric);
-              break;
-            case "max":
-              groupOperation = groupOperation.max(metric).as("max" + metric);
-              break;
-            case "min":
-              groupOperation = groupOperation.min(metric).as("min" + metric);
-              break;
-            case "sum":
-              groupOperation = groupOperation.sum(metric).as("sum" + metric);
-              break;
-            default:
-              throw new IllegalArgumentException("Unknown stat: " + stat);
-          }
+          String accumulator = accumulator(stat);
+          groupOperation =
+              groupOperation.and(
+                  SensorResult.statPrefix(stat) + metric,
+                  context -> new Document(accumulator, "$" + metric));
         }
       }
     } else {
@@ -163,49 +426,59 @@ public class WeatherAggregation {
     for (String metric : metrics) {
       if (startDate != null && endDate != null) {
         for (String stat : stats) {
-          switch (stat) {
-            case "average":
-              projectOperation =
-                  projectOperation
-                      .andExpression("round(avg" + metric + " * 10) / 10")
-                      .as("avg" + metric);
-              break;
-            case "max":
-              projectOperation =
-                  projectOperation
-                      .andExpression("round(max" + metric + " * 10) / 10")
-                      .as("max" + metric);
-              break;
-            case "min":
-              projectOperation =
-                  projectOperation
-                      .andExpression("round(min" + metric + " * 10) / 10")
-                      .as("min" + metric);
-              break;
-            case "sum":
-              projectOperation =
-                  projectOperation
-                      .andExpression("round(sum" + metric + " * 10) / 10")
-                      .as("sum" + metric);
-              break;
-            default:
-              throw new IllegalArgumentException("Unknown stat: " + stat);
-          }
+          String field = SensorResult.statPrefix(stat) + metric;
+          projectOperation = projectOperation.and(context -> round("$" + field)).as(field);
         }
       } else {
-        projectOperation =
-            projectOperation.andExpression("round(" + metric + " * 10) / 10").as(metric);
+        projectOperation = projectOperation.and(context -> round("$" + metric)).as(metric);
       }
     }
     return projectOperation;
   }
 
+  /**
+   * Returns the $group accumulator that computes a stat. The query, series and rollup paths all
+   * map stats through this and {@link SensorResult#statPrefix}, so they name and compute each stat
+   * the same way.
+   *
+   * @param stat the stat name.
+   * @return the accumulator operator, e.g. "$avg" for "average".
+   * @throws IllegalArgumentException if the stat is unknown.
+   */
+  static String accumulator(String stat) {
+    switch (stat) {
+      case "average":
+        return "$avg";
+      case "max":
+        return "$max";
+      case "min":
+        return "$min";
+      case "sum":
+        return "$sum";
+      default:
+        throw new IllegalArgumentException("Unknown stat: " + stat);
+    }
+  }
+
+  /**
+   * Returns an expression that rounds a value to one decimal place.
+   *
+   * @param value the field path or expression to round.
+   * @return the rounding expression.
+   */
+  static Document round(Object value) {
+    return new Document(
+        "$divide",
+        List.of(
+            new Document("$round", List.of(new Document("$multiply", List.of(value, 10)))), 10));
+  }
+
   /**
    * Builds the complete aggregation pipeline.
    *
    * @param matchOperation Initial match operation to filter by sensorId.
    * @param dateFilterOperation Optional date filter to limit by timestamp range.
-   * @param sortOperation Sort operation by timestamp in descending order.
+   * @param sortOperation Sort operation by sensorId and timestamp in descending order.
    * @param groupOperation Grouping operation to calculate metrics.
    * @param projectOperation Projection operation to include and format specific fields.
    * @param startDate Start date for the query.
@@ -0,0 +1,94 @@
+package org.orourked.weatherapi.database;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs long maintenance tasks that are started with the application in the background, such as
+ * rebuilding rollups, migrating the storage collection or seeding the latest readings. Tasks run on
+ * a small pool of named threads and their failures are logged. The pool is stopped when the
+ * application context closes, before the database connection is: running tasks are interrupted
+ * and given a grace period to finish, and tasks not yet started are dropped. Every task either
+ * checkpoints its progress or is started again on the next startup.
+ */
+@Component
+public class WeatherBackgroundTasks implements SmartLifecycle {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherBackgroundTasks.class);
+
+  private final ThreadPoolExecutor executor;
+  private final long shutdownTimeoutMillis;
+
+  private volatile boolean running = true;
+
+  @Autowired
+  public WeatherBackgroundTasks(
+      @Value("${weather.background.threads:2}") int threads,
+      @Value("${weather.background.shutdown-timeout-ms:10000}") long shutdownTimeoutMillis) {
+    this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    AtomicInteger count = new AtomicInteger();
+    // Tasks are submitted from @PostConstruct methods too, so the pool is ready from construction.
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "weather-background-" + count.getAndIncrement()));
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Runs a task in the background, logging it if it fails.
+   *
+   * @param name the name of the task, for the log.
+   * @param task the task.
+   */
+  public void submit(String name, Runnable task) {
+    try {
+      executor.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              logger.error("Background task {} failed", name, e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      logger.warn("Not starting background task {}: shutting down", name);
+    }
+  }
+
+  @Override
+  public void start() {
+    running = true;
+  }
+
+  /** Interrupts running tasks and waits up to the shutdown timeout for them to finish. */
+  @Override
+  public void stop() {
+    running = false;
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        logger.warn("Background tasks still running after {} ms", shutdownTimeoutMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+}
@@ -0,0 +1,180 @@
+package org.orourked.weatherapi.database;
+
+import com.mongodb.bulk.BulkWriteError;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Writes batches of weather data records to MongoDB using unordered bulk inserts, so that a single
+ * failing document does not prevent the rest of the batch from being stored. When readings are
+ * partitioned, the batch is split into one bulk write per {@link WeatherPartitions partition}.
+ * Publishes a {@link WeatherDataSavedEvent} for the records that were stored.
+ *
+ * <p>Records can be written again without being duplicated, as resumed imports do, by giving them
+ * ids and skipping those already stored.
+ */
+@Repository
+public class WeatherBulkWriter {
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherPartitions weatherPartitions;
+  @Autowired private ApplicationEventPublisher eventPublisher;
+
+  /**
+   * Inserts the given weather data records in a single unordered bulk write.
+   *
+   * @param weatherData the records to insert.
+   * @return the error message for each record that could not be inserted, keyed by its index in
+   *     the given list. Empty if every record was inserted.
+   */
+  public Map<Integer, String> insertAll(List<WeatherData> weatherData) {
+    return insertAll(weatherData, false);
+  }
+
+  /**
+   * Inserts the given weather data records in a single unordered bulk write, optionally skipping
+   * records whose id is already stored. Skipped records count as inserted but are not published
+   * again.
+   *
+   * @param weatherData the records to insert.
+   * @param skipExisting whether to look up the ids of the records and skip those already stored.
+   * @return the error message for each record that could not be inserted, keyed by its index in
+   *     the given list. Empty if every record was inserted or skipped.
+   */
+  public Map<Integer, String> insertAll(List<WeatherData> weatherData, boolean skipExisting) {
+    if (weatherData.isEmpty()) {
+      return Map.of();
+    }
+    Map<Integer, String> failures = new HashMap<>();
+    Set<Integer> skipped = skipExisting ? new HashSet<>() : null;
+    if (!weatherPartitions.isEnabled()) {
+      insert(weatherData, WeatherPartitions.COLLECTION, null, failures, skipped);
+    } else {
+      for (Map.Entry<String, List<Integer>> route :
+          weatherPartitions.route(weatherData).entrySet()) {
+        List<WeatherData> batch = new ArrayList<>(route.getValue().size());
+        for (int index : route.getValue()) {
+          batch.add(weatherData.get(index));
+        }
+        insert(batch, route.getKey(), route.getValue(), failures, skipped);
+      }
+    }
+    publishSaved(weatherData, failures, skipped);
+    return failures;
+  }
+
+  /**
+   * Inserts records into one collection in a single unordered bulk write.
+   *
+   * @param batch the records to insert.
+   * @param collection the collection to insert into.
+   * @param indexes the index of each record in the list passed to {@link #insertAll(List)}, or
+   *     null if the batch is that list.
+   * @param failures collects the error message of each record that could not be inserted, keyed
+   *     by its index in that list.
+   * @param skipped collects the index of each record skipped because its id is already stored, or
+   *     null to insert every record.
+   */
+  private void insert(
+      List<WeatherData> batch,
+      String collection,
+      List<Integer> indexes,
+      Map<Integer, String> failures,
+      Set<Integer> skipped) {
+    if (skipped != null) {
+      Set<String> existing = existingIds(batch, collection);
+      if (!existing.isEmpty()) {
+        List<WeatherData> remaining = new ArrayList<>(batch.size());
+        List<Integer> remainingIndexes = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+          int index = indexes == null ? i : indexes.get(i);
+          if (existing.contains(batch.get(i).getId())) {
+            skipped.add(index);
+          } else {
+            remaining.add(batch.get(i));
+            remainingIndexes.add(index);
+          }
+        }
+        if (remaining.isEmpty()) {
+          return;
+        }
+        batch = remaining;
+        indexes = remainingIndexes;
+      }
+    }
+    try {
+      mongoTemplate
+          .bulkOps(BulkOperations.BulkMode.UNORDERED, WeatherData.class, collection)
+          .insert(batch)
+          .execute();
+    } catch (BulkOperationException e) {
+      for (BulkWriteError error : e.getErrors()) {
+        failures.put(
+            indexes == null ? error.getIndex() : indexes.get(error.getIndex()),
+            error.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Finds which of the given records are already stored in a collection, by id.
+   *
+   * @param batch the records, which may lack ids.
+   * @param collection the collection to look in.
+   * @return the ids that are already stored.
+   */
+  private Set<String> existingIds(List<WeatherData> batch, String collection) {
+    List<String> ids = new ArrayList<>(batch.size());
+    for (WeatherData weatherData : batch) {
+      if (weatherData.getId() != null) {
+        ids.add(weatherData.getId());
+      }
+    }
+    Set<String> existing = new HashSet<>();
+    if (ids.isEmpty()) {
+      return existing;
+    }
+    Query query = Query.query(Criteria.where("_id").in(ids));
+    query.fields().include("_id");
+    for (WeatherData weatherData : mongoTemplate.find(query, WeatherData.class, collection)) {
+      existing.add(weatherData.getId());
+    }
+    return existing;
+  }
+
+  /**
+   * Publishes the records of a bulk insert that were written successfully.
+   *
+   * @param weatherData the records passed to the bulk insert.
+   * @param failures the records that failed, keyed by index.
+   * @param skipped the records that were already stored, or null if none were skipped.
+   */
+  private void publishSaved(
+      List<WeatherData> weatherData, Map<Integer, String> failures, Set<Integer> skipped) {
+    List<WeatherData> saved = weatherData;
+    if (!failures.isEmpty() || (skipped != null && !skipped.isEmpty())) {
+      saved = new ArrayList<>(weatherData.size());
+      for (int i = 0; i < weatherData.size(); i++) {
+        if (!failures.containsKey(i) && (skipped == null || !skipped.contains(i))) {
+          saved.add(weatherData.get(i));
+        }
+      }
+    }
+    if (!saved.isEmpty()) {
+      eventPublisher.publishEvent(new WeatherDataSavedEvent(saved));
+    }
+  }
+}
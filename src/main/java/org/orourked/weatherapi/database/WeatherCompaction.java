@@ -0,0 +1,225 @@
+package org.orourked.weatherapi.database;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Compacts raw readings older than a horizon into the hourly and daily {@link WeatherRollups},
+ * which hold the count, sum, minimum and maximum of every metric per sensor, and deletes the raw
+ * readings. Date range statistics are then read from the rollups for the compacted period, so they
+ * keep their results apart from the resolution, which becomes whole hours.
+ *
+ * <p>The job runs on a schedule and works a day at a time, oldest first: the rollups of the day are
+ * rebuilt from the raw readings if they predate the rollup coverage, the end of the day is recorded
+ * as the compaction checkpoint, from which point queries read the day from the rollups, and the raw
+ * readings of the day are deleted in batches with a pause between them, to limit the load on the
+ * database. An interrupted run resumes from the checkpoint, first finishing any deletes it left.
+ *
+ * <p>Raw readings are only deleted once the rollups are known to hold them. A day whose rollups
+ * failed to update is dirty: a dirty day before the checkpoint keeps its raw readings, since they
+ * may be the only copy of some readings, and a dirty day about to be compacted is rebuilt first.
+ * If it is marked dirty again during the rebuild, the run stops there and the next run retries it.
+ */
+@Repository
+public class WeatherCompaction {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherCompaction.class);
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherRollups weatherRollups;
+  @Autowired private WeatherPartitions weatherPartitions;
+
+  @Value("${weather.compaction.enabled:false}")
+  private boolean enabled;
+
+  @Value("${weather.compaction.horizon-days:365}")
+  private int horizonDays;
+
+  @Value("${weather.compaction.delete-batch-size:1000}")
+  private int deleteBatchSize;
+
+  @Value("${weather.compaction.delete-pause-ms:100}")
+  private long deletePauseMillis;
+
+  // Whether a run is in progress, so that a slow run is not overlapped by the next.
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  /** Compacts the raw readings older than the horizon, if compaction is enabled. */
+  @Scheduled(cron = "${weather.compaction.cron:0 0 3 * * *}")
+  public void run() {
+    if (!enabled) {
+      return;
+    }
+    if (!weatherRollups.isEnabled()) {
+      logger.warn("Compaction needs weather.rollups.enabled=true; skipping");
+      return;
+    }
+    if (!running.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      LocalDateTime horizon =
+          LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(horizonDays);
+      long deleted = compact(horizon);
+      logger.info(
+          "Compacted readings before {}, deleting {} raw readings",
+          weatherRollups.getCompactedUntil(),
+          deleted);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      logger.error("Compaction stopped; the next run resumes from its checkpoint", e);
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Compacts the raw readings before a horizon, a day at a time, skipping days without readings.
+   *
+   * @param horizon the start of the day from which raw readings are kept.
+   * @return the number of raw readings deleted.
+   * @throws InterruptedException if interrupted while pausing between deletes.
+   */
+  long compact(LocalDateTime horizon) throws InterruptedException {
+    long deleted = 0;
+    LocalDateTime compacted = weatherRollups.getCompactedUntil();
+    if (compacted != null) {
+      // Deletes left by an interrupted run, and readings saved into the compacted period since,
+      // which the rollups were updated with as they were saved unless their day is dirty.
+      deleted += deleteCleanDays(compacted);
+    }
+    LocalDateTime day = firstReadingDay(compacted);
+    while (day != null && day.isBefore(horizon)) {
+      LocalDateTime next = day.plusDays(1);
+      LocalDateTime covered = weatherRollups.getCoveredSince();
+      if (covered == null || day.isBefore(covered) || weatherRollups.getDirtyDays().contains(day)) {
+        weatherRollups.rebuild(day, next);
+      }
+      if (weatherRollups.getDirtyDays().contains(day)) {
+        logger.warn(
+            "The rollups of {} were marked dirty while rebuilding; compaction stops there",
+            day.toLocalDate());
+        break;
+      }
+      weatherRollups.markCompacted(next);
+      long dayDeleted = delete(day, next);
+      logger.debug("Compacted {} raw readings of {}", dayDeleted, day.toLocalDate());
+      deleted += dayDeleted;
+      day = firstReadingDay(next);
+    }
+    return deleted;
+  }
+
+  /**
+   * Finds the day of the oldest raw reading at or after a point in time.
+   *
+   * @param from the point to search from, or null to search every reading.
+   * @return the start of the day, or null if there are no readings.
+   */
+  private LocalDateTime firstReadingDay(LocalDateTime from) {
+    LocalDateTime first = null;
+    for (String collection : weatherPartitions.collectionsFor(from, null)) {
+      Query query =
+          (from == null ? new Query() : Query.query(Criteria.where("timestamp").gte(from)))
+              .with(Sort.by(Sort.Direction.ASC, "timestamp"))
+              .limit(1);
+      query.fields().include("timestamp");
+      Document reading = mongoTemplate.findOne(query, Document.class, collection);
+      if (reading == null || reading.getDate("timestamp") == null) {
+        continue;
+      }
+      LocalDateTime timestamp =
+          LocalDateTime.ofInstant(reading.getDate("timestamp").toInstant(), ZoneId.systemDefault());
+      if (first == null || timestamp.isBefore(first)) {
+        first = timestamp;
+      }
+    }
+    return first == null ? null : first.truncatedTo(ChronoUnit.DAYS);
+  }
+
+  /**
+   * Deletes the raw readings before a point, except those of dirty days.
+   *
+   * @param to exclusive end of the range.
+   * @return the number of readings deleted.
+   * @throws InterruptedException if interrupted while pausing between deletes.
+   */
+  private long deleteCleanDays(LocalDateTime to) throws InterruptedException {
+    long deleted = 0;
+    LocalDateTime from = null;
+    for (LocalDateTime dirty : new TreeSet<>(weatherRollups.getDirtyDays())) {
+      if (!dirty.isBefore(to)) {
+        break;
+      }
+      if (from == null || from.isBefore(dirty)) {
+        deleted += delete(from, dirty);
+      }
+      logger.warn(
+          "Keeping the raw readings of {}, whose rollups may be missing some of them",
+          dirty.toLocalDate());
+      from = dirty.plusDays(1);
+    }
+    if (from == null || from.isBefore(to)) {
+      deleted += delete(from, to);
+    }
+    return deleted;
+  }
+
+  /**
+   * Deletes the raw readings in a time range in batches, pausing between batches.
+   *
+   * @param from inclusive start of the range, or null for no lower bound.
+   * @param to exclusive end of the range.
+   * @return the number of readings deleted.
+   * @throws InterruptedException if interrupted while pausing.
+   */
+  private long delete(LocalDateTime from, LocalDateTime to) throws InterruptedException {
+    Criteria range = Criteria.where("timestamp").lt(to);
+    if (from != null) {
+      range.gte(from);
+    }
+    long deleted = 0;
+    for (String collection : weatherPartitions.collectionsFor(from, to)) {
+      while (true) {
+        Query batch = Query.query(range).limit(deleteBatchSize);
+        batch.fields().include("_id");
+        List<Object> ids = new ArrayList<>();
+        for (Document reading : mongoTemplate.find(batch, Document.class, collection)) {
+          ids.add(reading.get("_id"));
+        }
+        if (ids.isEmpty()) {
+          break;
+        }
+        long batchDeleted =
+            mongoTemplate
+                .remove(Query.query(Criteria.where("_id").in(ids)), collection)
+                .getDeletedCount();
+        deleted += batchDeleted;
+        if (batchDeleted == 0) {
+          // Nothing could be deleted, so trying the same batch again would not end.
+          break;
+        }
+        if (deletePauseMillis > 0) {
+          Thread.sleep(deletePauseMillis);
+        }
+      }
+    }
+    return deleted;
+  }
+}
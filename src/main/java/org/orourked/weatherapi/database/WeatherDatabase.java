@@ -1,6 +1,7 @@
 package org.orourked.weatherapi.database;
 
 import java.util.List;
+import java.util.stream.Stream;
 import org.orourked.weatherapi.model.WeatherData;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
@@ -8,7 +9,8 @@ import org.springframework.stereotype.Repository;
 /**
  * Repository interface for accessing and performing CRUD operations on weather data in MongoDB.
  * Extends Spring Data's MongoRepository to allow for custom queries. Provides methods for
- * retrieving weather data records by location or by ID.
+ * retrieving weather data records by location or by ID, either as a list or streamed from a
+ * database cursor.
  */
 @Repository
 public interface WeatherDatabase extends MongoRepository<WeatherData, String> {
@@ -19,4 +21,21 @@ public interface WeatherDatabase extends MongoRepository<WeatherData, String> {
    * @return a list of WeatherData objects associated with the specified location
    */
   List<WeatherData> findByLocation(String location);
+
+  /**
+   * Streams every WeatherData record from a database cursor, without loading the collection into
+   * memory. The stream must be closed to release the cursor.
+   *
+   * @return a stream of all WeatherData objects
+   */
+  Stream<WeatherData> streamAllBy();
+
+  /**
+   * Streams the WeatherData records that match the specified location from a database cursor. The
+   * stream must be closed to release the cursor.
+   *
+   * @param location the location to search for in the WeatherData collection
+   * @return a stream of WeatherData objects associated with the specified location
+   */
+  Stream<WeatherData> streamByLocation(String location);
 }
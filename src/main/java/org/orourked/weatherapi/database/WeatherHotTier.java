@@ -0,0 +1,283 @@
+package org.orourked.weatherapi.database;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.orourked.weatherapi.model.MetricSummary;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.SensorSummary;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Repository;
+
+/**
+ * In-process hot tier holding the most recent readings of every sensor in column-oriented ring
+ * buffers: one primitive array per metric plus one for the timestamps, with no object per reading.
+ * Date range queries whose range lies entirely within the readings held for every requested sensor
+ * are answered here by scanning the arrays, without a round trip to MongoDB.
+ *
+ * <p>The tier only sees readings saved through this application instance, starting from when it
+ * started, so it covers readings timestamped from then on. Readings timestamped earlier, and
+ * readings that have been pushed out of a sensor's ring, are read from MongoDB as before. Since
+ * readings saved through other instances are not seen, it should only be enabled when a single
+ * instance receives all writes.
+ */
+@Repository
+public class WeatherHotTier {
+
+  @Value("${weather.hot-tier.enabled:false}")
+  private boolean enabled;
+
+  @Value("${weather.hot-tier.capacity-per-sensor:4320}")
+  private int capacityPerSensor;
+
+  // Readings timestamped before this time, in the tier's epoch millis, are not held.
+  private final long coveredSince = toMillis(LocalDateTime.now());
+
+  // The ring of recent readings of each sensor.
+  private final Map<String, SensorRing> rings = new ConcurrentHashMap<>();
+
+  // Whether the tier is maintained and can be used for queries.
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Adds newly saved readings to the rings of their sensors.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    if (enabled) {
+      apply(event.getWeatherData());
+    }
+  }
+
+  /**
+   * Adds readings to the rings of their sensors, skipping readings timestamped before the tier
+   * started.
+   *
+   * @param weatherData the readings to add.
+   */
+  public void apply(List<WeatherData> weatherData) {
+    for (WeatherData reading : weatherData) {
+      if (reading.getTimestamp() == null || reading.getSensorId() == null) {
+        continue;
+      }
+      long timestamp = toMillis(reading.getTimestamp());
+      if (timestamp < coveredSince) {
+        continue;
+      }
+      rings
+          .computeIfAbsent(reading.getSensorId(), s -> new SensorRing(capacityPerSensor))
+          .add(timestamp, reading);
+    }
+  }
+
+  /**
+   * Checks whether the tier holds every reading of the given sensors in a date range, using the
+   * same range as the aggregation pipeline: from the start of the start date up to and including
+   * the start of the end date.
+   *
+   * @param sensorIds the sensors to include.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query.
+   * @return whether the query can be answered from the tier.
+   */
+  public boolean covers(List<String> sensorIds, LocalDate startDate, LocalDate endDate) {
+    if (!enabled) {
+      return false;
+    }
+    long from = toMillis(startDate.atStartOfDay());
+    if (from < coveredSince) {
+      return false;
+    }
+    for (String sensorId : sensorIds) {
+      SensorRing ring = rings.get(sensorId);
+      if (ring != null && !ring.covers(from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Queries weather data statistics for a date range from the rings. Only valid when {@link
+   * #covers(List, LocalDate, LocalDate)} holds. Produces the same rows as the aggregation pipeline
+   * in {@link WeatherAggregation}.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
+   * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query (matching readings up to the start of that day).
+   * @return the result row of each sensor, ordered by sensorId.
+   */
+  public List<SensorResult> queryWeatherData(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate) {
+    SensorSummary.checkStats(stats);
+    long from = toMillis(startDate.atStartOfDay());
+    long to = toMillis(endDate.atStartOfDay().plus(1, ChronoUnit.MILLIS));
+    Map<String, SensorSummary> summaries = new HashMap<>();
+    for (String sensorId : sensorIds) {
+      SensorRing ring = rings.get(sensorId);
+      if (ring == null || summaries.containsKey(sensorId)) {
+        continue;
+      }
+      SensorSummary summary = new SensorSummary(sensorId);
+      if (ring.summarise(summary, metrics, from, to)) {
+        summaries.put(sensorId, summary);
+      }
+    }
+    return SensorSummary.toResults(summaries.values(), metrics, stats);
+  }
+
+  /**
+   * Converts a timestamp to the epoch millis used by the tier. Timestamps are local date-times,
+   * so UTC is used only as a fixed offset that keeps their order.
+   *
+   * @param timestamp the timestamp.
+   * @return the timestamp in epoch millis.
+   */
+  private static long toMillis(LocalDateTime timestamp) {
+    return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  /**
+   * Recent readings of one sensor, stored column by column in arrays that grow up to a fixed
+   * capacity and then overwrite the oldest added reading. Missing metrics are stored as NaN.
+   */
+  private static final class SensorRing {
+    private final int capacity;
+    private long[] timestamps;
+    private double[] temperature;
+    private double[] humidity;
+    private double[] windspeed;
+    private double[] pressure;
+
+    // Index the next reading is written to, and the number of readings held.
+    private int next;
+    private int size;
+
+    // Latest timestamp of a reading pushed out of the ring, so that readings up to and including
+    // it may be missing.
+    private long evictedUpTo = Long.MIN_VALUE;
+
+    private SensorRing(int capacity) {
+      this.capacity = capacity;
+      int initial = Math.min(capacity, 64);
+      timestamps = new long[initial];
+      temperature = new double[initial];
+      humidity = new double[initial];
+      windspeed = new double[initial];
+      pressure = new double[initial];
+    }
+
+    private synchronized void add(long timestamp, WeatherData reading) {
+      if (size == timestamps.length && size < capacity) {
+        grow();
+      }
+      if (size == capacity) {
+        evictedUpTo = Math.max(evictedUpTo, timestamps[next]);
+      } else {
+        size++;
+      }
+      timestamps[next] = timestamp;
+      temperature[next] = reading.getTemperature();
+      humidity[next] = reading.getHumidity();
+      windspeed[next] = reading.getWindspeed() == null ? Double.NaN : reading.getWindspeed();
+      pressure[next] = reading.getPressure();
+      // Before the ring is full the next index is the size, where the grown arrays continue.
+      next = next + 1 == capacity ? 0 : next + 1;
+    }
+
+    // Whether every reading timestamped from the given time onwards is held.
+    private synchronized boolean covers(long from) {
+      return from > evictedUpTo;
+    }
+
+    /**
+     * Adds the readings in a half-open time range to a sensor summary.
+     *
+     * @param summary the summary to add to.
+     * @param metrics the metrics to summarise.
+     * @param from inclusive start of the range.
+     * @param to exclusive end of the range.
+     * @return whether any reading fell in the range.
+     */
+    private synchronized boolean summarise(
+        SensorSummary summary, List<String> metrics, long from, long to) {
+      boolean found = false;
+      for (int i = 0; i < size; i++) {
+        if (timestamps[i] >= from && timestamps[i] < to) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        return false;
+      }
+      for (String metric : metrics) {
+        double[] values = column(metric);
+        if (values == null) {
+          continue;
+        }
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+          long timestamp = timestamps[i];
+          double value = values[i];
+          if (timestamp >= from && timestamp < to && !Double.isNaN(value)) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+          }
+        }
+        MetricSummary metricSummary = summary.metric(metric);
+        metricSummary.add(count, sum, min, max);
+      }
+      return true;
+    }
+
+    private double[] column(String metric) {
+      switch (metric) {
+        case "temperature":
+          return temperature;
+        case "humidity":
+          return humidity;
+        case "windspeed":
+          return windspeed;
+        case "pressure":
+          return pressure;
+        default:
+          return null;
+      }
+    }
+
+    // Doubles the arrays, up to the capacity. Only called before the ring first wraps around.
+    private void grow() {
+      int length = Math.min(capacity, timestamps.length * 2);
+      timestamps = Arrays.copyOf(timestamps, length);
+      temperature = Arrays.copyOf(temperature, length);
+      humidity = Arrays.copyOf(humidity, length);
+      windspeed = Arrays.copyOf(windspeed, length);
+      pressure = Arrays.copyOf(pressure, length);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package org.orourked.weatherapi.database;
+
+import java.util.Date;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Checkpoints of bulk imports, kept in the weatherImports collection with one document per import
+ * id, so that an interrupted import can resume where it stopped. A checkpoint records how many
+ * records of the input have been written or rejected, along with running totals, and the highest
+ * record handed to a writer, past which nothing can have been written yet.
+ */
+@Repository
+public class WeatherImportCheckpoints {
+  public static final String COLLECTION = "weatherImports";
+
+  @Autowired private MongoTemplate mongoTemplate;
+
+  /** The progress of an import. */
+  public static class Checkpoint {
+    private final long committed;
+    private final long dispatched;
+    private final long imported;
+    private final long failed;
+
+    public Checkpoint(long committed, long dispatched, long imported, long failed) {
+      this.committed = committed;
+      this.dispatched = dispatched;
+      this.imported = imported;
+      this.failed = failed;
+    }
+
+    // Getter for the number of records that have been written or rejected, from the first on.
+    public long getCommitted() {
+      return committed;
+    }
+
+    // Getter for the highest record handed to a writer, which may have been written.
+    public long getDispatched() {
+      return dispatched;
+    }
+
+    // Getter for the number of readings written up to the committed record.
+    public long getImported() {
+      return imported;
+    }
+
+    // Getter for the number of records rejected or failed up to the committed record.
+    public long getFailed() {
+      return failed;
+    }
+  }
+
+  /**
+   * Reads the checkpoint of an import.
+   *
+   * @param importId the import id.
+   * @return the checkpoint, or null if the import has not been started.
+   */
+  public Checkpoint find(String importId) {
+    Document checkpoint =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("_id").is(importId)), Document.class, COLLECTION);
+    if (checkpoint == null) {
+      return null;
+    }
+    return new Checkpoint(
+        count(checkpoint, "committed"),
+        count(checkpoint, "dispatched"),
+        count(checkpoint, "imported"),
+        count(checkpoint, "failed"));
+  }
+
+  /**
+   * Records that the records up to a point have been handed to a writer, before they are written.
+   *
+   * @param importId the import id.
+   * @param record the last record handed to a writer.
+   */
+  public void markDispatched(String importId, long record) {
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(importId)),
+        new Update().max("dispatched", record).setOnInsert("startedAt", new Date()),
+        COLLECTION);
+  }
+
+  /**
+   * Records that every record up to a point has been written or rejected.
+   *
+   * @param importId the import id.
+   * @param checkpoint the progress up to that point.
+   */
+  public void save(String importId, Checkpoint checkpoint) {
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(importId)),
+        new Update()
+            .set("committed", checkpoint.getCommitted())
+            .set("imported", checkpoint.getImported())
+            .set("failed", checkpoint.getFailed())
+            .max("dispatched", checkpoint.getDispatched())
+            .set("updatedAt", new Date()),
+        COLLECTION);
+  }
+
+  // Reads a count from a checkpoint document, which is 0 if it has not been set.
+  private static long count(Document checkpoint, String field) {
+    Number count = checkpoint.get(field, Number.class);
+    return count == null ? 0 : count.longValue();
+  }
+}
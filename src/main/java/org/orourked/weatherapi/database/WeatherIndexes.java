@@ -0,0 +1,87 @@
+package org.orourked.weatherapi.database;
+
+import org.orourked.weatherapi.model.WeatherData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Creates the indexes that the queries on the raw readings and rollups rely on. Index creation is
+ * idempotent, so the indexes are ensured on every startup and only built the first time.
+ */
+@Repository
+public class WeatherIndexes {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherIndexes.class);
+
+  @Autowired private MongoTemplate mongoTemplate;
+
+  @Value("${weather.indexes.auto-create:true}")
+  private boolean autoCreate;
+
+  /** Ensures the indexes exist once the application has started. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void ensureIndexes() {
+    if (!autoCreate) {
+      return;
+    }
+    ensureReadingIndexes(mongoTemplate.getCollectionName(WeatherData.class));
+    for (String rollups :
+        new String[] {WeatherRollups.HOURLY_COLLECTION, WeatherRollups.DAILY_COLLECTION}) {
+      ensureIndex(
+          mongoTemplate.indexOps(rollups),
+          new Index().on("sensorId", Sort.Direction.ASC).on("bucket", Sort.Direction.ASC));
+    }
+    logger.info("Ensured indexes on weatherData and the rollup collections");
+  }
+
+  /**
+   * Ensures the indexes of a collection of raw readings exist, either weatherData or one of its
+   * {@link WeatherPartitions}. Does nothing if index creation is disabled.
+   *
+   * @param collection the name of the collection.
+   */
+  public void ensureReadingIndexes(String collection) {
+    if (!autoCreate) {
+      return;
+    }
+    IndexOperations readings = mongoTemplate.indexOps(collection);
+    // Statistics and latest-reading queries: match on sensorId, then a timestamp range or sort.
+    ensureIndex(
+        readings,
+        new Index().on("sensorId", Sort.Direction.ASC).on("timestamp", Sort.Direction.DESC));
+    // Location lookups and location pages, in (timestamp, id) order.
+    ensureIndex(
+        readings,
+        new Index()
+            .on("location", Sort.Direction.ASC)
+            .on("timestamp", Sort.Direction.ASC)
+            .on("_id", Sort.Direction.ASC));
+    // Pages over every location, in (timestamp, id) order.
+    ensureIndex(
+        readings, new Index().on("timestamp", Sort.Direction.ASC).on("_id", Sort.Direction.ASC));
+  }
+
+  /**
+   * Ensures a single index exists. Failures are logged rather than stopping startup, since some
+   * indexes cannot be created on every storage mode (time-series collections only support
+   * secondary indexes on certain fields, depending on the server version).
+   *
+   * @param indexOperations the collection's index operations.
+   * @param index the index to create.
+   */
+  private static void ensureIndex(IndexOperations indexOperations, Index index) {
+    try {
+      indexOperations.ensureIndex(index);
+    } catch (RuntimeException e) {
+      logger.warn("Could not create index {}: {}", index.getIndexKeys(), e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package org.orourked.weatherapi.database;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataMigratedEvent;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Maintains the latest reading of every sensor in its own document, keyed by sensorId, so that
+ * "current conditions" queries read one document per sensor instead of sorting the readings. The
+ * documents are updated as readings are saved, only ever moving forward in time, and are seeded
+ * from the raw readings on startup. Until seeding has finished the latest readings are not used.
+ */
+@Repository
+public class WeatherLatest {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherLatest.class);
+
+  public static final String COLLECTION = "weatherLatest";
+  private static final List<String> FIELDS =
+      List.of("sensorId", "location", "temperature", "humidity", "windspeed", "pressure");
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherPartitions weatherPartitions;
+  @Autowired private WeatherBackgroundTasks weatherBackgroundTasks;
+
+  @Value("${weather.latest.enabled:true}")
+  private boolean enabled;
+
+  // Whether the documents hold the latest reading of every sensor.
+  private volatile boolean ready;
+
+  /**
+   * Seeds the latest reading of every sensor from the raw readings, in the background. Readings
+   * saved while the application was not maintaining the documents are picked up here.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void initialise() {
+    if (enabled) {
+      weatherBackgroundTasks.submit("latest-seed", this::seed);
+    }
+  }
+
+  // Whether the latest readings are maintained and can be used for queries.
+  public boolean isReady() {
+    return enabled && ready;
+  }
+
+  /**
+   * Updates the latest readings with newly saved readings.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      apply(event.getWeatherData());
+    } catch (Exception e) {
+      logger.error(
+          "Failed to update latest readings for {} readings", event.getWeatherData().size(), e);
+    }
+  }
+
+  /**
+   * Updates the latest readings with readings copied into new storage, which may include sensors
+   * that the seeding missed while the copy ran.
+   *
+   * @param event the copied readings.
+   */
+  @EventListener
+  public void onWeatherDataMigrated(WeatherDataMigratedEvent event) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      apply(event.getWeatherData());
+    } catch (Exception e) {
+      logger.error(
+          "Failed to update latest readings for {} migrated readings",
+          event.getWeatherData().size(),
+          e);
+    }
+  }
+
+  /**
+   * Replaces the latest reading of each sensor with the newest of the given readings, where that
+   * is newer than the one stored.
+   *
+   * @param weatherData the readings to apply.
+   */
+  public void apply(List<WeatherData> weatherData) {
+    Map<String, WeatherData> newest = new HashMap<>();
+    for (WeatherData reading : weatherData) {
+      if (reading.getTimestamp() == null) {
+        continue;
+      }
+      newest.merge(
+          reading.getSensorId(),
+          reading,
+          (a, b) -> b.getTimestamp().isAfter(a.getTimestamp()) ? b : a);
+    }
+    if (newest.isEmpty()) {
+      return;
+    }
+    BulkOperations bulkOperations =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+    for (WeatherData reading : newest.values()) {
+      Document fields = new Document("sensorId", reading.getSensorId());
+      fields.put("location", reading.getLocation());
+      fields.put("temperature", reading.getTemperature());
+      fields.put("humidity", reading.getHumidity());
+      fields.put("windspeed", reading.getWindspeed());
+      fields.put("pressure", reading.getPressure());
+      upsert(bulkOperations, reading.getSensorId(), reading.getTimestamp(), fields);
+    }
+    execute(bulkOperations);
+  }
+
+  /**
+   * Finds the latest reading of every sensor with a sort and group that the {sensorId, timestamp}
+   * index turns into a DISTINCT_SCAN, and stores them. Each partition of the readings is read in
+   * turn; the conditional upserts keep the newest reading of each sensor across partitions.
+   */
+  private void seed() {
+    try {
+      Aggregation aggregation =
+          Aggregation.newAggregation(
+              Aggregation.sort(
+                  Sort.by(Sort.Direction.ASC, "sensorId")
+                      .and(Sort.by(Sort.Direction.DESC, "timestamp"))),
+              Aggregation.group("sensorId").first(Aggregation.ROOT).as("reading"));
+      int sensors = 0;
+      for (String collection : weatherPartitions.collectionsFor(null, null)) {
+        sensors += seed(aggregation, collection);
+      }
+      ready = true;
+      logger.info("Seeded the latest readings of {} sensors", sensors);
+    } catch (Exception e) {
+      logger.error("Failed to seed latest readings; latest queries will sort the readings", e);
+    }
+  }
+
+  /**
+   * Stores the latest reading of every sensor in one collection of raw readings.
+   *
+   * @param aggregation the aggregation that finds the latest readings.
+   * @param collection the collection to read.
+   * @return the number of sensors found.
+   */
+  private int seed(Aggregation aggregation, String collection) {
+    List<Document> results =
+        mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults();
+    BulkOperations bulkOperations =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+    for (Document result : results) {
+      Document reading = result.get("reading", Document.class);
+      if (result.get("_id") == null || reading.get("timestamp") == null) {
+        continue;
+      }
+      Document fields = new Document();
+      for (String field : FIELDS) {
+        fields.put(field, reading.get(field));
+      }
+      upsert(bulkOperations, result.getString("_id"), reading.get("timestamp"), fields);
+    }
+    if (!results.isEmpty()) {
+      execute(bulkOperations);
+    }
+    return results.size();
+  }
+
+  /**
+   * Adds a conditional upsert that replaces a sensor's latest reading only if the given reading is
+   * newer. If the stored reading is as new or newer, the upsert attempts to insert a second
+   * document with the same ID and fails with a duplicate key error, which is ignored.
+   *
+   * @param bulkOperations the bulk write to add to.
+   * @param sensorId the sensor's ID.
+   * @param timestamp the timestamp of the reading.
+   * @param fields the other fields of the reading.
+   */
+  private static void upsert(
+      BulkOperations bulkOperations, String sensorId, Object timestamp, Document fields) {
+    Update update = new Update().set("timestamp", timestamp);
+    fields.forEach(update::set);
+    bulkOperations.upsert(
+        Query.query(Criteria.where("_id").is(sensorId).and("timestamp").lt(timestamp)), update);
+  }
+
+  /**
+   * Runs a bulk write of conditional upserts, ignoring the duplicate key errors of readings that
+   * were older than the stored ones.
+   *
+   * @param bulkOperations the bulk write to run.
+   */
+  private static void execute(BulkOperations bulkOperations) {
+    try {
+      bulkOperations.execute();
+    } catch (BulkOperationException e) {
+      for (BulkWriteError error : e.getErrors()) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package org.orourked.weatherapi.database;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads raw weather data records a page at a time using keyset pagination over (timestamp, id).
+ * Each page starts directly after the last record of the previous page, identified by an opaque
+ * cursor, so the cost of a page depends on its size rather than on how far into the collection it
+ * is. Since new readings sort after the existing ones, the cursor of the last page can be polled to
+ * tail newly saved readings. The indexes this relies on are created by {@link WeatherIndexes}.
+ *
+ * <p>When readings are {@link WeatherPartitions partitioned}, the collections that overlap the page
+ * are read oldest first and their records merged in (timestamp, id) order. Unpartitioned readings
+ * in weatherData, and partitions of a previous scheme, overlap the other partitions in time, so a
+ * partition is only skipped once the page is full of records older than its start.
+ */
+@Repository
+public class WeatherPages {
+  private static final String CURSOR_SEPARATOR = "|";
+  private static final Comparator<WeatherData> PAGE_ORDER =
+      Comparator.comparing(WeatherData::getTimestamp)
+          .thenComparing(WeatherData::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherPartitions weatherPartitions;
+
+  /**
+   * Finds a page of weather data records in (timestamp, id) order.
+   *
+   * @param location the location to filter on, or null for every location.
+   * @param limit the maximum number of records to return.
+   * @param after the cursor returned with the previous page, or null to start from the beginning.
+   * @param since the earliest timestamp to include, or null for no lower bound.
+   * @param until the timestamp before which records are included, or null for no upper bound.
+   * @return the page of records along with the cursor for the next page.
+   * @throws IllegalArgumentException if the cursor is invalid.
+   */
+  public WeatherDataPage findPage(
+      String location, int limit, String after, LocalDateTime since, LocalDateTime until) {
+    Criteria timestamp = Criteria.where("timestamp").ne(null);
+    if (since != null) {
+      timestamp.gte(since);
+    }
+    if (until != null) {
+      timestamp.lt(until);
+    }
+    Criteria criteria = location == null ? timestamp : timestamp.and("location").is(location);
+    LocalDateTime from = since;
+    if (after != null) {
+      String[] position = decodeCursor(after);
+      LocalDateTime afterTimestamp = LocalDateTime.parse(position[0]);
+      criteria.orOperator(
+          Criteria.where("timestamp").gt(afterTimestamp),
+          Criteria.where("timestamp").is(afterTimestamp).and("id").gt(position[1]));
+      from = since == null || since.isBefore(afterTimestamp) ? afterTimestamp : since;
+    }
+    // Read one extra record to tell whether another page follows.
+    Query query =
+        Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "timestamp", "id")).limit(limit + 1);
+    List<WeatherData> records = new ArrayList<>();
+    for (String collection : weatherPartitions.collectionsFor(from, until)) {
+      // Partitions are listed in order of their start, so no later one can hold an earlier record.
+      if (records.size() > limit
+          && !collection.equals(WeatherPartitions.COLLECTION)
+          && records
+              .get(limit)
+              .getTimestamp()
+              .isBefore(WeatherPartitions.partitionStart(collection))) {
+        break;
+      }
+      records.addAll(mongoTemplate.find(query, WeatherData.class, collection));
+      records.sort(PAGE_ORDER);
+      if (records.size() > limit + 1) {
+        records = new ArrayList<>(records.subList(0, limit + 1));
+      }
+    }
+
+    boolean hasMore = records.size() > limit;
+    if (hasMore) {
+      records = records.subList(0, limit);
+    }
+    // An empty page keeps the previous cursor, so that polling it picks up new readings.
+    String next = records.isEmpty() ? after : encodeCursor(records.get(records.size() - 1));
+    return new WeatherDataPage(records, next, hasMore);
+  }
+
+  /**
+   * Encodes the position of a record as an opaque cursor.
+   *
+   * @param weatherData the last record of a page.
+   * @return the cursor pointing after the record.
+   */
+  static String encodeCursor(WeatherData weatherData) {
+    String position = weatherData.getTimestamp() + CURSOR_SEPARATOR + weatherData.getId();
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decodes a cursor into the timestamp and id of the record it points after.
+   *
+   * @param cursor the cursor returned with a page.
+   * @return the timestamp and id of the record.
+   * @throws IllegalArgumentException if the cursor is invalid.
+   */
+  static String[] decodeCursor(String cursor) {
+    String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    int separator = position.lastIndexOf(CURSOR_SEPARATOR);
+    if (separator < 0) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    String[] result = {position.substring(0, separator), position.substring(separator + 1)};
+    try {
+      LocalDateTime.parse(result[0]);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+    }
+    return result;
+  }
+}
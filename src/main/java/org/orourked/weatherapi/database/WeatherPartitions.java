@@ -0,0 +1,470 @@
+package org.orourked.weatherapi.database;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.orourked.weatherapi.model.WeatherData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Routes raw readings to collections partitioned by time, such as weatherData_2024_11 for monthly
+ * partitions or weatherData_2024 for yearly ones. Partitions are created, with their indexes, the
+ * first time a reading falls into them, and readers ask for the collections that overlap the time
+ * range they read so that queries only touch the partitions they need. Statistics are computed per
+ * partition and merged, the same way {@link WeatherRollups} merges rollups with raw readings.
+ *
+ * <p>Retention is applied by dropping whole partitions once they are older than the retention
+ * period, which is far cheaper than deleting readings one by one. The rollups are kept.
+ *
+ * <p>With partitioning disabled, which is the default, everything reads and writes weatherData.
+ * Readings saved to weatherData before partitioning was enabled stay there and are read along with
+ * the partitions, as the oldest readings; readings without a timestamp are also kept there.
+ */
+@Repository
+public class WeatherPartitions {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherPartitions.class);
+
+  public static final String COLLECTION = "weatherData";
+  private static final Pattern PARTITION = Pattern.compile("weatherData_(\\d{4})(?:_(\\d{2}))?");
+  private static final long MISS_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** How raw readings are partitioned. */
+  public enum Scheme {
+    // A single weatherData collection.
+    NONE,
+    // One collection per calendar month.
+    MONTHLY,
+    // One collection per calendar year.
+    YEARLY
+  }
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherStorage weatherStorage;
+  @Autowired private WeatherIndexes weatherIndexes;
+
+  // How raw readings are partitioned.
+  private Scheme scheme = Scheme.NONE;
+
+  @Value("${weather.storage.partitions.retention-months:0}")
+  private int retentionMonths;
+
+  // The existing partitions, which sort from oldest to newest by name.
+  private final NavigableSet<String> partitions = new ConcurrentSkipListSet<>();
+
+  // Whether weatherData holds readings that have to be read along with the partitions.
+  private volatile boolean readUnpartitioned;
+
+  // The earliest System.nanoTime() at which a read past the newest partition refreshes them.
+  private volatile long nextMissRefresh;
+
+  @Value("${weather.storage.partitioning:none}")
+  void setScheme(String scheme) {
+    this.scheme = Scheme.valueOf(scheme.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /** Finds the existing partitions and whether weatherData still holds readings. */
+  @PostConstruct
+  public void initialise() {
+    if (scheme == Scheme.NONE) {
+      return;
+    }
+    findPartitions();
+    logger.info(
+        "Partitioning readings {}, with {} existing partitions{}",
+        scheme.name().toLowerCase(Locale.ROOT),
+        partitions.size(),
+        readUnpartitioned ? " and unpartitioned readings in " + COLLECTION : "");
+  }
+
+  /**
+   * Finds the partitions again, picking up those that other instances have created or dropped
+   * since, and whether weatherData still holds readings.
+   */
+  @Scheduled(
+      fixedDelayString = "${weather.storage.partitions.refresh-ms:60000}",
+      initialDelayString = "${weather.storage.partitions.refresh-ms:60000}")
+  public void refresh() {
+    if (scheme == Scheme.NONE) {
+      return;
+    }
+    try {
+      findPartitions();
+    } catch (Exception e) {
+      logger.error("Failed to refresh the partitions", e);
+    }
+  }
+
+  /**
+   * Lists the partition collections and replaces the known partitions with them. Synchronized with
+   * {@link #createPartition(String)}, so a partition being created is not dropped from the set.
+   */
+  private synchronized void findPartitions() {
+    Set<String> found = new HashSet<>();
+    for (String collection : mongoTemplate.getCollectionNames()) {
+      if (PARTITION.matcher(collection).matches()) {
+        found.add(collection);
+      }
+    }
+    partitions.addAll(found);
+    partitions.retainAll(found);
+    readUnpartitioned =
+        mongoTemplate.collectionExists(COLLECTION)
+            && mongoTemplate.getCollection(COLLECTION).estimatedDocumentCount() > 0;
+    nextMissRefresh = System.nanoTime() + MISS_REFRESH_INTERVAL_NANOS;
+  }
+
+  /**
+   * Refreshes the partitions when a reader asks for readings beyond the newest known partition,
+   * which another instance may have created, at most once per {@link
+   * #MISS_REFRESH_INTERVAL_NANOS}.
+   *
+   * @param to exclusive end of the range being read, or null for no upper bound.
+   */
+  private void refreshOnMiss(LocalDateTime to) {
+    String newest = partitions.isEmpty() ? null : partitions.last();
+    if (newest != null && to != null && !partitionEnd(newest).isBefore(to)) {
+      return;
+    }
+    if (System.nanoTime() - nextMissRefresh < 0) {
+      return;
+    }
+    refresh();
+  }
+
+  // Whether readings are partitioned.
+  public boolean isEnabled() {
+    return scheme != Scheme.NONE;
+  }
+
+  /**
+   * Returns the start of the oldest partition kept by the retention period. Older partitions have
+   * been dropped, or will be on the next run, so only the rollups still hold their readings.
+   *
+   * @return the start of the oldest kept partition, or null if partitions are kept indefinitely.
+   */
+  public LocalDateTime getRetainedSince() {
+    if (scheme == Scheme.NONE || retentionMonths <= 0) {
+      return null;
+    }
+    return partitionStart(partitionName(scheme, retentionCutoff(LocalDateTime.now())));
+  }
+
+  /**
+   * Lists the collections holding readings in a time range: weatherData when partitioning is
+   * disabled, otherwise the existing partitions that overlap the range, oldest first, preceded by
+   * weatherData if it still holds unpartitioned readings. A range that reaches past the newest
+   * known partition first looks for partitions created by other instances.
+   *
+   * @param from inclusive start of the range, or null for no lower bound.
+   * @param to exclusive end of the range, or null for no upper bound.
+   * @return the collections to read, possibly none.
+   */
+  public List<String> collectionsFor(LocalDateTime from, LocalDateTime to) {
+    if (scheme == Scheme.NONE) {
+      return List.of(COLLECTION);
+    }
+    refreshOnMiss(to);
+    List<String> collections = new ArrayList<>();
+    if (readUnpartitioned) {
+      collections.add(COLLECTION);
+    }
+    for (String partition : partitions) {
+      if ((to == null || partitionStart(partition).isBefore(to))
+          && (from == null || partitionEnd(partition).isAfter(from))) {
+        collections.add(partition);
+      }
+    }
+    return collections;
+  }
+
+  /**
+   * Groups readings by the collection they are written to, creating partitions that do not exist
+   * yet.
+   *
+   * @param weatherData the readings to write.
+   * @return the indexes of the readings in the given list, keyed by collection.
+   */
+  public Map<String, List<Integer>> route(List<WeatherData> weatherData) {
+    Map<String, List<Integer>> routes = new LinkedHashMap<>();
+    for (int i = 0; i < weatherData.size(); i++) {
+      routes.computeIfAbsent(collectionFor(weatherData.get(i)), k -> new ArrayList<>()).add(i);
+    }
+    return routes;
+  }
+
+  /**
+   * Saves a single reading into its partition.
+   *
+   * @param weatherData the reading to save.
+   */
+  public void save(WeatherData weatherData) {
+    mongoTemplate.save(weatherData, collectionFor(weatherData));
+  }
+
+  /**
+   * Finds the readings of a location, or every reading, in every collection, oldest collection
+   * first.
+   *
+   * @param location the location to search for, or null for every location.
+   * @return the matching readings.
+   */
+  public List<WeatherData> find(String location) {
+    List<WeatherData> weatherData = new ArrayList<>();
+    for (String collection : collectionsFor(null, null)) {
+      weatherData.addAll(mongoTemplate.find(byLocation(location), WeatherData.class, collection));
+    }
+    return weatherData;
+  }
+
+  /**
+   * Streams the readings of a location, or every reading, from every collection, oldest collection
+   * first. Each collection's cursor is only opened once the previous one has been read, and the
+   * readings are pulled from the cursors one at a time rather than through flatMap, which buffers
+   * a whole collection when the stream is consumed through its iterator.
+   *
+   * @param location the location to search for, or null for every location.
+   * @return a stream of the matching readings, which must be closed once consumed.
+   */
+  public Stream<WeatherData> stream(String location) {
+    Query query = byLocation(location);
+    return new ConcatenatingIterator(
+            collectionsFor(null, null),
+            collection -> cursor(mongoTemplate.stream(query, WeatherData.class, collection)))
+        .stream();
+  }
+
+  /**
+   * Wraps a stream of readings in a closeable iterator that reads it one element at a time.
+   *
+   * @param readings the stream of readings of one collection.
+   * @return the iterator, which closes the stream.
+   */
+  private static CloseableIterator<WeatherData> cursor(Stream<WeatherData> readings) {
+    Iterator<WeatherData> iterator = readings.iterator();
+    return new CloseableIterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public WeatherData next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void close() {
+        readings.close();
+      }
+    };
+  }
+
+  /** Drops the partitions older than the retention period, once a day and on startup. */
+  @EventListener(ApplicationReadyEvent.class)
+  @Scheduled(cron = "${weather.storage.partitions.retention-cron:0 30 0 * * *}")
+  public void applyRetention() {
+    if (scheme == Scheme.NONE || retentionMonths <= 0) {
+      return;
+    }
+    try {
+      dropExpired(LocalDateTime.now());
+    } catch (Exception e) {
+      logger.error("Failed to drop expired partitions", e);
+    }
+  }
+
+  /**
+   * Drops every partition that ends before the start of the retention period, which begins on the
+   * first day of the month retention-months before the current one.
+   *
+   * @param now the current time.
+   * @return the dropped partitions.
+   */
+  List<String> dropExpired(LocalDateTime now) {
+    LocalDateTime cutoff = retentionCutoff(now);
+    List<String> dropped = new ArrayList<>();
+    for (String partition : partitions) {
+      if (partitionEnd(partition).isAfter(cutoff)) {
+        continue;
+      }
+      mongoTemplate.dropCollection(partition);
+      partitions.remove(partition);
+      dropped.add(partition);
+      logger.info("Dropped partition {}, which is older than {}", partition, cutoff);
+    }
+    return dropped;
+  }
+
+  // Returns the start of the retention period: the first day of the month retention-months ago.
+  private LocalDateTime retentionCutoff(LocalDateTime now) {
+    return now.toLocalDate().withDayOfMonth(1).minusMonths(retentionMonths).atStartOfDay();
+  }
+
+  /**
+   * Finds the collection a reading is written to, creating its partition if it does not exist.
+   *
+   * @param weatherData the reading.
+   * @return the name of the collection.
+   */
+  private String collectionFor(WeatherData weatherData) {
+    if (scheme == Scheme.NONE) {
+      return COLLECTION;
+    }
+    if (weatherData.getTimestamp() == null) {
+      readUnpartitioned = true;
+      return COLLECTION;
+    }
+    String partition = partitionName(scheme, weatherData.getTimestamp());
+    if (!partitions.contains(partition)) {
+      createPartition(partition);
+    }
+    return partition;
+  }
+
+  /**
+   * Creates a partition in the configured storage mode, along with its indexes, and looks for
+   * partitions other instances have created meanwhile. Another instance may create the same
+   * partition at the same time, so an existing collection is not an error.
+   *
+   * @param partition the name of the partition.
+   */
+  private synchronized void createPartition(String partition) {
+    if (partitions.contains(partition)) {
+      return;
+    }
+    if (!mongoTemplate.collectionExists(partition)) {
+      try {
+        weatherStorage.createCollection(partition);
+        logger.info("Created partition {}", partition);
+      } catch (RuntimeException e) {
+        if (!mongoTemplate.collectionExists(partition)) {
+          throw e;
+        }
+      }
+    }
+    weatherIndexes.ensureReadingIndexes(partition);
+    // Other instances may have created partitions this one has not read from yet.
+    refresh();
+    partitions.add(partition);
+  }
+
+  // Query for the readings of a location, or every reading if it is null.
+  private static Query byLocation(String location) {
+    return location == null ? new Query() : Query.query(Criteria.where("location").is(location));
+  }
+
+  /**
+   * Builds the name of the partition that holds readings at a given time.
+   *
+   * @param scheme the partitioning scheme, monthly or yearly.
+   * @param timestamp the time of a reading.
+   * @return the partition name, e.g. weatherData_2024_11 or weatherData_2024.
+   */
+  static String partitionName(Scheme scheme, LocalDateTime timestamp) {
+    return scheme == Scheme.YEARLY
+        ? String.format("%s_%04d", COLLECTION, timestamp.getYear())
+        : String.format("%s_%04d_%02d", COLLECTION, timestamp.getYear(), timestamp.getMonthValue());
+  }
+
+  /**
+   * Parses the start of the period a partition holds from its name.
+   *
+   * @param partition the partition name.
+   * @return the inclusive start of the period.
+   * @throws IllegalArgumentException if the name is not a partition name.
+   */
+  static LocalDateTime partitionStart(String partition) {
+    Matcher matcher = PARTITION.matcher(partition);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Not a partition: " + partition);
+    }
+    int month = matcher.group(2) == null ? 1 : Integer.parseInt(matcher.group(2));
+    return LocalDate.of(Integer.parseInt(matcher.group(1)), month, 1).atStartOfDay();
+  }
+
+  /**
+   * Parses the end of the period a partition holds from its name. Partitions of either scheme are
+   * recognised, so changing the scheme keeps reading the existing partitions.
+   *
+   * @param partition the partition name.
+   * @return the exclusive end of the period.
+   * @throws IllegalArgumentException if the name is not a partition name.
+   */
+  static LocalDateTime partitionEnd(String partition) {
+    LocalDateTime start = partitionStart(partition);
+    return partition.length() > COLLECTION.length() + 5 ? start.plusMonths(1) : start.plusYears(1);
+  }
+
+  /**
+   * Reads the cursors of a list of collections one after the other, opening each only once the
+   * previous one is exhausted and closing that one straight away.
+   */
+  private static final class ConcatenatingIterator implements CloseableIterator<WeatherData> {
+    private final Iterator<String> collections;
+    private final Function<String, CloseableIterator<WeatherData>> open;
+
+    // The cursor being read, or null before the first and after the last.
+    private CloseableIterator<WeatherData> current;
+
+    private ConcatenatingIterator(
+        List<String> collections, Function<String, CloseableIterator<WeatherData>> open) {
+      this.collections = collections.iterator();
+      this.open = open;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (current == null || !current.hasNext()) {
+        close();
+        if (!collections.hasNext()) {
+          return false;
+        }
+        current = open.apply(collections.next());
+      }
+      return true;
+    }
+
+    @Override
+    public WeatherData next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    @Override
+    public void close() {
+      if (current != null) {
+        current.close();
+        current = null;
+      }
+    }
+  }
+}
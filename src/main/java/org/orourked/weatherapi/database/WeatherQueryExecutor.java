@@ -0,0 +1,116 @@
+package org.orourked.weatherapi.database;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs queries over many sensors as several smaller queries in parallel. The requested sensor IDs
+ * are de-duplicated, sorted and split into chunks, and the query for each chunk runs on a bounded
+ * pool of threads, so that latency grows with the number of chunks per thread rather than with
+ * the number of sensors. Queries over a single chunk run on the calling thread.
+ *
+ * <p>Each sensor belongs to exactly one chunk, so the partial results of different chunks never
+ * describe the same sensor and can be merged by concatenation. The pool should be no larger than
+ * the MongoDB connection pool, which limits how many chunks can run at once.
+ */
+@Component
+public class WeatherQueryExecutor {
+
+  private final int chunkSize;
+  private final ThreadPoolExecutor executor;
+
+  @Autowired
+  public WeatherQueryExecutor(
+      @Value("${weather.query.fan-out.chunk-size:100}") int chunkSize,
+      @Value("${weather.query.fan-out.threads:8}") int threads) {
+    this.chunkSize = chunkSize;
+    AtomicInteger count = new AtomicInteger();
+    // When the queue is full, chunks run on the calling thread, which slows down new queries
+    // rather than failing them.
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * 64),
+            runnable -> {
+              Thread thread = new Thread(runnable, "weather-query-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Stops the query threads once running queries have finished. */
+  @PreDestroy
+  public void stop() {
+    executor.shutdown();
+  }
+
+  /**
+   * Runs a query over chunks of the given sensors in parallel.
+   *
+   * @param sensorIds the sensors to query, in any order and possibly repeated.
+   * @param query runs the query for one chunk of sorted, distinct sensor IDs.
+   * @param <T> the type of the partial results.
+   * @return the partial result of each chunk, in sensor order.
+   */
+  public <T> List<T> fanOut(List<String> sensorIds, Function<List<String>, T> query) {
+    List<List<String>> chunks = chunk(sensorIds);
+    if (chunks.size() <= 1) {
+      return List.of(query.apply(chunks.isEmpty() ? List.of() : chunks.get(0)));
+    }
+    List<Future<T>> futures = new ArrayList<>(chunks.size());
+    try {
+      for (List<String> chunk : chunks) {
+        futures.add(executor.submit(() -> query.apply(chunk)));
+      }
+      List<T> results = new ArrayList<>(chunks.size());
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while querying", e);
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Splits sensor IDs into sorted chunks of at most the chunk size.
+   *
+   * @param sensorIds the sensor IDs, in any order and possibly repeated.
+   * @return the chunks, in sensor order.
+   */
+  List<List<String>> chunk(List<String> sensorIds) {
+    List<String> sorted = new ArrayList<>(new TreeSet<>(sensorIds));
+    List<List<String>> chunks = new ArrayList<>();
+    for (int i = 0; i < sorted.size(); i += chunkSize) {
+      chunks.add(sorted.subList(i, Math.min(sorted.size(), i + chunkSize)));
+    }
+    return chunks;
+  }
+}
@@ -0,0 +1,260 @@
+package org.orourked.weatherapi.database;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers for the query path. Each stage of a query (validating the request, building the pipeline,
+ * executing it on MongoDB, mapping the returned documents to rows and serializing the response) is
+ * recorded by weather.query.stage, tagged with the stage. The whole request is recorded by
+ * weather.query.requests as a histogram tagged by endpoint, number of metrics and date range
+ * width, so that latency percentiles can be compared across query shapes.
+ *
+ * <p>Queries split over chunks of sensors record the pipeline, execution and mapping stages once
+ * per chunk, and queries answered from the rollups once per summary pipeline they run, over the
+ * rollups or the raw readings. Queries answered from the hot tier or the query cache do not run a
+ * pipeline and only record the other stages.
+ *
+ * <p>A request can also collect its own {@link Profile}: the stage times and the pipelines it ran,
+ * for the slow query log and the Server-Timing header. The profile is bound to the request thread
+ * between {@link #startProfile()} and {@link #endProfile()}; code that runs a query on other
+ * threads passes the profile along explicitly.
+ */
+@Component
+public class WeatherQueryMetrics {
+
+  public static final String VALIDATION = "validation";
+  public static final String PIPELINE = "pipeline";
+  public static final String EXECUTION = "execution";
+  public static final String MAPPING = "mapping";
+  public static final String SERIALIZATION = "serialization";
+
+  private static final List<String> STAGES =
+      List.of(VALIDATION, PIPELINE, EXECUTION, MAPPING, SERIALIZATION);
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Timer> stageTimers = new HashMap<>();
+  private final ThreadLocal<Profile> currentProfile = new ThreadLocal<>();
+
+  @Autowired
+  public WeatherQueryMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    for (String stage : STAGES) {
+      stageTimers.put(
+          stage,
+          Timer.builder("weather.query.stage")
+              .description("Time taken by each stage of a query")
+              .tag("stage", stage)
+              .register(meterRegistry));
+    }
+  }
+
+  /**
+   * Starts collecting the profile of a request on the current thread.
+   *
+   * @return the profile, which is filled in until {@link #endProfile()} is called.
+   */
+  public Profile startProfile() {
+    Profile profile = new Profile();
+    currentProfile.set(profile);
+    return profile;
+  }
+
+  /** Stops collecting the profile of the request on the current thread. */
+  public void endProfile() {
+    currentProfile.remove();
+  }
+
+  /**
+   * Returns the profile being collected on the current thread. The profile is bound to the thread
+   * that handles the request, while {@link WeatherQueryExecutor#fanOut} may run chunks of the query
+   * on other threads; callers read it here before fanning out and record into it from the chunks.
+   *
+   * @return the profile, or null if none is being collected.
+   */
+  public Profile currentProfile() {
+    return currentProfile.get();
+  }
+
+  /**
+   * Records the time a stage of a query took, adding it to the profile being collected on the
+   * current thread, if any.
+   *
+   * @param stage one of the stage constants.
+   * @param startNanos the value of {@link System#nanoTime()} when the stage started.
+   */
+  public void recordStage(String stage, long startNanos) {
+    recordStage(currentProfile.get(), stage, startNanos);
+  }
+
+  /**
+   * Records the time a stage of a query took, adding it to the given profile.
+   *
+   * @param profile the profile of the request, or null if none is being collected.
+   * @param stage one of the stage constants.
+   * @param startNanos the value of {@link System#nanoTime()} when the stage started.
+   */
+  public void recordStage(Profile profile, String stage, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    stageTimers.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    if (profile != null) {
+      profile.stageNanos.addAndGet(STAGES.indexOf(stage), nanos);
+    }
+  }
+
+  /**
+   * Records the time a query request took, from the start of the handler until its response was
+   * serialized.
+   *
+   * @param endpoint the kind of query, e.g. "query" or "series".
+   * @param metrics the number of requested metrics.
+   * @param startDate the start of the date range, or null for none.
+   * @param endDate the end of the date range, or null for none.
+   * @param startNanos the value of {@link System#nanoTime()} when the request started.
+   */
+  public void recordRequest(
+      String endpoint, int metrics, LocalDate startDate, LocalDate endDate, long startNanos) {
+    Timer.builder("weather.query.requests")
+        .description("Time taken to answer a query")
+        .tag("endpoint", endpoint)
+        .tag("metrics", metricCount(metrics))
+        .tag("range", rangeWidth(startDate, endDate))
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // Tag value for the number of metrics, capped so that the number of series stays bounded.
+  static String metricCount(int metrics) {
+    return metrics > 4 ? "5+" : String.valueOf(metrics);
+  }
+
+  /**
+   * Buckets the width of a date range into a tag value: "none" without a date range, otherwise the
+   * smallest of "1d", "7d", "31d" and "366d" that covers the range, or "longer".
+   *
+   * @param startDate the start of the date range, or null for none.
+   * @param endDate the end of the date range, or null for none.
+   * @return the tag value.
+   */
+  static String rangeWidth(LocalDate startDate, LocalDate endDate) {
+    if (startDate == null || endDate == null) {
+      return "none";
+    }
+    long days = ChronoUnit.DAYS.between(startDate, endDate) + 1;
+    for (int width : new int[] {1, 7, 31, 366}) {
+      if (days <= width) {
+        return width + "d";
+      }
+    }
+    return "longer";
+  }
+
+  /**
+   * The stage times and pipelines of a single request. Stages that ran once per chunk of sensors
+   * are summed over the chunks, so they can add up to more than the time the request took.
+   */
+  public static final class Profile {
+
+    // Time spent in each stage, in the order of STAGES.
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES.size());
+
+    // The pipelines run for the request, with the collection each ran on.
+    private final List<Map.Entry<String, List<Document>>> pipelines =
+        new CopyOnWriteArrayList<>();
+
+    // The number of rows and bytes in the response.
+    private int rows;
+    private int bytes;
+
+    /**
+     * Adds a pipeline that was run for the request.
+     *
+     * @param collection the collection it ran on.
+     * @param pipeline the pipeline stages.
+     */
+    public void addPipeline(String collection, List<Document> pipeline) {
+      pipelines.add(Map.entry(collection, pipeline));
+    }
+
+    // Getter for the pipelines run for the request, keyed by collection.
+    public List<Map.Entry<String, List<Document>>> getPipelines() {
+      return pipelines;
+    }
+
+    /**
+     * Returns the time spent in a stage.
+     *
+     * @param stage one of the stage constants.
+     * @return the time in nanoseconds, 0 if the stage did not run.
+     */
+    public long getStageNanos(String stage) {
+      return stageNanos.get(STAGES.indexOf(stage));
+    }
+
+    /**
+     * Sets the size of the response.
+     *
+     * @param rows the number of rows.
+     * @param bytes the number of serialized bytes.
+     */
+    public void setResult(int rows, int bytes) {
+      this.rows = rows;
+      this.bytes = bytes;
+    }
+
+    // Getter for the number of rows in the response.
+    public int getRows() {
+      return rows;
+    }
+
+    // Getter for the number of bytes in the response.
+    public int getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Formats the stage times as a Server-Timing header value, in milliseconds, e.g.
+     * "validation;dur=0.02, pipeline;dur=0.11, ..., total;dur=12.5".
+     *
+     * @param totalNanos the time the whole request took.
+     * @return the header value.
+     */
+    public String serverTiming(long totalNanos) {
+      StringBuilder header = new StringBuilder();
+      for (int i = 0; i < STAGES.size(); i++) {
+        header.append(STAGES.get(i)).append(";dur=");
+        header.append(millis(stageNanos.get(i))).append(", ");
+      }
+      return header.append("total;dur=").append(millis(totalNanos)).toString();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder stages = new StringBuilder("{");
+      for (int i = 0; i < STAGES.size(); i++) {
+        stages.append(i == 0 ? "" : ", ").append(STAGES.get(i)).append("=");
+        stages.append(millis(stageNanos.get(i))).append("ms");
+      }
+      return stages.append("}, rows=").append(rows).append(", bytes=").append(bytes).toString();
+    }
+
+    // Converts nanoseconds to milliseconds, rounded to two decimal places.
+    private static String millis(long nanos) {
+      return BigDecimal.valueOf(nanos, 6).setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package org.orourked.weatherapi.database;
+
+import com.mongodb.ExplainVerbosity;
+import java.util.List;
+import java.util.Locale;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.FieldLookupPolicy;
+import org.springframework.data.mongodb.core.aggregation.TypeBasedAggregationOperationContext;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Diagnostic check of the query plans of generated aggregation pipelines. When enabled, every
+ * pipeline is explained before it runs, and a plan that scans the whole collection (a COLLSCAN
+ * stage) is either logged or rejected, so missing or unusable indexes are caught before they reach
+ * production. Explaining doubles the round trips of each query, so the check is off by default.
+ */
+@Repository
+public class WeatherQueryPlans {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherQueryPlans.class);
+  private static final String COLLECTION_SCAN = "COLLSCAN";
+
+  /** What to do when a pipeline's plan scans the whole collection. */
+  public enum Mode {
+    // Pipelines are not explained.
+    OFF,
+    // Collection scans are logged as warnings.
+    LOG,
+    // Collection scans fail the query.
+    FAIL
+  }
+
+  /** Thrown in fail mode when a pipeline's plan scans the whole collection. */
+  public static class CollectionScanException extends RuntimeException {
+    public CollectionScanException(String message) {
+      super(message);
+    }
+  }
+
+  @Autowired private MongoTemplate mongoTemplate;
+
+  // What to do when a collection scan is found.
+  private Mode mode = Mode.OFF;
+
+  @Value("${weather.query-plan.check:off}")
+  void setMode(String mode) {
+    this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Explains a pipeline and checks that its plan does not scan the whole collection.
+   *
+   * @param aggregation the pipeline about to be run.
+   * @param collection the collection it runs against.
+   * @throws CollectionScanException in fail mode, if the plan contains a collection scan.
+   */
+  public void check(Aggregation aggregation, String collection) {
+    if (mode == Mode.OFF) {
+      return;
+    }
+    check(toPipeline(aggregation, mongoTemplate.getConverter()), collection);
+  }
+
+  /**
+   * Explains a rendered pipeline and checks that its plan does not scan the whole collection.
+   *
+   * @param pipeline the pipeline stages about to be run.
+   * @param collection the collection it runs against.
+   * @throws CollectionScanException in fail mode, if the plan contains a collection scan.
+   */
+  public void check(List<Document> pipeline, String collection) {
+    if (mode == Mode.OFF) {
+      return;
+    }
+    Document plan = mongoTemplate.getCollection(collection).aggregate(pipeline).explain();
+    if (!containsStage(plan, COLLECTION_SCAN)) {
+      return;
+    }
+    String message = "Collection scan on " + collection + " for pipeline " + pipeline;
+    if (mode == Mode.FAIL) {
+      throw new CollectionScanException(message);
+    }
+    logger.warn(message);
+  }
+
+  /**
+   * Explains a pipeline with execution stats, which runs it on the server, and summarizes how much
+   * work it did. Used by the slow query log, after the query has answered.
+   *
+   * @param pipeline the pipeline stages.
+   * @param collection the collection it ran against.
+   * @return the total documents and index keys examined, and whether a stage spilled to disk.
+   */
+  public Document explainExecution(List<Document> pipeline, String collection) {
+    return summarizeExecution(
+        mongoTemplate
+            .getCollection(collection)
+            .aggregate(pipeline)
+            .explain(ExplainVerbosity.EXECUTION_STATS));
+  }
+
+  /**
+   * Summarizes the execution stats of an explain output. Like the plan, the stats are nested
+   * differently depending on the server version and execution engine, so every nested document is
+   * searched: the totals of each query are summed, and a sort or group that used disk counts as a
+   * spill.
+   *
+   * @param explain the explain output.
+   * @return a document with docsExamined, keysExamined and spilledToDisk.
+   */
+  static Document summarizeExecution(Document explain) {
+    long[] totals = new long[2];
+    boolean spilled = addExecutionStats(explain, totals);
+    return new Document("docsExamined", totals[0])
+        .append("keysExamined", totals[1])
+        .append("spilledToDisk", spilled);
+  }
+
+  // Adds the examined documents and keys found under a node to the totals, returning whether any
+  // stage under it spilled to disk.
+  private static boolean addExecutionStats(Object node, long[] totals) {
+    boolean spilled = false;
+    if (node instanceof Document document) {
+      if (document.get("totalDocsExamined") instanceof Number docs) {
+        totals[0] += docs.longValue();
+      }
+      if (document.get("totalKeysExamined") instanceof Number keys) {
+        totals[1] += keys.longValue();
+      }
+      spilled =
+          Boolean.TRUE.equals(document.get("usedDisk"))
+              || document.get("spills") instanceof Number spills && spills.longValue() > 0;
+      for (Object value : document.values()) {
+        spilled |= addExecutionStats(value, totals);
+      }
+    } else if (node instanceof List<?> list) {
+      for (Object value : list) {
+        spilled |= addExecutionStats(value, totals);
+      }
+    }
+    return spilled;
+  }
+
+  /**
+   * Renders a pipeline the way MongoTemplate does for an aggregation on a named collection: values
+   * are converted by the mapping converter, and field references that are not exposed by a previous
+   * stage are passed through as they are.
+   *
+   * @param aggregation the pipeline to render.
+   * @param converter the converter used by MongoTemplate.
+   * @return the pipeline stages as sent to the server.
+   */
+  static List<Document> toPipeline(Aggregation aggregation, MongoConverter converter) {
+    return aggregation.toPipeline(
+        new TypeBasedAggregationOperationContext(
+            Object.class,
+            converter.getMappingContext(),
+            new QueryMapper(converter),
+            FieldLookupPolicy.relaxed()));
+  }
+
+  /**
+   * Searches an explain output for a plan stage. The shape of the output differs between server
+   * versions and execution engines, so every nested document is searched.
+   *
+   * @param node a document, list or value of the explain output.
+   * @param stage the stage name to look for.
+   * @return whether the stage appears anywhere in the output.
+   */
+  static boolean containsStage(Object node, String stage) {
+    if (node instanceof Document document) {
+      if (stage.equals(document.get("stage"))) {
+        return true;
+      }
+      for (Object value : document.values()) {
+        if (containsStage(value, stage)) {
+          return true;
+        }
+      }
+    } else if (node instanceof List<?> list) {
+      for (Object value : list) {
+        if (containsStage(value, stage)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
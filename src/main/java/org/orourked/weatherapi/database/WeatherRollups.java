@@ -0,0 +1,760 @@
+package org.orourked.weatherapi.database;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.orourked.weatherapi.model.MetricSummary;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.SensorSummary;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataMigratedEvent;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Maintains hourly and daily rollups of the raw weather data, holding the count, sum, minimum and
+ * maximum of every metric per sensor and time bucket. Rollups are updated incrementally as readings
+ * are saved, and date range queries are answered from the coarsest rollups that fit the range, with
+ * only the uncovered edges scanned from the raw readings.
+ *
+ * <p>Raw readings are read from every {@link WeatherPartitions partition} that overlaps the part of
+ * the range being read, and the per-partition summaries merged; with rollups disabled this is how
+ * date range queries over partitioned readings are answered.
+ *
+ * <p>Rollups are only trusted from the point at which they started being maintained (recorded in
+ * the rollup state collection); anything older is read from the raw readings until {@link
+ * #rebuild(LocalDateTime, LocalDateTime)} has been run for it. Readings older than the point up to
+ * which {@link WeatherCompaction} has compacted them only exist as rollups, so that part of a range
+ * is always read from the rollups, to whole hours.
+ *
+ * <p>A day whose rollups failed to update is marked as dirty, in the dirty collection and in
+ * memory: queries read that day from the raw readings, compaction keeps its raw readings, and a
+ * scheduled job rebuilds its rollups once the day has ended and clears the mark.
+ */
+@Repository
+public class WeatherRollups {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherRollups.class);
+
+  public static final String HOURLY_COLLECTION = "weatherRollupHourly";
+  public static final String DAILY_COLLECTION = "weatherRollupDaily";
+  private static final String STATE_COLLECTION = "weatherRollupState";
+  private static final String DIRTY_COLLECTION = "weatherRollupDirty";
+  private static final String COVERAGE_ID = "coverage";
+  private static final String COMPACTION_ID = "compaction";
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherQueryPlans weatherQueryPlans;
+  @Autowired private WeatherQueryExecutor weatherQueryExecutor;
+  @Autowired private WeatherPartitions weatherPartitions;
+  @Autowired private WeatherBackgroundTasks weatherBackgroundTasks;
+  @Autowired private WeatherQueryMetrics weatherQueryMetrics;
+
+  @Value("${weather.rollups.enabled:true}")
+  private boolean enabled;
+
+  @Value("${weather.rollups.rebuild-on-startup:false}")
+  private boolean rebuildOnStartup;
+
+  // Start of the period for which rollups are complete, or null if they cannot be used.
+  private volatile LocalDateTime coveredSince;
+
+  // End of the period whose raw readings have been compacted into rollups, or null if none.
+  private volatile LocalDateTime compactedUntil;
+
+  // Start of each day whose rollups may be missing readings, with the version of its mark.
+  private final ConcurrentSkipListMap<LocalDateTime, Long> dirtyDays =
+      new ConcurrentSkipListMap<>();
+
+  // Source of mark versions, so that a day marked again while it is rebuilt stays marked.
+  private final AtomicLong lastMark = new AtomicLong();
+
+  /**
+   * Records the point from which rollups are maintained. The first startup with rollups enabled
+   * covers everything from the next full hour; disabling rollups discards the coverage, since
+   * readings saved while disabled are missing from them. Compacted readings are kept either way,
+   * since the rollups are all that is left of them.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void initialiseCoverage() {
+    compactedUntil = readState(COMPACTION_ID, "compactedUntil");
+    loadDirtyDays();
+    Query coverage = Query.query(Criteria.where("_id").is(COVERAGE_ID));
+    if (!enabled) {
+      mongoTemplate.remove(coverage, STATE_COLLECTION);
+      coveredSince = null;
+      return;
+    }
+    LocalDateTime nextHour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+    mongoTemplate.upsert(
+        coverage, new Update().setOnInsert("coveredSince", nextHour), STATE_COLLECTION);
+    coveredSince = readState(COVERAGE_ID, "coveredSince");
+    logger.info("Rollups cover readings since {}", coveredSince);
+    if (rebuildOnStartup) {
+      LocalDateTime rebuildTo = coveredSince;
+      weatherBackgroundTasks.submit(
+          "rollup-rebuild", () -> rebuild(LocalDateTime.of(1970, 1, 1, 0, 0), rebuildTo));
+    }
+  }
+
+  // Whether rollups are maintained and can be used for queries.
+  public boolean isEnabled() {
+    return enabled && coveredSince != null;
+  }
+
+  // Getter for the start of the period for which rollups are complete, or null.
+  public LocalDateTime getCoveredSince() {
+    return coveredSince;
+  }
+
+  // Getter for the end of the period whose raw readings only exist as rollups, or null.
+  public LocalDateTime getCompactedUntil() {
+    return compactedUntil;
+  }
+
+  // Getter for the start of each day whose rollups may be missing readings, oldest first.
+  public Set<LocalDateTime> getDirtyDays() {
+    return dirtyDays.keySet();
+  }
+
+  /**
+   * Records that the raw readings before a point have been compacted into rollups, so that
+   * queries read that period from the rollups from now on. The point only ever moves forward.
+   *
+   * @param until the end of the compacted period.
+   */
+  public void markCompacted(LocalDateTime until) {
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(COMPACTION_ID)),
+        new Update().max("compactedUntil", until),
+        STATE_COLLECTION);
+    compactedUntil = readState(COMPACTION_ID, "compactedUntil");
+  }
+
+  /**
+   * Updates the rollups with newly saved readings.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    if (!enabled) {
+      return;
+    }
+    try {
+      apply(event.getWeatherData());
+    } catch (Exception e) {
+      logger.error("Failed to update rollups for {} readings", event.getWeatherData().size(), e);
+      logger.warn(
+          "Rollups of {} are dirty until rebuilt; reading them from raw readings",
+          markDirty(event.getWeatherData()));
+    }
+  }
+
+  /**
+   * Marks the days of readings copied into new storage as dirty. The rollups already count them,
+   * but a rebuild while the copy ran (such as on startup) read those days without them, so they are
+   * read from raw readings until the repair rebuilds them from the complete collection.
+   *
+   * @param event the copied readings.
+   */
+  @EventListener
+  public void onWeatherDataMigrated(WeatherDataMigratedEvent event) {
+    if (enabled) {
+      logger.debug("Rollups of {} are dirty until rebuilt", markDirty(event.getWeatherData()));
+    }
+  }
+
+  /**
+   * Marks the days of readings whose rollups cannot be trusted, such as when an update failed with
+   * some of it applied, so that those days are read from raw readings until they have been
+   * rebuilt. The mark is kept in memory even if it cannot be recorded in the database.
+   *
+   * @param weatherData the readings.
+   * @return the days that were marked.
+   */
+  Set<LocalDateTime> markDirty(List<WeatherData> weatherData) {
+    long mark = lastMark.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    Set<LocalDateTime> days = new TreeSet<>();
+    for (WeatherData reading : weatherData) {
+      if (reading.getTimestamp() != null) {
+        days.add(reading.getTimestamp().truncatedTo(ChronoUnit.DAYS));
+      }
+    }
+    for (LocalDateTime day : days) {
+      dirtyDays.merge(day, mark, Math::max);
+      try {
+        mongoTemplate.upsert(
+            Query.query(Criteria.where("_id").is(day)),
+            new Update().max("mark", mark),
+            DIRTY_COLLECTION);
+      } catch (Exception e) {
+        logger.error("Failed to record the rollups of {} as dirty", day.toLocalDate(), e);
+      }
+    }
+    return days;
+  }
+
+  /**
+   * Rebuilds the rollups of dirty days that have ended, which clears their marks. Marks recorded by
+   * other instances are picked up first. Days before the compaction checkpoint are left marked,
+   * since most of their raw readings are gone and a rebuild would lose them; the mark keeps
+   * compaction from deleting the raw readings saved into them since.
+   */
+  @Scheduled(cron = "${weather.rollups.repair-cron:0 */10 * * * *}")
+  public void repairDirtyDays() {
+    if (!isEnabled()) {
+      return;
+    }
+    loadDirtyDays();
+    LocalDateTime today = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS);
+    LocalDateTime compacted = compactedUntil;
+    for (LocalDateTime day : dirtyDays.headMap(today).keySet()) {
+      if (compacted != null && day.isBefore(compacted)) {
+        continue;
+      }
+      try {
+        rebuild(day, day.plusDays(1));
+      } catch (Exception e) {
+        logger.error("Failed to rebuild the dirty rollups of {}", day.toLocalDate(), e);
+      }
+    }
+  }
+
+  /**
+   * Adds readings to the hourly and daily rollups. Readings are first combined per sensor and
+   * bucket so that each rollup document is updated once per call.
+   *
+   * @param weatherData the readings to add.
+   */
+  public void apply(List<WeatherData> weatherData) {
+    Map<String, SensorSummary> hourly = new HashMap<>();
+    Map<String, SensorSummary> daily = new HashMap<>();
+    Map<String, LocalDateTime> buckets = new HashMap<>();
+    for (WeatherData reading : weatherData) {
+      LocalDateTime hour = reading.getTimestamp().truncatedTo(ChronoUnit.HOURS);
+      LocalDateTime day = hour.truncatedTo(ChronoUnit.DAYS);
+      String hourKey = rollupId(reading.getSensorId(), hour);
+      String dayKey = rollupId(reading.getSensorId(), day);
+      hourly.computeIfAbsent(hourKey, k -> new SensorSummary(reading.getSensorId())).add(reading);
+      daily.computeIfAbsent(dayKey, k -> new SensorSummary(reading.getSensorId())).add(reading);
+      buckets.put(hourKey, hour);
+      buckets.put(dayKey, day);
+    }
+    upsert(HOURLY_COLLECTION, hourly, buckets);
+    upsert(DAILY_COLLECTION, daily, buckets);
+  }
+
+  /**
+   * Queries weather data statistics for a date range, combining daily and hourly rollups with raw
+   * readings for the parts of the range that no rollup covers. Produces the same rows as the
+   * aggregation pipeline in {@link WeatherAggregation}. Chunks of the sensors are summarised in
+   * parallel, and their summaries merged by combining counts, sums, minimums and maximums. Each
+   * summary pipeline is recorded in the profile of the request, if one is being collected.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics (e.g., temperature, humidity) to return per sensor.
+   * @param stats List of statistics (e.g., average, max, min, sum) to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query (matching readings up to the start of that day).
+   * @return the result row of each sensor, ordered by sensorId.
+   */
+  public List<SensorResult> queryWeatherData(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate) {
+    SensorSummary.checkStats(stats);
+    // The raw query matches timestamps up to and including the start of the end date.
+    LocalDateTime from = startDate.atStartOfDay();
+    LocalDateTime to = endDate.atStartOfDay().plus(1, ChronoUnit.MILLIS);
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.currentProfile();
+    Map<String, SensorSummary> summaries = new HashMap<>();
+    for (Map<String, SensorSummary> partial :
+        weatherQueryExecutor.fanOut(sensorIds, chunk -> querySummaries(chunk, from, to, profile))) {
+      partial.forEach(
+          (sensorId, summary) -> summaries.merge(sensorId, summary, SensorSummary::merge));
+    }
+    long start = System.nanoTime();
+    List<SensorResult> results = SensorSummary.toResults(summaries.values(), metrics, stats);
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.MAPPING, start);
+    return results;
+  }
+
+  /**
+   * Summarises the readings of each sensor in a half-open time range, using the coarsest rollups
+   * that fit and raw readings for the rest.
+   *
+   * @param sensorIds the sensors to include.
+   * @param from inclusive start of the range.
+   * @param to exclusive end of the range.
+   * @return the summary of each sensor that has readings in the range.
+   */
+  public Map<String, SensorSummary> querySummaries(
+      List<String> sensorIds, LocalDateTime from, LocalDateTime to) {
+    return querySummaries(sensorIds, from, to, weatherQueryMetrics.currentProfile());
+  }
+
+  /**
+   * Summarises the readings of each sensor in a half-open time range, recording the stages and
+   * pipelines in the given profile.
+   *
+   * @param sensorIds the sensors to include.
+   * @param from inclusive start of the range.
+   * @param to exclusive end of the range.
+   * @param profile the profile of the request, or null if none is being collected.
+   * @return the summary of each sensor that has readings in the range.
+   */
+  private Map<String, SensorSummary> querySummaries(
+      List<String> sensorIds,
+      LocalDateTime from,
+      LocalDateTime to,
+      WeatherQueryMetrics.Profile profile) {
+    Map<String, SensorSummary> summaries = new HashMap<>();
+    if (!from.isBefore(to)) {
+      return summaries;
+    }
+    // Compacted readings only exist as rollups.
+    LocalDateTime compacted = compactedUntil;
+    if (compacted != null && from.isBefore(compacted)) {
+      LocalDateTime end = to.isBefore(compacted) ? to : compacted;
+      summariseRollups(summaries, sensorIds, from, end, profile);
+      from = end;
+      if (!from.isBefore(to)) {
+        return summaries;
+      }
+    }
+    LocalDateTime covered = coveredSince;
+    if (covered == null || !covered.isBefore(to)) {
+      summarise(summaries, sensorIds, from, to, null, profile);
+      return summaries;
+    }
+    if (from.isBefore(covered)) {
+      summarise(summaries, sensorIds, from, covered, null, profile);
+      from = covered;
+    }
+    summariseCovered(summaries, sensorIds, from, to, profile);
+    return summaries;
+  }
+
+  /**
+   * Adds the summaries of a part of a query range that the rollups cover, reading dirty days from
+   * the raw readings and the rest from the rollups.
+   *
+   * @param summaries the running summaries, keyed by sensorId.
+   * @param sensorIds the sensors to include.
+   * @param from inclusive start of the part.
+   * @param to exclusive end of the part.
+   * @param profile the profile of the request, or null if none is being collected.
+   */
+  private void summariseCovered(
+      Map<String, SensorSummary> summaries,
+      List<String> sensorIds,
+      LocalDateTime from,
+      LocalDateTime to,
+      WeatherQueryMetrics.Profile profile) {
+    for (LocalDateTime day :
+        dirtyDays.subMap(from.truncatedTo(ChronoUnit.DAYS), true, to, false).keySet()) {
+      LocalDateTime start = day.isAfter(from) ? day : from;
+      LocalDateTime end = day.plusDays(1).isBefore(to) ? day.plusDays(1) : to;
+      summariseRollups(summaries, sensorIds, from, start, profile);
+      summarise(summaries, sensorIds, start, end, null, profile);
+      from = end;
+    }
+    summariseRollups(summaries, sensorIds, from, to, profile);
+  }
+
+  /**
+   * Adds the summaries of a part of a query range that the rollups cover, using the coarsest
+   * rollups that fit and raw readings for the partial hours at either end.
+   *
+   * @param summaries the running summaries, keyed by sensorId.
+   * @param sensorIds the sensors to include.
+   * @param from inclusive start of the part.
+   * @param to exclusive end of the part.
+   * @param profile the profile of the request, or null if none is being collected.
+   */
+  private void summariseRollups(
+      Map<String, SensorSummary> summaries,
+      List<String> sensorIds,
+      LocalDateTime from,
+      LocalDateTime to,
+      WeatherQueryMetrics.Profile profile) {
+    if (!from.isBefore(to)) {
+      return;
+    }
+    LocalDateTime firstHour = ceil(from, ChronoUnit.HOURS);
+    LocalDateTime lastHour = to.truncatedTo(ChronoUnit.HOURS);
+    if (!firstHour.isBefore(lastHour)) {
+      summarise(summaries, sensorIds, from, to, null, profile);
+      return;
+    }
+    LocalDateTime firstDay = ceil(firstHour, ChronoUnit.DAYS);
+    LocalDateTime lastDay = lastHour.truncatedTo(ChronoUnit.DAYS);
+
+    summarise(summaries, sensorIds, from, firstHour, null, profile);
+    if (firstDay.isBefore(lastDay)) {
+      summarise(summaries, sensorIds, firstHour, firstDay, HOURLY_COLLECTION, profile);
+      summarise(summaries, sensorIds, firstDay, lastDay, DAILY_COLLECTION, profile);
+      summarise(summaries, sensorIds, lastDay, lastHour, HOURLY_COLLECTION, profile);
+    } else {
+      summarise(summaries, sensorIds, firstHour, lastHour, HOURLY_COLLECTION, profile);
+    }
+    summarise(summaries, sensorIds, lastHour, to, null, profile);
+  }
+
+  /**
+   * Recomputes the hourly and daily rollups of a time range from the raw readings, replacing any
+   * existing rollups for those buckets, and extends the rollup coverage back to the start of the
+   * range if the range reaches the current coverage. Both ends of the range are widened to whole
+   * days. Readings saved into the range while it is being rebuilt may be missed, so this is meant
+   * for ranges that no longer receive new readings. Compacted periods are left as they are. Dirty
+   * marks of the rebuilt days are cleared, unless a day was marked again during the rebuild.
+   *
+   * @param from inclusive start of the range.
+   * @param to exclusive end of the range.
+   */
+  public void rebuild(LocalDateTime from, LocalDateTime to) {
+    LocalDateTime start = from.truncatedTo(ChronoUnit.DAYS);
+    LocalDateTime end = ceil(to, ChronoUnit.DAYS);
+    // Compacted readings are gone, so rebuilding their rollups would lose them.
+    LocalDateTime compacted = compactedUntil;
+    if (compacted != null && start.isBefore(compacted)) {
+      start = compacted;
+      if (!start.isBefore(end)) {
+        return;
+      }
+    }
+    logger.info("Rebuilding rollups from {} to {}", start, end);
+    Map<LocalDateTime, Long> rebuiltMarks = new HashMap<>(dirtyDays.subMap(start, end));
+    rebuildCollection(HOURLY_COLLECTION, "hour", "%Y-%m-%dT%H:00", start, end);
+    rebuildCollection(DAILY_COLLECTION, "day", "%Y-%m-%dT00:00", start, end);
+    rebuiltMarks.forEach(this::clearDirty);
+    LocalDateTime covered = coveredSince;
+    if (covered != null && start.isBefore(covered) && !end.isBefore(covered)) {
+      mongoTemplate.updateFirst(
+          Query.query(Criteria.where("_id").is(COVERAGE_ID)),
+          new Update().min("coveredSince", start),
+          STATE_COLLECTION);
+      coveredSince = readState(COVERAGE_ID, "coveredSince");
+    }
+    logger.info("Rebuilt rollups, which now cover readings since {}", coveredSince);
+  }
+
+  /**
+   * Adds the summaries of a part of a query range to the running per-sensor summaries.
+   *
+   * @param summaries the running summaries, keyed by sensorId.
+   * @param sensorIds the sensors to include.
+   * @param from inclusive start of the part.
+   * @param to exclusive end of the part.
+   * @param rollupCollection the rollup collection to read, or null to read raw readings.
+   * @param profile the profile of the request, or null if none is being collected.
+   */
+  private void summarise(
+      Map<String, SensorSummary> summaries,
+      List<String> sensorIds,
+      LocalDateTime from,
+      LocalDateTime to,
+      String rollupCollection,
+      WeatherQueryMetrics.Profile profile) {
+    if (!from.isBefore(to)) {
+      return;
+    }
+    long start = System.nanoTime();
+    String timeField = rollupCollection == null ? "timestamp" : "bucket";
+    Aggregation aggregation =
+        Aggregation.newAggregation(
+            Aggregation.match(
+                Criteria.where("sensorId").in(sensorIds).and(timeField).gte(from).lt(to)),
+            summaryGroupOperation(rollupCollection != null));
+    List<String> collections =
+        rollupCollection == null
+            ? weatherPartitions.collectionsFor(from, to)
+            : List.of(rollupCollection);
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.PIPELINE, start);
+    for (String collection : collections) {
+      if (profile != null) {
+        profile.addPipeline(
+            collection, WeatherQueryPlans.toPipeline(aggregation, mongoTemplate.getConverter()));
+      }
+      weatherQueryPlans.check(aggregation, collection);
+      start = System.nanoTime();
+      List<Document> results =
+          mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults();
+      weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.EXECUTION, start);
+      start = System.nanoTime();
+      addSummaries(summaries, results);
+      weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.MAPPING, start);
+    }
+  }
+
+  /**
+   * Adds the results of a summary group to the running per-sensor summaries, combining them with
+   * the summaries of other parts of the range.
+   *
+   * @param summaries the running summaries, keyed by sensorId.
+   * @param results the documents produced by the {@link #summaryGroupOperation(boolean)} group.
+   */
+  private static void addSummaries(Map<String, SensorSummary> summaries, List<Document> results) {
+    for (Document result : results) {
+      String sensorId = result.getString("_id");
+      SensorSummary summary = summaries.computeIfAbsent(sensorId, SensorSummary::new);
+      for (String metric : WeatherData.METRICS) {
+        Number count = (Number) result.get(metric + "Count");
+        if (count != null && count.longValue() > 0) {
+          summary
+              .metric(metric)
+              .add(
+                  count.longValue(),
+                  ((Number) result.get(metric + "Sum")).doubleValue(),
+                  ((Number) result.get(metric + "Min")).doubleValue(),
+                  ((Number) result.get(metric + "Max")).doubleValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a group operation that summarises every metric per sensor, either from raw readings or
+   * by combining rollup documents.
+   *
+   * @param fromRollups whether the input documents are rollups rather than raw readings.
+   * @return Group operation producing the count, sum, min and max of each metric.
+   */
+  private static AggregationOperation summaryGroupOperation(boolean fromRollups) {
+    Document group = new Document("_id", "$sensorId");
+    for (String metric : WeatherData.METRICS) {
+      String field = "$" + metric;
+      if (fromRollups) {
+        group.append(metric + "Count", new Document("$sum", field + ".count"));
+        group.append(metric + "Sum", new Document("$sum", field + ".sum"));
+        group.append(metric + "Min", new Document("$min", field + ".min"));
+        group.append(metric + "Max", new Document("$max", field + ".max"));
+      } else {
+        Document isNumber = new Document("$isNumber", field);
+        group.append(
+            metric + "Count",
+            new Document("$sum", new Document("$cond", List.of(isNumber, 1, 0))));
+        group.append(metric + "Sum", new Document("$sum", field));
+        group.append(metric + "Min", new Document("$min", field));
+        group.append(metric + "Max", new Document("$max", field));
+      }
+    }
+    return context -> new Document("$group", group);
+  }
+
+  /**
+   * Writes combined readings to a rollup collection, incrementing the counts and sums and widening
+   * the min/max of each rollup document.
+   *
+   * @param collection the rollup collection.
+   * @param summaries the combined readings, keyed by rollup document ID.
+   * @param buckets the bucket start time of each rollup document ID.
+   */
+  private void upsert(
+      String collection, Map<String, SensorSummary> summaries, Map<String, LocalDateTime> buckets) {
+    if (summaries.isEmpty()) {
+      return;
+    }
+    BulkOperations bulkOperations =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+    for (Map.Entry<String, SensorSummary> entry : summaries.entrySet()) {
+      SensorSummary summary = entry.getValue();
+      Update update =
+          new Update()
+              .setOnInsert("sensorId", summary.getSensorId())
+              .setOnInsert("bucket", buckets.get(entry.getKey()));
+      for (String metric : WeatherData.METRICS) {
+        MetricSummary metricSummary = summary.metric(metric);
+        if (metricSummary.getCount() > 0) {
+          update
+              .inc(metric + ".count", metricSummary.getCount())
+              .inc(metric + ".sum", metricSummary.getSum())
+              .min(metric + ".min", metricSummary.getMin())
+              .max(metric + ".max", metricSummary.getMax());
+        }
+      }
+      bulkOperations.upsert(Query.query(Criteria.where("_id").is(entry.getKey())), update);
+    }
+    bulkOperations.execute();
+  }
+
+  /**
+   * Recomputes one rollup collection from the raw readings in a time range, merging the results
+   * over the existing rollup documents. The readings of every collection holding the range are
+   * grouped in one pipeline, so that each rollup document is written once with all its readings.
+   *
+   * @param collection the rollup collection.
+   * @param unit the $dateTrunc unit of the rollup buckets.
+   * @param idFormat the $dateToString format of the bucket part of rollup IDs.
+   * @param from inclusive start of the range.
+   * @param to exclusive end of the range.
+   */
+  private void rebuildCollection(
+      String collection, String unit, String idFormat, LocalDateTime from, LocalDateTime to) {
+    String timezone = ZoneId.systemDefault().getId();
+    Document bucket =
+        new Document(
+            "$dateTrunc",
+            new Document("date", "$timestamp").append("unit", unit).append("timezone", timezone));
+    Document group =
+        new Document("_id", new Document("sensorId", "$sensorId").append("bucket", bucket));
+    Document project =
+        new Document(
+                "_id",
+                new Document(
+                    "$concat",
+                    List.of(
+                        "$_id.sensorId",
+                        "|",
+                        new Document(
+                            "$dateToString",
+                            new Document("date", "$_id.bucket")
+                                .append("format", idFormat)
+                                .append("timezone", timezone)))))
+            .append("sensorId", "$_id.sensorId")
+            .append("bucket", "$_id.bucket");
+    for (String metric : WeatherData.METRICS) {
+      String field = "$" + metric;
+      Document isNumber = new Document("$isNumber", field);
+      group.append(
+          metric + "Count", new Document("$sum", new Document("$cond", List.of(isNumber, 1, 0))));
+      group.append(metric + "Sum", new Document("$sum", field));
+      group.append(metric + "Min", new Document("$min", field));
+      group.append(metric + "Max", new Document("$max", field));
+      project.append(
+          metric,
+          new Document("count", "$" + metric + "Count")
+              .append("sum", "$" + metric + "Sum")
+              .append("min", "$" + metric + "Min")
+              .append("max", "$" + metric + "Max"));
+    }
+    // Unpartitioned readings in weatherData, and partitions of another scheme, overlap the
+    // partitions in time, so the readings of every collection are grouped together.
+    List<String> readings = weatherPartitions.collectionsFor(from, to);
+    if (readings.isEmpty()) {
+      return;
+    }
+    List<AggregationOperation> stages = new ArrayList<>();
+    stages.add(Aggregation.match(Criteria.where("timestamp").gte(from).lt(to)));
+    for (String other : readings.subList(1, readings.size())) {
+      stages.add(context -> unionWith(other, from, to));
+    }
+    stages.add(context -> new Document("$group", group));
+    stages.add(context -> new Document("$project", project));
+    stages.add(Aggregation.merge().intoCollection(collection).on("_id").build());
+    mongoTemplate.aggregate(Aggregation.newAggregation(stages), readings.get(0), Document.class);
+  }
+
+  /**
+   * Builds a $unionWith stage that adds the readings of a time range in another collection.
+   *
+   * @param collection the collection to read.
+   * @param from inclusive start of the range.
+   * @param to exclusive end of the range.
+   * @return the stage.
+   */
+  private static Document unionWith(String collection, LocalDateTime from, LocalDateTime to) {
+    Document match =
+        new Document("timestamp", new Document("$gte", toDate(from)).append("$lt", toDate(to)));
+    return new Document(
+        "$unionWith",
+        new Document("coll", collection)
+            .append("pipeline", List.of(new Document("$match", match))));
+  }
+
+  // Converts a time to a date the way MongoTemplate converts times in queries.
+  private static Date toDate(LocalDateTime time) {
+    return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+  }
+
+  /**
+   * Adds the dirty marks recorded in the database, by this or another instance, to those in memory.
+   */
+  private void loadDirtyDays() {
+    for (Document dirty : mongoTemplate.findAll(Document.class, DIRTY_COLLECTION)) {
+      LocalDateTime day =
+          LocalDateTime.ofInstant(dirty.getDate("_id").toInstant(), ZoneId.systemDefault());
+      dirtyDays.merge(day, ((Number) dirty.get("mark")).longValue(), Math::max);
+    }
+  }
+
+  /**
+   * Clears the dirty mark of a day whose rollups have been rebuilt, if it has not been marked again
+   * since the rebuild started.
+   *
+   * @param day the start of the day.
+   * @param mark the version of the mark when the rebuild started.
+   */
+  private void clearDirty(LocalDateTime day, long mark) {
+    mongoTemplate.remove(
+        Query.query(Criteria.where("_id").is(day).and("mark").is(mark)), DIRTY_COLLECTION);
+    dirtyDays.remove(day, mark);
+  }
+
+  /**
+   * Reads a point in time from the state collection, such as the start of the rollup coverage.
+   *
+   * @param id the ID of the state document.
+   * @param field the field holding the point in time.
+   * @return the point in time, or null if it has not been recorded.
+   */
+  private LocalDateTime readState(String id, String field) {
+    Document state =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("_id").is(id)), Document.class, STATE_COLLECTION);
+    if (state == null || state.getDate(field) == null) {
+      return null;
+    }
+    return LocalDateTime.ofInstant(state.getDate(field).toInstant(), ZoneId.systemDefault());
+  }
+
+  /**
+   * Builds the ID of a rollup document.
+   *
+   * @param sensorId the sensor ID.
+   * @param bucket the start of the rollup bucket.
+   * @return the rollup document ID.
+   */
+  private static String rollupId(String sensorId, LocalDateTime bucket) {
+    return sensorId + "|" + bucket.toLocalDate() + "T" + String.format("%02d:00", bucket.getHour());
+  }
+
+  /**
+   * Rounds a time up to the next boundary of a unit, leaving times on a boundary unchanged.
+   *
+   * @param time the time to round.
+   * @param unit the unit, hours or days.
+   * @return the rounded time.
+   */
+  private static LocalDateTime ceil(LocalDateTime time, ChronoUnit unit) {
+    LocalDateTime truncated = time.truncatedTo(unit);
+    return truncated.equals(time) ? time : truncated.plus(1, unit);
+  }
+}
@@ -0,0 +1,842 @@
+package org.orourked.weatherapi.database;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.orourked.weatherapi.model.SensorResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Queries time series of each sensor for charting, with the number of points per sensor bounded
+ * however long the date range is. Readings can either be aggregated into fixed time buckets with
+ * $dateTrunc, widening the buckets where needed to stay within the point limit, or downsampled to
+ * a subset of the raw readings that keeps the shape of the series.
+ *
+ * <p>When readings are {@link WeatherPartitions partitioned}, buckets can span two partitions, so
+ * the readings of the other overlapping partitions are added to the first with $unionWith before
+ * grouping. Downsampling reads the overlapping partitions of each sensor in turn.
+ *
+ * <p>Raw readings {@link WeatherCompaction compacted} into the rollups, or dropped with their
+ * partition after the retention period, only exist as hourly rollups. Buckets of an hour or more
+ * are aggregated from those rollups up to that point, and from the raw readings after it, with
+ * widened buckets rounded up to whole hours. Shorter buckets and downsampling need the raw
+ * readings, so ranges that start before that point are rejected.
+ *
+ * <p>Downsampling streams each sensor's readings once, in timestamp order, after counting them so
+ * that the buckets are known up front. Only the readings the selection may still need are held:
+ * the lowest and highest reading of the current bucket for min/max, and the current and following
+ * bucket for LTTB, so memory stays bounded by the point limit rather than the length of the range.
+ *
+ * <p>Both record their stages and pipelines in the profile of the request. Downsampling reads with
+ * a find rather than a pipeline; the equivalent $match, $sort and $project pipeline is recorded in
+ * its place, which the slow query log can explain for the same plan.
+ */
+@Repository
+public class WeatherSeries {
+
+  /**
+   * Thrown when a series needs raw readings from before the point they are kept from, such as a
+   * downsampled series or buckets shorter than the hourly rollups that hold the older readings.
+   */
+  public static class CompactedRangeException extends RuntimeException {
+    public CompactedRangeException(LocalDateTime rawSince) {
+      super(
+          "Raw readings before "
+              + rawSince.toLocalDate()
+              + " are only kept as hourly rollups; start the range on or after that date, or use"
+              + " an interval of 1h or more");
+    }
+  }
+
+  /** How raw readings are downsampled. */
+  public enum Downsample {
+    // Largest-Triangle-Three-Buckets, which keeps the points that best preserve the visual shape.
+    LTTB,
+    // The lowest and highest reading of each bucket, which keeps every peak.
+    MINMAX
+  }
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherQueryPlans weatherQueryPlans;
+  @Autowired private WeatherQueryExecutor weatherQueryExecutor;
+  @Autowired private WeatherPartitions weatherPartitions;
+  @Autowired private WeatherQueryMetrics weatherQueryMetrics;
+  @Autowired private WeatherRollups weatherRollups;
+
+  // The default, and largest allowed, number of points per sensor.
+  private int maxPoints = 1000;
+
+  @Value("${weather.query.max-points:1000}")
+  void setMaxPoints(int maxPoints) {
+    this.maxPoints = maxPoints;
+  }
+
+  /**
+   * Aggregates readings into time buckets, returning one row per sensor and bucket with the
+   * bucket's start and each requested stat of each requested metric, like the query endpoint.
+   * Where raw readings are no longer kept, the buckets are aggregated from the hourly rollups,
+   * which needs buckets of whole hours.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per bucket.
+   * @param stats List of statistics to apply to the metrics.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query (matching readings up to the start of that day).
+   * @param interval the requested width of the buckets.
+   * @param maxPoints the maximum number of buckets per sensor, or null for the configured maximum;
+   *     the buckets are widened to fit.
+   * @return the rows, ordered by sensorId and then bucket.
+   * @throws IllegalArgumentException if a stat is unknown.
+   * @throws CompactedRangeException if the interval is shorter than an hour and the range starts
+   *     before raw readings are kept.
+   */
+  public List<Map> queryBuckets(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate,
+      Duration interval,
+      Integer maxPoints) {
+    LocalDateTime from = startDate.atStartOfDay();
+    LocalDateTime to = endDate.atStartOfDay();
+    Duration width = widen(interval, from, to, limit(maxPoints));
+    LocalDateTime rawSince = rawReadingsSince();
+    if (rawSince != null && from.isBefore(rawSince)) {
+      if (interval.compareTo(Duration.ofHours(1)) < 0) {
+        throw new CompactedRangeException(rawSince);
+      }
+      // An hourly rollup falls into a single bucket only if the buckets are whole hours.
+      width = Duration.ofHours(width.plusMinutes(59).toHours());
+      Document bucket = bucketExpression(interval, width, "$bucket");
+      return queryRollupBuckets(sensorIds, metrics, stats, from, to, rawSince, bucket);
+    }
+    Document bucket = bucketExpression(interval, width, "$timestamp");
+    Document group =
+        new Document("_id", new Document("sensorId", "$sensorId").append("bucket", bucket));
+    Document project =
+        new Document("_id", 0).append("sensorId", "$_id.sensorId").append("bucket", "$_id.bucket");
+    for (String metric : metrics) {
+      for (String stat : stats) {
+        String field = SensorResult.statPrefix(stat) + metric;
+        group.append(field, new Document(WeatherAggregation.accumulator(stat), "$" + metric));
+        project.append(field, WeatherAggregation.round("$" + field));
+      }
+    }
+    List<String> collections =
+        weatherPartitions.collectionsFor(from, to.plus(1, ChronoUnit.MILLIS));
+    if (collections.isEmpty()) {
+      return new ArrayList<>();
+    }
+    return aggregateBuckets(
+        sensorIds,
+        collections.get(0),
+        chunk -> {
+          List<AggregationOperation> stages = new ArrayList<>();
+          stages.add(
+              Aggregation.match(
+                  Criteria.where("sensorId").in(chunk).and("timestamp").gte(from).lte(to)));
+          for (String other : collections.subList(1, collections.size())) {
+            stages.add(context -> unionWith(other, chunk, from, to));
+          }
+          stages.add(context -> new Document("$group", group));
+          stages.add(context -> new Document("$project", project));
+          return stages;
+        });
+  }
+
+  /**
+   * Aggregates buckets from the hourly rollups up to the point raw readings are kept from, and
+   * from the raw readings after it. The raw readings are reshaped into the count, sum, min and max
+   * of each metric like a rollup, so that a bucket spanning the boundary combines both, and
+   * averages are the sum over the count rather than an average of averages.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per bucket.
+   * @param stats List of statistics to apply to the metrics.
+   * @param from inclusive start of the range.
+   * @param to inclusive end of the range.
+   * @param rawSince the point from which raw readings are kept.
+   * @param bucket the bucket expression, over the time of a rollup.
+   * @return the rows, ordered by sensorId and then bucket.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  private List<Map> queryRollupBuckets(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDateTime from,
+      LocalDateTime to,
+      LocalDateTime rawSince,
+      Document bucket) {
+    Document group =
+        new Document("_id", new Document("sensorId", "$sensorId").append("bucket", bucket));
+    Document project =
+        new Document("_id", 0).append("sensorId", "$_id.sensorId").append("bucket", "$_id.bucket");
+    Document reshape = new Document("_id", 0).append("sensorId", 1).append("bucket", "$timestamp");
+    for (String metric : metrics) {
+      String field = "$" + metric;
+      reshape.append(
+          metric,
+          new Document(
+                  "count",
+                  new Document("$cond", List.of(new Document("$isNumber", field), 1, 0)))
+              .append("sum", field)
+              .append("min", field)
+              .append("max", field));
+      for (String stat : stats) {
+        String name = SensorResult.statPrefix(stat) + metric;
+        if (!"average".equals(stat)) {
+          // The rollups hold the min, max and sum under the names of the stats.
+          group.append(
+              name, new Document(WeatherAggregation.accumulator(stat), field + "." + stat));
+          project.append(name, WeatherAggregation.round("$" + name));
+          continue;
+        }
+        group.append("count" + metric, new Document("$sum", field + ".count"));
+        group.append("total" + metric, new Document("$sum", field + ".sum"));
+        project.append(
+            name,
+            new Document(
+                "$cond",
+                Arrays.asList(
+                    new Document("$gt", List.of("$count" + metric, 0)),
+                    WeatherAggregation.round(
+                        new Document("$divide", List.of("$total" + metric, "$count" + metric))),
+                    null)));
+      }
+    }
+    LocalDateTime rollupsTo = rawSince.isAfter(to) ? to : rawSince;
+    List<String> collections =
+        rawSince.isAfter(to)
+            ? List.of()
+            : weatherPartitions.collectionsFor(rawSince, to.plus(1, ChronoUnit.MILLIS));
+    return aggregateBuckets(
+        sensorIds,
+        WeatherRollups.HOURLY_COLLECTION,
+        chunk -> {
+          List<AggregationOperation> stages = new ArrayList<>();
+          stages.add(
+              Aggregation.match(
+                  Criteria.where("sensorId").in(chunk).and("bucket").gte(from).lt(rollupsTo)));
+          for (String collection : collections) {
+            stages.add(
+                context ->
+                    unionWith(
+                        collection, chunk, rawSince, to, new Document("$project", reshape)));
+          }
+          stages.add(context -> new Document("$group", group));
+          stages.add(context -> new Document("$project", project));
+          return stages;
+        });
+  }
+
+  /**
+   * Runs a bucket pipeline for each chunk of the sensors, sorting the rows of each chunk by sensor
+   * and bucket.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param collection the collection the pipeline runs against.
+   * @param stages builds the stages of the pipeline for a chunk of the sensors, before the sort.
+   * @return the rows, ordered by sensorId and then bucket.
+   */
+  private List<Map> aggregateBuckets(
+      List<String> sensorIds,
+      String collection,
+      Function<List<String>, List<AggregationOperation>> stages) {
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.currentProfile();
+    List<Map> results = new ArrayList<>();
+    for (List<Map> partial :
+        weatherQueryExecutor.fanOut(
+            sensorIds,
+            chunk -> {
+              long start = System.nanoTime();
+              List<AggregationOperation> chunkStages = stages.apply(chunk);
+              chunkStages.add(
+                  context ->
+                      new Document("$sort", new Document("sensorId", 1).append("bucket", 1)));
+              Aggregation aggregation = Aggregation.newAggregation(chunkStages);
+              weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.PIPELINE, start);
+              if (profile != null) {
+                profile.addPipeline(
+                    collection,
+                    WeatherQueryPlans.toPipeline(aggregation, mongoTemplate.getConverter()));
+              }
+              weatherQueryPlans.check(aggregation, collection);
+              // The rows are mapped while the cursor is drained, so mapping counts as execution.
+              start = System.nanoTime();
+              List<Map> rows =
+                  mongoTemplate.aggregate(aggregation, collection, Map.class).getMappedResults();
+              weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.EXECUTION, start);
+              return rows;
+            })) {
+      results.addAll(partial);
+    }
+    return results;
+  }
+
+  /**
+   * Downsamples the raw readings of each sensor to at most the given number of points, selected by
+   * the first requested metric. Each point is a reading with its timestamp and the value of every
+   * requested metric.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per point; the first selects the points.
+   * @param startDate Start date for the query.
+   * @param endDate End date for the query (matching readings up to the start of that day).
+   * @param downsample the downsampling algorithm.
+   * @param maxPoints the maximum number of points per sensor, or null for the configured maximum.
+   * @return the points, ordered by sensorId and then timestamp.
+   * @throws CompactedRangeException if the range starts before raw readings are kept.
+   */
+  public List<Map> queryDownsampled(
+      List<String> sensorIds,
+      List<String> metrics,
+      LocalDate startDate,
+      LocalDate endDate,
+      Downsample downsample,
+      Integer maxPoints) {
+    LocalDateTime from = startDate.atStartOfDay();
+    LocalDateTime to = endDate.atStartOfDay();
+    LocalDateTime rawSince = rawReadingsSince();
+    if (rawSince != null && from.isBefore(rawSince)) {
+      throw new CompactedRangeException(rawSince);
+    }
+    int limit = limit(maxPoints);
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.currentProfile();
+    List<Map> results = new ArrayList<>();
+    for (List<Map> partial :
+        weatherQueryExecutor.fanOut(
+            sensorIds,
+            chunk -> {
+              List<Map> points = new ArrayList<>();
+              for (String sensorId : chunk) {
+                points.addAll(downsample(sensorId, metrics, from, to, downsample, limit, profile));
+              }
+              return points;
+            })) {
+      results.addAll(partial);
+    }
+    return results;
+  }
+
+  /**
+   * Returns the point before which raw readings are no longer kept: the compaction checkpoint, or
+   * the start of the partitions kept by the retention period while the rollups are maintained,
+   * whichever is later.
+   *
+   * @return the point from which raw readings are kept, or null if they all are.
+   */
+  private LocalDateTime rawReadingsSince() {
+    LocalDateTime compacted = weatherRollups.getCompactedUntil();
+    LocalDateTime retained =
+        weatherRollups.isEnabled() ? weatherPartitions.getRetainedSince() : null;
+    if (compacted == null) {
+      return retained;
+    }
+    return retained == null || retained.isBefore(compacted) ? compacted : retained;
+  }
+
+  // Returns the requested number of points per sensor, capped at the configured maximum.
+  private int limit(Integer requested) {
+    return requested == null ? maxPoints : Math.min(requested, maxPoints);
+  }
+
+  /**
+   * Streams the readings of one sensor through a selector and returns the selected points. Reading
+   * and selecting are interleaved, so both count as execution; building the points counts as
+   * mapping.
+   *
+   * @param sensorId the sensor to downsample.
+   * @param metrics List of metrics to return per point; the first selects the points.
+   * @param from inclusive start of the range.
+   * @param to inclusive end of the range.
+   * @param downsample the downsampling algorithm.
+   * @param maxPoints the maximum number of points.
+   * @param profile the profile of the request, or null if none is being collected.
+   * @return the selected points.
+   */
+  private List<Map> downsample(
+      String sensorId,
+      List<String> metrics,
+      LocalDateTime from,
+      LocalDateTime to,
+      Downsample downsample,
+      int maxPoints,
+      WeatherQueryMetrics.Profile profile) {
+    long start = System.nanoTime();
+    Criteria range = Criteria.where("sensorId").is(sensorId).and("timestamp").gte(from).lte(to);
+    List<String> collections =
+        weatherPartitions.collectionsFor(from, to.plus(1, ChronoUnit.MILLIS));
+    if (profile != null) {
+      List<String> fields = new ArrayList<>(metrics);
+      fields.add("timestamp");
+      Aggregation aggregation =
+          Aggregation.newAggregation(
+              Aggregation.match(range),
+              Aggregation.sort(Sort.by("timestamp")),
+              Aggregation.project(fields.toArray(new String[0])).andExclude("_id"));
+      for (String collection : collections) {
+        profile.addPipeline(
+            collection, WeatherQueryPlans.toPipeline(aggregation, mongoTemplate.getConverter()));
+      }
+    }
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.PIPELINE, start);
+    start = System.nanoTime();
+    // Counted from the {sensorId, timestamp} index without reading the documents.
+    long count = 0;
+    for (String collection : collections) {
+      count += mongoTemplate.count(Query.query(range), collection);
+    }
+    Selector selector =
+        selector(downsample, (int) Math.min(count, Integer.MAX_VALUE), maxPoints);
+    Query query = Query.query(range).with(Sort.by("timestamp"));
+    query.fields().include("timestamp").include(metrics.toArray(new String[0])).exclude("_id");
+    // Partitions are read oldest first, so the readings stay in timestamp order.
+    for (String collection : collections) {
+      try (Stream<Document> readings = mongoTemplate.stream(query, Document.class, collection)) {
+        for (Document reading : (Iterable<Document>) readings::iterator) {
+          Object first = reading.get(metrics.get(0));
+          if (!(first instanceof Number) || !(reading.get("timestamp") instanceof Date)) {
+            selector.skip();
+            continue;
+          }
+          double[] values = new double[metrics.size()];
+          for (int m = 0; m < values.length; m++) {
+            Object value = reading.get(metrics.get(m));
+            values[m] = value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+          }
+          selector.add(reading.getDate("timestamp").getTime(), values);
+        }
+      }
+    }
+    List<Point> selected = selector.finish();
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.EXECUTION, start);
+    start = System.nanoTime();
+    List<Map> points = new ArrayList<>(selected.size());
+    for (Point selectedPoint : selected) {
+      Map<String, Object> point = new LinkedHashMap<>();
+      point.put("sensorId", sensorId);
+      point.put("timestamp", new Date(selectedPoint.timestamp));
+      for (int m = 0; m < metrics.size(); m++) {
+        double value = selectedPoint.values[m];
+        point.put(metrics.get(m), Double.isNaN(value) ? null : value);
+      }
+      points.add(point);
+    }
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.MAPPING, start);
+    return points;
+  }
+
+  /**
+   * Builds a $unionWith stage that adds the readings of a sensor chunk in another partition.
+   *
+   * @param collection the partition to read.
+   * @param sensorIds the sensors of the chunk.
+   * @param from inclusive start of the range.
+   * @param to inclusive end of the range.
+   * @param then stages applied to the matching readings before they are added.
+   * @return the stage.
+   */
+  private static Document unionWith(
+      String collection,
+      List<String> sensorIds,
+      LocalDateTime from,
+      LocalDateTime to,
+      Document... then) {
+    Document match =
+        new Document("sensorId", new Document("$in", sensorIds))
+            .append("timestamp", new Document("$gte", toDate(from)).append("$lte", toDate(to)));
+    List<Document> pipeline = new ArrayList<>();
+    pipeline.add(new Document("$match", match));
+    pipeline.addAll(Arrays.asList(then));
+    return new Document(
+        "$unionWith", new Document("coll", collection).append("pipeline", pipeline));
+  }
+
+  // Converts a time to a date the way MongoTemplate converts times in queries.
+  private static Date toDate(LocalDateTime time) {
+    return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+  }
+
+  /**
+   * Selects points with Largest-Triangle-Three-Buckets: the first and last points are kept, and
+   * the points in between are split into equal buckets, from each of which the point forming the
+   * largest triangle with the previously selected point and the average of the next bucket is
+   * kept.
+   *
+   * @param x the x values, in increasing order.
+   * @param y the y values.
+   * @param size the number of points.
+   * @param threshold the maximum number of points to select.
+   * @return the indices of the selected points, in increasing order.
+   */
+  static int[] lttb(long[] x, double[] y, int size, int threshold) {
+    return select(selector(Downsample.LTTB, size, threshold), x, y, size);
+  }
+
+  /**
+   * Selects the lowest and highest point of each of threshold / 2 equal buckets.
+   *
+   * @param y the y values.
+   * @param size the number of points.
+   * @param threshold the maximum number of points to select.
+   * @return the indices of the selected points, in increasing order.
+   */
+  static int[] minMax(double[] y, int size, int threshold) {
+    return select(selector(Downsample.MINMAX, size, threshold), new long[size], y, size);
+  }
+
+  // Runs a selector over points held in arrays, returning the indices of the selected points.
+  private static int[] select(Selector selector, long[] x, double[] y, int size) {
+    for (int i = 0; i < size; i++) {
+      selector.add(x[i], new double[] {y[i]});
+    }
+    return selector.finish().stream().mapToInt(point -> point.index).toArray();
+  }
+
+  /**
+   * Creates the selector of a downsampling algorithm.
+   *
+   * @param downsample the algorithm.
+   * @param size the number of points in the series.
+   * @param threshold the maximum number of points to select.
+   * @return the selector; one that keeps every point if there are no more than the threshold.
+   */
+  private static Selector selector(Downsample downsample, int size, int threshold) {
+    if (threshold >= size) {
+      return new AllSelector(threshold);
+    }
+    return downsample == Downsample.LTTB
+        ? new LttbSelector(size, threshold)
+        : new MinMaxSelector(size, threshold);
+  }
+
+  /** A point of a series: its position, its time, and its values, the first selecting it. */
+  private static final class Point {
+    private final int index;
+    private final long timestamp;
+    private final double[] values;
+
+    private Point(int index, long timestamp, double[] values) {
+      this.index = index;
+      this.timestamp = timestamp;
+      this.values = values;
+    }
+  }
+
+  /**
+   * Selects points of a series read in order. Points beyond the counted size, such as readings
+   * saved after the count, are left out, and buckets left empty by readings removed since are
+   * skipped.
+   */
+  private abstract static class Selector {
+    // The selected points, in order.
+    final List<Point> selected = new ArrayList<>();
+
+    // The position of the next point in the series.
+    private int position;
+
+    // Adds the next point of the series.
+    void add(long timestamp, double[] values) {
+      accept(new Point(position++, timestamp, values));
+    }
+
+    // Skips the next point of the series, which has no value to select it by.
+    void skip() {
+      position++;
+    }
+
+    abstract void accept(Point point);
+
+    // Selects from the points still held once the whole series has been read.
+    abstract List<Point> finish();
+  }
+
+  /** Keeps every point, for series no longer than the threshold. */
+  private static final class AllSelector extends Selector {
+    private final int threshold;
+
+    private AllSelector(int threshold) {
+      this.threshold = threshold;
+    }
+
+    @Override
+    void accept(Point point) {
+      if (selected.size() < threshold) {
+        selected.add(point);
+      }
+    }
+
+    @Override
+    List<Point> finish() {
+      return selected;
+    }
+  }
+
+  /**
+   * Largest-Triangle-Three-Buckets over a streamed series. A bucket's point can only be chosen
+   * once the following bucket has been read, so the current and following bucket are held.
+   */
+  private static final class LttbSelector extends Selector {
+    private final int size;
+    private final int threshold;
+    private final double bucketSize;
+
+    // The inner bucket whose points are held in current; the following bucket's are in next.
+    private int bucket;
+    private List<Point> current = new ArrayList<>();
+    private List<Point> next = new ArrayList<>();
+
+    // The last selected point, and the last point of the series once read.
+    private Point previous;
+    private Point last;
+
+    private LttbSelector(int size, int threshold) {
+      this.size = size;
+      this.threshold = threshold;
+      this.bucketSize = (double) (size - 2) / (threshold - 2);
+    }
+
+    // Returns the end (exclusive) of an inner bucket.
+    private int end(int bucket) {
+      return (int) Math.floor((bucket + 1) * bucketSize) + 1;
+    }
+
+    @Override
+    void accept(Point point) {
+      if (point.index >= size - 1) {
+        if (point.index == size - 1 && threshold >= 2) {
+          last = point;
+        }
+        return;
+      }
+      if (previous == null) {
+        selected.add(point);
+        previous = point;
+        return;
+      }
+      if (threshold < 3) {
+        return;
+      }
+      while (bucket < threshold - 3 && point.index >= end(bucket + 1)) {
+        advance(next);
+      }
+      (point.index < end(bucket) ? current : next).add(point);
+    }
+
+    @Override
+    List<Point> finish() {
+      if (threshold >= 3) {
+        while (bucket < threshold - 2) {
+          List<Point> following = next;
+          if (bucket == threshold - 3 && last != null) {
+            following = new ArrayList<>(next);
+            following.add(last);
+          }
+          advance(following);
+        }
+      }
+      if (last != null) {
+        selected.add(last);
+      }
+      return selected;
+    }
+
+    /**
+     * Chooses the point of the current bucket forming the largest triangle with the previous
+     * point and the average of the following points, and moves on to the next bucket.
+     *
+     * @param following the points after the current bucket.
+     */
+    private void advance(List<Point> following) {
+      if (!current.isEmpty()) {
+        List<Point> averaged = following.isEmpty() ? current : following;
+        double averageX = 0;
+        double averageY = 0;
+        for (Point point : averaged) {
+          averageX += point.timestamp;
+          averageY += point.values[0];
+        }
+        averageX /= averaged.size();
+        averageY /= averaged.size();
+        double maxArea = -1;
+        Point chosen = current.get(0);
+        for (Point point : current) {
+          double area =
+              Math.abs(
+                  (previous.timestamp - averageX) * (point.values[0] - previous.values[0])
+                      - (previous.timestamp - point.timestamp)
+                          * (averageY - previous.values[0]));
+          if (area > maxArea) {
+            maxArea = area;
+            chosen = point;
+          }
+        }
+        selected.add(chosen);
+        previous = chosen;
+      }
+      current = next;
+      next = new ArrayList<>();
+      bucket++;
+    }
+  }
+
+  /** The lowest and highest point of each of threshold / 2 equal buckets of a streamed series. */
+  private static final class MinMaxSelector extends Selector {
+    private final int size;
+    private final int buckets;
+
+    // The bucket being read, where it ends (exclusive), and its lowest and highest points so far.
+    private int bucket;
+    private int bucketEnd;
+    private Point min;
+    private Point max;
+
+    private MinMaxSelector(int size, int threshold) {
+      this.size = size;
+      this.buckets = threshold / 2;
+      this.bucketEnd = buckets == 0 ? size : end(0);
+    }
+
+    // Returns the end (exclusive) of a bucket.
+    private int end(int bucket) {
+      return (int) ((long) (bucket + 1) * size / buckets);
+    }
+
+    @Override
+    void accept(Point point) {
+      if (point.index >= size) {
+        return;
+      }
+      if (buckets == 0) {
+        if (selected.isEmpty()) {
+          selected.add(point);
+        }
+        return;
+      }
+      while (point.index >= bucketEnd) {
+        flush();
+        bucket++;
+        bucketEnd = end(bucket);
+      }
+      if (min == null || point.values[0] < min.values[0]) {
+        min = point;
+      }
+      if (max == null || point.values[0] > max.values[0]) {
+        max = point;
+      }
+    }
+
+    @Override
+    List<Point> finish() {
+      flush();
+      return selected;
+    }
+
+    // Selects the lowest and highest point of the bucket read so far, in order.
+    private void flush() {
+      if (min == null) {
+        return;
+      }
+      selected.add(min.index < max.index ? min : max);
+      if (min != max) {
+        selected.add(min.index < max.index ? max : min);
+      }
+      min = null;
+      max = null;
+    }
+  }
+
+  /**
+   * Builds the $dateTrunc expression for a bucket width, in the server's time zone so that day
+   * buckets start at local midnight.
+   *
+   * @param interval the requested width.
+   * @param width the width to use, at least the requested one.
+   * @param time the field holding the time to bucket, e.g. "$timestamp".
+   * @return the expression.
+   */
+  private static Document bucketExpression(Duration interval, Duration width, String time) {
+    String unit;
+    long binSize;
+    if (width.equals(interval) && interval.toDays() > 0 && interval.toHours() % 24 == 0) {
+      unit = "day";
+      binSize = interval.toDays();
+    } else if (width.equals(interval) && interval.toMinutes() % 60 == 0) {
+      unit = "hour";
+      binSize = interval.toHours();
+    } else {
+      unit = "minute";
+      binSize = width.toMinutes();
+    }
+    return new Document(
+        "$dateTrunc",
+        new Document("date", time)
+            .append("unit", unit)
+            .append("binSize", binSize)
+            .append("timezone", ZoneId.systemDefault().getId()));
+  }
+
+  /**
+   * Widens a bucket width, in whole minutes, so that a range holds at most the given number of
+   * buckets.
+   *
+   * @param interval the requested width.
+   * @param from the start of the range.
+   * @param to the end of the range.
+   * @param maxPoints the maximum number of buckets.
+   * @return the width to use.
+   */
+  static Duration widen(Duration interval, LocalDateTime from, LocalDateTime to, int maxPoints) {
+    // Buckets are aligned to their width, so a range can touch one more bucket than it spans.
+    long rangeMinutes = Duration.between(from, to).toMinutes() + 1;
+    long buckets = Math.max(1, maxPoints - 1);
+    long minimumMinutes = (rangeMinutes + buckets - 1) / buckets;
+    return interval.toMinutes() >= minimumMinutes ? interval : Duration.ofMinutes(minimumMinutes);
+  }
+
+  /**
+   * Parses a bucket interval such as "5m", "1h" or "1d".
+   *
+   * @param interval a positive number followed by m, h or d.
+   * @return the interval.
+   * @throws IllegalArgumentException if the interval is malformed.
+   */
+  public static Duration parseInterval(String interval) {
+    if (interval == null || !interval.matches("\\d+[mhd]")) {
+      throw new IllegalArgumentException("Invalid interval: " + interval);
+    }
+    long amount = Long.parseLong(interval.substring(0, interval.length() - 1));
+    if (amount <= 0) {
+      throw new IllegalArgumentException("Invalid interval: " + interval);
+    }
+    switch (interval.charAt(interval.length() - 1)) {
+      case 'm':
+        return Duration.ofMinutes(amount);
+      case 'h':
+        return Duration.ofHours(amount);
+      default:
+        return Duration.ofDays(amount);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.orourked.weatherapi.database;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs queries that take longer than a threshold, with what is needed to find out why: the request,
+ * the time spent in each stage, the size of the response and each pipeline that was run, along
+ * with how many documents and index keys it examined and whether it spilled to disk.
+ *
+ * <p>The execution stats come from explaining the pipeline again, which runs it a second time. This
+ * is done on a single background thread rather than the request thread, so slow queries are not
+ * made slower; entries are dropped rather than queued without bound if slow queries arrive faster
+ * than they can be explained.
+ */
+@Component
+public class WeatherSlowQueryLog {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherSlowQueryLog.class);
+
+  private final WeatherQueryPlans weatherQueryPlans;
+  private final long thresholdNanos;
+  private final boolean explain;
+  private final ThreadPoolExecutor executor;
+
+  @Autowired
+  public WeatherSlowQueryLog(
+      WeatherQueryPlans weatherQueryPlans,
+      @Value("${weather.query.slow-log.threshold-ms:1000}") long thresholdMillis,
+      @Value("${weather.query.slow-log.explain:false}") boolean explain) {
+    this.weatherQueryPlans = weatherQueryPlans;
+    this.thresholdNanos =
+        thresholdMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(thresholdMillis) : Long.MAX_VALUE;
+    this.explain = explain;
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(100),
+            runnable -> {
+              Thread thread = new Thread(runnable, "weather-slow-query-log");
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /** Stops the explain thread, dropping entries that have not been logged yet. */
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Checks whether a request took long enough to be logged.
+   *
+   * @param elapsedNanos the time the request took.
+   * @return whether it is a slow query.
+   */
+  public boolean isSlow(long elapsedNanos) {
+    return elapsedNanos >= thresholdNanos;
+  }
+
+  /**
+   * Logs a slow query, explaining its pipelines in the background first if enabled.
+   *
+   * @param endpoint the kind of query, e.g. "query" or "series".
+   * @param request the request, as JSON.
+   * @param profile the profile collected for the request.
+   * @param elapsedNanos the time the request took.
+   */
+  public void log(
+      String endpoint, String request, WeatherQueryMetrics.Profile profile, long elapsedNanos) {
+    List<Document> pipelines = new ArrayList<>();
+    for (Map.Entry<String, List<Document>> pipeline : profile.getPipelines()) {
+      pipelines.add(
+          new Document("collection", pipeline.getKey()).append("pipeline", pipeline.getValue()));
+    }
+    if (!explain || pipelines.isEmpty()) {
+      logger.warn(format(endpoint, request, profile, elapsedNanos, pipelines));
+      return;
+    }
+    executor.execute(
+        () -> {
+          for (Document pipeline : pipelines) {
+            try {
+              pipeline.append(
+                  "execution",
+                  weatherQueryPlans.explainExecution(
+                      pipeline.getList("pipeline", Document.class),
+                      pipeline.getString("collection")));
+            } catch (Exception e) {
+              pipeline.append("execution", "explain failed: " + e.getMessage());
+            }
+          }
+          logger.warn(format(endpoint, request, profile, elapsedNanos, pipelines));
+        });
+  }
+
+  /**
+   * Formats a slow query log entry.
+   *
+   * @param endpoint the kind of query.
+   * @param request the request, as JSON.
+   * @param profile the profile collected for the request.
+   * @param elapsedNanos the time the request took.
+   * @param pipelines the pipelines that were run, with their execution stats if explained.
+   * @return the log message.
+   */
+  static String format(
+      String endpoint,
+      String request,
+      WeatherQueryMetrics.Profile profile,
+      long elapsedNanos,
+      List<Document> pipelines) {
+    return "Slow "
+        + endpoint
+        + " took "
+        + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+        + "ms: request="
+        + request
+        + ", stages="
+        + profile
+        + ", pipelines="
+        + pipelines;
+  }
+}
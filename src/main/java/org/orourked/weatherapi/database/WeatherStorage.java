@@ -0,0 +1,276 @@
+package org.orourked.weatherapi.database;
+
+import com.mongodb.MongoNamespace;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.bson.Document;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataMigratedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Sets up the collection that raw readings are stored in. In the default plain mode readings are
+ * stored in a regular collection. In time-series mode they are stored in a MongoDB time-series
+ * collection, with the timestamp as its time field and the sensor ID as its meta field, which
+ * stores readings of the same sensor together in compressed buckets.
+ *
+ * <p>An existing plain collection is only converted when migration is enabled: it is renamed to
+ * the legacy collection, an empty time-series collection takes its place (so new readings are
+ * written there straight away), and the legacy readings are copied over in batches in the
+ * background. Progress is checkpointed, so an interrupted migration resumes where it stopped on the
+ * next startup. Each copied batch is published as a {@link WeatherDataMigratedEvent}, so that
+ * state derived from the readings catches up with them. The legacy collection is kept once copied
+ * and can be dropped by hand.
+ */
+@Repository
+public class WeatherStorage {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherStorage.class);
+
+  public static final String LEGACY_COLLECTION = "weatherDataLegacy";
+  private static final String STATE_COLLECTION = "weatherStorageState";
+  private static final String MIGRATION_ID = "migration";
+
+  /** How raw readings are stored. */
+  public enum Mode {
+    // A regular collection.
+    PLAIN,
+    // A time-series collection.
+    TIMESERIES
+  }
+
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private WeatherBackgroundTasks weatherBackgroundTasks;
+  @Autowired private ApplicationEventPublisher eventPublisher;
+
+  // How raw readings are stored.
+  private Mode mode = Mode.PLAIN;
+
+  // Bucketing granularity of the time-series collection, matching the interval between readings.
+  private Granularity granularity = Granularity.MINUTES;
+
+  @Value("${weather.storage.migrate:false}")
+  private boolean migrate;
+
+  @Value("${weather.storage.migration-batch-size:1000}")
+  private int migrationBatchSize;
+
+  @Value("${weather.storage.mode:plain}")
+  void setMode(String mode) {
+    this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+  }
+
+  @Value("${weather.storage.granularity:minutes}")
+  void setGranularity(String granularity) {
+    this.granularity = Granularity.valueOf(granularity.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Creates or converts the readings collection for the configured storage mode. Runs before the
+   * application starts taking requests, so that readings are never written to the wrong
+   * collection.
+   */
+  @PostConstruct
+  public void initialise() {
+    if (mode == Mode.PLAIN) {
+      return;
+    }
+    String collection = mongoTemplate.getCollectionName(WeatherData.class);
+    String type = collectionType(collection);
+    if (type == null) {
+      createTimeSeriesCollection(collection);
+    } else if (!"timeseries".equals(type)) {
+      if (!migrate) {
+        logger.warn(
+            "{} is a plain collection; set weather.storage.migrate=true to convert it to a"
+                + " time-series collection",
+            collection);
+        return;
+      }
+      if (collectionType(LEGACY_COLLECTION) != null) {
+        throw new IllegalStateException(
+            "Cannot migrate " + collection + ": " + LEGACY_COLLECTION + " already exists");
+      }
+      mongoTemplate
+          .getCollection(collection)
+          .renameCollection(new MongoNamespace(mongoTemplate.getDb().getName(), LEGACY_COLLECTION));
+      createTimeSeriesCollection(collection);
+      logger.info("Renamed {} to {} for migration", collection, LEGACY_COLLECTION);
+    }
+    if (migrate && collectionType(LEGACY_COLLECTION) != null) {
+      weatherBackgroundTasks.submit("storage-migration", () -> migrate(collection));
+    }
+  }
+
+  /**
+   * Copies the legacy readings into the time-series collection in batches of increasing ID,
+   * checkpointing the last copied ID after each batch. Stops between batches if interrupted, such
+   * as on shutdown, to resume from the checkpoint on the next startup.
+   *
+   * @param collection the time-series collection to copy into.
+   */
+  void migrate(String collection) {
+    Query state = Query.query(Criteria.where("_id").is(MIGRATION_ID));
+    Document checkpoint = mongoTemplate.findOne(state, Document.class, STATE_COLLECTION);
+    Object lastId = checkpoint == null ? null : checkpoint.get("lastId");
+    // The batch after the checkpoint may have been copied before the checkpoint was saved.
+    boolean resuming = true;
+    long copied = 0;
+    long failed = 0;
+    try {
+      while (true) {
+        if (Thread.currentThread().isInterrupted()) {
+          logger.info("Migration to time-series storage paused after {} readings", copied);
+          return;
+        }
+        Query batch =
+            (lastId == null ? new Query() : Query.query(Criteria.where("_id").gt(lastId)))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(migrationBatchSize);
+        List<Document> readings = mongoTemplate.find(batch, Document.class, LEGACY_COLLECTION);
+        if (readings.isEmpty()) {
+          break;
+        }
+        lastId = readings.get(readings.size() - 1).get("_id");
+        List<Document> toCopy = resuming ? notYetCopied(collection, readings) : readings;
+        resuming = false;
+        failed += insertAll(collection, toCopy);
+        copied += toCopy.size();
+        mongoTemplate.upsert(state, new Update().set("lastId", lastId), STATE_COLLECTION);
+        publishMigrated(toCopy);
+      }
+    } catch (Exception e) {
+      logger.error("Migration to time-series storage stopped after {} readings", copied, e);
+      return;
+    }
+    logger.info(
+        "Migrated {} readings to time-series storage, {} rejected; {} can now be dropped",
+        copied - failed,
+        failed,
+        LEGACY_COLLECTION);
+  }
+
+  /**
+   * Publishes a copied batch, so that state read from the time-series collection while the batch
+   * was missing from it (cached queries, rollups rebuilt on startup, the latest readings) is
+   * refreshed.
+   *
+   * @param readings the copied readings.
+   */
+  private void publishMigrated(List<Document> readings) {
+    if (readings.isEmpty()) {
+      return;
+    }
+    List<WeatherData> weatherData = new ArrayList<>(readings.size());
+    for (Document reading : readings) {
+      weatherData.add(mongoTemplate.getConverter().read(WeatherData.class, reading));
+    }
+    eventPublisher.publishEvent(new WeatherDataMigratedEvent(weatherData));
+  }
+
+  /**
+   * Filters out readings that already exist in the time-series collection.
+   *
+   * @param collection the time-series collection.
+   * @param readings the readings about to be copied.
+   * @return the readings that have not been copied yet.
+   */
+  private List<Document> notYetCopied(String collection, List<Document> readings) {
+    List<Object> ids = new ArrayList<>();
+    for (Document reading : readings) {
+      ids.add(reading.get("_id"));
+    }
+    Query existing = Query.query(Criteria.where("_id").in(ids));
+    existing.fields().include("_id");
+    Set<Object> copiedIds = new HashSet<>();
+    for (Document reading : mongoTemplate.find(existing, Document.class, collection)) {
+      copiedIds.add(reading.get("_id"));
+    }
+    List<Document> remaining = new ArrayList<>();
+    for (Document reading : readings) {
+      if (!copiedIds.contains(reading.get("_id"))) {
+        remaining.add(reading);
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Inserts a batch of readings with an unordered bulk write.
+   *
+   * @param collection the collection to insert into.
+   * @param readings the readings to insert.
+   * @return the number of readings that were rejected, such as those without a timestamp.
+   */
+  private int insertAll(String collection, List<Document> readings) {
+    if (readings.isEmpty()) {
+      return 0;
+    }
+    try {
+      mongoTemplate
+          .bulkOps(BulkOperations.BulkMode.UNORDERED, collection)
+          .insert(readings)
+          .execute();
+      return 0;
+    } catch (BulkOperationException e) {
+      logger.warn("{} readings could not be migrated: {}", e.getErrors().size(), e.getMessage());
+      return e.getErrors().size();
+    }
+  }
+
+  /**
+   * Creates a collection for raw readings in the configured storage mode, such as a partition
+   * created by {@link WeatherPartitions}.
+   *
+   * @param collection the name of the collection.
+   */
+  public void createCollection(String collection) {
+    if (mode == Mode.TIMESERIES) {
+      createTimeSeriesCollection(collection);
+    } else {
+      mongoTemplate.createCollection(collection);
+    }
+  }
+
+  /**
+   * Creates the time-series collection for readings.
+   *
+   * @param collection the name of the collection.
+   */
+  private void createTimeSeriesCollection(String collection) {
+    mongoTemplate.createCollection(
+        collection,
+        CollectionOptions.timeSeries(
+            "timestamp", options -> options.metaField("sensorId").granularity(granularity)));
+    logger.info("Created time-series collection {}", collection);
+  }
+
+  /**
+   * Looks up the type of a collection.
+   *
+   * @param collection the name of the collection.
+   * @return "collection", "timeseries" or "view", or null if it does not exist.
+   */
+  private String collectionType(String collection) {
+    Document info =
+        mongoTemplate.getDb().listCollections().filter(new Document("name", collection)).first();
+    return info == null ? null : info.getString("type");
+  }
+}
@@ -0,0 +1,40 @@
+package org.orourked.weatherapi.dto;
+
+import java.util.List;
+
+/**
+ * DTO (Data Transfer Object) returned by the batch save endpoint. Holds the number of readings
+ * saved and rejected, along with the result for each individual reading.
+ */
+public class WeatherBatchSaveResponse {
+
+  // Number of readings that were saved.
+  private final int saved;
+
+  // Number of readings that were rejected or failed to save.
+  private final int failed;
+
+  // Result for each reading, in the order they were submitted.
+  private final List<WeatherSaveResult> results;
+
+  public WeatherBatchSaveResponse(int saved, int failed, List<WeatherSaveResult> results) {
+    this.saved = saved;
+    this.failed = failed;
+    this.results = results;
+  }
+
+  // Getter for the number of saved readings.
+  public int getSaved() {
+    return saved;
+  }
+
+  // Getter for the number of rejected or failed readings.
+  public int getFailed() {
+    return failed;
+  }
+
+  // Getter for the per-reading results.
+  public List<WeatherSaveResult> getResults() {
+    return results;
+  }
+}
@@ -0,0 +1,41 @@
+package org.orourked.weatherapi.dto;
+
+import java.util.List;
+import org.orourked.weatherapi.model.WeatherData;
+
+/**
+ * DTO (Data Transfer Object) returned by the paginated raw data endpoints. Holds one page of
+ * weather data records and the cursor to pass as the "after" parameter to read the next page.
+ */
+public class WeatherDataPage {
+
+  // The records of this page, in (timestamp, id) order.
+  private final List<WeatherData> data;
+
+  // Cursor pointing after the last record returned so far, or null if nothing has been returned.
+  private final String next;
+
+  // Whether more records were available when this page was read.
+  private final boolean hasMore;
+
+  public WeatherDataPage(List<WeatherData> data, String next, boolean hasMore) {
+    this.data = data;
+    this.next = next;
+    this.hasMore = hasMore;
+  }
+
+  // Getter for the records of this page.
+  public List<WeatherData> getData() {
+    return data;
+  }
+
+  // Getter for the cursor of the next page.
+  public String getNext() {
+    return next;
+  }
+
+  // Getter for whether more records are available.
+  public boolean isHasMore() {
+    return hasMore;
+  }
+}
@@ -0,0 +1,59 @@
+package org.orourked.weatherapi.dto;
+
+import java.util.List;
+
+/**
+ * DTO (Data Transfer Object) returned by bulk imports. Holds the totals of the import, including
+ * earlier runs that it resumed from, and the first of the records that were rejected or failed.
+ */
+public class WeatherImportResponse {
+
+  // Id of the import, which resumes it when given again.
+  private final String id;
+
+  // Number of readings written, including by earlier runs.
+  private final long imported;
+
+  // Number of records rejected or failed, including by earlier runs.
+  private final long failed;
+
+  // Number of records skipped because earlier runs had already written or rejected them.
+  private final long resumedFrom;
+
+  // Result of the first rejected or failed records of this run, indexed by record number.
+  private final List<WeatherSaveResult> errors;
+
+  public WeatherImportResponse(
+      String id, long imported, long failed, long resumedFrom, List<WeatherSaveResult> errors) {
+    this.id = id;
+    this.imported = imported;
+    this.failed = failed;
+    this.resumedFrom = resumedFrom;
+    this.errors = errors;
+  }
+
+  // Getter for the import id.
+  public String getId() {
+    return id;
+  }
+
+  // Getter for the number of readings written.
+  public long getImported() {
+    return imported;
+  }
+
+  // Getter for the number of records rejected or failed.
+  public long getFailed() {
+    return failed;
+  }
+
+  // Getter for the number of records skipped on resuming.
+  public long getResumedFrom() {
+    return resumedFrom;
+  }
+
+  // Getter for the first rejected or failed records.
+  public List<WeatherSaveResult> getErrors() {
+    return errors;
+  }
+}
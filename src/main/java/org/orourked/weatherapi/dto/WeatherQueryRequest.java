@@ -1,6 +1,8 @@
 package org.orourked.weatherapi.dto;
 
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
 import java.util.List;
 
 /**
@@ -26,6 +28,18 @@ public class WeatherQueryRequest {
   // End date for filtering weather data (in string format, typically "yyyy-MM-dd").
   private String endDate;
 
+  // Width of the time buckets to aggregate into (e.g. "5m", "1h", "1d"), for one row per bucket.
+  @Pattern(regexp = "\\d+[mhd]", message = "interval must be a number followed by m, h or d")
+  private String interval;
+
+  // Downsampling of the raw readings to at most maxPoints per sensor: "lttb" or "minmax".
+  @Pattern(regexp = "lttb|minmax", message = "downsample must be lttb or minmax")
+  private String downsample;
+
+  // Maximum number of buckets or points to return per sensor.
+  @Positive(message = "maxPoints must be positive")
+  private Integer maxPoints;
+
   // Getter for the list of sensor IDs.
   public List<String> getSensorIds() {
     return sensorIds;
@@ -105,4 +119,52 @@ public class WeatherQueryRequest {
     this.endDate = endDate;
     return this;
   }
+
+  // Getter for the bucket interval.
+  public String getInterval() {
+    return interval;
+  }
+
+  /**
+   * Sets the width of the time buckets to aggregate into.
+   *
+   * @param interval a number followed by m (minutes), h (hours) or d (days), e.g. "5m"
+   * @return the current instance of WeatherQueryRequest (for method chaining)
+   */
+  public WeatherQueryRequest setInterval(String interval) {
+    this.interval = interval;
+    return this;
+  }
+
+  // Getter for the downsampling mode.
+  public String getDownsample() {
+    return downsample;
+  }
+
+  /**
+   * Sets the downsampling mode for the raw readings.
+   *
+   * @param downsample "lttb" or "minmax"
+   * @return the current instance of WeatherQueryRequest (for method chaining)
+   */
+  public WeatherQueryRequest setDownsample(String downsample) {
+    this.downsample = downsample;
+    return this;
+  }
+
+  // Getter for the maximum number of points per sensor.
+  public Integer getMaxPoints() {
+    return maxPoints;
+  }
+
+  /**
+   * Sets the maximum number of buckets or points to return per sensor.
+   *
+   * @param maxPoints the maximum number of points
+   * @return the current instance of WeatherQueryRequest (for method chaining)
+   */
+  public WeatherQueryRequest setMaxPoints(Integer maxPoints) {
+    this.maxPoints = maxPoints;
+    return this;
+  }
 }
@@ -0,0 +1,38 @@
+package org.orourked.weatherapi.dto;
+
+/**
+ * DTO (Data Transfer Object) describing the outcome of saving a single reading as part of a batch.
+ * The index refers to the position of the reading in the submitted batch.
+ */
+public class WeatherSaveResult {
+
+  // Position of the reading in the submitted batch (zero based).
+  private final int index;
+
+  // Http status describing the outcome for this reading (e.g. 201 or 400).
+  private final int status;
+
+  // Descriptive message for this reading.
+  private final String message;
+
+  public WeatherSaveResult(int index, int status, String message) {
+    this.index = index;
+    this.status = status;
+    this.message = message;
+  }
+
+  // Getter for the position of the reading in the batch.
+  public int getIndex() {
+    return index;
+  }
+
+  // Getter for the Http status of the reading.
+  public int getStatus() {
+    return status;
+  }
+
+  // Getter for the descriptive message of the reading.
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,106 @@
+package org.orourked.weatherapi.model;
+
+/**
+ * Running count, sum, minimum and maximum of a single metric. Summaries of disjoint sets of
+ * readings can be merged, which allows statistics to be combined from pre-aggregated rollups and
+ * raw data without averaging averages.
+ */
+public class MetricSummary {
+
+  // Number of readings included in the summary.
+  private long count;
+
+  // Sum of the included readings.
+  private double sum;
+
+  // Smallest included reading.
+  private double min = Double.POSITIVE_INFINITY;
+
+  // Largest included reading.
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Includes a single reading in the summary.
+   *
+   * @param value the reading.
+   * @return the current instance of MetricSummary (for method chaining)
+   */
+  public MetricSummary add(double value) {
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    return this;
+  }
+
+  /**
+   * Includes pre-aggregated readings in the summary.
+   *
+   * @param count the number of readings.
+   * @param sum the sum of the readings.
+   * @param min the smallest reading.
+   * @param max the largest reading.
+   * @return the current instance of MetricSummary (for method chaining)
+   */
+  public MetricSummary add(long count, double sum, double min, double max) {
+    if (count > 0) {
+      this.count += count;
+      this.sum += sum;
+      this.min = Math.min(this.min, min);
+      this.max = Math.max(this.max, max);
+    }
+    return this;
+  }
+
+  /**
+   * Includes the readings of another summary in this summary.
+   *
+   * @param other the summary to merge.
+   * @return the current instance of MetricSummary (for method chaining)
+   */
+  public MetricSummary merge(MetricSummary other) {
+    return add(other.count, other.sum, other.min, other.max);
+  }
+
+  // Getter for the number of readings.
+  public long getCount() {
+    return count;
+  }
+
+  // Getter for the sum of the readings.
+  public double getSum() {
+    return sum;
+  }
+
+  // Getter for the smallest reading.
+  public double getMin() {
+    return min;
+  }
+
+  // Getter for the largest reading.
+  public double getMax() {
+    return max;
+  }
+
+  /**
+   * Computes a statistic over the summarised readings, using the same stat names as queries.
+   *
+   * @param stat one of "average", "max", "min" or "sum".
+   * @return the statistic, or null if there are no readings (except for "sum", which is 0).
+   * @throws IllegalArgumentException if the stat is unknown.
+   */
+  public Double getStat(String stat) {
+    switch (stat) {
+      case "average":
+        return count == 0 ? null : sum / count;
+      case "max":
+        return count == 0 ? null : max;
+      case "min":
+        return count == 0 ? null : min;
+      case "sum":
+        return sum;
+      default:
+        throw new IllegalArgumentException("Unknown stat: " + stat);
+    }
+  }
+}
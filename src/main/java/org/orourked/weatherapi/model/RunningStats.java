@@ -0,0 +1,100 @@
+package org.orourked.weatherapi.model;
+
+/**
+ * Running count, mean, sum of squared deviations (M2), minimum and maximum of a single metric,
+ * updated one reading at a time with Welford's algorithm, which stays accurate where summing
+ * squares would lose precision. Statistics of disjoint sets of readings can be merged.
+ */
+public class RunningStats {
+
+  // Number of readings included.
+  private long count;
+
+  // Mean of the included readings.
+  private double mean;
+
+  // Sum of squared deviations from the mean.
+  private double m2;
+
+  // Smallest included reading.
+  private double min = Double.POSITIVE_INFINITY;
+
+  // Largest included reading.
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Includes a single reading.
+   *
+   * @param value the reading.
+   * @return the current instance of RunningStats (for method chaining)
+   */
+  public RunningStats add(double value) {
+    count++;
+    double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    return this;
+  }
+
+  /**
+   * Includes the readings of other statistics, combining the means and M2 as in Chan et al.'s
+   * parallel algorithm.
+   *
+   * @param other the statistics to merge.
+   * @return the current instance of RunningStats (for method chaining)
+   */
+  public RunningStats merge(RunningStats other) {
+    if (other.count == 0) {
+      return this;
+    }
+    long total = count + other.count;
+    double delta = other.mean - mean;
+    mean += delta * other.count / total;
+    m2 += other.m2 + delta * delta * count * other.count / total;
+    count = total;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    return this;
+  }
+
+  // Getter for the number of readings.
+  public long getCount() {
+    return count;
+  }
+
+  // Getter for the population variance of the readings.
+  public double getVariance() {
+    return count == 0 ? 0 : m2 / count;
+  }
+
+  /**
+   * Computes a statistic over the readings, using the same stat names as queries, plus variance,
+   * stddev (both of the population) and count.
+   *
+   * @param stat one of "average", "max", "min", "sum", "variance", "stddev" or "count".
+   * @return the statistic, or null if there are no readings (except for "sum" and "count").
+   * @throws IllegalArgumentException if the stat is unknown.
+   */
+  public Double getStat(String stat) {
+    switch (stat) {
+      case "average":
+        return count == 0 ? null : mean;
+      case "max":
+        return count == 0 ? null : max;
+      case "min":
+        return count == 0 ? null : min;
+      case "sum":
+        return mean * count;
+      case "variance":
+        return count == 0 ? null : getVariance();
+      case "stddev":
+        return count == 0 ? null : Math.sqrt(getVariance());
+      case "count":
+        return (double) count;
+      default:
+        throw new IllegalArgumentException("Unknown stat: " + stat);
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package org.orourked.weatherapi.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A row of query results for one sensor: the sensorId, the time of the reading for latest reading
+ * queries, and one value per requested metric and stat. The values are held in a primitive array
+ * laid out by {@link Columns} shared by every row of a query, with NaN standing for a missing
+ * value, so a row costs two small objects rather than a map with a boxed value per field. Rows are
+ * written directly to JSON (or CBOR and Smile) by {@link JsonWriter}, in the same shape as the
+ * documents the aggregation pipeline returns.
+ */
+@JsonSerialize(using = SensorResult.JsonWriter.class)
+public final class SensorResult {
+
+  // The ID of the sensor the row describes.
+  private final String sensorId;
+
+  // The time of the reading, for latest reading queries; null for statistics.
+  private final Date timestamp;
+
+  // The names of the values, shared by every row of a query.
+  private final Columns columns;
+
+  // The value of each column, NaN where there is none.
+  private final double[] values;
+
+  public SensorResult(String sensorId, Date timestamp, Columns columns, double[] values) {
+    this.sensorId = sensorId;
+    this.timestamp = timestamp;
+    this.columns = columns;
+    this.values = values;
+  }
+
+  // Getter for the sensor ID.
+  public String getSensorId() {
+    return sensorId;
+  }
+
+  // Getter for the time of the reading, or null for statistics.
+  public Date getTimestamp() {
+    return timestamp;
+  }
+
+  // Getter for the column layout.
+  public Columns getColumns() {
+    return columns;
+  }
+
+  /**
+   * Returns the value of a column by position, without boxing.
+   *
+   * @param column the position of the column.
+   * @return the value, or NaN if there is none.
+   */
+  public double getValue(int column) {
+    return values[column];
+  }
+
+  /**
+   * Returns a field by the name it has in the JSON response, e.g. "sensorId" or "avgtemperature".
+   *
+   * @param field the field name.
+   * @return the field's value, or null if it has none or does not exist.
+   */
+  public Object get(String field) {
+    if ("sensorId".equals(field)) {
+      return sensorId;
+    }
+    if ("timestamp".equals(field)) {
+      return timestamp;
+    }
+    int column = columns.indexOf(field);
+    return column < 0 || Double.isNaN(values[column]) ? null : values[column];
+  }
+
+  @Override
+  public String toString() {
+    return "SensorResult{sensorId="
+        + sensorId
+        + ", timestamp="
+        + timestamp
+        + ", columns="
+        + Arrays.toString(columns.names)
+        + ", values="
+        + Arrays.toString(values)
+        + "}";
+  }
+
+  /**
+   * Returns the result field prefix used for a stat, e.g. "avg" for "average".
+   *
+   * @param stat the stat name.
+   * @return the field prefix.
+   * @throws IllegalArgumentException if the stat is unknown.
+   */
+  public static String statPrefix(String stat) {
+    switch (stat) {
+      case "average":
+        return "avg";
+      case "max":
+      case "min":
+      case "sum":
+        return stat;
+      default:
+        throw new IllegalArgumentException("Unknown stat: " + stat);
+    }
+  }
+
+  /** The names of the values of every row of a query, in order. */
+  public static final class Columns {
+    private final String[] names;
+    private final Map<String, Integer> indexes;
+
+    private Columns(String[] names) {
+      this.names = names;
+      this.indexes = new HashMap<>(names.length * 2);
+      for (int i = 0; i < names.length; i++) {
+        indexes.put(names[i], i);
+      }
+    }
+
+    /**
+     * Lays out the columns of a statistics query: each stat of each metric, e.g. "avgtemperature",
+     * in the order the pipeline projects them.
+     *
+     * @param metrics the requested metrics.
+     * @param stats the requested stats.
+     * @return the columns.
+     * @throws IllegalArgumentException if a stat is unknown.
+     */
+    public static Columns of(List<String> metrics, List<String> stats) {
+      String[] names = new String[metrics.size() * stats.size()];
+      int i = 0;
+      for (String metric : metrics) {
+        for (String stat : stats) {
+          names[i++] = statPrefix(stat) + metric;
+        }
+      }
+      return new Columns(names);
+    }
+
+    /**
+     * Lays out the columns of a latest reading query: the value of each metric.
+     *
+     * @param metrics the requested metrics.
+     * @return the columns.
+     */
+    public static Columns of(List<String> metrics) {
+      return new Columns(metrics.toArray(new String[0]));
+    }
+
+    // Getter for the number of columns.
+    public int size() {
+      return names.length;
+    }
+
+    // Getter for the name of a column.
+    public String name(int column) {
+      return names[column];
+    }
+
+    /**
+     * Finds a column by name.
+     *
+     * @param name the column name.
+     * @return its position, or -1 if there is no such column.
+     */
+    public int indexOf(String name) {
+      Integer index = indexes.get(name);
+      return index == null ? -1 : index;
+    }
+
+    /**
+     * Creates an array of values for a row, with every value missing.
+     *
+     * @return the values, all NaN.
+     */
+    public double[] newValues() {
+      double[] values = new double[names.length];
+      Arrays.fill(values, Double.NaN);
+      return values;
+    }
+  }
+
+  /**
+   * Writes a row field by field, without reflection or intermediate maps. The timestamp goes
+   * through the configured date serializer, so it is formatted like dates in other responses.
+   */
+  public static final class JsonWriter extends StdSerializer<SensorResult> {
+
+    public JsonWriter() {
+      super(SensorResult.class);
+    }
+
+    @Override
+    public void serialize(SensorResult result, JsonGenerator generator, SerializerProvider provider)
+        throws IOException {
+      generator.writeStartObject(result);
+      generator.writeStringField("sensorId", result.sensorId);
+      if (result.timestamp != null) {
+        generator.writeFieldName("timestamp");
+        provider.defaultSerializeDateValue(result.timestamp, generator);
+      }
+      String[] names = result.columns.names;
+      double[] values = result.values;
+      for (int i = 0; i < names.length; i++) {
+        generator.writeFieldName(names[i]);
+        if (Double.isNaN(values[i])) {
+          generator.writeNull();
+        } else {
+          generator.writeNumber(values[i]);
+        }
+      }
+      generator.writeEndObject();
+    }
+  }
+}
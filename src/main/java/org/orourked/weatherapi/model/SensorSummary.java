@@ -0,0 +1,129 @@
+package org.orourked.weatherapi.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-metric summaries of the readings of a single sensor. Used to merge partial aggregates from
+ * different sources into the rows returned by the query endpoint.
+ */
+public class SensorSummary {
+
+  // The ID of the sensor that recorded the summarised readings.
+  private final String sensorId;
+
+  // Summary of each metric, keyed by metric name.
+  private final Map<String, MetricSummary> metrics = new HashMap<>();
+
+  public SensorSummary(String sensorId) {
+    this.sensorId = sensorId;
+  }
+
+  // Getter for the sensor ID.
+  public String getSensorId() {
+    return sensorId;
+  }
+
+  /**
+   * Returns the summary of a metric, creating an empty one if needed.
+   *
+   * @param metric the metric name.
+   * @return the summary of the metric.
+   */
+  public MetricSummary metric(String metric) {
+    return metrics.computeIfAbsent(metric, m -> new MetricSummary());
+  }
+
+  /**
+   * Includes a reading in the summary of every metric it recorded.
+   *
+   * @param weatherData the reading.
+   * @return the current instance of SensorSummary (for method chaining)
+   */
+  public SensorSummary add(WeatherData weatherData) {
+    for (String metric : WeatherData.METRICS) {
+      Double value = weatherData.getMetric(metric);
+      if (value != null) {
+        metric(metric).add(value);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Includes the readings of another summary of the same sensor in this summary.
+   *
+   * @param other the summary to merge.
+   * @return the current instance of SensorSummary (for method chaining)
+   */
+  public SensorSummary merge(SensorSummary other) {
+    other.metrics.forEach((metric, summary) -> metric(metric).merge(summary));
+    return this;
+  }
+
+  /**
+   * Builds the query result row for this sensor, in the same shape as the aggregation pipeline
+   * produces: the sensorId followed by each requested stat of each requested metric, rounded to
+   * one decimal place.
+   *
+   * @param metrics the requested metrics.
+   * @param stats the requested stats.
+   * @return the result row.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  public SensorResult toResult(List<String> metrics, List<String> stats) {
+    return toResult(SensorResult.Columns.of(metrics, stats), metrics, stats);
+  }
+
+  // Builds the result row for this sensor with the columns shared by the rows of a query.
+  private SensorResult toResult(
+      SensorResult.Columns columns, List<String> metrics, List<String> stats) {
+    double[] values = columns.newValues();
+    int column = 0;
+    for (String metric : metrics) {
+      MetricSummary summary = this.metrics.getOrDefault(metric, new MetricSummary());
+      for (String stat : stats) {
+        Double value = summary.getStat(stat);
+        values[column++] = value == null ? Double.NaN : Math.rint(value * 10) / 10;
+      }
+    }
+    return new SensorResult(sensorId, null, columns, values);
+  }
+
+  /**
+   * Builds the query result rows for a set of sensor summaries, ordered by sensorId.
+   *
+   * @param summaries the summaries, one per sensor.
+   * @param metrics the requested metrics.
+   * @param stats the requested stats.
+   * @return the result rows.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  public static List<SensorResult> toResults(
+      Collection<SensorSummary> summaries, List<String> metrics, List<String> stats) {
+    SensorResult.Columns columns = SensorResult.Columns.of(metrics, stats);
+    List<SensorSummary> sorted = new ArrayList<>(summaries);
+    sorted.sort(Comparator.comparing(SensorSummary::getSensorId));
+    List<SensorResult> results = new ArrayList<>(sorted.size());
+    for (SensorSummary summary : sorted) {
+      results.add(summary.toResult(columns, metrics, stats));
+    }
+    return results;
+  }
+
+  /**
+   * Checks that every requested stat is one the summaries can compute.
+   *
+   * @param stats the requested stats.
+   * @throws IllegalArgumentException if a stat is unknown.
+   */
+  public static void checkStats(List<String> stats) {
+    for (String stat : stats) {
+      SensorResult.statPrefix(stat);
+    }
+  }
+}
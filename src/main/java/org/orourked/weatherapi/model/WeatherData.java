@@ -1,6 +1,7 @@
 package org.orourked.weatherapi.model;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -12,6 +13,10 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @Document(collection = "weatherData")
 public class WeatherData {
 
+  // The metrics recorded by every sensor, as named in queries.
+  public static final List<String> METRICS =
+      List.of("temperature", "humidity", "windspeed", "pressure");
+
   // The unique identifier for each weather data record (automatically generated by MongoDB).
   @Id private String id;
 
@@ -163,4 +168,25 @@ public class WeatherData {
     this.timestamp = timestamp;
     return this;
   }
+
+  /**
+   * Returns the value recorded for the named metric.
+   *
+   * @param metric one of the names in {@link #METRICS}.
+   * @return the recorded value, or null if the metric is unknown or was not recorded.
+   */
+  public Double getMetric(String metric) {
+    switch (metric) {
+      case "temperature":
+        return temperature;
+      case "humidity":
+        return humidity;
+      case "windspeed":
+        return windspeed;
+      case "pressure":
+        return pressure;
+      default:
+        return null;
+    }
+  }
 }
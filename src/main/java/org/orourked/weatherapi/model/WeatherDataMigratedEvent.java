@@ -0,0 +1,25 @@
+package org.orourked.weatherapi.model;
+
+import java.util.List;
+
+/**
+ * Application event published once a batch of existing weather data records has been copied into
+ * new storage, such as by the migration to a time-series collection. Unlike a {@link
+ * WeatherDataSavedEvent} the records are not new, so state that already counts them (such as the
+ * rollups) must not count them again; but anything read from the storage while they were missing
+ * from it needs refreshing.
+ */
+public class WeatherDataMigratedEvent {
+
+  // The records that were copied.
+  private final List<WeatherData> weatherData;
+
+  public WeatherDataMigratedEvent(List<WeatherData> weatherData) {
+    this.weatherData = weatherData;
+  }
+
+  // Getter for the records that were copied.
+  public List<WeatherData> getWeatherData() {
+    return weatherData;
+  }
+}
@@ -0,0 +1,22 @@
+package org.orourked.weatherapi.model;
+
+import java.util.List;
+
+/**
+ * Application event published once weather data records have been written to the database. Lets
+ * components that derive state from the raw readings (such as rollups) keep up with ingest.
+ */
+public class WeatherDataSavedEvent {
+
+  // The records that were written.
+  private final List<WeatherData> weatherData;
+
+  public WeatherDataSavedEvent(List<WeatherData> weatherData) {
+    this.weatherData = weatherData;
+  }
+
+  // Getter for the records that were written.
+  public List<WeatherData> getWeatherData() {
+    return weatherData;
+  }
+}
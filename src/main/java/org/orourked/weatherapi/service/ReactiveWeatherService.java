@@ -0,0 +1,100 @@
+package org.orourked.weatherapi.service;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.orourked.weatherapi.database.ReactiveWeatherAggregation;
+import org.orourked.weatherapi.database.ReactiveWeatherDatabase;
+import org.orourked.weatherapi.database.WeatherPartitions;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Reactive counterpart of the read operations of {@link WeatherService}, for the non-blocking
+ * endpoints. Only created when weather.reactive.enabled is set. Date range queries read the
+ * rollups like the blocking endpoint, but on the blocking path; they bypass the query cache, so a
+ * repeated query costs more than on the blocking endpoint. Once readings are {@link
+ * WeatherPartitions partitioned}, readings are streamed from every partition on the blocking path,
+ * since the reactive repository only reads weatherData.
+ */
+@Service
+@ConditionalOnProperty(name = "weather.reactive.enabled", havingValue = "true")
+public class ReactiveWeatherService {
+  private final ReactiveWeatherDatabase reactiveWeatherDatabase;
+  private final ReactiveWeatherAggregation reactiveWeatherAggregation;
+  private final WeatherPartitions weatherPartitions;
+
+  @Autowired
+  public ReactiveWeatherService(
+      ReactiveWeatherDatabase reactiveWeatherDatabase,
+      ReactiveWeatherAggregation reactiveWeatherAggregation,
+      WeatherPartitions weatherPartitions) {
+    this.reactiveWeatherDatabase = reactiveWeatherDatabase;
+    this.reactiveWeatherAggregation = reactiveWeatherAggregation;
+    this.weatherPartitions = weatherPartitions;
+  }
+
+  public Flux<WeatherData> getAllWeatherData() {
+    Flux<WeatherData> readings =
+        weatherPartitions.isEnabled() ? streamPartitions(null) : reactiveWeatherDatabase.findAll();
+    return readings.onErrorMap(ReactiveWeatherService::databaseError);
+  }
+
+  public Flux<WeatherData> getWeatherDataByLocation(String location) {
+    Flux<WeatherData> readings =
+        weatherPartitions.isEnabled()
+            ? streamPartitions(location)
+            : reactiveWeatherDatabase.findByLocation(location);
+    return readings.onErrorMap(ReactiveWeatherService::databaseError);
+  }
+
+  public Mono<List<SensorResult>> queryWeatherData(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      String startDate,
+      String endDate) {
+
+    LocalDate start = WeatherService.parseDate(startDate);
+    LocalDate end = WeatherService.parseDate(endDate);
+
+    Mono<List<SensorResult>> results;
+    try {
+      results = reactiveWeatherAggregation.queryWeatherData(sensorIds, metrics, stats, start, end);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid stat");
+    }
+    return results.onErrorMap(ReactiveWeatherService::databaseError);
+  }
+
+  /**
+   * Streams readings from every partition, oldest first, on the bounded elastic scheduler. The
+   * stream's cursors are closed once the readings have been emitted or the client cancels.
+   *
+   * @param location the location to search for, or null for every location.
+   * @return the matching readings, emitted as they are read.
+   */
+  private Flux<WeatherData> streamPartitions(String location) {
+    return Flux.fromStream(() -> weatherPartitions.stream(location))
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /**
+   * Maps a failed database call to the error returned to the client.
+   *
+   * @param e the failure.
+   * @return the error returned to the client.
+   */
+  private static Throwable databaseError(Throwable e) {
+    return e instanceof ResponseStatusException
+        ? e
+        : new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+  }
+}
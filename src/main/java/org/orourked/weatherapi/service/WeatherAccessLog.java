@@ -0,0 +1,216 @@
+package org.orourked.weatherapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Access log of the query, save and import endpoints, written off the request thread. Each request
+ * is recorded as a fixed set of fields (time, endpoint, status, duration, row or reading count and
+ * sensor) into preallocated slots of a ring buffer, so recording allocates nothing and never
+ * blocks; a background thread drains the buffer in batches and formats each entry as a key=value
+ * line on the "weather.access" logger.
+ *
+ * <p>Saves can arrive at tens of thousands a second, so only one in every save-sample-every
+ * successful saves is recorded; failed saves are always recorded. When the drainer falls behind
+ * and the buffer is full, entries are dropped and counted by weather.access-log.dropped.
+ */
+@Component
+public class WeatherAccessLog {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherAccessLog.class);
+  private static final Logger accessLogger = LoggerFactory.getLogger("weather.access");
+
+  /** The endpoints recorded in the access log. */
+  public enum Endpoint {
+    QUERY("query"),
+    SERIES("series"),
+    SAVE("save"),
+    SAVE_BATCH("save-batch"),
+    IMPORT("import");
+
+    private final String label;
+
+    Endpoint(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final Endpoint[] ENDPOINTS = Endpoint.values();
+
+  private final boolean enabled;
+  private final int saveSampleEvery;
+  private final int mask;
+  private final Counter droppedCounter;
+
+  // The fields of each slot.
+  private final long[] times;
+  private final long[] durations;
+  private final int[] endpoints;
+  private final int[] statuses;
+  private final int[] counts;
+  private final String[] sensorIds;
+
+  // The sequence number of the entry each slot holds, set once its fields are written.
+  private final AtomicLongArray published;
+
+  // The next sequence number to claim, and the next to drain.
+  private final AtomicLong head = new AtomicLong();
+  private volatile long tail;
+
+  private final AtomicLong saves = new AtomicLong();
+  private Thread drainer;
+  private volatile boolean running;
+
+  @Autowired
+  public WeatherAccessLog(
+      MeterRegistry meterRegistry,
+      @Value("${weather.access-log.enabled:true}") boolean enabled,
+      @Value("${weather.access-log.capacity:8192}") int capacity,
+      @Value("${weather.access-log.save-sample-every:100}") int saveSampleEvery) {
+    this.enabled = enabled;
+    this.saveSampleEvery = Math.max(1, saveSampleEvery);
+    // Round the capacity up to a power of two, so that slots are found by masking.
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.mask = size - 1;
+    this.times = new long[size];
+    this.durations = new long[size];
+    this.endpoints = new int[size];
+    this.statuses = new int[size];
+    this.counts = new int[size];
+    this.sensorIds = new String[size];
+    this.published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      published.set(i, -1);
+    }
+    this.droppedCounter =
+        Counter.builder("weather.access-log.dropped")
+            .description("Access log entries dropped because the buffer was full")
+            .register(meterRegistry);
+  }
+
+  /** Starts the drainer thread if the access log is enabled. */
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    running = true;
+    drainer = new Thread(this::runDrainer, "weather-access-log");
+    drainer.setDaemon(true);
+    drainer.start();
+  }
+
+  /** Stops the drainer thread once it has written out the entries recorded so far. */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(drainer);
+    drainer.join(TimeUnit.SECONDS.toMillis(5));
+  }
+
+  /**
+   * Records a request. Successful saves are sampled; everything else is always recorded.
+   *
+   * @param endpoint the endpoint that handled the request.
+   * @param status the HTTP status of the response.
+   * @param startNanos the value of {@link System#nanoTime()} when the request started.
+   * @param count the number of rows returned or readings saved.
+   * @param sensorId the sensor of a single reading, or null.
+   */
+  public void record(Endpoint endpoint, int status, long startNanos, int count, String sensorId) {
+    if (!enabled) {
+      return;
+    }
+    if (endpoint == Endpoint.SAVE
+        && status < 400
+        && saves.getAndIncrement() % saveSampleEvery != 0) {
+      return;
+    }
+    long duration = System.nanoTime() - startNanos;
+    long sequence;
+    do {
+      sequence = head.get();
+      if (sequence - tail > mask) {
+        droppedCounter.increment();
+        return;
+      }
+    } while (!head.compareAndSet(sequence, sequence + 1));
+    int slot = (int) sequence & mask;
+    times[slot] = System.currentTimeMillis();
+    durations[slot] = duration;
+    endpoints[slot] = endpoint.ordinal();
+    statuses[slot] = status;
+    counts[slot] = count;
+    sensorIds[slot] = sensorId;
+    // Publishing the sequence makes the fields above visible to the drainer.
+    published.lazySet(slot, sequence);
+  }
+
+  /**
+   * Formats and writes out the entries recorded so far, in the order they were claimed. Stops at
+   * the first entry that has been claimed but not yet published.
+   *
+   * @param appender writes out each formatted line.
+   * @return the number of entries written.
+   */
+  int drain(Consumer<String> appender) {
+    StringBuilder line = new StringBuilder(128);
+    long next = tail;
+    int drained = 0;
+    while (published.get((int) next & mask) == next) {
+      int slot = (int) next & mask;
+      line.setLength(0);
+      line.append(Instant.ofEpochMilli(times[slot]))
+          .append(" endpoint=")
+          .append(ENDPOINTS[endpoints[slot]].label)
+          .append(" status=")
+          .append(statuses[slot])
+          .append(" durationMicros=")
+          .append(durations[slot] / 1000)
+          .append(" count=")
+          .append(counts[slot]);
+      if (sensorIds[slot] != null) {
+        line.append(" sensorId=").append(sensorIds[slot]);
+      }
+      if (ENDPOINTS[endpoints[slot]] == Endpoint.SAVE && statuses[slot] < 400) {
+        line.append(" sampled=1/").append(saveSampleEvery);
+      }
+      sensorIds[slot] = null;
+      next++;
+      // Freeing the slot only after it has been read lets producers reuse it.
+      tail = next;
+      appender.accept(line.toString());
+      drained++;
+    }
+    return drained;
+  }
+
+  // Drains the buffer until stopped, sleeping briefly whenever it is empty.
+  private void runDrainer() {
+    while (running) {
+      try {
+        if (drain(accessLogger::info) == 0) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+      } catch (RuntimeException e) {
+        logger.error("Failed to write access log entries", e);
+      }
+    }
+    drain(accessLogger::info);
+  }
+}
@@ -0,0 +1,158 @@
+package org.orourked.weatherapi.service;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+import org.orourked.weatherapi.dto.WeatherImportResponse;
+import org.orourked.weatherapi.dto.WeatherSaveResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a bulk import or export from the command line, then exits. Started with --import=FILE or
+ * --export=FILE, where FILE may be - for standard input or output; the format is taken from
+ * --format (csv or ndjson) or otherwise from the file extension. An import's id defaults to the
+ * file name, so running the same command again resumes an interrupted import. Without either
+ * option the application starts as usual.
+ *
+ * <p>Example usage: java -jar target/weather-api-1.0.0.jar
+ * --spring.main.web-application-type=none --import=readings.csv
+ */
+@Component
+public class WeatherBulkCommand implements ApplicationRunner {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherBulkCommand.class);
+
+  private final WeatherService weatherService;
+  private final WeatherBulkImport weatherBulkImport;
+  private final WeatherBulkExport weatherBulkExport;
+  private final ConfigurableApplicationContext context;
+
+  @Autowired
+  public WeatherBulkCommand(
+      WeatherService weatherService,
+      WeatherBulkImport weatherBulkImport,
+      WeatherBulkExport weatherBulkExport,
+      ConfigurableApplicationContext context) {
+    this.weatherService = weatherService;
+    this.weatherBulkImport = weatherBulkImport;
+    this.weatherBulkExport = weatherBulkExport;
+    this.context = context;
+  }
+
+  /**
+   * Runs the import or export named by the arguments, if any, and exits with status 0 if it
+   * succeeded or 1 if it did not.
+   *
+   * @param args the application arguments.
+   */
+  @Override
+  public void run(ApplicationArguments args) {
+    String importFile = option(args, "import");
+    String exportFile = option(args, "export");
+    if (importFile == null && exportFile == null) {
+      return;
+    }
+    int status;
+    try {
+      if (importFile != null) {
+        runImport(importFile, format(args, importFile), option(args, "import-id"));
+      } else {
+        runExport(exportFile, format(args, exportFile), option(args, "location"));
+      }
+      status = 0;
+    } catch (Exception e) {
+      logger.error("Bulk {} failed", importFile != null ? "import" : "export", e);
+      status = 1;
+    }
+    int exitCode = status;
+    System.exit(SpringApplication.exit(context, () -> exitCode));
+  }
+
+  /**
+   * Imports a file.
+   *
+   * @param file the file, or - for standard input.
+   * @param format the format of the file.
+   * @param importId the import id, or null to use the file name.
+   * @throws Exception if the import fails or stops.
+   */
+  private void runImport(String file, WeatherReadingParser.Format format, String importId)
+      throws Exception {
+    String id = importId != null ? importId : Path.of(file).getFileName().toString();
+    InputStream input = file.equals("-") ? System.in : Files.newInputStream(Path.of(file));
+    WeatherImportResponse response = weatherBulkImport.importReadings(id, format, input);
+    logger.info(
+        "Imported {} readings from {} ({} failed, resumed after record {})",
+        response.getImported(),
+        file,
+        response.getFailed(),
+        response.getResumedFrom());
+    for (WeatherSaveResult error : response.getErrors()) {
+      logger.warn("Record {}: {}", error.getIndex(), error.getMessage());
+    }
+  }
+
+  /**
+   * Exports readings to a file.
+   *
+   * @param file the file, or - for standard output.
+   * @param format the format to write.
+   * @param location the location to export, or null for every reading.
+   * @throws Exception if the export fails.
+   */
+  private void runExport(String file, WeatherReadingParser.Format format, String location)
+      throws Exception {
+    Stream<WeatherData> weatherData =
+        location == null
+            ? weatherService.streamAllWeatherData()
+            : weatherService.streamWeatherDataByLocation(location);
+    try (OutputStream output =
+        file.equals("-")
+            ? System.out
+            : new BufferedOutputStream(Files.newOutputStream(Path.of(file)), 64 * 1024)) {
+      long exported = weatherBulkExport.export(weatherData, format, output);
+      logger.info("Exported {} readings to {}", exported, file);
+    }
+  }
+
+  /**
+   * Picks the format of a file, from the --format option or else its extension.
+   *
+   * @param args the application arguments.
+   * @param file the file.
+   * @return the format.
+   * @throws IllegalArgumentException if the format cannot be told.
+   */
+  private static WeatherReadingParser.Format format(ApplicationArguments args, String file) {
+    String format = option(args, "format");
+    if (format != null) {
+      return WeatherReadingParser.Format.of(format);
+    }
+    String name = file.toLowerCase(Locale.ROOT);
+    if (name.endsWith(".csv")) {
+      return WeatherReadingParser.Format.CSV;
+    }
+    if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+      return WeatherReadingParser.Format.NDJSON;
+    }
+    throw new IllegalArgumentException("Pass --format=csv or --format=ndjson for " + file);
+  }
+
+  // Reads the value of an option, or null if it was not given.
+  private static String option(ApplicationArguments args, String name) {
+    List<String> values = args.getOptionValues(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+}
@@ -0,0 +1,149 @@
+package org.orourked.weatherapi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Bulk export of readings as CSV or newline delimited JSON, in the formats {@link
+ * WeatherBulkImport} reads, so that an export can be imported elsewhere as it is. Readings are
+ * written as they are read from the database cursor, so memory use stays constant however many
+ * there are.
+ */
+@Service
+public class WeatherBulkExport {
+  // The CSV header, in the order fields are written.
+  static final String CSV_HEADER =
+      "id,sensorId,location,temperature,humidity,windspeed,pressure,timestamp";
+
+  private final ObjectMapper objectMapper;
+
+  @Autowired
+  public WeatherBulkExport(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Writes readings to an output stream, closing the stream of readings (and its database cursor)
+   * once done. The output stream is flushed but left open.
+   *
+   * @param weatherData the readings to write.
+   * @param format the format to write them in.
+   * @param output the output stream.
+   * @return the number of readings written.
+   * @throws IOException if the output cannot be written.
+   */
+  public long export(
+      Stream<WeatherData> weatherData, WeatherReadingParser.Format format, OutputStream output)
+      throws IOException {
+    try (weatherData) {
+      Iterator<WeatherData> readings = weatherData.iterator();
+      return format == WeatherReadingParser.Format.CSV
+          ? writeCsv(readings, output)
+          : writeNdjson(readings, output);
+    }
+  }
+
+  /**
+   * Writes readings as CSV rows under a header, through a buffer that reuses a single line.
+   *
+   * @param readings the readings to write.
+   * @param output the output stream.
+   * @return the number of readings written.
+   * @throws IOException if the output cannot be written.
+   */
+  private static long writeCsv(Iterator<WeatherData> readings, OutputStream output)
+      throws IOException {
+    Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(StreamUtils.nonClosing(output), StandardCharsets.UTF_8),
+            64 * 1024);
+    writer.write(CSV_HEADER);
+    writer.write('\n');
+    StringBuilder line = new StringBuilder(128);
+    long written = 0;
+    while (readings.hasNext()) {
+      WeatherData reading = readings.next();
+      line.setLength(0);
+      appendText(line, reading.getId()).append(',');
+      appendText(line, reading.getSensorId()).append(',');
+      appendText(line, reading.getLocation()).append(',');
+      line.append(reading.getTemperature()).append(',');
+      line.append(reading.getHumidity()).append(',');
+      if (reading.getWindspeed() != null) {
+        line.append(reading.getWindspeed().doubleValue());
+      }
+      line.append(',').append(reading.getPressure()).append(',');
+      if (reading.getTimestamp() != null) {
+        DateTimeFormatter.ISO_LOCAL_DATE_TIME.formatTo(reading.getTimestamp(), line);
+      }
+      line.append('\n');
+      writer.append(line);
+      written++;
+    }
+    writer.flush();
+    return written;
+  }
+
+  /**
+   * Writes readings as newline delimited JSON, with the same fields as the JSON responses.
+   *
+   * @param readings the readings to write.
+   * @param output the output stream.
+   * @return the number of readings written.
+   * @throws IOException if the output cannot be written.
+   */
+  private long writeNdjson(Iterator<WeatherData> readings, OutputStream output)
+      throws IOException {
+    long written = 0;
+    try (SequenceWriter writer =
+        objectMapper
+            .writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .withRootValueSeparator("\n")
+            .writeValues(StreamUtils.nonClosing(output))) {
+      while (readings.hasNext()) {
+        writer.write(readings.next());
+        written++;
+      }
+    }
+    if (written > 0) {
+      output.write('\n');
+    }
+    output.flush();
+    return written;
+  }
+
+  /**
+   * Appends a text field to a CSV row, quoting it if it holds a comma, quote or line break.
+   *
+   * @param line the row.
+   * @param text the field, or null for an empty field.
+   * @return the row.
+   */
+  private static StringBuilder appendText(StringBuilder line, String text) {
+    if (text == null) {
+      return line;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return line.append('"').append(text.replace("\"", "\"\"")).append('"');
+      }
+    }
+    return line.append(text);
+  }
+}
@@ -0,0 +1,418 @@
+package org.orourked.weatherapi.service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.types.ObjectId;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
+import org.orourked.weatherapi.database.WeatherImportCheckpoints;
+import org.orourked.weatherapi.dto.WeatherImportResponse;
+import org.orourked.weatherapi.dto.WeatherSaveResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Bulk import of readings from CSV or newline delimited JSON, for backfilling historical data. The
+ * input is parsed as it streams in by a {@link WeatherReadingParser} and cut into batches, which a
+ * pool of writer threads inserts in parallel with unordered bulk writes. At most one batch per
+ * writer is in flight, so memory use does not depend on the size of the input.
+ *
+ * <p>Every import has an id, and its progress is checkpointed in {@link WeatherImportCheckpoints}
+ * as batches complete: the checkpoint is the last record before which every record has been
+ * written or rejected. Running an import again with the same id and input skips to the
+ * checkpoint. Readings are given ids derived from the import id and their record number, so the
+ * batches that were in flight when an import stopped are written again without duplicates.
+ */
+@Service
+public class WeatherBulkImport {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherBulkImport.class);
+
+  // How often progress is logged, in records.
+  private static final long PROGRESS_INTERVAL = 1_000_000;
+
+  private final WeatherBulkWriter weatherBulkWriter;
+  private final WeatherImportCheckpoints weatherImportCheckpoints;
+  private final int batchSize;
+  private final int parallelism;
+  private final int maxReportedErrors;
+  private final ExecutorService writers;
+
+  // The ids of the imports running on this instance.
+  private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+  @Autowired
+  public WeatherBulkImport(
+      WeatherBulkWriter weatherBulkWriter,
+      WeatherImportCheckpoints weatherImportCheckpoints,
+      @Value("${weather.import.batch-size:5000}") int batchSize,
+      @Value("${weather.import.parallelism:4}") int parallelism,
+      @Value("${weather.import.max-reported-errors:100}") int maxReportedErrors) {
+    this.weatherBulkWriter = weatherBulkWriter;
+    this.weatherImportCheckpoints = weatherImportCheckpoints;
+    this.batchSize = Math.max(1, batchSize);
+    this.parallelism = Math.max(1, parallelism);
+    this.maxReportedErrors = maxReportedErrors;
+    AtomicInteger threads = new AtomicInteger();
+    this.writers =
+        Executors.newFixedThreadPool(
+            this.parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "weather-import-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Lets the batches in flight finish, so that their imports resume from a recent checkpoint. */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    writers.shutdown();
+    writers.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Imports readings, resuming from the checkpoint of the import if it has one. Records that are
+   * not valid readings are rejected and reported without stopping the import.
+   *
+   * @param importId the id of the import.
+   * @param format the format of the input.
+   * @param input the input, which is closed once read.
+   * @return the totals of the import and the first rejected or failed records.
+   * @throws ResponseStatusException with status 400 if the input cannot be read or its CSV header
+   *     is invalid, 409 if the import is already running, or 502 if a batch could not be written,
+   *     in which case the import can be resumed.
+   */
+  public WeatherImportResponse importReadings(
+      String importId, WeatherReadingParser.Format format, InputStream input) {
+    if (!running.add(importId)) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Import " + importId + " is running");
+    }
+    long start = System.nanoTime();
+    Run run;
+    long resumedFrom;
+    try (WeatherReadingParser parser = new WeatherReadingParser(input, format)) {
+      run = new Run(importId, weatherImportCheckpoints.find(importId));
+      resumedFrom = parser.skipTo(run.committed);
+      if (resumedFrom > 0) {
+        logger.info("Resuming import {} after record {}", importId, resumedFrom);
+      }
+      try {
+        read(parser, run);
+      } finally {
+        run.await();
+      }
+    } catch (IllegalArgumentException | IOException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Import interrupted", e);
+    } finally {
+      running.remove(importId);
+    }
+    if (run.failure != null) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_GATEWAY,
+          "Import stopped after record " + run.committed + "; run it again to resume",
+          run.failure);
+    }
+    logger.info(
+        "Import {} finished with {} readings imported and {} failed in {} s",
+        importId,
+        run.imported,
+        run.failed,
+        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    return new WeatherImportResponse(
+        importId, run.imported, run.failed, resumedFrom, List.copyOf(run.errors));
+  }
+
+  /**
+   * Parses the rest of the input into batches and hands them to the writers.
+   *
+   * @param parser the parser, positioned after the checkpoint.
+   * @param run the state of the import.
+   * @throws IOException if the input cannot be read.
+   * @throws InterruptedException if interrupted while waiting for a writer.
+   */
+  private void read(WeatherReadingParser parser, Run run) throws IOException, InterruptedException {
+    Batch batch = new Batch(parser.getRecord() + 1, batchSize);
+    while (true) {
+      try {
+        WeatherData reading = parser.next();
+        if (reading == null) {
+          break;
+        }
+        if (reading.getId() == null) {
+          reading.setId(readingId(run.importHash, parser.getRecord()));
+        }
+        batch.add(reading, parser.getRecord());
+      } catch (WeatherReadingParser.MalformedReadingException e) {
+        batch.rejected++;
+        run.report(e.getRecord(), HttpStatus.BAD_REQUEST, e.getMessage());
+      }
+      if (batch.size() >= batchSize) {
+        batch.end = parser.getRecord();
+        if (!run.submit(batch)) {
+          return;
+        }
+        batch = new Batch(parser.getRecord() + 1, batchSize);
+      }
+    }
+    if (batch.size() > 0) {
+      batch.end = parser.getRecord();
+      run.submit(batch);
+    }
+  }
+
+  /**
+   * Hashes an import id into the first 8 bytes of the ids of its readings. With 64 bits, two
+   * imports are not expected to share a hash, unlike with a 32-bit String hash code.
+   *
+   * @param importId the import id.
+   * @return the first 8 bytes of the SHA-256 hash of the import id.
+   */
+  static byte[] importHash(String importId) {
+    try {
+      byte[] hash =
+          MessageDigest.getInstance("SHA-256").digest(importId.getBytes(StandardCharsets.UTF_8));
+      return Arrays.copyOf(hash, 8);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Derives the id of an imported reading, so that importing it again gives it the same id. The id
+   * is an ObjectId made of the hash of the import id and the record number, so its embedded
+   * creation time is meaningless. Record numbers are kept whole, so that no two records of an
+   * import share an id.
+   *
+   * @param importHash the hash of the import id, from {@link #importHash(String)}.
+   * @param record the record number of the reading.
+   * @return the id, as a hexadecimal string.
+   * @throws IllegalArgumentException if the record number does not fit in 32 bits.
+   */
+  static String readingId(byte[] importHash, long record) {
+    if (record < 0 || record > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "Record " + record + " is past the last record an import can hold; split the input");
+    }
+    ByteBuffer id = ByteBuffer.allocate(12);
+    id.put(importHash);
+    id.putInt((int) record);
+    return new ObjectId(id.array()).toHexString();
+  }
+
+  /** A batch of consecutive records. */
+  private static final class Batch {
+    // The first record of the batch, and the last once the batch is complete.
+    private final long first;
+    private long end;
+
+    private List<WeatherData> readings;
+
+    // The record number of each reading.
+    private final long[] records;
+
+    // The number of records rejected by the parser, and once written, of readings written and of
+    // records rejected or failed.
+    private int rejected;
+    private int written;
+    private int failed;
+
+    // The position of the batch in the order batches were handed to the writers.
+    private long sequence;
+
+    Batch(long first, int capacity) {
+      this.first = first;
+      this.readings = new ArrayList<>(capacity);
+      this.records = new long[capacity];
+    }
+
+    // Adds a reading and its record number.
+    void add(WeatherData reading, long record) {
+      records[readings.size()] = record;
+      readings.add(reading);
+    }
+
+    // The number of records in the batch.
+    int size() {
+      return readings.size() + rejected;
+    }
+  }
+
+  /** The state of a running import. */
+  private final class Run {
+    private final String importId;
+
+    // The hash of the import id that starts the ids of its readings.
+    private final byte[] importHash;
+
+    // The highest record a previous run handed to a writer; records up to it may be stored.
+    private final long previouslyDispatched;
+
+    // A permit per writer, held while a batch is in flight.
+    private final Semaphore slots = new Semaphore(parallelism);
+
+    // Completed batches that wait for an earlier batch before the checkpoint can move past them.
+    private final TreeMap<Long, Batch> completed = new TreeMap<>();
+    private final List<WeatherSaveResult> errors = new ArrayList<>();
+    private long submitted;
+    private long nextToCommit;
+
+    // The checkpoint.
+    private long committed;
+    private long dispatched;
+    private long imported;
+    private long failed;
+
+    // Why a batch could not be written, which stops the import.
+    private volatile RuntimeException failure;
+
+    Run(String importId, WeatherImportCheckpoints.Checkpoint checkpoint) {
+      this.importId = importId;
+      this.importHash = importHash(importId);
+      if (checkpoint != null) {
+        committed = checkpoint.getCommitted();
+        dispatched = checkpoint.getDispatched();
+        imported = checkpoint.getImported();
+        failed = checkpoint.getFailed();
+      }
+      this.previouslyDispatched = dispatched;
+    }
+
+    /**
+     * Hands a batch to a writer, waiting for one to be free.
+     *
+     * @param batch the complete batch.
+     * @return false if the import has stopped because a batch could not be written.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean submit(Batch batch) throws InterruptedException {
+      slots.acquire();
+      if (failure != null) {
+        slots.release();
+        return false;
+      }
+      batch.sequence = submitted++;
+      try {
+        weatherImportCheckpoints.markDispatched(importId, batch.end);
+        synchronized (this) {
+          dispatched = Math.max(dispatched, batch.end);
+        }
+        writers.execute(() -> write(batch));
+      } catch (RuntimeException e) {
+        slots.release();
+        throw e;
+      }
+      return true;
+    }
+
+    /**
+     * Writes a batch on a writer thread, skipping readings that a previous run may have written.
+     *
+     * @param batch the batch.
+     */
+    private void write(Batch batch) {
+      try {
+        Map<Integer, String> failures =
+            batch.readings.isEmpty()
+                ? Map.of()
+                : weatherBulkWriter.insertAll(batch.readings, batch.first <= previouslyDispatched);
+        complete(batch, failures);
+      } catch (RuntimeException e) {
+        logger.error(
+            "Failed to write records {} to {} of import {}", batch.first, batch.end, importId, e);
+        if (failure == null) {
+          failure = e;
+        }
+      } finally {
+        slots.release();
+      }
+    }
+
+    /**
+     * Records a written batch, and moves the checkpoint past every batch that is complete along
+     * with all the batches before it.
+     *
+     * @param batch the batch.
+     * @param failures the readings of the batch that could not be written, keyed by index.
+     */
+    private synchronized void complete(Batch batch, Map<Integer, String> failures) {
+      for (Map.Entry<Integer, String> entry : failures.entrySet()) {
+        long record = batch.records[entry.getKey()];
+        logger.error(
+            "Failed to save record {} of import {}: {}", record, importId, entry.getValue());
+        report(record, HttpStatus.INTERNAL_SERVER_ERROR, "Failed to save weather data");
+      }
+      batch.written = batch.readings.size() - failures.size();
+      batch.failed = batch.rejected + failures.size();
+      batch.readings = List.of();
+      completed.put(batch.sequence, batch);
+      long before = committed;
+      Batch next;
+      while ((next = completed.remove(nextToCommit)) != null) {
+        nextToCommit++;
+        committed = next.end;
+        imported += next.written;
+        failed += next.failed;
+      }
+      if (committed == before) {
+        return;
+      }
+      weatherImportCheckpoints.save(
+          importId,
+          new WeatherImportCheckpoints.Checkpoint(committed, dispatched, imported, failed));
+      if (committed / PROGRESS_INTERVAL != before / PROGRESS_INTERVAL) {
+        logger.info("Import {} has written or rejected {} records", importId, committed);
+      }
+    }
+
+    /**
+     * Reports a rejected or failed record, keeping only the first few.
+     *
+     * @param record the record number.
+     * @param status the status describing why.
+     * @param message the reason.
+     */
+    synchronized void report(long record, HttpStatus status, String message) {
+      if (errors.size() < maxReportedErrors) {
+        errors.add(
+            new WeatherSaveResult(
+                (int) Math.min(record, Integer.MAX_VALUE), status.value(), message));
+      }
+    }
+
+    /**
+     * Waits for every batch in flight to be written.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+      slots.acquire(parallelism);
+      slots.release(parallelism);
+    }
+  }
+}
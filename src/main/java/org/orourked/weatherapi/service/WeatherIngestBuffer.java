@@ -0,0 +1,279 @@
+package org.orourked.weatherapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
+import org.orourked.weatherapi.model.WeatherData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind buffer for incoming weather data. Readings are appended to a bounded queue and a
+ * pool of flusher threads drains the queue into bulk inserts, flushing a batch once it reaches the
+ * configured size or once its oldest reading reaches the configured age. Readings still queued
+ * when the application shuts down are flushed before the database connection is closed; once
+ * shutdown starts no further readings are accepted, so every accepted reading is either written or
+ * counted as failed.
+ */
+@Component
+public class WeatherIngestBuffer {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherIngestBuffer.class);
+
+  private final WeatherBulkWriter weatherBulkWriter;
+  private final boolean enabled;
+  private final int batchSize;
+  private final long maxBatchAgeNanos;
+  private final int flusherThreads;
+  private final int flushRetries;
+  private final long shutdownTimeoutMillis;
+  private final BlockingQueue<WeatherData> queue;
+  private final List<Thread> flushers = new ArrayList<>();
+  // Offers hold the read lock while they check running and enqueue; stopping takes the write lock,
+  // so no reading can be queued after the flushers have been told to drain and exit.
+  private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+  private final Timer flushTimer;
+  private final DistributionSummary batchSizeSummary;
+  private final Counter rejectedCounter;
+  private final Counter failedCounter;
+
+  private volatile boolean running;
+
+  @Autowired
+  public WeatherIngestBuffer(
+      WeatherBulkWriter weatherBulkWriter,
+      MeterRegistry meterRegistry,
+      @Value("${weather.ingest.buffer.enabled:false}") boolean enabled,
+      @Value("${weather.ingest.buffer.capacity:100000}") int capacity,
+      @Value("${weather.ingest.buffer.batch-size:1000}") int batchSize,
+      @Value("${weather.ingest.buffer.max-batch-age-ms:200}") long maxBatchAgeMillis,
+      @Value("${weather.ingest.buffer.flusher-threads:2}") int flusherThreads,
+      @Value("${weather.ingest.buffer.flush-retries:3}") int flushRetries,
+      @Value("${weather.ingest.buffer.shutdown-timeout-ms:30000}") long shutdownTimeoutMillis) {
+    this.weatherBulkWriter = weatherBulkWriter;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.maxBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchAgeMillis);
+    this.flusherThreads = flusherThreads;
+    this.flushRetries = flushRetries;
+    this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+
+    Gauge.builder("weather.ingest.queue.depth", queue, BlockingQueue::size)
+        .description("Readings waiting to be written to the database")
+        .register(meterRegistry);
+    this.flushTimer =
+        Timer.builder("weather.ingest.flush")
+            .description("Time taken to write a batch of buffered readings")
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+    this.batchSizeSummary =
+        DistributionSummary.builder("weather.ingest.batch.size")
+            .description("Number of readings written per flush")
+            .register(meterRegistry);
+    this.rejectedCounter =
+        Counter.builder("weather.ingest.rejected")
+            .description("Readings rejected because the buffer was full")
+            .register(meterRegistry);
+    this.failedCounter =
+        Counter.builder("weather.ingest.failed")
+            .description("Buffered readings that could not be written to the database")
+            .register(meterRegistry);
+  }
+
+  /** Starts the flusher threads if the buffer is enabled. */
+  @PostConstruct
+  public void start() {
+    if (!enabled) {
+      return;
+    }
+    running = true;
+    for (int i = 0; i < flusherThreads; i++) {
+      Thread flusher = new Thread(this::runFlusher, "weather-ingest-flusher-" + i);
+      flusher.start();
+      flushers.add(flusher);
+    }
+    logger.info("Write-behind ingest buffer started with {} flusher threads", flusherThreads);
+  }
+
+  /**
+   * Stops accepting readings and waits for the flusher threads to write out everything that is
+   * still queued, up to the configured shutdown timeout. Readings the flushers left behind, such as
+   * a batch requeued by an interrupted flusher, are then written on the calling thread.
+   */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (flushers.isEmpty()) {
+      return;
+    }
+    stopAccepting();
+    long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+    for (Thread flusher : flushers) {
+      flusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+    if (flushers.stream().noneMatch(Thread::isAlive)) {
+      List<WeatherData> batch = new ArrayList<>(batchSize);
+      while (!Thread.currentThread().isInterrupted() && queue.drainTo(batch, batchSize) > 0) {
+        flush(batch);
+        batch.clear();
+      }
+      flushers.clear();
+    }
+    if (!queue.isEmpty()) {
+      logger.error("Shut down with {} readings still buffered", queue.size());
+    }
+  }
+
+  // Whether readings should be buffered rather than written immediately.
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Appends a reading to the buffer without blocking.
+   *
+   * @param weatherData the reading to buffer.
+   * @return true if the reading was queued, false if the buffer is full or shutting down.
+   */
+  public boolean offer(WeatherData weatherData) {
+    stateLock.readLock().lock();
+    try {
+      if (running && queue.offer(weatherData)) {
+        return true;
+      }
+    } finally {
+      stateLock.readLock().unlock();
+    }
+    rejectedCounter.increment();
+    return false;
+  }
+
+  // Getter for the number of readings waiting to be written.
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Drains the queue into batches until the buffer is stopped and empty. A batch is flushed once it
+   * reaches the batch size or once its first reading has waited for the maximum batch age.
+   */
+  private void runFlusher() {
+    List<WeatherData> batch = new ArrayList<>(batchSize);
+    long pollNanos = Math.max(maxBatchAgeNanos, TimeUnit.MILLISECONDS.toNanos(10));
+    while (running || !queue.isEmpty()) {
+      try {
+        WeatherData first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxBatchAgeNanos;
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long remaining = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || remaining <= 0 || !running) {
+            break;
+          }
+          WeatherData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stopAccepting();
+        return;
+      } finally {
+        if (!batch.isEmpty()) {
+          flush(batch);
+          batch.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a batch with a single bulk insert, retrying with a short backoff if the database is
+   * unavailable.
+   *
+   * @param batch the readings to write.
+   */
+  private void flush(List<WeatherData> batch) {
+    batchSizeSummary.record(batch.size());
+    long start = System.nanoTime();
+    for (int attempt = 0; ; attempt++) {
+      try {
+        Map<Integer, String> failures = weatherBulkWriter.insertAll(batch);
+        if (!failures.isEmpty()) {
+          failedCounter.increment(failures.size());
+          logger.error("Failed to write {} buffered readings", failures.size());
+        }
+        break;
+      } catch (Exception e) {
+        if (attempt >= flushRetries) {
+          failedCounter.increment(batch.size());
+          logger.error(
+              "Dropping {} buffered readings after {} attempts", batch.size(), attempt + 1, e);
+          break;
+        }
+        logger.warn("Failed to write buffered readings, retrying", e);
+        try {
+          Thread.sleep(100L << attempt);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          requeue(batch);
+          break;
+        }
+      }
+    }
+    flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Puts a batch that could not be written back on the queue, for another flusher or the final
+   * drain on shutdown to write. Readings that no longer fit are counted as failed.
+   *
+   * @param batch the readings to requeue.
+   */
+  private void requeue(List<WeatherData> batch) {
+    int dropped = 0;
+    for (WeatherData weatherData : batch) {
+      if (!queue.offer(weatherData)) {
+        dropped++;
+      }
+    }
+    if (dropped > 0) {
+      failedCounter.increment(dropped);
+      logger.error("Dropping {} buffered readings, the buffer is full", dropped);
+    } else {
+      logger.warn("Interrupted while writing {} buffered readings, requeued them", batch.size());
+    }
+  }
+
+  // Stops accepting readings once any offer in progress has finished.
+  private void stopAccepting() {
+    stateLock.writeLock().lock();
+    try {
+      running = false;
+    } finally {
+      stateLock.writeLock().unlock();
+    }
+  }
+}
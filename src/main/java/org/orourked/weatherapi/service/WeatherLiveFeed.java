@@ -0,0 +1,340 @@
+package org.orourked.weatherapi.service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes newly saved readings to subscribers as Server-Sent Events, so that dashboards can follow
+ * sensors or locations instead of polling the database. Subscribers are kept in a copy-on-write
+ * list, so saving a reading walks the subscribers without taking a lock.
+ *
+ * <p>Readings are not written on the saving thread. Each subscriber has a buffer holding the
+ * newest pending reading of each sensor, which a small pool of sender threads drains. A subscriber
+ * that reads slower than readings arrive therefore receives the latest reading of each sensor
+ * rather than every reading, and its buffer never holds more than the configured number of
+ * sensors; readings of further sensors are dropped until it catches up.
+ *
+ * <p>Writes to a client block the sender thread until the client has taken them. A heartbeat
+ * comment is sent to every subscriber periodically, which keeps idle connections open through
+ * proxies and finds clients that have gone away. The same task drops subscribers whose current
+ * write has been blocked for longer than the send timeout: they receive nothing further, so that
+ * one stalled client holds a sender thread only until its write fails, rather than taking the
+ * senders from the other subscribers for as long as it stays connected.
+ */
+@Component
+public class WeatherLiveFeed {
+  private static final Logger logger = LoggerFactory.getLogger(WeatherLiveFeed.class);
+
+  /** Receives the readings of one subscriber. */
+  interface Sink {
+    void send(WeatherData reading) throws IOException;
+
+    void heartbeat() throws IOException;
+
+    void close();
+  }
+
+  private final int maxSubscribers;
+  private final int maxPending;
+  private final long timeoutMillis;
+  private final long sendTimeoutNanos;
+  private final ExecutorService senders;
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  // Open subscriptions, reserved before a subscriber is added so the limit holds under concurrency.
+  private final AtomicInteger subscriberCount = new AtomicInteger();
+
+  @Autowired
+  public WeatherLiveFeed(
+      @Value("${weather.live-feed.max-subscribers:1000}") int maxSubscribers,
+      @Value("${weather.live-feed.max-pending:1000}") int maxPending,
+      @Value("${weather.live-feed.timeout-ms:1800000}") long timeoutMillis,
+      @Value("${weather.live-feed.sender-threads:4}") int senderThreads,
+      @Value("${weather.live-feed.send-timeout-ms:10000}") long sendTimeoutMillis) {
+    this.maxSubscribers = maxSubscribers;
+    this.maxPending = maxPending;
+    this.timeoutMillis = timeoutMillis;
+    this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+    AtomicInteger count = new AtomicInteger();
+    this.senders =
+        Executors.newFixedThreadPool(
+            senderThreads,
+            runnable -> {
+              Thread thread = new Thread(runnable, "weather-live-feed-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Closes every subscription and stops the sender threads. */
+  @PreDestroy
+  public void stop() {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.close();
+    }
+    senders.shutdown();
+  }
+
+  /**
+   * Opens a Server-Sent Events subscription to newly saved readings, sent as "reading" events
+   * holding the reading as JSON.
+   *
+   * @param sensorIds the sensors to follow, or null for every sensor.
+   * @param location the location to follow, or null for every location.
+   * @return the emitter to return from the request handler, or null if there are already as many
+   *     subscribers as allowed.
+   */
+  public SseEmitter subscribe(Set<String> sensorIds, String location) {
+    SseEmitter emitter = new SseEmitter(timeoutMillis);
+    Subscriber subscriber =
+        subscribe(
+            sensorIds,
+            location,
+            new Sink() {
+              @Override
+              public void send(WeatherData reading) throws IOException {
+                emitter.send(
+                    SseEmitter.event().name("reading").data(reading, MediaType.APPLICATION_JSON));
+              }
+
+              @Override
+              public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment("heartbeat"));
+              }
+
+              @Override
+              public void close() {
+                emitter.complete();
+              }
+            });
+    if (subscriber == null) {
+      return null;
+    }
+    emitter.onCompletion(subscriber::close);
+    emitter.onTimeout(subscriber::close);
+    emitter.onError(e -> subscriber.close());
+    return emitter;
+  }
+
+  /**
+   * Adds a subscriber that receives readings through a sink.
+   *
+   * @param sensorIds the sensors to follow, or null for every sensor.
+   * @param location the location to follow, or null for every location.
+   * @param sink receives the readings.
+   * @return the subscriber, or null if there are already as many subscribers as allowed.
+   */
+  Subscriber subscribe(Set<String> sensorIds, String location, Sink sink) {
+    if (subscriberCount.incrementAndGet() > maxSubscribers) {
+      subscriberCount.decrementAndGet();
+      return null;
+    }
+    Subscriber subscriber = new Subscriber(sensorIds, location, sink);
+    subscribers.add(subscriber);
+    return subscriber;
+  }
+
+  // Getter for the number of open subscriptions.
+  public int getSubscriberCount() {
+    return subscriberCount.get();
+  }
+
+  /**
+   * Drops subscribers whose current write has been blocked for longer than the send timeout, and
+   * asks the sender threads to send a heartbeat comment to the others.
+   */
+  @Scheduled(fixedDelayString = "${weather.live-feed.heartbeat-ms:15000}")
+  public void heartbeat() {
+    long now = System.nanoTime();
+    for (Subscriber subscriber : subscribers) {
+      long sendStarted = subscriber.sendStarted;
+      if (sendStarted != 0 && now - sendStarted > sendTimeoutNanos) {
+        logger.debug("Dropping live feed subscription blocked on a write");
+        subscriber.close();
+      } else {
+        subscriber.heartbeatDue = true;
+        subscriber.schedule();
+      }
+    }
+  }
+
+  /**
+   * Passes newly saved readings to the subscribers that follow them.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    for (Subscriber subscriber : subscribers) {
+      boolean offered = false;
+      for (WeatherData reading : event.getWeatherData()) {
+        offered |= subscriber.offer(reading);
+      }
+      if (offered) {
+        subscriber.schedule();
+      }
+    }
+  }
+
+  /** A subscription, with its filter and its buffer of pending readings. */
+  final class Subscriber {
+    private final Set<String> sensorIds;
+    private final String location;
+    private final Sink sink;
+
+    // The newest reading of each sensor that has not been sent yet.
+    private final Map<String, WeatherData> pending = new ConcurrentHashMap<>();
+
+    // Whether a sender thread has been asked to drain the buffer.
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Whether a heartbeat should be sent with the next drain.
+    private volatile boolean heartbeatDue;
+
+    // System.nanoTime() when the write in progress started, or 0 if none is.
+    private volatile long sendStarted;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean sinkClosed = new AtomicBoolean();
+
+    private Subscriber(Set<String> sensorIds, String location, Sink sink) {
+      this.sensorIds = sensorIds;
+      this.location = location;
+      this.sink = sink;
+    }
+
+    /**
+     * Buffers a reading if the subscriber follows it, replacing any older pending reading of the
+     * same sensor.
+     *
+     * @param reading the reading.
+     * @return whether the reading was buffered.
+     */
+    private boolean offer(WeatherData reading) {
+      if (closed.get()
+          || (sensorIds != null && !sensorIds.contains(reading.getSensorId()))
+          || (location != null && !location.equals(reading.getLocation()))) {
+        return false;
+      }
+      if (pending.size() >= maxPending && !pending.containsKey(reading.getSensorId())) {
+        return false;
+      }
+      pending.merge(reading.getSensorId(), reading, WeatherLiveFeed::newer);
+      return true;
+    }
+
+    // Asks a sender thread to drain the buffer, unless one already has been.
+    private void schedule() {
+      if (!closed.get() && scheduled.compareAndSet(false, true)) {
+        senders.execute(this::drain);
+      }
+    }
+
+    /** Sends the pending readings, and a heartbeat if one is due, until there is nothing left. */
+    private void drain() {
+      while (true) {
+        Iterator<String> sensors = pending.keySet().iterator();
+        while (sensors.hasNext() && !closed.get()) {
+          WeatherData reading = pending.remove(sensors.next());
+          if (reading != null) {
+            send(() -> sink.send(reading));
+          }
+        }
+        if (heartbeatDue && !closed.get()) {
+          heartbeatDue = false;
+          send(sink::heartbeat);
+        }
+        scheduled.set(false);
+        if (closed.get()) {
+          // Closed while a write was blocked, so the sink was left for this thread to close.
+          closeSink();
+          return;
+        }
+        // Readings buffered after the last pass but before the flag was cleared are sent now.
+        if ((pending.isEmpty() && !heartbeatDue) || !scheduled.compareAndSet(false, true)) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Runs a write to the sink, recording when it started so that a blocked write can be found,
+     * and closes the subscription if it fails.
+     *
+     * @param write the write.
+     */
+    private void send(Write write) {
+      sendStarted = System.nanoTime();
+      try {
+        write.run();
+      } catch (Exception e) {
+        logger.debug("Closing live feed subscription: {}", e.getMessage());
+        close();
+      } finally {
+        sendStarted = 0;
+      }
+    }
+
+    /**
+     * Ends the subscription. The sink is closed straight away unless a write to it is in progress,
+     * since closing waits for that write; the sender thread closes it once the write returns.
+     */
+    void close() {
+      if (closed.compareAndSet(false, true)) {
+        subscribers.remove(this);
+        subscriberCount.decrementAndGet();
+        pending.clear();
+        if (sendStarted == 0) {
+          closeSink();
+        }
+      }
+    }
+
+    // Closes the sink, once.
+    private void closeSink() {
+      if (sinkClosed.compareAndSet(false, true)) {
+        sink.close();
+      }
+    }
+  }
+
+  /** A write to a sink. */
+  private interface Write {
+    void run() throws IOException;
+  }
+
+  // Returns the newer of two readings of the same sensor, preferring the later one on a tie.
+  private static WeatherData newer(WeatherData older, WeatherData later) {
+    if (older.getTimestamp() != null
+        && later.getTimestamp() != null
+        && older.getTimestamp().isAfter(later.getTimestamp())) {
+      return older;
+    }
+    return later;
+  }
+}
@@ -0,0 +1,323 @@
+package org.orourked.weatherapi.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.orourked.weatherapi.model.RunningStats;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Running statistics of every sensor and metric, updated in memory as readings are saved, so that
+ * "since midnight" style questions are answered without aggregating the stored readings. Three
+ * windows are kept: the current hour, the current day, and a rolling window of the last few
+ * minutes, made of one set of statistics per minute that are merged when read.
+ *
+ * <p>Sensors are held in a concurrent map and each sensor's statistics are updated under its own
+ * lock, so saves for different sensors do not contend. Statistics start empty when the application
+ * starts and only include readings saved through this instance; readings timestamped before the
+ * current window are ignored, and so are readings timestamped further ahead of the current time
+ * than a tolerance for clock skew, which would otherwise move a sensor's hour and day forward and
+ * hide its current readings until that time.
+ */
+@Component
+public class WeatherLiveStats {
+
+  /** The period the statistics are reset on. */
+  public enum Window {
+    // Since the start of the current hour.
+    HOUR,
+    // Since midnight.
+    DAY,
+    // Over the last few minutes.
+    ROLLING
+  }
+
+  private final boolean enabled;
+  private final int rollingMinutes;
+  private final long maxFutureSkewSeconds;
+  private final LocalDateTime startedAt = LocalDateTime.now();
+  private final Map<String, SensorStats> sensors = new ConcurrentHashMap<>();
+
+  @Autowired
+  public WeatherLiveStats(
+      @Value("${weather.live-stats.enabled:true}") boolean enabled,
+      @Value("${weather.live-stats.rolling-minutes:60}") int rollingMinutes,
+      @Value("${weather.live-stats.max-future-skew-seconds:300}") long maxFutureSkewSeconds) {
+    this.enabled = enabled;
+    this.rollingMinutes = rollingMinutes;
+    this.maxFutureSkewSeconds = maxFutureSkewSeconds;
+  }
+
+  // Whether the statistics are maintained.
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Parses a window name, ignoring case.
+   *
+   * @param window "hour", "day" or "rolling".
+   * @return the window.
+   * @throws IllegalArgumentException if the window is unknown.
+   */
+  public static Window parseWindow(String window) {
+    return Window.valueOf(window.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Updates the statistics with newly saved readings.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    if (enabled) {
+      apply(event.getWeatherData());
+    }
+  }
+
+  /**
+   * Adds readings to the statistics of their sensors.
+   *
+   * @param weatherData the readings to add.
+   */
+  public void apply(List<WeatherData> weatherData) {
+    apply(weatherData, LocalDateTime.now());
+  }
+
+  /**
+   * Adds readings to the statistics of their sensors, skipping readings timestamped more than the
+   * allowed skew after the current time.
+   *
+   * @param weatherData the readings to add.
+   * @param now the current time.
+   */
+  void apply(List<WeatherData> weatherData, LocalDateTime now) {
+    LocalDateTime latest = now.plusSeconds(maxFutureSkewSeconds);
+    for (WeatherData reading : weatherData) {
+      if (reading.getSensorId() != null
+          && reading.getTimestamp() != null
+          && !reading.getTimestamp().isAfter(latest)) {
+        sensors
+            .computeIfAbsent(reading.getSensorId(), s -> new SensorStats(rollingMinutes))
+            .add(reading);
+      }
+    }
+  }
+
+  /**
+   * Reads the statistics of the current window, in the same row shape as the query endpoint: the
+   * sensorId, the time the statistics cover readings since, and each requested stat of each
+   * requested metric, rounded to one decimal place.
+   *
+   * @param sensorIds the sensors to include, or null for every sensor with statistics.
+   * @param metrics the metrics to include.
+   * @param stats the stats to include; average, max, min, sum, variance, stddev or count.
+   * @param window the window to read.
+   * @param now the current time.
+   * @return one row per sensor with readings in the window, ordered by sensorId.
+   * @throws IllegalArgumentException if a metric or stat is unknown.
+   */
+  public List<Map<String, Object>> getStats(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      Window window,
+      LocalDateTime now) {
+    for (String metric : metrics) {
+      if (!WeatherData.METRICS.contains(metric)) {
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+      }
+    }
+    for (String stat : stats) {
+      new RunningStats().getStat(stat);
+    }
+    Map<String, SensorStats> selected = new TreeMap<>();
+    if (sensorIds == null) {
+      selected.putAll(sensors);
+    } else {
+      for (String sensorId : sensorIds) {
+        SensorStats sensorStats = sensors.get(sensorId);
+        if (sensorStats != null) {
+          selected.put(sensorId, sensorStats);
+        }
+      }
+    }
+    LocalDateTime windowStart = windowStart(window, now);
+    LocalDateTime since = windowStart.isAfter(startedAt) ? windowStart : startedAt;
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (Map.Entry<String, SensorStats> entry : selected.entrySet()) {
+      RunningStats[] windowStats = entry.getValue().read(window, now);
+      if (windowStats == null) {
+        continue;
+      }
+      Map<String, Object> row = new LinkedHashMap<>();
+      row.put("sensorId", entry.getKey());
+      row.put("since", since);
+      for (String metric : metrics) {
+        RunningStats metricStats = windowStats[WeatherData.METRICS.indexOf(metric)];
+        for (String stat : stats) {
+          row.put(statPrefix(stat) + metric, round(metricStats.getStat(stat)));
+        }
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  /**
+   * Returns the start of the current period of a window.
+   *
+   * @param window the window.
+   * @param now the current time.
+   * @return the time from which readings are included.
+   */
+  private LocalDateTime windowStart(Window window, LocalDateTime now) {
+    switch (window) {
+      case HOUR:
+        return now.truncatedTo(ChronoUnit.HOURS);
+      case DAY:
+        return now.truncatedTo(ChronoUnit.DAYS);
+      default:
+        return now.truncatedTo(ChronoUnit.MINUTES).minusMinutes(rollingMinutes - 1);
+    }
+  }
+
+  // Returns the result field prefix of a stat: the query prefix, or the name of a live-only stat.
+  private static String statPrefix(String stat) {
+    switch (stat) {
+      case "variance":
+      case "stddev":
+      case "count":
+        return stat;
+      default:
+        return SensorResult.statPrefix(stat);
+    }
+  }
+
+  // Rounds a value to one decimal place, like the query endpoint.
+  private static Double round(Double value) {
+    return value == null ? null : Math.rint(value * 10) / 10;
+  }
+
+  /**
+   * Statistics of one sensor for the current hour, the current day and each minute of the rolling
+   * window, with one set of statistics per metric in the order of {@link WeatherData#METRICS}.
+   */
+  private static final class SensorStats {
+    private long hour = Long.MIN_VALUE;
+    private long day = Long.MIN_VALUE;
+    private RunningStats[] hourStats = newStats();
+    private RunningStats[] dayStats = newStats();
+
+    // Minute of each slot of the rolling window, and its statistics.
+    private final long[] slotMinutes;
+    private final RunningStats[][] slotStats;
+
+    private SensorStats(int rollingMinutes) {
+      slotMinutes = new long[rollingMinutes];
+      Arrays.fill(slotMinutes, Long.MIN_VALUE);
+      slotStats = new RunningStats[rollingMinutes][];
+    }
+
+    private synchronized void add(WeatherData reading) {
+      long minute = reading.getTimestamp().toEpochSecond(ZoneOffset.UTC) / 60;
+      long readingHour = Math.floorDiv(minute, 60);
+      long readingDay = Math.floorDiv(minute, 60 * 24);
+      if (readingHour > hour) {
+        hour = readingHour;
+        hourStats = newStats();
+      }
+      if (readingDay > day) {
+        day = readingDay;
+        dayStats = newStats();
+      }
+      int slot = Math.floorMod(minute, slotMinutes.length);
+      if (minute > slotMinutes[slot]) {
+        slotMinutes[slot] = minute;
+        slotStats[slot] = newStats();
+      }
+      for (int i = 0; i < WeatherData.METRICS.size(); i++) {
+        Double value = reading.getMetric(WeatherData.METRICS.get(i));
+        if (value == null) {
+          continue;
+        }
+        if (readingHour == hour) {
+          hourStats[i].add(value);
+        }
+        if (readingDay == day) {
+          dayStats[i].add(value);
+        }
+        if (minute == slotMinutes[slot]) {
+          slotStats[slot][i].add(value);
+        }
+      }
+    }
+
+    /**
+     * Reads a copy of the statistics of a window.
+     *
+     * @param window the window.
+     * @param now the current time.
+     * @return the statistics of each metric, or null if there are no readings in the window.
+     */
+    private synchronized RunningStats[] read(Window window, LocalDateTime now) {
+      long minute = now.toEpochSecond(ZoneOffset.UTC) / 60;
+      RunningStats[] result = newStats();
+      switch (window) {
+        case HOUR:
+          if (hour != Math.floorDiv(minute, 60)) {
+            return null;
+          }
+          mergeInto(result, hourStats);
+          break;
+        case DAY:
+          if (day != Math.floorDiv(minute, 60 * 24)) {
+            return null;
+          }
+          mergeInto(result, dayStats);
+          break;
+        default:
+          boolean found = false;
+          for (int slot = 0; slot < slotMinutes.length; slot++) {
+            if (slotMinutes[slot] > minute - slotMinutes.length && slotMinutes[slot] <= minute) {
+              mergeInto(result, slotStats[slot]);
+              found = true;
+            }
+          }
+          if (!found) {
+            return null;
+          }
+      }
+      return result;
+    }
+
+    private static void mergeInto(RunningStats[] target, RunningStats[] source) {
+      for (int i = 0; i < target.length; i++) {
+        target[i].merge(source[i]);
+      }
+    }
+
+    private static RunningStats[] newStats() {
+      RunningStats[] stats = new RunningStats[WeatherData.METRICS.size()];
+      for (int i = 0; i < stats.length; i++) {
+        stats[i] = new RunningStats();
+      }
+      return stats;
+    }
+  }
+}
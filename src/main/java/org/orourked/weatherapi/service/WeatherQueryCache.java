@@ -0,0 +1,263 @@
+package org.orourked.weatherapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataMigratedEvent;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of query results, keyed on the normalized query. Entries expire after a time to
+ * live, except for queries whose date range lies entirely in the past, which are kept until they
+ * are evicted for size. When readings are saved, only the entries whose sensors and date range
+ * include a new reading are invalidated.
+ */
+@Component
+public class WeatherQueryCache {
+
+  private final boolean enabled;
+  private final long ttlNanos;
+  private final Cache<QueryKey, List<SensorResult>> cache;
+
+  // Keys of the cached queries that include each sensor, used to find entries to invalidate.
+  private final Map<String, Set<QueryKey>> keysBySensor = new ConcurrentHashMap<>();
+
+  @Autowired
+  public WeatherQueryCache(
+      MeterRegistry meterRegistry,
+      @Value("${weather.query-cache.enabled:true}") boolean enabled,
+      @Value("${weather.query-cache.max-size:10000}") long maxSize,
+      @Value("${weather.query-cache.ttl-seconds:60}") long ttlSeconds) {
+    this.enabled = enabled;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfter(new QueryExpiry())
+            .executor(Runnable::run)
+            .removalListener(
+                (QueryKey key, List<SensorResult> value, RemovalCause cause) -> {
+                  if (key != null && cause != RemovalCause.REPLACED) {
+                    unindex(key);
+                  }
+                })
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "weatherQuery");
+  }
+
+  /**
+   * Returns the cached results of a query, running the query if they are not cached.
+   *
+   * @param sensorIds List of sensor IDs to include in the results.
+   * @param metrics List of metrics to return per sensor.
+   * @param stats List of statistics to apply to the metrics.
+   * @param startDate Start date for the query, may be null.
+   * @param endDate End date for the query, may be null.
+   * @param query runs the query when the results are not cached.
+   * @return the query results.
+   */
+  public List<SensorResult> get(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate,
+      Supplier<List<SensorResult>> query) {
+    if (!enabled) {
+      return query.get();
+    }
+    QueryKey key = new QueryKey(sensorIds, metrics, stats, startDate, endDate);
+    // Index the key before running the query, so that readings saved while it runs invalidate it,
+    // and again afterwards in case a concurrent removal of an older entry unindexed it.
+    index(key);
+    List<SensorResult> results;
+    try {
+      results = cache.get(key, k -> query.get());
+    } catch (RuntimeException e) {
+      if (cache.getIfPresent(key) == null) {
+        unindex(key);
+      }
+      throw e;
+    }
+    index(key);
+    return results;
+  }
+
+  /**
+   * Invalidates the cached queries that include newly saved readings.
+   *
+   * @param event the saved readings.
+   */
+  @EventListener
+  public void onWeatherDataSaved(WeatherDataSavedEvent event) {
+    invalidate(event.getWeatherData());
+  }
+
+  /**
+   * Invalidates the cached queries that include readings copied into new storage, which were
+   * answered without them while the copy ran.
+   *
+   * @param event the copied readings.
+   */
+  @EventListener
+  public void onWeatherDataMigrated(WeatherDataMigratedEvent event) {
+    invalidate(event.getWeatherData());
+  }
+
+  /**
+   * Invalidates the cached queries that include any of the given readings.
+   *
+   * @param weatherData the readings.
+   */
+  private void invalidate(List<WeatherData> weatherData) {
+    if (!enabled) {
+      return;
+    }
+    for (WeatherData reading : weatherData) {
+      Set<QueryKey> keys = keysBySensor.get(reading.getSensorId());
+      if (keys == null) {
+        continue;
+      }
+      for (QueryKey key : keys) {
+        if (key.includes(reading.getTimestamp())) {
+          cache.invalidate(key);
+        }
+      }
+    }
+  }
+
+  // Getter for the number of cached queries.
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  /**
+   * Adds a key to the sensor index.
+   *
+   * @param key the cached key.
+   */
+  private void index(QueryKey key) {
+    for (String sensorId : key.sensorIds) {
+      keysBySensor.computeIfAbsent(sensorId, s -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+  }
+
+  /**
+   * Removes a key from the sensor index once its entry has left the cache.
+   *
+   * @param key the removed key.
+   */
+  private void unindex(QueryKey key) {
+    for (String sensorId : key.sensorIds) {
+      keysBySensor.computeIfPresent(
+          sensorId,
+          (s, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+          });
+    }
+  }
+
+  /**
+   * Expires entries after the time to live, unless the query only covers the past and so cannot be
+   * affected by readings saved from now on.
+   */
+  private class QueryExpiry implements Expiry<QueryKey, List<SensorResult>> {
+    @Override
+    public long expireAfterCreate(QueryKey key, List<SensorResult> value, long currentTime) {
+      return key.isPast() ? Long.MAX_VALUE : ttlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        QueryKey key, List<SensorResult> value, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        QueryKey key, List<SensorResult> value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+
+  /**
+   * Normalized query used as the cache key. Sensor IDs are sorted and de-duplicated since they do
+   * not affect the results; metrics and stats keep their order, which determines the field order
+   * of the results.
+   */
+  private static final class QueryKey {
+    private final Set<String> sensorIds;
+    private final List<String> metrics;
+    private final List<String> stats;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    private QueryKey(
+        List<String> sensorIds,
+        List<String> metrics,
+        List<String> stats,
+        LocalDate startDate,
+        LocalDate endDate) {
+      this.sensorIds = new TreeSet<>(sensorIds);
+      this.metrics = metrics;
+      this.stats = stats;
+      boolean hasRange = startDate != null && endDate != null;
+      // A query without a date range returns the latest readings, so any new reading affects it.
+      this.from = hasRange ? startDate.atStartOfDay() : null;
+      this.to = hasRange ? endDate.atStartOfDay() : null;
+    }
+
+    // Whether a reading taken at the given time falls in the query's range.
+    private boolean includes(LocalDateTime timestamp) {
+      return from == null
+          || timestamp != null && !timestamp.isBefore(from) && !timestamp.isAfter(to);
+    }
+
+    // Whether the query's range ends before the current time.
+    private boolean isPast() {
+      return to != null && to.isBefore(LocalDateTime.now());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof QueryKey)) {
+        return false;
+      }
+      QueryKey other = (QueryKey) o;
+      return sensorIds.equals(other.sensorIds)
+          && Objects.equals(metrics, other.metrics)
+          && Objects.equals(stats, other.stats)
+          && Objects.equals(from, other.from)
+          && Objects.equals(to, other.to);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sensorIds, metrics, stats, from, to);
+    }
+  }
+}
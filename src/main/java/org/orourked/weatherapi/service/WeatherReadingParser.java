@@ -0,0 +1,638 @@
+package org.orourked.weatherapi.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Locale;
+import org.orourked.weatherapi.model.WeatherData;
+
+/**
+ * Streaming parser of readings in CSV or newline delimited JSON, used by bulk imports. The input is
+ * read in chunks into a byte buffer and each record is parsed where it lies in the buffer, straight
+ * into a WeatherData, without decoding the line into a String or binding it to a WeatherSaveRequest
+ * first. A malformed record is reported with a {@link MalformedReadingException} and skipped, so
+ * the caller can carry on with the next one.
+ *
+ * <p>CSV input starts with a header naming its columns, in any order: sensorId, location,
+ * temperature, humidity, windspeed, pressure and timestamp are required, id is optional and any
+ * other column is ignored. Fields may be quoted, with "" standing for a quote inside a quoted
+ * field. NDJSON input holds one reading per line, with the same fields. Timestamps are ISO local
+ * date times, such as 2024-11-13T10:00:00.
+ */
+public class WeatherReadingParser implements Closeable {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+  // The fields of a reading, by the names used in CSV headers and JSON objects.
+  private static final String[] FIELDS = {
+    "id", "sensorId", "location", "temperature", "humidity", "windspeed", "pressure", "timestamp"
+  };
+  private static final int ID = 0;
+  private static final int SENSOR_ID = 1;
+  private static final int LOCATION = 2;
+  private static final int TEMPERATURE = 3;
+  private static final int HUMIDITY = 4;
+  private static final int WINDSPEED = 5;
+  private static final int PRESSURE = 6;
+  private static final int TIMESTAMP = 7;
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  /** The formats of bulk imports and exports. */
+  public enum Format {
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson");
+
+    private final String mediaType;
+
+    Format(String mediaType) {
+      this.mediaType = mediaType;
+    }
+
+    // Getter for the media type of the format.
+    public String getMediaType() {
+      return mediaType;
+    }
+
+    /**
+     * Looks up a format by name, ignoring case.
+     *
+     * @param name csv or ndjson.
+     * @return the format.
+     * @throws IllegalArgumentException if the name is not a format.
+     */
+    public static Format of(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /** Thrown for a record that cannot be parsed into a valid reading. */
+  public static class MalformedReadingException extends Exception {
+    private final long record;
+
+    public MalformedReadingException(long record, String message) {
+      super(message);
+      this.record = record;
+    }
+
+    // Getter for the number of the malformed record, counting from 1.
+    public long getRecord() {
+      return record;
+    }
+  }
+
+  private final InputStream input;
+  private final Format format;
+  private final ByteSlice slice = new ByteSlice();
+
+  private byte[] buffer = new byte[CHUNK_SIZE];
+
+  // The start of the next record, and the end of the data, in the buffer.
+  private int position;
+  private int limit;
+  private boolean endOfInput;
+
+  // The bounds of the current record in the buffer, excluding its line terminator.
+  private int recordStart;
+  private int recordEnd;
+
+  // The number of records read so far, excluding the CSV header and blank lines.
+  private long record;
+
+  // The field in each CSV column, or -1 for ignored columns; null until the header has been read.
+  private int[] columns;
+
+  public WeatherReadingParser(InputStream input, Format format) {
+    this.input = input;
+    this.format = format;
+  }
+
+  // Getter for the number of records read or skipped so far, which is that of the last record.
+  public long getRecord() {
+    return record;
+  }
+
+  /**
+   * Parses the next record.
+   *
+   * @return the reading, or null at the end of the input.
+   * @throws MalformedReadingException if the record is not a valid reading; the parser moves on to
+   *     the next record regardless.
+   * @throws IllegalArgumentException if the CSV header lacks a required column.
+   * @throws IOException if the input cannot be read, or holds a record longer than 1 MB.
+   */
+  public WeatherData next() throws IOException, MalformedReadingException {
+    if (!nextRecord()) {
+      return null;
+    }
+    return format == Format.CSV ? parseCsv() : parseJson();
+  }
+
+  /**
+   * Skips records without parsing them, to resume an import from a checkpoint.
+   *
+   * @param records the number of records to have been read once done.
+   * @return the number of records read, which is less than requested if the input ended first.
+   * @throws IOException if the input cannot be read.
+   */
+  public long skipTo(long records) throws IOException {
+    while (record < records && nextRecord()) {
+      // Only the record count matters.
+    }
+    return record;
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+
+  /**
+   * Finds the next record that holds a reading, reading the CSV header on the way.
+   *
+   * @return whether a record was found.
+   * @throws IOException if the input cannot be read.
+   */
+  private boolean nextRecord() throws IOException {
+    while (true) {
+      int end = findRecordEnd();
+      if (end < 0) {
+        return false;
+      }
+      recordStart = position;
+      recordEnd = end > recordStart && buffer[end - 1] == '\r' ? end - 1 : end;
+      position = Math.min(end + 1, limit);
+      if (isBlank(recordStart, recordEnd)) {
+        continue;
+      }
+      if (format == Format.CSV && columns == null) {
+        readHeader();
+        continue;
+      }
+      record++;
+      return true;
+    }
+  }
+
+  /**
+   * Finds the end of the record starting at the current position, reading more of the input as
+   * needed. Line breaks within quoted CSV fields do not end the record. As when the fields are
+   * parsed, a quote only opens a quoted field at the start of a field, and is otherwise taken
+   * literally.
+   *
+   * @return the index of the line break ending the record, the end of the data if the input ends
+   *     without one, or -1 if there are no more records.
+   * @throws IOException if the input cannot be read.
+   */
+  private int findRecordEnd() throws IOException {
+    int scanned = position;
+    boolean csv = format == Format.CSV;
+    boolean quoted = false;
+    // Whether the scan is at the start of a field, or just past the quote closing a quoted field,
+    // where a "" escape may continue it.
+    boolean fieldStart = true;
+    boolean closedQuote = false;
+    while (true) {
+      for (int i = scanned; i < limit; i++) {
+        byte b = buffer[i];
+        if (quoted) {
+          if (b == '"') {
+            quoted = false;
+            closedQuote = true;
+          }
+          continue;
+        }
+        if (b == '\n') {
+          return i;
+        }
+        quoted = csv && b == '"' && (fieldStart || closedQuote);
+        fieldStart = b == ',';
+        closedQuote = false;
+      }
+      if (endOfInput) {
+        return position < limit ? limit : -1;
+      }
+      scanned = limit;
+      scanned -= fill();
+    }
+  }
+
+  /**
+   * Moves the unread data to the start of the buffer, growing it if a record fills it, and reads
+   * the next chunk of the input after it.
+   *
+   * @return how far the unread data moved towards the start of the buffer.
+   * @throws IOException if the input cannot be read or a record is longer than 1 MB.
+   */
+  private int fill() throws IOException {
+    int shift = position;
+    int remaining = limit - position;
+    if (remaining == buffer.length) {
+      if (buffer.length >= MAX_RECORD_SIZE) {
+        throw new IOException("Record " + (record + 1) + " is longer than 1 MB");
+      }
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    if (shift > 0) {
+      System.arraycopy(buffer, position, buffer, 0, remaining);
+      position = 0;
+      limit = remaining;
+    }
+    int read = input.read(buffer, limit, Math.min(CHUNK_SIZE, buffer.length - limit));
+    if (read < 0) {
+      endOfInput = true;
+    } else {
+      limit += read;
+    }
+    return shift;
+  }
+
+  /**
+   * Reads the CSV header, mapping each column to a field.
+   *
+   * @throws IllegalArgumentException if a required column is missing.
+   */
+  private void readHeader() {
+    String[] names =
+        new String(buffer, recordStart, recordEnd - recordStart, StandardCharsets.UTF_8)
+            .split(",", -1);
+    columns = new int[names.length];
+    int present = 0;
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i].trim();
+      if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+        name = name.substring(1, name.length() - 1);
+      }
+      columns[i] = field(name);
+      if (columns[i] >= 0) {
+        present |= 1 << columns[i];
+      }
+    }
+    for (int field = SENSOR_ID; field <= TIMESTAMP; field++) {
+      if ((present & (1 << field)) == 0) {
+        throw new IllegalArgumentException("CSV header has no " + FIELDS[field] + " column");
+      }
+    }
+  }
+
+  /**
+   * Parses the current record as a CSV row.
+   *
+   * @return the reading.
+   * @throws MalformedReadingException if the row is not a valid reading.
+   */
+  private WeatherData parseCsv() throws MalformedReadingException {
+    WeatherData reading = new WeatherData();
+    int present = 0;
+    int column = 0;
+    int i = recordStart;
+    while (true) {
+      int start;
+      int end;
+      boolean escaped = false;
+      if (i < recordEnd && buffer[i] == '"') {
+        int j = i + 1;
+        while (true) {
+          if (j >= recordEnd) {
+            throw malformed("Unterminated quoted field");
+          }
+          if (buffer[j] == '"') {
+            if (j + 1 < recordEnd && buffer[j + 1] == '"') {
+              escaped = true;
+              j += 2;
+              continue;
+            }
+            break;
+          }
+          j++;
+        }
+        start = i + 1;
+        end = j;
+        i = j + 1;
+        if (i < recordEnd && buffer[i] != ',') {
+          throw malformed("Unexpected character after quoted field");
+        }
+      } else {
+        int j = i;
+        while (j < recordEnd && buffer[j] != ',') {
+          j++;
+        }
+        start = i;
+        end = j;
+        i = j;
+      }
+      int field = column < columns.length ? columns[column] : -1;
+      if (field >= 0 && end > start) {
+        setCsvField(reading, field, start, end, escaped);
+        present |= 1 << field;
+      }
+      column++;
+      if (i >= recordEnd) {
+        break;
+      }
+      i++;
+    }
+    return checkRequired(reading, present);
+  }
+
+  /**
+   * Sets a field of a reading from a CSV field.
+   *
+   * @param reading the reading.
+   * @param field the field.
+   * @param start the start of the field's value in the buffer.
+   * @param end the end of the field's value in the buffer.
+   * @param escaped whether the value holds "" escapes.
+   * @throws MalformedReadingException if the value is invalid.
+   */
+  private void setCsvField(WeatherData reading, int field, int start, int end, boolean escaped)
+      throws MalformedReadingException {
+    switch (field) {
+      case ID, SENSOR_ID, LOCATION -> {
+        String text = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        setText(reading, field, escaped ? text.replace("\"\"", "\"") : text);
+      }
+      case TIMESTAMP -> setTimestamp(reading, slice.of(buffer, start, end));
+      default -> setNumber(reading, field, slice.of(buffer, start, end));
+    }
+  }
+
+  /**
+   * Parses the current record as a JSON object, reading the bytes in place.
+   *
+   * @return the reading.
+   * @throws MalformedReadingException if the object is not a valid reading.
+   * @throws IOException if the parser fails for a reason other than malformed JSON.
+   */
+  private WeatherData parseJson() throws IOException, MalformedReadingException {
+    WeatherData reading = new WeatherData();
+    int present = 0;
+    try (JsonParser parser =
+        jsonFactory.createParser(buffer, recordStart, recordEnd - recordStart)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw malformed("Malformed reading");
+      }
+      JsonToken token;
+      while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+        int field = field(parser.currentName());
+        JsonToken value = parser.nextToken();
+        if (field < 0 || value == JsonToken.VALUE_NULL) {
+          parser.skipChildren();
+          continue;
+        }
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+          if (field < TEMPERATURE || field > PRESSURE) {
+            throw malformed(FIELDS[field] + " must be a string");
+          }
+          setNumber(reading, field, parser.getDoubleValue());
+        } else if (value != JsonToken.VALUE_STRING) {
+          throw malformed("Malformed reading");
+        } else if (field == TIMESTAMP || field >= TEMPERATURE) {
+          CharSequence text =
+              CharBuffer.wrap(
+                  parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+          if (field == TIMESTAMP) {
+            setTimestamp(reading, text);
+          } else {
+            setNumber(reading, field, text);
+          }
+        } else {
+          setText(reading, field, parser.getText());
+        }
+        present |= 1 << field;
+      }
+      if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+        throw malformed("Malformed reading");
+      }
+    } catch (JsonProcessingException e) {
+      throw malformed("Malformed reading");
+    }
+    return checkRequired(reading, present);
+  }
+
+  // Sets a text field of a reading.
+  private static void setText(WeatherData reading, int field, String text) {
+    switch (field) {
+      case ID -> reading.setId(text);
+      case SENSOR_ID -> reading.setSensorId(text);
+      default -> reading.setLocation(text);
+    }
+  }
+
+  // Parses and sets a metric of a reading.
+  private void setNumber(WeatherData reading, int field, CharSequence text)
+      throws MalformedReadingException {
+    try {
+      setNumber(reading, field, parseNumber(text));
+    } catch (NumberFormatException e) {
+      throw malformed(FIELDS[field] + " is not a number");
+    }
+  }
+
+  // Sets a metric of a reading.
+  private static void setNumber(WeatherData reading, int field, double value) {
+    switch (field) {
+      case TEMPERATURE -> reading.setTemperature(value);
+      case HUMIDITY -> reading.setHumidity(value);
+      case WINDSPEED -> reading.setWindspeed(value);
+      default -> reading.setPressure(value);
+    }
+  }
+
+  // Parses and sets the timestamp of a reading.
+  private void setTimestamp(WeatherData reading, CharSequence text)
+      throws MalformedReadingException {
+    try {
+      reading.setTimestamp(parseTimestamp(text));
+    } catch (DateTimeException e) {
+      throw malformed("timestamp is not an ISO date time");
+    }
+  }
+
+  /**
+   * Checks that a reading has every required field, with the same messages as the save endpoint.
+   *
+   * @param reading the reading.
+   * @param present the fields that were set, as a bit per field.
+   * @return the reading.
+   * @throws MalformedReadingException naming the first missing field.
+   */
+  private WeatherData checkRequired(WeatherData reading, int present)
+      throws MalformedReadingException {
+    for (int field = SENSOR_ID; field <= TIMESTAMP; field++) {
+      if ((present & (1 << field)) == 0) {
+        throw malformed(FIELDS[field] + " is required");
+      }
+    }
+    return reading;
+  }
+
+  // Builds the exception for a malformed current record.
+  private MalformedReadingException malformed(String message) {
+    return new MalformedReadingException(record, message);
+  }
+
+  // Whether a range of the buffer holds only whitespace.
+  private boolean isBlank(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer[i] != ' ' && buffer[i] != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Looks up a field by name, returning -1 for unknown names.
+  private static int field(String name) {
+    for (int i = 0; i < FIELDS.length; i++) {
+      if (FIELDS[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses a decimal number. Plain decimals of up to 15 significant digits, which covers sensor
+   * readings, are parsed directly with the same result as {@link Double#parseDouble(String)}, which
+   * parses anything else.
+   *
+   * @param text the number.
+   * @return the value.
+   * @throws NumberFormatException if the text is not a number.
+   */
+  static double parseNumber(CharSequence text) {
+    int length = text.length();
+    int i = 0;
+    boolean negative = false;
+    if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+      negative = text.charAt(0) == '-';
+      i = 1;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean point = false;
+    for (; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9' && digits < 15) {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (point) {
+          scale++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        return Double.parseDouble(text.toString());
+      }
+    }
+    if (digits == 0) {
+      return Double.parseDouble(text.toString());
+    }
+    // Both the mantissa and the power of ten are exact, so the division is correctly rounded.
+    double value = mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses an ISO local date time. The forms yyyy-MM-ddTHH:mm, yyyy-MM-ddTHH:mm:ss and the latter
+   * with a fraction of a second are parsed directly; anything else is left to {@link
+   * LocalDateTime#parse(CharSequence)}.
+   *
+   * @param text the date time.
+   * @return the date time.
+   * @throws DateTimeException if the text is not a valid date time.
+   */
+  static LocalDateTime parseTimestamp(CharSequence text) {
+    int length = text.length();
+    if ((length == 16 || (length >= 19 && length <= 29 && length != 20))
+        && text.charAt(4) == '-'
+        && text.charAt(7) == '-'
+        && text.charAt(10) == 'T'
+        && text.charAt(13) == ':'
+        && (length == 16 || text.charAt(16) == ':')
+        && (length <= 19 || text.charAt(19) == '.')) {
+      int year = digits(text, 0, 4);
+      int month = digits(text, 5, 2);
+      int day = digits(text, 8, 2);
+      int hour = digits(text, 11, 2);
+      int minute = digits(text, 14, 2);
+      int second = length == 16 ? 0 : digits(text, 17, 2);
+      int nano = 0;
+      if (length > 20) {
+        nano = digits(text, 20, length - 20);
+        for (int i = length - 20; i < 9 && nano >= 0; i++) {
+          nano *= 10;
+        }
+      }
+      if ((year | month | day | hour | minute | second | nano) >= 0) {
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+      }
+    }
+    return LocalDateTime.parse(text);
+  }
+
+  // Parses a run of decimal digits, returning -1 if any character is not a digit.
+  private static int digits(CharSequence text, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * A view of a range of the buffer as characters, so that numbers and timestamps are parsed
+   * without copying them out of it. Only used for ASCII values.
+   */
+  private static final class ByteSlice implements CharSequence {
+    private byte[] bytes;
+    private int start;
+    private int end;
+
+    // Points the view at a range of bytes.
+    ByteSlice of(byte[] bytes, int start, int end) {
+      this.bytes = bytes;
+      this.start = start;
+      this.end = end;
+      return this;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (bytes[start + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      return new String(bytes, start + from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+  }
+}
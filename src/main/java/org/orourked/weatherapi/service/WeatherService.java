@@ -1,29 +1,84 @@
 package org.orourked.weatherapi.service;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 import org.orourked.weatherapi.database.WeatherAggregation;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
 import org.orourked.weatherapi.database.WeatherDatabase;
+import org.orourked.weatherapi.database.WeatherPages;
+import org.orourked.weatherapi.database.WeatherPartitions;
+import org.orourked.weatherapi.database.WeatherQueryMetrics;
+import org.orourked.weatherapi.database.WeatherQueryPlans;
+import org.orourked.weatherapi.database.WeatherSeries;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.model.SensorResult;
 import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @Service
 public class WeatherService {
   private final WeatherDatabase weatherDatabase;
   private final WeatherAggregation weatherAggregation;
+  private final WeatherSeries weatherSeries;
+  private final WeatherBulkWriter weatherBulkWriter;
+  private final WeatherPages weatherPages;
+  private final WeatherPartitions weatherPartitions;
+  private final WeatherIngestBuffer weatherIngestBuffer;
+  private final WeatherQueryCache weatherQueryCache;
+  private final WeatherLiveStats weatherLiveStats;
+  private final WeatherLiveFeed weatherLiveFeed;
+  private final WeatherQueryMetrics weatherQueryMetrics;
+  private final ApplicationEventPublisher eventPublisher;
 
   @Autowired
-  public WeatherService(WeatherDatabase weatherDatabase, WeatherAggregation weatherAggregation) {
+  public WeatherService(
+      WeatherDatabase weatherDatabase,
+      WeatherAggregation weatherAggregation,
+      WeatherSeries weatherSeries,
+      WeatherBulkWriter weatherBulkWriter,
+      WeatherPages weatherPages,
+      WeatherPartitions weatherPartitions,
+      WeatherIngestBuffer weatherIngestBuffer,
+      WeatherQueryCache weatherQueryCache,
+      WeatherLiveStats weatherLiveStats,
+      WeatherLiveFeed weatherLiveFeed,
+      WeatherQueryMetrics weatherQueryMetrics,
+      ApplicationEventPublisher eventPublisher) {
     this.weatherDatabase = weatherDatabase;
     this.weatherAggregation = weatherAggregation;
+    this.weatherSeries = weatherSeries;
+    this.weatherBulkWriter = weatherBulkWriter;
+    this.weatherPages = weatherPages;
+    this.weatherPartitions = weatherPartitions;
+    this.weatherIngestBuffer = weatherIngestBuffer;
+    this.weatherQueryCache = weatherQueryCache;
+    this.weatherLiveStats = weatherLiveStats;
+    this.weatherLiveFeed = weatherLiveFeed;
+    this.weatherQueryMetrics = weatherQueryMetrics;
+    this.eventPublisher = eventPublisher;
   }
 
-  private static LocalDate parseDate(String date) {
+  /**
+   * Parses a date of a query, in ISO format (e.g. 2024-11-02).
+   *
+   * @param date the date, or null or blank for none.
+   * @return the date, or null if none was given.
+   * @throws ResponseStatusException with status 400 if the date is invalid.
+   */
+  public static LocalDate parseDate(String date) {
     try {
       return StringUtils.hasText(date) ? LocalDate.parse(date) : null;
     } catch (Exception e) {
@@ -31,10 +86,26 @@ public class WeatherService {
     }
   }
 
+  /**
+   * Maps a query rejected by the query plan check (weather.query-plan.check=fail) to the error
+   * returned to the client, so that it is not mistaken for a database or server failure.
+   *
+   * @param e the rejection.
+   * @return a ResponseStatusException with status 503 naming the cause.
+   */
+  private static ResponseStatusException collectionScanRejected(
+      WeatherQueryPlans.CollectionScanException e) {
+    return new ResponseStatusException(
+        HttpStatus.SERVICE_UNAVAILABLE, "Query rejected: its plan scans the whole collection", e);
+  }
+
   public List<WeatherData> getAllWeatherData() {
     List<WeatherData> allWeatherData;
     try {
-      allWeatherData = weatherDatabase.findAll();
+      allWeatherData =
+          weatherPartitions.isEnabled()
+              ? weatherPartitions.find(null)
+              : weatherDatabase.findAll();
     } catch (Exception e) {
       throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
     }
@@ -44,31 +115,254 @@ public class WeatherService {
   public List<WeatherData> getWeatherDataByLocation(String location) {
     List<WeatherData> weatherDataByLocation;
     try {
-      weatherDataByLocation = weatherDatabase.findByLocation(location);
+      weatherDataByLocation =
+          weatherPartitions.isEnabled()
+              ? weatherPartitions.find(location)
+              : weatherDatabase.findByLocation(location);
     } catch (Exception e) {
       throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
     }
     return weatherDataByLocation;
   }
 
-  public List<Map> queryWeatherData(
+  /**
+   * Opens a stream over every weather data record, read from a database cursor as it is consumed.
+   *
+   * @return a stream of all records, which must be closed once consumed.
+   */
+  public Stream<WeatherData> streamAllWeatherData() {
+    try {
+      return weatherPartitions.isEnabled()
+          ? weatherPartitions.stream(null)
+          : weatherDatabase.streamAllBy();
+    } catch (Exception e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+    }
+  }
+
+  /**
+   * Opens a stream over the weather data records for a location, read from a database cursor as it
+   * is consumed.
+   *
+   * @param location the location to search for.
+   * @return a stream of the matching records, which must be closed once consumed.
+   */
+  public Stream<WeatherData> streamWeatherDataByLocation(String location) {
+    try {
+      return weatherPartitions.isEnabled()
+          ? weatherPartitions.stream(location)
+          : weatherDatabase.streamByLocation(location);
+    } catch (Exception e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+    }
+  }
+
+  /**
+   * Reads a page of weather data records in (timestamp, id) order.
+   *
+   * @param location the location to filter on, or null for every location.
+   * @param limit the maximum number of records to return.
+   * @param after the cursor returned with the previous page, or null to start from the beginning.
+   * @param since the earliest timestamp to include, or null for no lower bound.
+   * @param until the timestamp before which records are included, or null for no upper bound.
+   * @return the page of records along with the cursor for the next page.
+   * @throws ResponseStatusException with status 400 if the cursor is invalid.
+   */
+  public WeatherDataPage getWeatherDataPage(
+      String location, int limit, String after, LocalDateTime since, LocalDateTime until) {
+    try {
+      return weatherPages.findPage(location, limit, after, since, until);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+    } catch (Exception e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+    }
+  }
+
+  public List<SensorResult> queryWeatherData(
       List<String> sensorIds,
       List<String> metrics,
       List<String> stats,
       String startDate,
       String endDate) {
 
+    long validationStart = System.nanoTime();
     LocalDate start = parseDate(startDate);
     LocalDate end = parseDate(endDate);
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.VALIDATION, validationStart);
 
     try {
-      return weatherAggregation.queryWeatherData(sensorIds, metrics, stats, start, end);
+      return weatherQueryCache.get(
+          sensorIds,
+          metrics,
+          stats,
+          start,
+          end,
+          () -> weatherAggregation.queryWeatherData(sensorIds, metrics, stats, start, end));
     } catch (IllegalArgumentException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid stat");
+    } catch (WeatherQueryPlans.CollectionScanException e) {
+      throw collectionScanRejected(e);
+    }
+  }
+
+  /**
+   * Queries a time series per sensor for charting, either aggregated into time buckets of the given
+   * interval or downsampled from the raw readings, with at most maxPoints points per sensor.
+   * Results are not cached, since they depend on the interval and point limit as well as the
+   * query.
+   *
+   * @param sensorIds the sensors to include.
+   * @param metrics the metrics to include; downsampling selects points by the first.
+   * @param stats the stats to apply per bucket, or null for average; unused when downsampling.
+   * @param startDate the start of the date range, which is required.
+   * @param endDate the end of the date range, which is required.
+   * @param interval the bucket width (e.g. "1h"), or null to downsample.
+   * @param downsample "lttb" or "minmax", or null to aggregate into buckets.
+   * @param maxPoints the maximum number of points per sensor, or null for the configured maximum.
+   * @return one row per sensor and bucket or point, ordered by sensorId and time.
+   * @throws ResponseStatusException with status 400 if the date range is missing, both or neither
+   *     of interval and downsample are given, the interval or a stat is invalid, or the series
+   *     needs raw readings from before they are kept, and with status 503 if the query plan check
+   *     rejects the query.
+   */
+  public List<Map> queryWeatherSeries(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      String startDate,
+      String endDate,
+      String interval,
+      String downsample,
+      Integer maxPoints) {
+    long validationStart = System.nanoTime();
+    LocalDate start = parseDate(startDate);
+    LocalDate end = parseDate(endDate);
+    if (start == null || end == null) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST, "A date range is required for interval or downsample");
+    }
+    if ((interval == null) == (downsample == null)) {
+      throw new ResponseStatusException(
+          HttpStatus.BAD_REQUEST, "Exactly one of interval or downsample is required");
+    }
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.VALIDATION, validationStart);
+    try {
+      if (interval != null) {
+        Duration bucket = WeatherSeries.parseInterval(interval);
+        return weatherSeries.queryBuckets(
+            sensorIds,
+            metrics,
+            stats == null ? List.of("average") : stats,
+            start,
+            end,
+            bucket,
+            maxPoints);
+      }
+      WeatherSeries.Downsample mode =
+          WeatherSeries.Downsample.valueOf(downsample.trim().toUpperCase(Locale.ROOT));
+      return weatherSeries.queryDownsampled(sensorIds, metrics, start, end, mode, maxPoints);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid interval or stat");
+    } catch (WeatherSeries.CompactedRangeException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+    } catch (WeatherQueryPlans.CollectionScanException e) {
+      throw collectionScanRejected(e);
+    } catch (Exception e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+    }
+  }
+
+  /**
+   * Reads the running statistics of the current hour, day or rolling window, maintained in memory
+   * as readings are saved.
+   *
+   * @param sensorIds the sensors to include, or null for every sensor.
+   * @param metrics the metrics to include, or null for every metric.
+   * @param stats the stats to include, or null for average, min and max.
+   * @param window "hour", "day" or "rolling".
+   * @return one row per sensor with readings in the window, ordered by sensorId.
+   * @throws ResponseStatusException with status 400 if the window, a metric or a stat is unknown,
+   *     or 404 if live statistics are disabled.
+   */
+  public List<Map<String, Object>> getLiveStats(
+      List<String> sensorIds, List<String> metrics, List<String> stats, String window) {
+    if (!weatherLiveStats.isEnabled()) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Live stats are disabled");
+    }
+    WeatherLiveStats.Window liveWindow;
+    try {
+      liveWindow = WeatherLiveStats.parseWindow(window);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid window");
     }
+    try {
+      return weatherLiveStats.getStats(
+          sensorIds,
+          metrics == null ? WeatherData.METRICS : metrics,
+          stats == null ? List.of("average", "min", "max") : stats,
+          liveWindow,
+          LocalDateTime.now());
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid metric or stat");
+    }
+  }
+
+  /**
+   * Subscribes to newly saved readings, pushed as Server-Sent Events.
+   *
+   * @param sensorIds the sensors to follow, or null for every sensor.
+   * @param location the location to follow, or null for every location.
+   * @return the emitter the readings are sent through.
+   * @throws ResponseStatusException with status 503 if there are too many subscribers.
+   */
+  public SseEmitter subscribeToReadings(List<String> sensorIds, String location) {
+    SseEmitter emitter =
+        weatherLiveFeed.subscribe(sensorIds == null ? null : Set.copyOf(sensorIds), location);
+    if (emitter == null) {
+      throw new ResponseStatusException(
+          HttpStatus.SERVICE_UNAVAILABLE, "Too many live feed subscribers");
+    }
+    return emitter;
+  }
+
+  /**
+   * Saves a weather data record. When the write-behind buffer is enabled the record is queued and
+   * written asynchronously, otherwise it is written immediately.
+   *
+   * @param weatherData the record to save.
+   * @return true if the record was queued to be written asynchronously, false if it was written
+   *     immediately.
+   * @throws ResponseStatusException with status 429 if the write-behind buffer is full.
+   */
+  public boolean saveWeatherData(WeatherData weatherData) {
+    if (weatherIngestBuffer.isEnabled()) {
+      if (!weatherIngestBuffer.offer(weatherData)) {
+        throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Ingest queue is full");
+      }
+      return true;
+    }
+    if (weatherPartitions.isEnabled()) {
+      weatherPartitions.save(weatherData);
+    } else {
+      weatherDatabase.save(weatherData);
+    }
+    eventPublisher.publishEvent(new WeatherDataSavedEvent(List.of(weatherData)));
+    return false;
   }
 
-  public void saveWeatherData(WeatherData weatherData) {
-    weatherDatabase.save(weatherData);
+  /**
+   * Saves a batch of weather data records with a single unordered bulk insert.
+   *
+   * @param weatherData the records to save.
+   * @return the error message for each record that failed to save, keyed by its index in the given
+   *     list.
+   */
+  public Map<Integer, String> saveAllWeatherData(List<WeatherData> weatherData) {
+    try {
+      return weatherBulkWriter.insertAll(weatherData);
+    } catch (Exception e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Connection Problems to Database");
+    }
   }
 }
@@ -0,0 +1,40 @@
+package org.orourked.weatherapi;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+class WeatherReactiveAutoConfigurationFilterTest {
+  private static final String[] AUTO_CONFIGURATIONS = {
+    "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration",
+    "org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration",
+    null,
+    "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveRepositoriesAutoConfiguration"
+  };
+
+  @Test
+  void testReactiveAutoConfigurationsAreLeftOutByDefault() {
+    // Verify and assert: only the blocking client is configured
+    assertArrayEquals(
+        new boolean[] {true, false, true, false},
+        filter(new MockEnvironment()).match(AUTO_CONFIGURATIONS, null));
+  }
+
+  @Test
+  void testReactiveAutoConfigurationsAreKeptWhenEnabled() {
+    MockEnvironment environment =
+        new MockEnvironment().withProperty("weather.reactive.enabled", "true");
+
+    // Verify and assert
+    assertArrayEquals(
+        new boolean[] {true, true, true, true},
+        filter(environment).match(AUTO_CONFIGURATIONS, null));
+  }
+
+  private static WeatherReactiveAutoConfigurationFilter filter(MockEnvironment environment) {
+    WeatherReactiveAutoConfigurationFilter filter = new WeatherReactiveAutoConfigurationFilter();
+    filter.setEnvironment(environment);
+    return filter;
+  }
+}
@@ -0,0 +1,244 @@
+package org.orourked.weatherapi.controller;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.database.ReactiveWeatherAggregation;
+import org.orourked.weatherapi.database.ReactiveWeatherDatabase;
+import org.orourked.weatherapi.database.WeatherAggregation;
+import org.orourked.weatherapi.database.WeatherBackgroundTasks;
+import org.orourked.weatherapi.database.WeatherHotTier;
+import org.orourked.weatherapi.database.WeatherIndexes;
+import org.orourked.weatherapi.database.WeatherLatest;
+import org.orourked.weatherapi.database.WeatherPartitions;
+import org.orourked.weatherapi.database.WeatherQueryExecutor;
+import org.orourked.weatherapi.database.WeatherQueryMetrics;
+import org.orourked.weatherapi.database.WeatherQueryPlans;
+import org.orourked.weatherapi.database.WeatherRollups;
+import org.orourked.weatherapi.database.WeatherStorage;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.service.ReactiveWeatherService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@WebMvcTest(
+    controllers = ReactiveWeatherController.class,
+    properties = "weather.reactive.enabled=true")
+@Import(ReactiveWeatherControllerTest.TestConfig.class)
+class ReactiveWeatherControllerTest {
+
+  @Autowired private MockMvc mockMvc;
+
+  @Autowired private ReactiveWeatherDatabase mockReactiveWeatherDatabase;
+
+  @Autowired private ReactiveWeatherAggregation mockReactiveWeatherAggregation;
+
+  @Autowired private WeatherPartitions mockWeatherPartitions;
+
+  @BeforeEach
+  void setupMocks() {
+    reset(mockWeatherPartitions, mockReactiveWeatherDatabase);
+  }
+
+  @Test
+  void testGetWeatherDataByLocation_shouldReturnReadings() throws Exception {
+    when(mockReactiveWeatherDatabase.findByLocation("Galway"))
+        .thenReturn(Flux.just(new WeatherData().setSensorId("sensor1").setLocation("Galway")));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather/reactive/location/Galway"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].sensorId").value("sensor1"));
+  }
+
+  @Test
+  void testGetWeatherDataByLocation_partitioned_shouldReadEveryPartition() throws Exception {
+    when(mockWeatherPartitions.isEnabled()).thenReturn(true);
+    when(mockWeatherPartitions.stream("Galway"))
+        .thenReturn(
+            Stream.of(
+                new WeatherData().setSensorId("sensor1").setLocation("Galway"),
+                new WeatherData().setSensorId("sensor2").setLocation("Galway")));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather/reactive/location/Galway"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].sensorId").value("sensor1"))
+        .andExpect(jsonPath("$[1].sensorId").value("sensor2"));
+    verify(mockReactiveWeatherDatabase, never()).findByLocation(any());
+  }
+
+  @Test
+  void testQueryWeatherData_shouldReturnResults() throws Exception {
+    when(mockReactiveWeatherAggregation.queryWeatherData(
+            anyList(), anyList(), anyList(), any(), any()))
+        .thenReturn(
+            Mono.just(
+                List.of(
+                    new SensorResult(
+                        "sensor1",
+                        null,
+                        SensorResult.Columns.of(List.of("temperature"), List.of("average")),
+                        new double[] {9.5}))));
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                post("/api/weather/reactive/query")
+                    .contentType("application/json")
+                    .content(
+                        """
+                        {"sensorIds": ["sensor1"], "metrics": ["temperature"],
+                         "stats": ["average"], "startDate": "2024-11-02", "endDate": "2024-11-08"}
+                        """))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].avgtemperature").value(9.5));
+  }
+
+  @Test
+  void testQueryWeatherData_databaseError_shouldReturnBadGateway() throws Exception {
+    when(mockReactiveWeatherAggregation.queryWeatherData(
+            anyList(), anyList(), any(), isNull(), isNull()))
+        .thenReturn(Mono.error(new IllegalStateException("Connection refused")));
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                post("/api/weather/reactive/query")
+                    .contentType("application/json")
+                    .content("{\"sensorIds\": [\"sensor1\"], \"metrics\": [\"temperature\"]}"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadGateway());
+  }
+
+  static class TestConfig {
+
+    @Bean
+    public ReactiveWeatherService reactiveWeatherService(
+        ReactiveWeatherDatabase reactiveWeatherDatabase,
+        ReactiveWeatherAggregation reactiveWeatherAggregation,
+        WeatherPartitions weatherPartitions) {
+      return new ReactiveWeatherService(
+          reactiveWeatherDatabase, reactiveWeatherAggregation, weatherPartitions);
+    }
+
+    @Bean
+    public ReactiveWeatherDatabase reactiveWeatherDatabase() {
+      return mock(ReactiveWeatherDatabase.class);
+    }
+
+    @Bean
+    public ReactiveWeatherAggregation reactiveWeatherAggregation() {
+      return mock(ReactiveWeatherAggregation.class);
+    }
+
+    @Bean
+    public ReactiveMongoTemplate reactiveMongoTemplate() {
+      return mock(ReactiveMongoTemplate.class);
+    }
+
+    @Bean
+    public WeatherAggregation weatherAggregation() {
+      return mock(WeatherAggregation.class);
+    }
+
+    @Bean
+    public WeatherLatest weatherLatest() {
+      return mock(WeatherLatest.class);
+    }
+
+    @Bean
+    public WeatherHotTier weatherHotTier() {
+      return mock(WeatherHotTier.class);
+    }
+
+    @Bean
+    public WeatherQueryPlans weatherQueryPlans() {
+      return mock(WeatherQueryPlans.class);
+    }
+
+    @Bean
+    public WeatherQueryExecutor weatherQueryExecutor() {
+      return mock(WeatherQueryExecutor.class);
+    }
+
+    @Bean
+    public WeatherQueryMetrics weatherQueryMetrics() {
+      return mock(WeatherQueryMetrics.class);
+    }
+
+    @Bean
+    public WeatherRollups weatherRollups() {
+      return mock(WeatherRollups.class);
+    }
+
+    @Bean
+    public WeatherPartitions weatherPartitions() {
+      return mock(WeatherPartitions.class);
+    }
+
+    @Bean
+    public WeatherStorage weatherStorage() {
+      return mock(WeatherStorage.class);
+    }
+
+    @Bean
+    public WeatherBackgroundTasks weatherBackgroundTasks() {
+      return mock(WeatherBackgroundTasks.class);
+    }
+
+    @Bean
+    public WeatherIndexes weatherIndexes() {
+      return mock(WeatherIndexes.class);
+    }
+
+    @Bean
+    public MongoTemplate mongoTemplate() {
+      return mock(MongoTemplate.class);
+    }
+  }
+}
@@ -1,37 +1,120 @@
 package org.orourked.weatherapi.controller;
 
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.orourked.weatherapi.database.WeatherAggregation;
+import org.orourked.weatherapi.database.WeatherBackgroundTasks;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
 import org.orourked.weatherapi.database.WeatherDatabase;
+import org.orourked.weatherapi.database.WeatherHotTier;
+import org.orourked.weatherapi.database.WeatherIndexes;
+import org.orourked.weatherapi.database.WeatherLatest;
+import org.orourked.weatherapi.database.WeatherPages;
+import org.orourked.weatherapi.database.WeatherPartitions;
+import org.orourked.weatherapi.database.WeatherQueryExecutor;
+import org.orourked.weatherapi.database.WeatherQueryMetrics;
+import org.orourked.weatherapi.database.WeatherQueryPlans;
+import org.orourked.weatherapi.database.WeatherRollups;
+import org.orourked.weatherapi.database.WeatherSeries;
+import org.orourked.weatherapi.database.WeatherSlowQueryLog;
+import org.orourked.weatherapi.database.WeatherStorage;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.dto.WeatherImportResponse;
+import org.orourked.weatherapi.dto.WeatherSaveResult;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.orourked.weatherapi.service.WeatherAccessLog;
+import org.orourked.weatherapi.service.WeatherBulkExport;
+import org.orourked.weatherapi.service.WeatherBulkImport;
+import org.orourked.weatherapi.service.WeatherIngestBuffer;
+import org.orourked.weatherapi.service.WeatherLiveFeed;
+import org.orourked.weatherapi.service.WeatherLiveStats;
+import org.orourked.weatherapi.service.WeatherQueryCache;
+import org.orourked.weatherapi.service.WeatherReadingParser;
 import org.orourked.weatherapi.service.WeatherService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @WebMvcTest(WeatherController.class)
 @Import(WeatherControllerTest.TestConfig.class)
 class WeatherControllerTest {
 
+  private static final String VALID_READING =
+      """
+       {
+          "sensorId": "sensor5",
+          "location": "Galway",
+          "temperature": 9.0,
+          "humidity": 74.0,
+          "pressure": 1036.0,
+          "windspeed": 21.0
+       }
+      """;
+
   @Autowired private MockMvc mockMvc;
 
   @Autowired private WeatherDatabase mockWeatherDatabase;
 
   @Autowired private WeatherAggregation mockWeatherAggregation;
 
+  @Autowired private WeatherBulkWriter mockWeatherBulkWriter;
+
+  @Autowired private WeatherIngestBuffer mockWeatherIngestBuffer;
+
+  @Autowired private WeatherBulkImport mockWeatherBulkImport;
+
+  @Autowired private WeatherPages mockWeatherPages;
+
+  @Autowired private WeatherSeries mockWeatherSeries;
+
+  @Autowired private WeatherLiveStats weatherLiveStats;
+
+  @Autowired private WeatherLiveFeed weatherLiveFeed;
+
+  @Autowired private SimpleMeterRegistry meterRegistry;
+
   @BeforeEach
   void setupMocks() {
+    reset(mockWeatherIngestBuffer);
     // Mock the behavior for saving weather data (if applicable for validation)
     when(mockWeatherDatabase.findAll()).thenReturn(Collections.emptyList());
+    when(mockWeatherBulkWriter.insertAll(anyList())).thenReturn(Map.of());
   }
 
   @Test
@@ -73,12 +156,573 @@ class WeatherControllerTest {
         .andExpect(jsonPath("$.message").value("Weather data saved successfully"));
   }
 
+  @Test
+  void testSaveWeatherData_bufferEnabled_shouldAcceptReading() throws Exception {
+    when(mockWeatherIngestBuffer.isEnabled()).thenReturn(true);
+    when(mockWeatherIngestBuffer.offer(any())).thenReturn(true);
+
+    mockMvc
+        .perform(post("/api/weather/save").contentType("application/json").content(VALID_READING))
+        .andExpect(status().isAccepted()) // Expecting 202
+        .andExpect(jsonPath("$.message").value("Weather data accepted for saving"));
+  }
+
+  @Test
+  void testSaveWeatherData_bufferFull_shouldTriggerBackpressure() throws Exception {
+    when(mockWeatherIngestBuffer.isEnabled()).thenReturn(true);
+    when(mockWeatherIngestBuffer.offer(any())).thenReturn(false);
+
+    mockMvc
+        .perform(post("/api/weather/save").contentType("application/json").content(VALID_READING))
+        .andExpect(status().isTooManyRequests()); // Expecting 429
+  }
+
+  @Test
+  void testQueryWeatherData_interval_shouldReturnBuckets() throws Exception {
+    when(mockWeatherSeries.queryBuckets(
+            List.of("sensor1"),
+            List.of("temperature"),
+            List.of("average"),
+            LocalDate.of(2024, 11, 1),
+            LocalDate.of(2024, 11, 8),
+            Duration.ofHours(1),
+            500))
+        .thenReturn(List.of(Map.of("sensorId", "sensor1", "avgtemperature", 9.5)));
+    String requestBody =
+        """
+       {
+          "sensorIds": ["sensor1"],
+          "metrics": ["temperature"],
+          "startDate": "2024-11-01",
+          "endDate": "2024-11-08",
+          "interval": "1h",
+          "maxPoints": 500
+       }
+      """;
+
+    mockMvc
+        .perform(post("/api/weather/query").contentType("application/json").content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].avgtemperature").value(9.5));
+  }
+
+  @Test
+  void testQueryWeatherData_invalidSeriesRequest_shouldReturnBadRequest() throws Exception {
+    String withoutDates =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature"], "downsample": "lttb"}
+      """;
+    String withBoth =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature"], "startDate": "2024-11-01",
+        "endDate": "2024-11-08", "interval": "1h", "downsample": "lttb"}
+      """;
+    String badInterval =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature"], "startDate": "2024-11-01",
+        "endDate": "2024-11-08", "interval": "1w"}
+      """;
+
+    for (String requestBody : List.of(withoutDates, withBoth, badInterval)) {
+      mockMvc
+          .perform(
+              post("/api/weather/query").contentType("application/json").content(requestBody))
+          .andExpect(status().isBadRequest());
+    }
+  }
+
+  @Test
+  void testGetWeatherDataPage_shouldReturnPageAndCursor() throws Exception {
+    when(mockWeatherPages.findPage(
+            "Galway", 2, "cursor1", LocalDateTime.of(2024, 11, 1, 0, 0), null))
+        .thenReturn(
+            new WeatherDataPage(
+                List.of(new WeatherData().setSensorId("sensor1")), "cursor2", false));
+
+    mockMvc
+        .perform(
+            get("/api/weather/location/Galway")
+                .param("limit", "2")
+                .param("after", "cursor1")
+                .param("since", "2024-11-01T00:00:00"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.data[0].sensorId").value("sensor1"))
+        .andExpect(jsonPath("$.next").value("cursor2"))
+        .andExpect(jsonPath("$.hasMore").value(false));
+  }
+
+  @Test
+  void testGetWeatherDataPage_invalidLimitOrCursor_shouldReturnBadRequest() throws Exception {
+    when(mockWeatherPages.findPage(null, 10, "bad", null, null))
+        .thenThrow(new IllegalArgumentException("Invalid cursor: bad"));
+
+    mockMvc.perform(get("/api/weather").param("limit", "0")).andExpect(status().isBadRequest());
+    mockMvc
+        .perform(get("/api/weather").param("limit", "10").param("after", "bad"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void testStreamWeatherDataByLocation_ndjson_shouldWriteOneRecordPerLine() throws Exception {
+    when(mockWeatherDatabase.streamByLocation("Galway"))
+        .thenReturn(
+            Stream.of(
+                new WeatherData().setSensorId("sensor1").setLocation("Galway"),
+                new WeatherData().setSensorId("sensor2").setLocation("Galway")));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather/location/Galway").accept("application/x-ndjson"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-ndjson"))
+        .andExpect(
+            content()
+                .string(
+                    org.hamcrest.Matchers.matchesPattern(
+                        "\\{\"id\":null,\"sensorId\":\"sensor1\".*}\n"
+                            + "\\{\"id\":null,\"sensorId\":\"sensor2\".*}")));
+  }
+
+  @Test
+  void testStreamAllWeatherData_array_shouldWriteJsonArray() throws Exception {
+    when(mockWeatherDatabase.streamAllBy())
+        .thenReturn(Stream.of(new WeatherData().setSensorId("sensor1")));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather").param("stream", "true"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].sensorId").value("sensor1"));
+  }
+
+  @Test
+  void testStreamAllWeatherData_cbor_shouldWriteCborArray() throws Exception {
+    when(mockWeatherDatabase.streamAllBy())
+        .thenReturn(
+            Stream.of(
+                new WeatherData()
+                    .setSensorId("sensor1")
+                    .setTemperature(9.0)
+                    .setTimestamp(LocalDateTime.of(2024, 11, 13, 10, 0))));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather").accept("application/cbor"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    MvcResult dispatched =
+        mockMvc
+            .perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("application/cbor"))
+            .andReturn();
+
+    // Verify and assert
+    List<Map<String, Object>> records =
+        new CBORMapper()
+            .readValue(dispatched.getResponse().getContentAsByteArray(), new TypeReference<>() {});
+    assertEquals("sensor1", records.get(0).get("sensorId"));
+    assertEquals(9.0, records.get(0).get("temperature"));
+    assertEquals("2024-11-13T10:00:00", records.get(0).get("timestamp"));
+    mockMvc
+        .perform(get("/api/weather").accept("*/*"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/json"));
+  }
+
+  @Test
+  void testQueryWeatherData_smile_shouldNegotiateSmile() throws Exception {
+    when(mockWeatherAggregation.queryWeatherData(any(), any(), any(), any(), any()))
+        .thenReturn(
+            List.of(
+                new SensorResult(
+                    "sensor1",
+                    null,
+                    SensorResult.Columns.of(List.of("temperature"), List.of("average")),
+                    new double[] {9.5})));
+    String requestBody =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature"], "stats": ["average"]}
+      """;
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                post("/api/weather/query")
+                    .contentType("application/json")
+                    .accept("application/x-jackson-smile")
+                    .content(requestBody))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("application/x-jackson-smile"))
+            .andReturn();
+
+    // Verify and assert
+    List<Map<String, Object>> rows =
+        new SmileMapper()
+            .readValue(result.getResponse().getContentAsByteArray(), new TypeReference<>() {});
+    assertEquals(9.5, rows.get(0).get("avgtemperature"));
+  }
+
+  @Test
+  void testQueryWeatherData_shouldRecordStageAndRequestTimers() throws Exception {
+    when(mockWeatherAggregation.queryWeatherData(any(), any(), any(), any(), any()))
+        .thenReturn(List.of());
+    String requestBody =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature", "humidity"], "stats": ["max"],
+        "startDate": "2024-11-01", "endDate": "2024-11-07"}
+      """;
+
+    mockMvc
+        .perform(post("/api/weather/query").contentType("application/json").content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/json"));
+    mockMvc
+        .perform(
+            post("/api/weather/query")
+                .contentType("application/json")
+                .accept("application/xml")
+                .content(requestBody))
+        .andExpect(status().isNotAcceptable());
+
+    // Verify and assert
+    assertEquals(
+        1,
+        meterRegistry
+            .get("weather.query.requests")
+            .tags("endpoint", "query", "metrics", "2", "range", "7d")
+            .timer()
+            .count());
+    assertTrue(
+        meterRegistry.get("weather.query.stage").tag("stage", "serialization").timer().count()
+            >= 1);
+    assertTrue(
+        meterRegistry.get("weather.query.stage").tag("stage", "validation").timer().count() >= 1);
+  }
+
+  @Test
+  void testQueryWeatherData_profile_shouldReturnServerTiming() throws Exception {
+    when(mockWeatherAggregation.queryWeatherData(any(), any(), any(), any(), any()))
+        .thenReturn(List.of());
+    String requestBody =
+        """
+       {"sensorIds": ["sensor1"], "metrics": ["temperature"], "stats": ["average"]}
+      """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/query?profile=true")
+                .contentType("application/json")
+                .content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/json"))
+        .andExpect(
+            header()
+                .string(
+                    "Server-Timing",
+                    matchesPattern(
+                        "validation;dur=[0-9.]+, pipeline;dur=0.00, execution;dur=0.00, "
+                            + "mapping;dur=0.00, serialization;dur=[0-9.]+, total;dur=[0-9.]+")));
+    mockMvc
+        .perform(post("/api/weather/query").contentType("application/json").content(requestBody))
+        .andExpect(status().isOk())
+        .andExpect(header().doesNotExist("Server-Timing"));
+  }
+
+  @Test
+  void testGetLiveStats_shouldReturnRunningStatsOfTheWindow() throws Exception {
+    LocalDateTime now = LocalDateTime.now();
+    weatherLiveStats.apply(
+        List.of(
+            new WeatherData().setSensorId("live1").setTemperature(10).setTimestamp(now),
+            new WeatherData().setSensorId("live1").setTemperature(20).setTimestamp(now)));
+
+    mockMvc
+        .perform(
+            get("/api/weather/stats/live")
+                .param("sensorIds", "live1")
+                .param("metrics", "temperature")
+                .param("stats", "average,stddev,count")
+                .param("window", "rolling"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].sensorId").value("live1"))
+        .andExpect(jsonPath("$[0].avgtemperature").value(15.0))
+        .andExpect(jsonPath("$[0].stddevtemperature").value(5.0))
+        .andExpect(jsonPath("$[0].counttemperature").value(2.0));
+    mockMvc
+        .perform(get("/api/weather/stats/live").param("window", "week"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void testFollowReadings_shouldPushSavedReadingsAsEvents() throws Exception {
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather/live").param("location", "Galway"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    weatherLiveFeed.onWeatherDataSaved(
+        new WeatherDataSavedEvent(
+            List.of(
+                new WeatherData().setSensorId("sensor1").setLocation("Galway"),
+                new WeatherData().setSensorId("sensor2").setLocation("Cork"))));
+
+    // Verify and assert: the reading is sent by a background thread
+    String body = "";
+    for (int i = 0; i < 50 && !body.contains("sensor1"); i++) {
+      Thread.sleep(100);
+      body = result.getResponse().getContentAsString();
+    }
+    assertTrue(body.startsWith("event:reading"));
+    assertTrue(body.contains("\"sensorId\":\"sensor1\""));
+    assertFalse(body.contains("sensor2"));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_invalidReading_shouldOnlyRejectThatReading() throws Exception {
+    String requestBody =
+        """
+       [
+         {
+            "sensorId": "sensor5",
+            "location": "Galway",
+            "temperature": 9.0,
+            "humidity": 74.0,
+            "pressure": 1036.0,
+            "windspeed": 21.0
+         },
+         {
+            "sensorId": "sensor6",
+            "location": "Galway",
+            "temperature": 9.0,
+            "humidity": 74.0,
+            "pressure": 1036.0
+         }
+       ]
+      """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch").contentType("application/json").content(requestBody))
+        .andExpect(status().isMultiStatus()) // Expecting 207
+        .andExpect(jsonPath("$.saved").value(1))
+        .andExpect(jsonPath("$.failed").value(1))
+        .andExpect(jsonPath("$.results[0].status").value(201))
+        .andExpect(jsonPath("$.results[1].status").value(400))
+        .andExpect(jsonPath("$.results[1].message").value("windspeed is required"));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_wrongFieldType_shouldOnlyRejectThatReading() throws Exception {
+    String requestBody =
+        """
+        [
+          {"sensorId": "sensor5", "location": "Galway", "temperature": "warm", "humidity": 74.0},
+          null,
+          {"sensorId": "sensor7", "location": "Cork", "temperature": 9.5, "humidity": 70.0, "pressure": 1030.0, "windspeed": 12.0}
+        ]
+        """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch").contentType("application/json").content(requestBody))
+        .andExpect(status().isMultiStatus()) // Expecting 207
+        .andExpect(jsonPath("$.saved").value(1))
+        .andExpect(jsonPath("$.results[0].message").value("Malformed reading"))
+        .andExpect(jsonPath("$.results[1].message").value("Reading is required"))
+        .andExpect(jsonPath("$.results[2].status").value(201));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_notAnArray_shouldReturnBadRequest() throws Exception {
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch")
+                .contentType("application/json")
+                .content("[{\"sensorId\": \"sensor5\"},"))
+        .andExpect(status().isBadRequest());
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch")
+                .contentType("application/json")
+                .content("{\"sensorId\": \"sensor5\"}"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value("Expected a JSON array of readings"));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_ndjson_shouldRejectMalformedLines() throws Exception {
+    String requestBody =
+        """
+        {"sensorId": "sensor5", "location": "Galway", "temperature": 9.0, "humidity": 74.0, "pressure": 1036.0, "windspeed": 21.0}
+        {"sensorId": "sensor6", "location":
+        {"sensorId": "sensor7", "location": "Cork", "temperature": 9.5, "humidity": 70.0, "pressure": 1030.0, "windspeed": 12.0}
+        """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch")
+                .contentType("application/x-ndjson")
+                .content(requestBody))
+        .andExpect(status().isMultiStatus()) // Expecting 207
+        .andExpect(jsonPath("$.saved").value(2))
+        .andExpect(jsonPath("$.results[1].message").value("Malformed reading"))
+        .andExpect(jsonPath("$.results[2].status").value(201));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_ndjson_shouldIgnoreUnknownFieldsLikeTheArray() throws Exception {
+    String requestBody =
+        """
+        {"sensorId": "sensor5", "location": "Galway", "temperature": 9.0, "humidity": 74.0, "pressure": 1036.0, "windspeed": 21.0, "timestamp": "2024-11-13T10:00:00"}
+        """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch")
+                .contentType("application/x-ndjson")
+                .content(requestBody))
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.saved").value(1))
+        .andExpect(jsonPath("$.results[0].status").value(201));
+  }
+
+  @Test
+  void testSaveWeatherDataBatch_bulkInsertFailure_shouldReportFailedReading() throws Exception {
+    when(mockWeatherBulkWriter.insertAll(anyList())).thenReturn(Map.of(0, "E11000 duplicate key"));
+    String requestBody =
+        """
+       [
+         {
+            "sensorId": "sensor5",
+            "location": "Galway",
+            "temperature": 9.0,
+            "humidity": 74.0,
+            "pressure": 1036.0,
+            "windspeed": 21.0
+         }
+       ]
+      """;
+
+    mockMvc
+        .perform(
+            post("/api/weather/save/batch").contentType("application/json").content(requestBody))
+        .andExpect(status().isMultiStatus()) // Expecting 207
+        .andExpect(jsonPath("$.saved").value(0))
+        .andExpect(jsonPath("$.results[0].status").value(500));
+  }
+
+  @Test
+  void testExportAllWeatherData_csv_shouldWriteHeaderAndRows() throws Exception {
+    when(mockWeatherDatabase.streamAllBy())
+        .thenReturn(
+            Stream.of(
+                new WeatherData()
+                    .setId("6734a1f0c2a4b5d6e7f80912")
+                    .setSensorId("sensor1")
+                    .setLocation("Galway, Ireland")
+                    .setTemperature(9.0)
+                    .setHumidity(74.0)
+                    .setWindspeed(21.0)
+                    .setPressure(1036.0)
+                    .setTimestamp(LocalDateTime.of(2024, 11, 13, 10, 0))));
+
+    MvcResult result =
+        mockMvc
+            .perform(get("/api/weather").accept("text/csv"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith("text/csv"))
+        .andExpect(
+            content()
+                .string(
+                    "id,sensorId,location,temperature,humidity,windspeed,pressure,timestamp\n"
+                        + "6734a1f0c2a4b5d6e7f80912,sensor1,\"Galway, Ireland\",9.0,74.0,21.0,"
+                        + "1036.0,2024-11-13T10:00:00\n"));
+  }
+
+  @Test
+  void testImportWeatherData_withRejectedRecords_shouldReturnMultiStatus() throws Exception {
+    when(mockWeatherBulkImport.importReadings(
+            eq("backfill"), eq(WeatherReadingParser.Format.CSV), any()))
+        .thenReturn(
+            new WeatherImportResponse(
+                "backfill", 1, 1, 0, List.of(new WeatherSaveResult(2, 400, "Malformed reading"))));
+
+    mockMvc
+        .perform(
+            post("/api/weather/import")
+                .param("id", "backfill")
+                .contentType("text/csv")
+                .content("sensorId,location\nsensor1,Galway\n"))
+        .andExpect(status().isMultiStatus()) // Expecting 207
+        .andExpect(jsonPath("$.id").value("backfill"))
+        .andExpect(jsonPath("$.imported").value(1))
+        .andExpect(jsonPath("$.errors[0].index").value(2));
+  }
+
+  @Test
+  void testImportWeatherData_unsupportedContentType_shouldReturnUnsupportedMediaType()
+      throws Exception {
+    mockMvc
+        .perform(post("/api/weather/import").contentType("application/json").content("[]"))
+        .andExpect(status().isUnsupportedMediaType()); // Expecting 415
+  }
+
   static class TestConfig {
 
     @Bean
     public WeatherService weatherService(
-        WeatherDatabase weatherDatabase, WeatherAggregation weatherAggregation) {
-      return new WeatherService(weatherDatabase, weatherAggregation);
+        WeatherDatabase weatherDatabase,
+        WeatherAggregation weatherAggregation,
+        WeatherSeries weatherSeries,
+        WeatherBulkWriter weatherBulkWriter,
+        WeatherPages weatherPages,
+        WeatherPartitions weatherPartitions,
+        WeatherIngestBuffer weatherIngestBuffer,
+        WeatherLiveStats weatherLiveStats,
+        WeatherLiveFeed weatherLiveFeed,
+        WeatherQueryMetrics weatherQueryMetrics,
+        ApplicationEventPublisher eventPublisher) {
+      return new WeatherService(
+          weatherDatabase,
+          weatherAggregation,
+          weatherSeries,
+          weatherBulkWriter,
+          weatherPages,
+          weatherPartitions,
+          weatherIngestBuffer,
+          new WeatherQueryCache(new SimpleMeterRegistry(), false, 0, 0),
+          weatherLiveStats,
+          weatherLiveFeed,
+          weatherQueryMetrics,
+          eventPublisher);
+    }
+
+    @Bean
+    public WeatherLiveFeed weatherLiveFeed() {
+      return new WeatherLiveFeed(10, 100, 60000, 1, 10000);
+    }
+
+    @Bean
+    public WeatherLiveStats weatherLiveStats() {
+      return new WeatherLiveStats(true, 60, 300);
     }
 
     @Bean
@@ -91,6 +735,101 @@ class WeatherControllerTest {
       return mock(WeatherAggregation.class);
     }
 
+    @Bean
+    public WeatherSeries weatherSeries() {
+      return mock(WeatherSeries.class);
+    }
+
+    @Bean
+    public WeatherBulkWriter weatherBulkWriter() {
+      return mock(WeatherBulkWriter.class);
+    }
+
+    @Bean
+    public WeatherBulkImport weatherBulkImport() {
+      return mock(WeatherBulkImport.class);
+    }
+
+    @Bean
+    public WeatherBulkExport weatherBulkExport(ObjectMapper objectMapper) {
+      return new WeatherBulkExport(objectMapper);
+    }
+
+    @Bean
+    public WeatherPages weatherPages() {
+      return mock(WeatherPages.class);
+    }
+
+    @Bean
+    public WeatherLatest weatherLatest() {
+      return mock(WeatherLatest.class);
+    }
+
+    @Bean
+    public WeatherHotTier weatherHotTier() {
+      return mock(WeatherHotTier.class);
+    }
+
+    @Bean
+    public WeatherQueryPlans weatherQueryPlans() {
+      return mock(WeatherQueryPlans.class);
+    }
+
+    @Bean
+    public WeatherQueryMetrics weatherQueryMetrics(SimpleMeterRegistry meterRegistry) {
+      return new WeatherQueryMetrics(meterRegistry);
+    }
+
+    @Bean
+    public WeatherAccessLog weatherAccessLog(SimpleMeterRegistry meterRegistry) {
+      return new WeatherAccessLog(meterRegistry, true, 1024, 100);
+    }
+
+    @Bean
+    public WeatherSlowQueryLog weatherSlowQueryLog(WeatherQueryPlans weatherQueryPlans) {
+      return new WeatherSlowQueryLog(weatherQueryPlans, 0, false);
+    }
+
+    @Bean
+    public SimpleMeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    public WeatherQueryExecutor weatherQueryExecutor() {
+      return mock(WeatherQueryExecutor.class);
+    }
+
+    @Bean
+    public WeatherRollups weatherRollups() {
+      return mock(WeatherRollups.class);
+    }
+
+    @Bean
+    public WeatherIngestBuffer weatherIngestBuffer() {
+      return mock(WeatherIngestBuffer.class);
+    }
+
+    @Bean
+    public WeatherPartitions weatherPartitions() {
+      return mock(WeatherPartitions.class);
+    }
+
+    @Bean
+    public WeatherStorage weatherStorage() {
+      return mock(WeatherStorage.class);
+    }
+
+    @Bean
+    public WeatherBackgroundTasks weatherBackgroundTasks() {
+      return mock(WeatherBackgroundTasks.class);
+    }
+
+    @Bean
+    public WeatherIndexes weatherIndexes() {
+      return mock(WeatherIndexes.class);
+    }
+
     @Bean
     public MongoTemplate mongoTemplate() {
       return mock(MongoTemplate.class);
@@ -0,0 +1,90 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.util.Date;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonNull;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.SensorResult;
+
+class SensorResultCodecTest {
+
+  @Test
+  void testDecodesColumnsAndSkipsOtherFields() {
+    SensorResult.Columns columns =
+        SensorResult.Columns.of(List.of("temperature", "humidity"), List.of("average", "max"));
+    RawBsonDocument document =
+        RawBsonDocument.parse(
+            new Document("sensorId", "sensor1")
+                .append("avgtemperature", 12.5)
+                .append("maxtemperature", 20)
+                .append("avghumidity", null)
+                .append("maxhumidity", 61L)
+                .append("extra", new Document("ignored", true))
+                .toJson());
+
+    SensorResult result =
+        new SensorResultCodec(columns)
+            .decode(document.asBsonReader(), DecoderContext.builder().build());
+
+    // Verify and assert
+    assertEquals("sensor1", result.getSensorId());
+    assertNull(result.getTimestamp());
+    assertEquals(12.5, result.get("avgtemperature"));
+    assertEquals(20.0, result.get("maxtemperature"));
+    assertNull(result.get("avghumidity"));
+    assertEquals(61.0, result.getValue(columns.indexOf("maxhumidity")));
+    assertNull(result.get("extra"));
+  }
+
+  @Test
+  void testEncodedRowDecodesToTheSameRow() {
+    SensorResult.Columns columns = SensorResult.Columns.of(List.of("temperature", "windspeed"));
+    SensorResult result =
+        new SensorResult(
+            "sensor1", new Date(1731492000000L), columns, new double[] {9.5, Double.NaN});
+    SensorResultCodec codec = new SensorResultCodec(columns);
+    BsonDocument document = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(document), result, EncoderContext.builder().build());
+
+    SensorResult decoded =
+        codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+    // Verify and assert
+    assertEquals(new BsonNull(), document.get("windspeed"));
+    assertEquals("sensor1", decoded.getSensorId());
+    assertEquals(result.getTimestamp(), decoded.getTimestamp());
+    assertEquals(9.5, decoded.get("temperature"));
+    assertNull(decoded.get("windspeed"));
+  }
+
+  @Test
+  void testWritesTheSameJsonAsThePipelineDocuments() throws Exception {
+    ObjectMapper objectMapper =
+        new ObjectMapper().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    SensorResult.Columns columns = SensorResult.Columns.of(List.of("temperature", "windspeed"));
+    Date timestamp = new Date(1731492000000L);
+    SensorResult result =
+        new SensorResult("sensor1", timestamp, columns, new double[] {9.5, Double.NaN});
+
+    // Verify and assert
+    assertEquals(
+        objectMapper.writeValueAsString(
+            new Document("sensorId", "sensor1")
+                .append("timestamp", timestamp)
+                .append("temperature", 9.5)
+                .append("windspeed", null)),
+        objectMapper.writeValueAsString(result));
+  }
+}
@@ -1,5 +1,105 @@
 package org.orourked.weatherapi.database;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
 public class WeatherAggregationTest {
-  // More unit tests could go here some day...
+  private final WeatherAggregation weatherAggregation = new WeatherAggregation();
+
+  @Test
+  void testLatestReadingPipelineSortsBySensorThenNewestFirst() {
+    List<Document> pipeline =
+        render(List.of("sensor1"), List.of("temperature"), List.of("average"), null, null);
+
+    // Verify and assert
+    assertEquals(
+        new Document("$sort", new Document("sensorId", 1).append("timestamp", -1)),
+        pipeline.get(1));
+  }
+
+  @Test
+  void testDateRangePipelineRendersAsSentToTheServer() {
+    List<Document> pipeline =
+        render(
+            List.of("sensor1"),
+            List.of("temperature"),
+            List.of("average", "max"),
+            LocalDate.of(2024, 11, 2),
+            LocalDate.of(2024, 11, 8));
+
+    // Verify and assert: match, date filter, group, project and final sort
+    assertEquals(5, pipeline.size());
+    assertEquals(
+        new Document("_id", "$sensorId")
+            .append("avgtemperature", new Document("$avg", "$temperature"))
+            .append("maxtemperature", new Document("$max", "$temperature")),
+        pipeline.get(2).get("$group"));
+  }
+
+  @Test
+  void testTemplatePipelinesMatchTheBuiltPipelinesAndAreReused() {
+    MappingMongoConverter converter = converter();
+    List<String> metrics = List.of("temperature", "humidity");
+    List<String> stats = List.of("average", "sum");
+    LocalDate startDate = LocalDate.of(2024, 11, 2);
+    LocalDate endDate = LocalDate.of(2024, 11, 8);
+
+    List<Document> first =
+        weatherAggregation.renderQueryPipeline(
+            List.of("sensor1"), metrics, stats, startDate, endDate, converter);
+    List<Document> second =
+        weatherAggregation.renderQueryPipeline(
+            List.of("sensor2", "sensor3"),
+            metrics,
+            stats,
+            startDate.plusDays(1),
+            endDate.plusDays(1),
+            converter);
+
+    // Verify and assert
+    assertEquals(render(List.of("sensor1"), metrics, stats, startDate, endDate), first);
+    assertEquals(
+        render(
+            List.of("sensor2", "sensor3"),
+            metrics,
+            stats,
+            startDate.plusDays(1),
+            endDate.plusDays(1)),
+        second);
+    assertSame(first.get(2), second.get(2));
+    assertEquals(
+        render(List.of("sensor1"), metrics, stats, null, null),
+        weatherAggregation.renderQueryPipeline(
+            List.of("sensor1"), metrics, stats, null, null, converter));
+    assertEquals(
+        WeatherQueryPlans.toPipeline(
+            weatherAggregation.buildLatestPipeline(List.of("sensor1"), metrics, stats), converter),
+        weatherAggregation.renderLatestPipeline(List.of("sensor1"), metrics, converter));
+  }
+
+  private List<Document> render(
+      List<String> sensorIds,
+      List<String> metrics,
+      List<String> stats,
+      LocalDate startDate,
+      LocalDate endDate) {
+    return WeatherQueryPlans.toPipeline(
+        weatherAggregation.buildQueryPipeline(sensorIds, metrics, stats, startDate, endDate),
+        converter());
+  }
+
+  private static MappingMongoConverter converter() {
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    converter.afterPropertiesSet();
+    return converter;
+  }
 }
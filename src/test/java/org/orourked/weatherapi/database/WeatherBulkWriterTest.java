@@ -0,0 +1,54 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherBulkWriterTest {
+
+  @Test
+  void testSkipsReadingsThatAreAlreadyStored() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    BulkOperations bulkOperations = mock(BulkOperations.class);
+    ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    when(mongoTemplate.bulkOps(
+            BulkOperations.BulkMode.UNORDERED, WeatherData.class, WeatherPartitions.COLLECTION))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+    when(mongoTemplate.find(any(Query.class), eq(WeatherData.class), eq("weatherData")))
+        .thenReturn(List.of(new WeatherData().setId("stored")));
+    WeatherBulkWriter weatherBulkWriter = new WeatherBulkWriter();
+    ReflectionTestUtils.setField(weatherBulkWriter, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(
+        weatherBulkWriter, "weatherPartitions", mock(WeatherPartitions.class));
+    ReflectionTestUtils.setField(weatherBulkWriter, "eventPublisher", eventPublisher);
+    WeatherData stored = new WeatherData().setId("stored").setSensorId("sensor1");
+    WeatherData missing = new WeatherData().setId("missing").setSensorId("sensor2");
+
+    Map<Integer, String> failures = weatherBulkWriter.insertAll(List.of(stored, missing), true);
+
+    // Verify and assert: only the missing reading is written and published
+    assertEquals(Map.of(), failures);
+    verify(bulkOperations).insert(List.of(missing));
+    ArgumentCaptor<WeatherDataSavedEvent> event =
+        ArgumentCaptor.forClass(WeatherDataSavedEvent.class);
+    verify(eventPublisher).publishEvent(event.capture());
+    assertEquals(List.of(missing), event.getValue().getWeatherData());
+  }
+}
@@ -0,0 +1,146 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.client.result.DeleteResult;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherCompactionTest {
+  private static final LocalDateTime HORIZON = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+  private MongoTemplate mongoTemplate;
+  private WeatherRollups weatherRollups;
+  private WeatherCompaction weatherCompaction;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongoTemplate.class);
+    weatherRollups = mock(WeatherRollups.class);
+    weatherCompaction = new WeatherCompaction();
+    ReflectionTestUtils.setField(weatherCompaction, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherCompaction, "weatherRollups", weatherRollups);
+    ReflectionTestUtils.setField(weatherCompaction, "weatherPartitions", new WeatherPartitions());
+    ReflectionTestUtils.setField(weatherCompaction, "deleteBatchSize", 2);
+    when(mongoTemplate.remove(any(Query.class), eq("weatherData")))
+        .thenReturn(DeleteResult.acknowledged(2));
+  }
+
+  @Test
+  void testCompactsDaysBeforeTheHorizonAndDeletesInBatches() throws Exception {
+    when(weatherRollups.getCoveredSince()).thenReturn(LocalDateTime.of(2023, 12, 31, 0, 0));
+    // One day of readings before coverage, one after it, and then readings past the horizon.
+    when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(
+            reading(LocalDateTime.of(2023, 12, 30, 8, 0)),
+            reading(LocalDateTime.of(2023, 12, 31, 13, 0)),
+            reading(LocalDateTime.of(2024, 1, 2, 9, 0)));
+    when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(ids("a", "b"))
+        .thenReturn(ids())
+        .thenReturn(ids("c", "d"))
+        .thenReturn(ids());
+
+    long deleted = weatherCompaction.compact(HORIZON);
+
+    // Verify and assert: rollups are rebuilt where they predate coverage, before any delete
+    assertEquals(4, deleted);
+    InOrder order = inOrder(weatherRollups, mongoTemplate);
+    order
+        .verify(weatherRollups)
+        .rebuild(LocalDateTime.of(2023, 12, 30, 0, 0), LocalDateTime.of(2023, 12, 31, 0, 0));
+    order.verify(weatherRollups).markCompacted(LocalDateTime.of(2023, 12, 31, 0, 0));
+    order.verify(mongoTemplate).remove(any(Query.class), eq("weatherData"));
+    order.verify(weatherRollups).markCompacted(HORIZON);
+    verify(weatherRollups, never()).rebuild(LocalDateTime.of(2023, 12, 31, 0, 0), HORIZON);
+    verify(weatherRollups, never()).markCompacted(LocalDateTime.of(2024, 1, 3, 0, 0));
+  }
+
+  @Test
+  void testResumeFinishesDeletesBeforeTheCheckpoint() throws Exception {
+    when(weatherRollups.getCompactedUntil()).thenReturn(HORIZON);
+    when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(reading(HORIZON.plusHours(1)));
+    when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(ids("a", "b"))
+        .thenReturn(ids());
+
+    long deleted = weatherCompaction.compact(HORIZON);
+
+    // Verify and assert
+    assertEquals(2, deleted);
+    verify(weatherRollups, never()).rebuild(any(), any());
+    verify(weatherRollups, never()).markCompacted(any());
+  }
+
+  @Test
+  void testDirtyDaysKeepTheirRawReadings() throws Exception {
+    LocalDateTime dirty = LocalDateTime.of(2023, 12, 20, 0, 0);
+    when(weatherRollups.getCompactedUntil()).thenReturn(HORIZON);
+    when(weatherRollups.getDirtyDays()).thenReturn(Set.of(dirty));
+    when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(ids("a", "b"))
+        .thenReturn(ids())
+        .thenReturn(ids("c", "d"))
+        .thenReturn(ids());
+
+    long deleted = weatherCompaction.compact(HORIZON);
+
+    // Verify and assert: the readings before and after the dirty day are deleted, not the day's
+    assertEquals(4, deleted);
+    ArgumentCaptor<Query> batches = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(4)).find(batches.capture(), eq(Document.class), eq("weatherData"));
+    assertEquals(
+        new Document("timestamp", new Document("$lt", dirty)),
+        batches.getAllValues().get(0).getQueryObject());
+    assertEquals(
+        new Document("timestamp", new Document("$lt", HORIZON).append("$gte", dirty.plusDays(1))),
+        batches.getAllValues().get(2).getQueryObject());
+  }
+
+  @Test
+  void testDirtyDayIsRebuiltBeforeItIsCompacted() throws Exception {
+    LocalDateTime day = LocalDateTime.of(2023, 12, 31, 0, 0);
+    when(weatherRollups.getCoveredSince()).thenReturn(LocalDateTime.of(2023, 1, 1, 0, 0));
+    // Still dirty after the rebuild, as if it had been marked again meanwhile.
+    when(weatherRollups.getDirtyDays()).thenReturn(Set.of(day));
+    when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(reading(day.plusHours(8)));
+
+    long deleted = weatherCompaction.compact(HORIZON);
+
+    // Verify and assert: rebuilt, but neither compacted nor deleted
+    assertEquals(0, deleted);
+    verify(weatherRollups).rebuild(day, HORIZON);
+    verify(weatherRollups, never()).markCompacted(any());
+    verify(mongoTemplate, never()).remove(any(Query.class), eq("weatherData"));
+  }
+
+  private static Document reading(LocalDateTime timestamp) {
+    return new Document(
+        "timestamp", Date.from(timestamp.atZone(ZoneId.systemDefault()).toInstant()));
+  }
+
+  private static List<Document> ids(String... ids) {
+    return List.of(ids).stream().map(id -> new Document("_id", id)).toList();
+  }
+}
@@ -0,0 +1,106 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherHotTierTest {
+  // Readings are only held from when the tier started, so the tests use future dates.
+  private static final LocalDate DAY = LocalDate.now().plusDays(2);
+
+  @Test
+  void testDateRangeIsAnsweredFromTheRings() {
+    WeatherHotTier weatherHotTier = hotTier(100);
+    List<WeatherData> readings = new ArrayList<>();
+    // 70 readings, so that the arrays grow past their initial size.
+    for (int i = 0; i < 70; i++) {
+      readings.add(reading("sensor1", DAY.atTime(0, i % 60), i).setWindspeed(null));
+    }
+    readings.add(reading("sensor2", DAY.atTime(12, 0), 5.0));
+    // Outside the range: after the start of the end date.
+    readings.add(reading("sensor2", DAY.plusDays(1).atTime(0, 1), 100.0));
+    weatherHotTier.apply(readings);
+
+    List<SensorResult> results =
+        weatherHotTier.queryWeatherData(
+            List.of("sensor2", "sensor1", "sensor3"),
+            List.of("temperature", "windspeed"),
+            List.of("average", "max", "sum"),
+            DAY,
+            DAY.plusDays(1));
+
+    // Verify and assert
+    assertTrue(weatherHotTier.covers(List.of("sensor1", "sensor2"), DAY, DAY.plusDays(1)));
+    assertEquals(2, results.size());
+    assertEquals("sensor1", results.get(0).get("sensorId"));
+    assertEquals(34.5, results.get(0).get("avgtemperature"));
+    assertEquals(69.0, results.get(0).get("maxtemperature"));
+    assertEquals(2415.0, results.get(0).get("sumtemperature"));
+    assertNull(results.get(0).get("avgwindspeed"));
+    assertEquals(5.0, results.get(1).get("maxtemperature"));
+    assertEquals(10.0, results.get(1).get("avgwindspeed"));
+  }
+
+  @Test
+  void testRangesBeforeStartupOrEvictedReadingsAreNotCovered() {
+    WeatherHotTier weatherHotTier = hotTier(2);
+    weatherHotTier.apply(
+        List.of(
+            reading("sensor1", DAY.atTime(6, 0), 1.0),
+            reading("sensor1", DAY.plusDays(1).atTime(6, 0), 2.0),
+            reading("sensor1", DAY.plusDays(2).atTime(6, 0), 3.0)));
+
+    // Verify and assert
+    assertFalse(
+        weatherHotTier.covers(List.of("sensor1"), LocalDate.now().minusDays(1), DAY.plusDays(3)));
+    assertFalse(weatherHotTier.covers(List.of("sensor1"), DAY, DAY.plusDays(3)));
+    assertTrue(weatherHotTier.covers(List.of("sensor1"), DAY.plusDays(1), DAY.plusDays(3)));
+    assertEquals(
+        2.5,
+        weatherHotTier
+            .queryWeatherData(
+                List.of("sensor1"),
+                List.of("temperature"),
+                List.of("average"),
+                DAY.plusDays(1),
+                DAY.plusDays(3))
+            .get(0)
+            .get("avgtemperature"));
+  }
+
+  @Test
+  void testDisabledTierCoversNothing() {
+    WeatherHotTier weatherHotTier = hotTier(10);
+    ReflectionTestUtils.setField(weatherHotTier, "enabled", false);
+
+    // Verify and assert
+    assertFalse(weatherHotTier.covers(List.of("sensor1"), DAY, DAY.plusDays(1)));
+  }
+
+  private static WeatherHotTier hotTier(int capacity) {
+    WeatherHotTier weatherHotTier = new WeatherHotTier();
+    ReflectionTestUtils.setField(weatherHotTier, "enabled", true);
+    ReflectionTestUtils.setField(weatherHotTier, "capacityPerSensor", capacity);
+    return weatherHotTier;
+  }
+
+  private static WeatherData reading(String sensorId, LocalDateTime timestamp, double temperature) {
+    return new WeatherData()
+        .setSensorId(sensorId)
+        .setTemperature(temperature)
+        .setHumidity(60)
+        .setWindspeed(10.0)
+        .setPressure(1015)
+        .setTimestamp(timestamp);
+  }
+}
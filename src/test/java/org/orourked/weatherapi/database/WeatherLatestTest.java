@@ -0,0 +1,97 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherLatestTest {
+  private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 11, 13, 10, 0);
+
+  private BulkOperations bulkOperations;
+  private WeatherLatest weatherLatest;
+
+  @BeforeEach
+  void setUp() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    bulkOperations = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, WeatherLatest.COLLECTION))
+        .thenReturn(bulkOperations);
+    weatherLatest = new WeatherLatest();
+    ReflectionTestUtils.setField(weatherLatest, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherLatest, "weatherPartitions", new WeatherPartitions());
+  }
+
+  @Test
+  void testNewestReadingOfEachSensorIsUpsertedIfNewer() {
+    weatherLatest.apply(
+        List.of(
+            new WeatherData().setSensorId("sensor1").setTemperature(10).setTimestamp(TIMESTAMP),
+            new WeatherData()
+                .setSensorId("sensor1")
+                .setTemperature(12)
+                .setTimestamp(TIMESTAMP.plusMinutes(5)),
+            new WeatherData()
+                .setSensorId("sensor1")
+                .setTemperature(11)
+                .setTimestamp(TIMESTAMP.plusMinutes(1))));
+
+    // Verify and assert
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations).upsert(query.capture(), update.capture());
+    assertEquals(
+        new Document("_id", "sensor1")
+            .append("timestamp", new Document("$lt", TIMESTAMP.plusMinutes(5))),
+        query.getValue().getQueryObject());
+    Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+    assertEquals(12.0, set.get("temperature"));
+    assertEquals(TIMESTAMP.plusMinutes(5), set.get("timestamp"));
+  }
+
+  @Test
+  void testOnlyDuplicateKeyErrorsAreIgnored() {
+    when(bulkOperations.execute())
+        .thenThrow(bulkFailure(11000))
+        .thenThrow(bulkFailure(121));
+    List<WeatherData> reading =
+        List.of(new WeatherData().setSensorId("sensor1").setTimestamp(TIMESTAMP));
+
+    // Verify and assert: an older reading is ignored, other failures are not
+    weatherLatest.apply(reading);
+    assertThrows(BulkOperationException.class, () -> weatherLatest.apply(reading));
+  }
+
+  private static BulkOperationException bulkFailure(int code) {
+    return new BulkOperationException(
+        "Bulk write failed",
+        new MongoBulkWriteException(
+            BulkWriteResult.unacknowledged(),
+            List.of(new BulkWriteError(code, "failed", new BsonDocument(), 0)),
+            null,
+            new ServerAddress(),
+            Set.of()));
+  }
+}
@@ -0,0 +1,86 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherPagesTest {
+  private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 11, 13, 10, 0);
+
+  private MongoTemplate mongoTemplate;
+  private WeatherPages weatherPages;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongoTemplate.class);
+    weatherPages = new WeatherPages();
+    ReflectionTestUtils.setField(weatherPages, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherPages, "weatherPartitions", new WeatherPartitions());
+  }
+
+  @Test
+  void testPageReadsOneExtraRecordToDetectMore() {
+    List<WeatherData> records = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      records.add(new WeatherData().setId("id" + i).setTimestamp(TIMESTAMP.plusMinutes(i)));
+    }
+    when(mongoTemplate.find(any(Query.class), eq(WeatherData.class), eq("weatherData")))
+        .thenReturn(records);
+
+    WeatherDataPage page = weatherPages.findPage(null, 2, null, null, null);
+
+    // Verify and assert
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(WeatherData.class), eq("weatherData"));
+    assertEquals(3, query.getValue().getLimit());
+    assertEquals(new Document("timestamp", 1).append("id", 1), query.getValue().getSortObject());
+    assertEquals(2, page.getData().size());
+    assertTrue(page.isHasMore());
+    assertEquals(
+        List.of(TIMESTAMP.plusMinutes(1).toString(), "id1"),
+        List.of(WeatherPages.decodeCursor(page.getNext())));
+  }
+
+  @Test
+  void testEmptyPageKeepsCursorForTailing() {
+    String cursor =
+        WeatherPages.encodeCursor(new WeatherData().setId("id1").setTimestamp(TIMESTAMP));
+    when(mongoTemplate.find(any(Query.class), eq(WeatherData.class), eq("weatherData")))
+        .thenReturn(List.of());
+
+    WeatherDataPage page = weatherPages.findPage("Galway", 10, cursor, null, null);
+
+    // Verify and assert
+    assertEquals(cursor, page.getNext());
+    assertFalse(page.isHasMore());
+  }
+
+  @Test
+  void testInvalidCursorIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class, () -> weatherPages.findPage(null, 10, "%%%", null, null));
+    // Valid base64, but not a cursor
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> weatherPages.findPage(null, 10, "bm9wZQ", null, null));
+  }
+}
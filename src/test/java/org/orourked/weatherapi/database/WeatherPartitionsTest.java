@@ -0,0 +1,286 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.dto.WeatherDataPage;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherPartitionsTest {
+  private MongoTemplate mongoTemplate;
+  private WeatherStorage weatherStorage;
+  private WeatherPartitions weatherPartitions;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongoTemplate.class);
+    weatherStorage = mock(WeatherStorage.class);
+    weatherPartitions = new WeatherPartitions();
+    ReflectionTestUtils.setField(weatherPartitions, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherPartitions, "weatherStorage", weatherStorage);
+    ReflectionTestUtils.setField(weatherPartitions, "weatherIndexes", mock(WeatherIndexes.class));
+    weatherPartitions.setScheme("monthly");
+    when(mongoTemplate.getCollectionNames())
+        .thenReturn(
+            Set.of(
+                "weatherData",
+                "weatherData_2024_09",
+                "weatherData_2024_10",
+                "weatherData_2024_11",
+                "weatherDataLegacy"));
+    weatherPartitions.initialise();
+  }
+
+  @Test
+  void testPartitionNamesAndPeriods() {
+    LocalDateTime timestamp = LocalDateTime.of(2024, 11, 13, 10, 0);
+
+    // Verify and assert
+    assertEquals(
+        "weatherData_2024_11",
+        WeatherPartitions.partitionName(WeatherPartitions.Scheme.MONTHLY, timestamp));
+    assertEquals(
+        "weatherData_2024",
+        WeatherPartitions.partitionName(WeatherPartitions.Scheme.YEARLY, timestamp));
+    assertEquals(
+        LocalDateTime.of(2024, 12, 1, 0, 0), WeatherPartitions.partitionEnd("weatherData_2024_11"));
+    assertEquals(
+        LocalDateTime.of(2025, 1, 1, 0, 0), WeatherPartitions.partitionEnd("weatherData_2024"));
+  }
+
+  @Test
+  void testQueryOnlyTouchesOverlappingPartitions() {
+    // Verify and assert
+    assertEquals(
+        List.of("weatherData_2024_10", "weatherData_2024_11"),
+        weatherPartitions.collectionsFor(
+            LocalDateTime.of(2024, 10, 20, 0, 0), LocalDateTime.of(2024, 11, 2, 0, 0)));
+    assertEquals(
+        List.of("weatherData_2024_10"),
+        weatherPartitions.collectionsFor(
+            LocalDateTime.of(2024, 10, 1, 0, 0), LocalDateTime.of(2024, 11, 1, 0, 0)));
+    assertEquals(
+        List.of("weatherData_2024_09", "weatherData_2024_10", "weatherData_2024_11"),
+        weatherPartitions.collectionsFor(null, null));
+  }
+
+  @Test
+  void testRetentionDropsWholePartitions() {
+    ReflectionTestUtils.setField(weatherPartitions, "retentionMonths", 1);
+
+    List<String> dropped = weatherPartitions.dropExpired(LocalDateTime.of(2024, 11, 13, 10, 0));
+
+    // Verify and assert: October is the last month kept
+    assertEquals(List.of("weatherData_2024_09"), dropped);
+    verify(mongoTemplate).dropCollection("weatherData_2024_09");
+    assertEquals(
+        List.of("weatherData_2024_10", "weatherData_2024_11"),
+        weatherPartitions.collectionsFor(null, null));
+  }
+
+  @Test
+  void testBulkInsertIsSplitPerPartition() {
+    BulkOperations bulkOperations = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(
+            eq(BulkOperations.BulkMode.UNORDERED), eq(WeatherData.class), any(String.class)))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+    WeatherBulkWriter weatherBulkWriter = new WeatherBulkWriter();
+    ReflectionTestUtils.setField(weatherBulkWriter, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherBulkWriter, "weatherPartitions", weatherPartitions);
+    ReflectionTestUtils.setField(
+        weatherBulkWriter, "eventPublisher", mock(ApplicationEventPublisher.class));
+
+    Map<Integer, String> failures =
+        weatherBulkWriter.insertAll(
+            List.of(
+                new WeatherData().setTimestamp(LocalDateTime.of(2024, 11, 30, 23, 59)),
+                new WeatherData().setTimestamp(LocalDateTime.of(2024, 12, 1, 0, 0))));
+
+    // Verify and assert: the December partition is created on its first reading
+    assertEquals(Map.of(), failures);
+    verify(weatherStorage).createCollection("weatherData_2024_12");
+    verify(weatherStorage, never()).createCollection("weatherData_2024_11");
+    verify(mongoTemplate)
+        .bulkOps(BulkOperations.BulkMode.UNORDERED, WeatherData.class, "weatherData_2024_11");
+    verify(mongoTemplate)
+        .bulkOps(BulkOperations.BulkMode.UNORDERED, WeatherData.class, "weatherData_2024_12");
+  }
+
+  @Test
+  void testStatisticsMergePartialAggregatesOfPartitions() {
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq("weatherData_2024_10"), eq(Document.class)))
+        .thenReturn(summary(2, 20.0, 4.0, 16.0));
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq("weatherData_2024_11"), eq(Document.class)))
+        .thenReturn(summary(1, 25.0, 25.0, 25.0));
+    WeatherRollups weatherRollups = new WeatherRollups();
+    ReflectionTestUtils.setField(weatherRollups, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherRollups, "weatherQueryPlans", new WeatherQueryPlans());
+    ReflectionTestUtils.setField(
+        weatherRollups, "weatherQueryExecutor", new WeatherQueryExecutor(100, 2));
+    ReflectionTestUtils.setField(weatherRollups, "weatherPartitions", weatherPartitions);
+    ReflectionTestUtils.setField(
+        weatherRollups, "weatherQueryMetrics", new WeatherQueryMetrics(new SimpleMeterRegistry()));
+
+    List<SensorResult> results =
+        weatherRollups.queryWeatherData(
+            List.of("sensor1"),
+            List.of("temperature"),
+            List.of("average", "min", "max"),
+            LocalDate.of(2024, 10, 20),
+            LocalDate.of(2024, 11, 5));
+
+    // Verify and assert: September is not read, and the average combines sums and counts (45 / 3)
+    verify(mongoTemplate, never())
+        .aggregate(any(Aggregation.class), eq("weatherData_2024_09"), eq(Document.class));
+    assertEquals(15.0, results.get(0).get("avgtemperature"));
+    assertEquals(4.0, results.get(0).get("mintemperature"));
+    assertEquals(25.0, results.get(0).get("maxtemperature"));
+  }
+
+  @Test
+  void testReadPastNewestPartitionPicksUpPartitionsOfOtherInstances() {
+    when(mongoTemplate.getCollectionNames())
+        .thenReturn(Set.of("weatherData_2024_10", "weatherData_2024_11", "weatherData_2024_12"));
+    LocalDateTime december = LocalDateTime.of(2024, 12, 2, 0, 0);
+
+    // Verify and assert: not before the miss interval has passed, then the new partition is read
+    assertEquals(List.of(), weatherPartitions.collectionsFor(december, december.plusDays(1)));
+    ReflectionTestUtils.setField(weatherPartitions, "nextMissRefresh", System.nanoTime());
+    assertEquals(
+        List.of("weatherData_2024_12"),
+        weatherPartitions.collectionsFor(december, december.plusDays(1)));
+    assertEquals(
+        List.of("weatherData_2024_10", "weatherData_2024_11", "weatherData_2024_12"),
+        weatherPartitions.collectionsFor(null, null));
+  }
+
+  @Test
+  void testStreamOpensEachCursorOnceThePreviousIsRead() {
+    List<String> events = new ArrayList<>();
+    for (String collection :
+        List.of("weatherData_2024_09", "weatherData_2024_10", "weatherData_2024_11")) {
+      when(mongoTemplate.stream(any(Query.class), eq(WeatherData.class), eq(collection)))
+          .thenAnswer(
+              invocation -> {
+                events.add("open " + collection);
+                return Stream.of(new WeatherData().setId(collection))
+                    .onClose(() -> events.add("close " + collection));
+              });
+    }
+
+    List<String> ids = new ArrayList<>();
+    try (Stream<WeatherData> readings = weatherPartitions.stream(null)) {
+      Iterator<WeatherData> iterator = readings.iterator();
+      ids.add(iterator.next().getId());
+      events.add("read");
+      iterator.forEachRemaining(reading -> ids.add(reading.getId()));
+    }
+
+    // Verify and assert
+    assertEquals(
+        List.of("weatherData_2024_09", "weatherData_2024_10", "weatherData_2024_11"), ids);
+    assertEquals(
+        List.of(
+            "open weatherData_2024_09",
+            "read",
+            "close weatherData_2024_09",
+            "open weatherData_2024_10",
+            "close weatherData_2024_10",
+            "open weatherData_2024_11",
+            "close weatherData_2024_11"),
+        events);
+  }
+
+  @Test
+  void testRebuildGroupsUnpartitionedReadingsWithTheirPartition() {
+    ReflectionTestUtils.setField(weatherPartitions, "readUnpartitioned", true);
+    WeatherRollups weatherRollups = new WeatherRollups();
+    ReflectionTestUtils.setField(weatherRollups, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherRollups, "weatherPartitions", weatherPartitions);
+
+    weatherRollups.rebuild(
+        LocalDateTime.of(2024, 11, 5, 0, 0), LocalDateTime.of(2024, 11, 6, 0, 0));
+
+    // Verify and assert: one pipeline per rollup collection, adding the partition with $unionWith
+    ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate, times(2))
+        .aggregate(aggregation.capture(), eq("weatherData"), eq(Document.class));
+    verify(mongoTemplate, never())
+        .aggregate(any(Aggregation.class), eq("weatherData_2024_11"), eq(Document.class));
+    List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+    assertEquals(
+        "weatherData_2024_11", pipeline.get(1).get("$unionWith", Document.class).get("coll"));
+    assertTrue(pipeline.get(pipeline.size() - 1).containsKey("$merge"));
+  }
+
+  @Test
+  void testPagesMergeUnpartitionedReadingsInOrder() {
+    ReflectionTestUtils.setField(weatherPartitions, "readUnpartitioned", true);
+    WeatherPages weatherPages = new WeatherPages();
+    ReflectionTestUtils.setField(weatherPages, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherPages, "weatherPartitions", weatherPartitions);
+    WeatherData unpartitioned =
+        new WeatherData().setId("b").setTimestamp(LocalDateTime.of(2024, 11, 20, 0, 0));
+    WeatherData partitioned =
+        new WeatherData().setId("a").setTimestamp(LocalDateTime.of(2024, 11, 10, 0, 0));
+    when(mongoTemplate.find(any(Query.class), eq(WeatherData.class), eq("weatherData")))
+        .thenReturn(List.of(unpartitioned));
+    when(mongoTemplate.find(any(Query.class), eq(WeatherData.class), eq("weatherData_2024_11")))
+        .thenReturn(List.of(partitioned));
+
+    WeatherDataPage page =
+        weatherPages.findPage(
+            null,
+            1,
+            null,
+            LocalDateTime.of(2024, 11, 1, 0, 0),
+            LocalDateTime.of(2024, 12, 1, 0, 0));
+
+    // Verify and assert: the older partition reading comes first
+    assertEquals(List.of(partitioned), page.getData());
+    assertTrue(page.isHasMore());
+  }
+
+  private static AggregationResults<Document> summary(
+      int count, double sum, double min, double max) {
+    Document summary =
+        new Document("_id", "sensor1")
+            .append("temperatureCount", count)
+            .append("temperatureSum", sum)
+            .append("temperatureMin", min)
+            .append("temperatureMax", max);
+    return new AggregationResults<>(List.of(summary), new Document());
+  }
+}
@@ -0,0 +1,67 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class WeatherQueryExecutorTest {
+
+  @Test
+  void testSensorsAreDeduplicatedSortedAndChunked() {
+    WeatherQueryExecutor executor = new WeatherQueryExecutor(2, 1);
+
+    // Verify and assert
+    assertEquals(
+        List.of(List.of("a", "b"), List.of("c", "d"), List.of("e")),
+        executor.chunk(List.of("c", "a", "e", "b", "a", "d")));
+  }
+
+  @Test
+  void testChunksRunConcurrentlyAndResultsKeepSensorOrder() {
+    WeatherQueryExecutor executor = new WeatherQueryExecutor(1, 3);
+    CountDownLatch allStarted = new CountDownLatch(3);
+
+    List<Boolean> concurrent =
+        executor.fanOut(
+            List.of("c", "b", "a"),
+            chunk -> {
+              allStarted.countDown();
+              try {
+                return allStarted.await(5, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    List<String> ordered = executor.fanOut(List.of("c", "b", "a"), chunk -> chunk.get(0));
+
+    // Verify and assert
+    assertEquals(List.of(true, true, true), concurrent);
+    assertEquals(List.of("a", "b", "c"), ordered);
+  }
+
+  @Test
+  void testFailedChunkFailsTheQuery() {
+    WeatherQueryExecutor executor = new WeatherQueryExecutor(1, 2);
+
+    IllegalArgumentException e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () ->
+                executor.fanOut(
+                    List.of("a", "b"),
+                    chunk -> {
+                      if (chunk.contains("b")) {
+                        throw new IllegalArgumentException("Unknown stat: median");
+                      }
+                      return chunk;
+                    }));
+
+    // Verify and assert
+    assertTrue(e.getMessage().contains("median"));
+  }
+}
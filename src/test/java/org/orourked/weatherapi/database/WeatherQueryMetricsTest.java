@@ -0,0 +1,69 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+
+class WeatherQueryMetricsTest {
+
+  @Test
+  void testRangeWidthBucketsTheDateRange() {
+    LocalDate start = LocalDate.of(2024, 11, 1);
+
+    // Verify and assert
+    assertEquals("none", WeatherQueryMetrics.rangeWidth(null, null));
+    assertEquals("1d", WeatherQueryMetrics.rangeWidth(start, start));
+    assertEquals("7d", WeatherQueryMetrics.rangeWidth(start, start.plusDays(6)));
+    assertEquals("31d", WeatherQueryMetrics.rangeWidth(start, start.plusDays(7)));
+    assertEquals("366d", WeatherQueryMetrics.rangeWidth(start, start.plusDays(365)));
+    assertEquals("longer", WeatherQueryMetrics.rangeWidth(start, start.plusDays(366)));
+  }
+
+  @Test
+  void testRecordsStagesAndRequestsWithTheirTags() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    WeatherQueryMetrics weatherQueryMetrics = new WeatherQueryMetrics(meterRegistry);
+
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.EXECUTION, System.nanoTime());
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.EXECUTION, System.nanoTime());
+    weatherQueryMetrics.recordRequest(
+        "query", 7, LocalDate.of(2024, 11, 1), LocalDate.of(2024, 11, 30), System.nanoTime());
+
+    // Verify and assert
+    assertEquals(
+        2, meterRegistry.get("weather.query.stage").tag("stage", "execution").timer().count());
+    assertEquals(
+        0, meterRegistry.get("weather.query.stage").tag("stage", "mapping").timer().count());
+    Timer requests = meterRegistry.get("weather.query.requests").timer();
+    assertEquals(1, requests.count());
+    assertEquals("5+", requests.getId().getTag("metrics"));
+    assertEquals("31d", requests.getId().getTag("range"));
+  }
+
+  @Test
+  void testProfileCollectsStagesOfTheCurrentRequest() {
+    WeatherQueryMetrics weatherQueryMetrics = new WeatherQueryMetrics(new SimpleMeterRegistry());
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.startProfile();
+
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.MAPPING, System.nanoTime() - 1_500_000);
+    weatherQueryMetrics.recordStage(profile, WeatherQueryMetrics.MAPPING, System.nanoTime());
+    weatherQueryMetrics.endProfile();
+    weatherQueryMetrics.recordStage(WeatherQueryMetrics.MAPPING, System.nanoTime() - 60_000_000);
+
+    // Verify and assert
+    assertNull(weatherQueryMetrics.currentProfile());
+    long mapping = profile.getStageNanos(WeatherQueryMetrics.MAPPING);
+    assertTrue(mapping >= 1_500_000 && mapping < 60_000_000);
+    assertTrue(
+        profile
+            .serverTiming(2_000_000)
+            .matches(
+                "validation;dur=0.00, pipeline;dur=0.00, execution;dur=0.00, "
+                    + "mapping;dur=[0-9.]+, serialization;dur=0.00, total;dur=2.00"));
+  }
+}
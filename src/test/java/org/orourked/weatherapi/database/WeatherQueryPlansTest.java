@@ -0,0 +1,127 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherQueryPlansTest {
+  private static final Aggregation AGGREGATION =
+      Aggregation.newAggregation(Aggregation.match(Criteria.where("sensorId").is("sensor1")));
+
+  // Explain output of a classic engine plan that scans the collection under a projection.
+  private static final Document COLLSCAN_PLAN =
+      new Document(
+          "stages",
+          List.of(
+              new Document(
+                  "$cursor",
+                  new Document(
+                      "queryPlanner",
+                      new Document(
+                          "winningPlan",
+                          new Document("stage", "PROJECTION_SIMPLE")
+                              .append("inputStage", new Document("stage", "COLLSCAN")))))));
+
+  @Test
+  void testCollectionScanIsFoundInNestedPlan() {
+    assertTrue(WeatherQueryPlans.containsStage(COLLSCAN_PLAN, "COLLSCAN"));
+    Document indexPlan =
+        new Document("queryPlanner", new Document("winningPlan", new Document("stage", "IXSCAN")));
+    assertFalse(WeatherQueryPlans.containsStage(indexPlan, "COLLSCAN"));
+  }
+
+  @Test
+  void testFailModeRejectsCollectionScan() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class, RETURNS_DEEP_STUBS);
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    when(mongoTemplate.getConverter()).thenReturn(converter);
+    when(mongoTemplate.getCollection("weatherData").aggregate(anyList()).explain())
+        .thenReturn(COLLSCAN_PLAN);
+    WeatherQueryPlans weatherQueryPlans = queryPlans(mongoTemplate, "fail");
+
+    // Verify and assert
+    assertThrows(
+        WeatherQueryPlans.CollectionScanException.class,
+        () -> weatherQueryPlans.check(AGGREGATION, "weatherData"));
+  }
+
+  @Test
+  void testPipelineRendersPassThroughFieldReferences() {
+    // The date range stage refers to timestamp after a group stage that does not expose it
+    Aggregation aggregation =
+        Aggregation.newAggregation(
+            Aggregation.group("sensorId").count().as("count"),
+            Aggregation.project("count").and("timestamp").as("lastTimestamp"));
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+
+    List<Document> pipeline = WeatherQueryPlans.toPipeline(aggregation, converter);
+
+    // Verify and assert
+    assertEquals(
+        "$timestamp", pipeline.get(1).get("$project", Document.class).get("lastTimestamp"));
+  }
+
+  @Test
+  void testOffModeDoesNotExplain() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    queryPlans(mongoTemplate, "off").check(AGGREGATION, "weatherData");
+
+    // Verify and assert
+    verifyNoInteractions(mongoTemplate);
+  }
+
+  private static WeatherQueryPlans queryPlans(MongoTemplate mongoTemplate, String mode) {
+    WeatherQueryPlans weatherQueryPlans = new WeatherQueryPlans();
+    ReflectionTestUtils.setField(weatherQueryPlans, "mongoTemplate", mongoTemplate);
+    weatherQueryPlans.setMode(mode);
+    return weatherQueryPlans;
+  }
+
+  @Test
+  void testExecutionStatsAreSummedOverQueries() {
+    Document explain =
+        new Document(
+                "stages",
+                List.of(
+                    new Document(
+                        "$cursor",
+                        new Document(
+                            "executionStats",
+                            new Document("totalDocsExamined", 120)
+                                .append("totalKeysExamined", 121)
+                                .append(
+                                    "executionStages",
+                                    new Document("stage", "FETCH").append("docsExamined", 120)))),
+                    new Document("$sort", new Document("sortKey", 1)).append("usedDisk", true)))
+            .append("executionStats", new Document("totalDocsExamined", 5L));
+
+    Document summary = WeatherQueryPlans.summarizeExecution(explain);
+
+    // Verify and assert
+    assertEquals(125L, summary.get("docsExamined"));
+    assertEquals(121L, summary.get("keysExamined"));
+    assertEquals(true, summary.get("spilledToDisk"));
+    assertEquals(
+        false,
+        WeatherQueryPlans.summarizeExecution(new Document("spills", 0)).get("spilledToDisk"));
+  }
+}
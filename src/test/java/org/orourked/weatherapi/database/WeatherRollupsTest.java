@@ -0,0 +1,215 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.SensorSummary;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherRollupsTest {
+  private MongoTemplate mongoTemplate;
+  private WeatherRollups weatherRollups;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongoTemplate.class);
+    weatherRollups = new WeatherRollups();
+    ReflectionTestUtils.setField(weatherRollups, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherRollups, "weatherQueryPlans", new WeatherQueryPlans());
+    ReflectionTestUtils.setField(
+        weatherRollups, "weatherQueryExecutor", new WeatherQueryExecutor(100, 2));
+    ReflectionTestUtils.setField(weatherRollups, "weatherPartitions", new WeatherPartitions());
+    ReflectionTestUtils.setField(
+        weatherRollups, "weatherQueryMetrics", new WeatherQueryMetrics(new SimpleMeterRegistry()));
+    ReflectionTestUtils.setField(weatherRollups, "enabled", true);
+    ReflectionTestUtils.setField(
+        weatherRollups, "coveredSince", LocalDateTime.of(2024, 1, 1, 10, 0));
+    when(mongoTemplate.aggregate(any(Aggregation.class), any(String.class), eq(Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(), new Document()));
+  }
+
+  @Test
+  void testMultiMonthQueryReadsDailyRollupsAndRawEdge() {
+    weatherRollups.querySummaries(
+        List.of("sensor1"),
+        LocalDateTime.of(2024, 3, 1, 0, 0),
+        LocalDateTime.of(2024, 6, 1, 0, 0).plusNanos(1_000_000));
+
+    // Verify and assert
+    assertEquals(List.of(WeatherRollups.DAILY_COLLECTION, "weatherData"), queriedCollections(2));
+  }
+
+  @Test
+  void testQueryBeforeCoverageReadsRawReadings() {
+    weatherRollups.querySummaries(
+        List.of("sensor1"),
+        LocalDateTime.of(2023, 12, 1, 0, 0),
+        LocalDateTime.of(2024, 1, 3, 0, 0).plusNanos(1_000_000));
+
+    // Verify and assert: raw before coverage, hourly to midnight, then daily and the raw edge
+    assertEquals(
+        List.of(
+            "weatherData",
+            WeatherRollups.HOURLY_COLLECTION,
+            WeatherRollups.DAILY_COLLECTION,
+            "weatherData"),
+        queriedCollections(4));
+  }
+
+  @Test
+  void testCompactedPartOfRangeReadsRollupsBeforeCoverage() {
+    ReflectionTestUtils.setField(
+        weatherRollups, "compactedUntil", LocalDateTime.of(2023, 12, 15, 0, 0));
+
+    weatherRollups.querySummaries(
+        List.of("sensor1"),
+        LocalDateTime.of(2023, 12, 1, 0, 0),
+        LocalDateTime.of(2023, 12, 20, 0, 0).plusNanos(1_000_000));
+
+    // Verify and assert: daily rollups up to the checkpoint, raw readings after it
+    assertEquals(List.of(WeatherRollups.DAILY_COLLECTION, "weatherData"), queriedCollections(2));
+  }
+
+  @Test
+  void testFailedUpdateReadsTheDayFromRawReadingsUntilRebuilt() {
+    // The bulk update fails, since the mocked template has no bulk operations
+    weatherRollups.onWeatherDataSaved(
+        new WeatherDataSavedEvent(
+            List.of(
+                new WeatherData()
+                    .setSensorId("sensor1")
+                    .setTemperature(9.0)
+                    .setTimestamp(LocalDateTime.of(2024, 4, 10, 14, 30)))));
+
+    weatherRollups.querySummaries(
+        List.of("sensor1"),
+        LocalDateTime.of(2024, 3, 1, 0, 0),
+        LocalDateTime.of(2024, 6, 1, 0, 0).plusNanos(1_000_000));
+
+    // Verify and assert: the dirty day is read from raw readings, the days around it from rollups
+    assertEquals(Set.of(LocalDateTime.of(2024, 4, 10, 0, 0)), weatherRollups.getDirtyDays());
+    assertEquals(
+        List.of(
+            WeatherRollups.DAILY_COLLECTION,
+            "weatherData",
+            WeatherRollups.DAILY_COLLECTION,
+            "weatherData"),
+        queriedCollections(4));
+    verify(mongoTemplate).upsert(any(Query.class), any(Update.class), eq("weatherRollupDirty"));
+
+    weatherRollups.rebuild(
+        LocalDateTime.of(2024, 4, 10, 0, 0), LocalDateTime.of(2024, 4, 11, 0, 0));
+    assertEquals(Set.of(), weatherRollups.getDirtyDays());
+    verify(mongoTemplate).remove(any(Query.class), eq("weatherRollupDirty"));
+  }
+
+  @Test
+  void testRollupAndRawSummariesAreMerged() {
+    Document daily =
+        new Document("_id", "sensor1")
+            .append("temperatureCount", 3L)
+            .append("temperatureSum", 30.0)
+            .append("temperatureMin", 5.0)
+            .append("temperatureMax", 15.0);
+    Document raw =
+        new Document("_id", "sensor1")
+            .append("temperatureCount", 1)
+            .append("temperatureSum", 20.0)
+            .append("temperatureMin", 20.0)
+            .append("temperatureMax", 20.0);
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq(WeatherRollups.DAILY_COLLECTION), eq(Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(daily), new Document()));
+    when(mongoTemplate.aggregate(any(Aggregation.class), eq("weatherData"), eq(Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(raw), new Document()));
+
+    List<SensorResult> results =
+        weatherRollups.queryWeatherData(
+            List.of("sensor1"),
+            List.of("temperature"),
+            List.of("average", "max", "min", "sum"),
+            LocalDate.of(2024, 3, 1),
+            LocalDate.of(2024, 6, 1));
+
+    // Verify and assert: the average combines sums and counts (50 / 4)
+    assertEquals(1, results.size());
+    assertEquals(12.5, results.get(0).get("avgtemperature"));
+    assertEquals(20.0, results.get(0).get("maxtemperature"));
+    assertEquals(5.0, results.get(0).get("mintemperature"));
+    assertEquals(50.0, results.get(0).get("sumtemperature"));
+  }
+
+  @Test
+  void testProfileRecordsEachSummaryPipeline() {
+    MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+    MongoMappingContext mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    when(mongoTemplate.getConverter()).thenReturn(converter);
+    WeatherQueryMetrics weatherQueryMetrics = new WeatherQueryMetrics(new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(weatherRollups, "weatherQueryMetrics", weatherQueryMetrics);
+
+    WeatherQueryMetrics.Profile profile = weatherQueryMetrics.startProfile();
+    weatherRollups.queryWeatherData(
+        List.of("sensor1"),
+        List.of("temperature"),
+        List.of("average"),
+        LocalDate.of(2024, 3, 1),
+        LocalDate.of(2024, 6, 1));
+    weatherQueryMetrics.endProfile();
+
+    // Verify and assert: the daily rollups and the raw edge are both in the profile
+    assertEquals(
+        List.of(WeatherRollups.DAILY_COLLECTION, "weatherData"),
+        profile.getPipelines().stream().map(Map.Entry::getKey).toList());
+    assertTrue(profile.getPipelines().get(0).getValue().get(0).containsKey("$match"));
+    assertTrue(profile.getStageNanos(WeatherQueryMetrics.EXECUTION) > 0);
+  }
+
+  @Test
+  void testSensorSummaryRoundsHalfToEven() {
+    SensorSummary summary = new SensorSummary("sensor1");
+    summary.metric("humidity").add(0.25);
+
+    // Verify and assert
+    assertEquals(0.2, summary.toResult(List.of("humidity"), List.of("max")).get("maxhumidity"));
+  }
+
+  private List<String> queriedCollections(int expectedQueries) {
+    ArgumentCaptor<String> collections = ArgumentCaptor.forClass(String.class);
+    verify(mongoTemplate, times(expectedQueries))
+        .aggregate(any(Aggregation.class), collections.capture(), eq(Document.class));
+    return collections.getAllValues();
+  }
+}
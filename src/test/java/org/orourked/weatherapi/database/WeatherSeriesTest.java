@@ -0,0 +1,182 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherSeriesTest {
+
+  @Test
+  void testLttbKeepsEndpointsAndSpikes() {
+    long[] x = new long[100];
+    double[] y = new double[100];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = i * 60_000L;
+      y[i] = 10;
+    }
+    y[37] = 50;
+    y[71] = -20;
+
+    int[] selected = WeatherSeries.lttb(x, y, x.length, 10);
+
+    // Verify and assert
+    assertEquals(10, selected.length);
+    assertEquals(0, selected[0]);
+    assertEquals(99, selected[9]);
+    assertEquals(1, countOf(selected, 37));
+    assertEquals(1, countOf(selected, 71));
+    assertArrayEquals(new int[] {0, 1, 2}, WeatherSeries.lttb(x, y, 3, 10));
+  }
+
+  @Test
+  void testMinMaxKeepsLowestAndHighestOfEachBucket() {
+    double[] y = {5, 1, 9, 3, 4, 4, 4, 4, 2, 8, 0, 7};
+
+    int[] selected = WeatherSeries.minMax(y, y.length, 4);
+
+    // Verify and assert: buckets [0, 6) and [6, 12), each keeping its min and max in order.
+    assertArrayEquals(new int[] {1, 2, 9, 10}, selected);
+  }
+
+  @Test
+  void testIntervalIsParsedAndWidenedToMaxPoints() {
+    LocalDateTime from = LocalDateTime.of(2024, 11, 1, 0, 0);
+    LocalDateTime to = LocalDateTime.of(2024, 11, 8, 0, 0);
+
+    // Verify and assert
+    assertEquals(Duration.ofMinutes(90), WeatherSeries.parseInterval("90m"));
+    assertEquals(Duration.ofDays(1), WeatherSeries.parseInterval("1d"));
+    assertThrows(IllegalArgumentException.class, () -> WeatherSeries.parseInterval("0h"));
+    assertEquals(Duration.ofHours(1), WeatherSeries.widen(Duration.ofHours(1), from, to, 1000));
+    Duration widened = WeatherSeries.widen(Duration.ofMinutes(1), from, to, 100);
+    assertEquals(102, widened.toMinutes());
+    assertTrue(Duration.between(from, to).toMinutes() / widened.toMinutes() + 2 <= 100);
+  }
+
+  @Test
+  void testBucketsBeforeTheCompactionCheckpointAreReadFromHourlyRollups() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    WeatherSeries weatherSeries =
+        compactedSeries(mongoTemplate, LocalDateTime.of(2024, 11, 5, 0, 0));
+
+    weatherSeries.queryBuckets(
+        List.of("sensor1"),
+        List.of("temperature"),
+        List.of("average", "max"),
+        LocalDate.of(2024, 11, 1),
+        LocalDate.of(2024, 11, 8),
+        Duration.ofMinutes(90),
+        null);
+
+    // Verify and assert: hourly rollups up to the checkpoint, reshaped raw readings after it
+    ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate)
+        .aggregate(aggregation.capture(), eq(WeatherRollups.HOURLY_COLLECTION), eq(Map.class));
+    List<Document> pipeline =
+        WeatherQueryPlans.toPipeline(aggregation.getValue(), mongoTemplate.getConverter());
+    Document union = pipeline.get(1).get("$unionWith", Document.class);
+    assertEquals("weatherData", union.getString("coll"));
+    assertEquals(2, union.getList("pipeline", Document.class).size());
+    Document group = pipeline.get(2).get("$group", Document.class);
+    Document id = group.get("_id", Document.class);
+    Document bucket = id.get("bucket", Document.class).get("$dateTrunc", Document.class);
+    assertEquals("$bucket", bucket.get("date"));
+    // 90 minute buckets are rounded up to whole hours, so that no rollup is split.
+    assertEquals(120L, bucket.get("binSize"));
+    assertEquals(new Document("$max", "$temperature.max"), group.get("maxtemperature"));
+    assertEquals(new Document("$sum", "$temperature.count"), group.get("counttemperature"));
+    assertEquals(new Document("$sum", "$temperature.sum"), group.get("totaltemperature"));
+  }
+
+  @Test
+  void testSeriesNeedingCompactedRawReadingsAreRejected() {
+    WeatherSeries weatherSeries =
+        compactedSeries(mock(MongoTemplate.class), LocalDateTime.of(2024, 11, 5, 0, 0));
+
+    // Verify and assert
+    WeatherSeries.CompactedRangeException e =
+        assertThrows(
+            WeatherSeries.CompactedRangeException.class,
+            () ->
+                weatherSeries.queryDownsampled(
+                    List.of("sensor1"),
+                    List.of("temperature"),
+                    LocalDate.of(2024, 11, 1),
+                    LocalDate.of(2024, 11, 8),
+                    WeatherSeries.Downsample.LTTB,
+                    null));
+    assertTrue(e.getMessage().contains("2024-11-05"));
+    assertThrows(
+        WeatherSeries.CompactedRangeException.class,
+        () ->
+            weatherSeries.queryBuckets(
+                List.of("sensor1"),
+                List.of("temperature"),
+                List.of("average"),
+                LocalDate.of(2024, 11, 1),
+                LocalDate.of(2024, 11, 8),
+                Duration.ofMinutes(15),
+                null));
+  }
+
+  // Creates a series whose raw readings before a checkpoint have been compacted.
+  private static WeatherSeries compactedSeries(
+      MongoTemplate mongoTemplate, LocalDateTime compactedUntil) {
+    MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+    MongoMappingContext mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    when(mongoTemplate.getConverter()).thenReturn(converter);
+    when(mongoTemplate.aggregate(any(Aggregation.class), any(String.class), eq(Map.class)))
+        .thenReturn(new AggregationResults<>(List.of(), new Document()));
+    WeatherRollups weatherRollups = mock(WeatherRollups.class);
+    when(weatherRollups.getCompactedUntil()).thenReturn(compactedUntil);
+    WeatherSeries weatherSeries = new WeatherSeries();
+    ReflectionTestUtils.setField(weatherSeries, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherSeries, "weatherQueryPlans", new WeatherQueryPlans());
+    ReflectionTestUtils.setField(
+        weatherSeries, "weatherQueryExecutor", new WeatherQueryExecutor(100, 2));
+    ReflectionTestUtils.setField(weatherSeries, "weatherPartitions", new WeatherPartitions());
+    ReflectionTestUtils.setField(
+        weatherSeries, "weatherQueryMetrics", new WeatherQueryMetrics(new SimpleMeterRegistry()));
+    ReflectionTestUtils.setField(weatherSeries, "weatherRollups", weatherRollups);
+    return weatherSeries;
+  }
+
+  private static int countOf(int[] values, int value) {
+    int count = 0;
+    for (int v : values) {
+      if (v == value) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,79 @@
+package org.orourked.weatherapi.database;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.model.WeatherDataMigratedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WeatherStorageTest {
+
+  @Test
+  void testMigrationCopiesBatchesAndSkipsReadingsAlreadyCopied() {
+    MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    BulkOperations bulkOperations = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "weatherData"))
+        .thenReturn(bulkOperations);
+    when(bulkOperations.insert(anyList())).thenReturn(bulkOperations);
+    when(mongoTemplate.find(
+            any(Query.class), eq(Document.class), eq(WeatherStorage.LEGACY_COLLECTION)))
+        .thenReturn(List.of(reading("a"), reading("b")), List.of(reading("c")), List.of());
+    // Reading "a" was copied by an earlier, interrupted run.
+    when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("weatherData")))
+        .thenReturn(List.of(reading("a")));
+
+    MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+    MongoMappingContext mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    converter.setCustomConversions(conversions);
+    when(mongoTemplate.getConverter()).thenReturn(converter);
+    ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+
+    WeatherStorage weatherStorage = new WeatherStorage();
+    ReflectionTestUtils.setField(weatherStorage, "mongoTemplate", mongoTemplate);
+    ReflectionTestUtils.setField(weatherStorage, "eventPublisher", eventPublisher);
+    ReflectionTestUtils.setField(weatherStorage, "migrationBatchSize", 2);
+    weatherStorage.migrate("weatherData");
+
+    // Verify and assert
+    ArgumentCaptor<List<Document>> inserted = ArgumentCaptor.forClass(List.class);
+    verify(bulkOperations, times(2)).insert(inserted.capture());
+    assertEquals(List.of(reading("b")), inserted.getAllValues().get(0));
+    assertEquals(List.of(reading("c")), inserted.getAllValues().get(1));
+    ArgumentCaptor<Update> checkpoints = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate, times(2))
+        .upsert(any(Query.class), checkpoints.capture(), eq("weatherStorageState"));
+    Document lastCheckpoint = checkpoints.getValue().getUpdateObject().get("$set", Document.class);
+    assertEquals("c", lastCheckpoint.get("lastId"));
+    ArgumentCaptor<WeatherDataMigratedEvent> events =
+        ArgumentCaptor.forClass(WeatherDataMigratedEvent.class);
+    verify(eventPublisher, times(2)).publishEvent(events.capture());
+    assertEquals("b", events.getAllValues().get(0).getWeatherData().get(0).getId());
+    assertEquals("c", events.getAllValues().get(1).getWeatherData().get(0).getId());
+  }
+
+  private static Document reading(String id) {
+    return new Document("_id", id).append("sensorId", "sensor1");
+  }
+}
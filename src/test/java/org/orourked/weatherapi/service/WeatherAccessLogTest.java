@@ -0,0 +1,56 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class WeatherAccessLogTest {
+
+  @Test
+  void testSavesAreSampledButFailuresAreAlwaysRecorded() {
+    // Not started, so entries stay in the buffer until drained here
+    WeatherAccessLog accessLog = new WeatherAccessLog(new SimpleMeterRegistry(), true, 64, 10);
+    long start = System.nanoTime();
+    for (int i = 0; i < 25; i++) {
+      accessLog.record(WeatherAccessLog.Endpoint.SAVE, 201, start, 1, "sensor" + i);
+    }
+    accessLog.record(WeatherAccessLog.Endpoint.SAVE, 429, start, 0, "sensor99");
+    accessLog.record(WeatherAccessLog.Endpoint.QUERY, 200, start, 3, null);
+
+    List<String> lines = new ArrayList<>();
+    int drained = accessLog.drain(lines::add);
+
+    // Verify and assert: saves 0, 10 and 20, the failed save and the query, in order
+    assertEquals(5, drained);
+    assertTrue(lines.get(0).contains(" endpoint=save status=201 "));
+    assertTrue(lines.get(0).endsWith(" count=1 sensorId=sensor0 sampled=1/10"));
+    assertTrue(lines.get(2).endsWith(" sensorId=sensor20 sampled=1/10"));
+    assertTrue(lines.get(3).contains(" endpoint=save status=429 "));
+    assertTrue(lines.get(3).endsWith(" count=0 sensorId=sensor99"));
+    assertTrue(lines.get(4).contains(" endpoint=query status=200 "));
+    assertTrue(lines.get(4).endsWith(" count=3"));
+    assertEquals(0, accessLog.drain(lines::add));
+  }
+
+  @Test
+  void testEntriesAreDroppedWhenTheBufferIsFull() {
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    WeatherAccessLog accessLog = new WeatherAccessLog(meterRegistry, true, 8, 1);
+    for (int i = 0; i < 10; i++) {
+      accessLog.record(WeatherAccessLog.Endpoint.SAVE_BATCH, 201, System.nanoTime(), i, null);
+    }
+
+    // Verify and assert: the first 8 are kept, and the slots are reused once drained
+    List<String> lines = new ArrayList<>();
+    assertEquals(8, accessLog.drain(lines::add));
+    assertTrue(lines.get(7).endsWith(" count=7"));
+    assertEquals(2.0, meterRegistry.get("weather.access-log.dropped").counter().count());
+    accessLog.record(WeatherAccessLog.Endpoint.SAVE_BATCH, 207, System.nanoTime(), 10, null);
+    assertEquals(1, accessLog.drain(lines::add));
+    assertTrue(lines.get(8).contains(" status=207 "));
+  }
+}
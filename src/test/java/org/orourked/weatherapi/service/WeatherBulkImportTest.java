@@ -0,0 +1,149 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
+import org.orourked.weatherapi.database.WeatherImportCheckpoints;
+import org.orourked.weatherapi.dto.WeatherImportResponse;
+import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.web.server.ResponseStatusException;
+
+class WeatherBulkImportTest {
+  private static final String CSV =
+      "sensorId,location,temperature,humidity,windspeed,pressure,timestamp\n"
+          + "sensor1,Galway,18.5,60,10,1015,2024-11-13T10:00:00\n"
+          + "sensor2,Galway,18.0,61,,1015,2024-11-13T10:00:00\n"
+          + "sensor3,Cork,17.5,62,11,1014,2024-11-13T10:00:00\n"
+          + "sensor4,Cork,17.0,63,12,1013,2024-11-13T10:00:00\n"
+          + "sensor5,Cork,16.5,64,13,1012,2024-11-13T10:00:00\n";
+
+  private WeatherBulkWriter weatherBulkWriter;
+  private WeatherImportCheckpoints weatherImportCheckpoints;
+  private WeatherBulkImport weatherBulkImport;
+
+  // The readings written, keyed by id, and whether stored ids were skipped for each sensor.
+  private final Map<String, WeatherData> written = new ConcurrentHashMap<>();
+  private final Map<String, Boolean> skipExisting = new ConcurrentHashMap<>();
+
+  @BeforeEach
+  void setUp() {
+    weatherBulkWriter = mock(WeatherBulkWriter.class);
+    weatherImportCheckpoints = mock(WeatherImportCheckpoints.class);
+    weatherBulkImport =
+        new WeatherBulkImport(weatherBulkWriter, weatherImportCheckpoints, 2, 2, 10);
+    when(weatherBulkWriter.insertAll(anyList(), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              for (WeatherData reading : invocation.<List<WeatherData>>getArgument(0)) {
+                written.put(reading.getId(), reading);
+                skipExisting.put(reading.getSensorId(), invocation.getArgument(1));
+              }
+              return Map.of();
+            });
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    weatherBulkImport.stop();
+  }
+
+  @Test
+  void testImportsInBatchesAndCheckpointsProgress() {
+    WeatherImportResponse response =
+        weatherBulkImport.importReadings("backfill", WeatherReadingParser.Format.CSV, input(CSV));
+
+    // Verify and assert: the rejected record counts towards the checkpoint too
+    assertEquals(4, response.getImported());
+    assertEquals(1, response.getFailed());
+    assertEquals(2, response.getErrors().get(0).getIndex());
+    assertEquals("windspeed is required", response.getErrors().get(0).getMessage());
+    assertEquals(4, written.size());
+    assertEquals(Set.of(false), Set.copyOf(skipExisting.values()));
+    ArgumentCaptor<WeatherImportCheckpoints.Checkpoint> checkpoints =
+        ArgumentCaptor.forClass(WeatherImportCheckpoints.Checkpoint.class);
+    verify(weatherImportCheckpoints, atLeastOnce()).save(eq("backfill"), checkpoints.capture());
+    WeatherImportCheckpoints.Checkpoint last = checkpoints.getValue();
+    assertEquals(5, last.getCommitted());
+    assertEquals(4, last.getImported());
+    assertEquals(1, last.getFailed());
+  }
+
+  @Test
+  void testResumeSkipsCommittedRecordsAndDeduplicatesDispatchedOnes() {
+    // Records 1-2 were committed and 3-4 were handed to a writer before the import stopped
+    when(weatherImportCheckpoints.find("backfill"))
+        .thenReturn(new WeatherImportCheckpoints.Checkpoint(2, 4, 1, 1));
+
+    WeatherImportResponse response =
+        weatherBulkImport.importReadings("backfill", WeatherReadingParser.Format.CSV, input(CSV));
+
+    // Verify and assert
+    assertEquals(2, response.getResumedFrom());
+    assertEquals(4, response.getImported());
+    assertEquals(1, response.getFailed());
+    assertEquals(
+        Map.of("sensor3", true, "sensor4", true, "sensor5", false), Map.copyOf(skipExisting));
+    assertEquals(
+        "sensor3",
+        written
+            .get(WeatherBulkImport.readingId(WeatherBulkImport.importHash("backfill"), 3))
+            .getSensorId());
+  }
+
+  @Test
+  void testReadingIdsKeepWholeRecordNumbers() {
+    byte[] importHash = WeatherBulkImport.importHash("backfill");
+
+    // Verify and assert: records 2^32 apart would share an id, so they are rejected
+    assertEquals(8, importHash.length);
+    assertNotEquals(
+        WeatherBulkImport.readingId(importHash, 1),
+        WeatherBulkImport.readingId(WeatherBulkImport.importHash("backfill2"), 1));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> WeatherBulkImport.readingId(importHash, Integer.MAX_VALUE + 2L));
+  }
+
+  @Test
+  void testStopsWhenABatchCannotBeWritten() {
+    when(weatherBulkWriter.insertAll(anyList(), anyBoolean()))
+        .thenThrow(new DataAccessResourceFailureException("Connection refused"));
+
+    ResponseStatusException e =
+        assertThrows(
+            ResponseStatusException.class,
+            () ->
+                weatherBulkImport.importReadings(
+                    "backfill", WeatherReadingParser.Format.CSV, input(CSV)));
+
+    // Verify and assert: nothing was committed, so running the import again starts over
+    assertEquals(502, e.getStatusCode().value());
+    verify(weatherImportCheckpoints, never()).save(any(), any());
+  }
+
+  private static ByteArrayInputStream input(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,101 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
+import org.orourked.weatherapi.model.WeatherData;
+
+class WeatherIngestBufferTest {
+
+  @Test
+  void testStopFlushesQueuedReadings() throws Exception {
+    // Count every reading handed to the bulk writer
+    WeatherBulkWriter weatherBulkWriter = mock(WeatherBulkWriter.class);
+    AtomicInteger written = new AtomicInteger();
+    when(weatherBulkWriter.insertAll(anyList()))
+        .thenAnswer(
+            invocation -> {
+              written.addAndGet(invocation.<List<WeatherData>>getArgument(0).size());
+              return Map.of();
+            });
+
+    WeatherIngestBuffer buffer =
+        new WeatherIngestBuffer(
+            weatherBulkWriter, new SimpleMeterRegistry(), true, 1000, 50, 1000, 2, 0, 5000);
+    buffer.start();
+    for (int i = 0; i < 500; i++) {
+      assertTrue(buffer.offer(new WeatherData().setSensorId("sensor" + i)));
+    }
+    buffer.stop();
+
+    // Verify and assert
+    assertEquals(500, written.get());
+    assertEquals(0, buffer.getQueueDepth());
+    assertFalse(buffer.offer(new WeatherData()));
+  }
+
+  @Test
+  void testInterruptedFlushRequeuesTheBatch() throws Exception {
+    // The first write fails and interrupts the flusher, so it is interrupted while backing off
+    WeatherBulkWriter weatherBulkWriter = mock(WeatherBulkWriter.class);
+    AtomicInteger written = new AtomicInteger();
+    AtomicInteger attempts = new AtomicInteger();
+    when(weatherBulkWriter.insertAll(anyList()))
+        .thenAnswer(
+            invocation -> {
+              if (attempts.getAndIncrement() == 0) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Connection refused");
+              }
+              written.addAndGet(invocation.<List<WeatherData>>getArgument(0).size());
+              return Map.of();
+            });
+
+    WeatherIngestBuffer buffer =
+        new WeatherIngestBuffer(
+            weatherBulkWriter, new SimpleMeterRegistry(), true, 1000, 50, 1000, 1, 3, 5000);
+    buffer.start();
+    for (int i = 0; i < 20; i++) {
+      assertTrue(buffer.offer(new WeatherData().setSensorId("sensor" + i)));
+    }
+    buffer.stop();
+
+    // Verify and assert: the requeued batch is written when the buffer stops
+    assertEquals(20, written.get());
+    assertEquals(0, buffer.getQueueDepth());
+  }
+
+  @Test
+  void testOfferRejectsWhenFull() throws Exception {
+    WeatherBulkWriter weatherBulkWriter = mock(WeatherBulkWriter.class);
+    when(weatherBulkWriter.insertAll(anyList()))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(200);
+              return Map.of();
+            });
+
+    WeatherIngestBuffer buffer =
+        new WeatherIngestBuffer(
+            weatherBulkWriter, new SimpleMeterRegistry(), true, 2, 1, 0, 1, 0, 5000);
+    buffer.start();
+    boolean rejected = false;
+    for (int i = 0; i < 10 && !rejected; i++) {
+      rejected = !buffer.offer(new WeatherData());
+    }
+    buffer.stop();
+
+    // Verify and assert
+    assertTrue(rejected);
+  }
+}
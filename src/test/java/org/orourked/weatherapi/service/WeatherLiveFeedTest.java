@@ -0,0 +1,201 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+
+class WeatherLiveFeedTest {
+  private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 11, 13, 10, 0);
+
+  private final WeatherLiveFeed weatherLiveFeed = new WeatherLiveFeed(2, 2, 60000, 2, 200);
+
+  @Test
+  void testReadingsAreSentToMatchingSubscribersOnly() throws Exception {
+    RecordingSink bySensor = new RecordingSink();
+    RecordingSink byLocation = new RecordingSink();
+    weatherLiveFeed.subscribe(Set.of("sensor1"), null, bySensor);
+    weatherLiveFeed.subscribe(null, "Cork", byLocation);
+
+    publish(reading("sensor1", "Galway", 0), reading("sensor2", "Cork", 0));
+
+    // Verify and assert
+    assertEquals("sensor1", bySensor.next().getSensorId());
+    assertEquals("sensor2", byLocation.next().getSensorId());
+    assertNull(bySensor.received.poll(100, TimeUnit.MILLISECONDS));
+    assertNull(weatherLiveFeed.subscribe(null, null, new RecordingSink()));
+  }
+
+  @Test
+  void testSlowSubscriberReceivesTheNewestReadingOfEachSensor() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingSink sink =
+        new RecordingSink() {
+          @Override
+          public void send(WeatherData reading) throws IOException {
+            super.send(reading);
+            try {
+              release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+        };
+    weatherLiveFeed.subscribe(null, null, sink);
+
+    publish(reading("sensor1", "Galway", 0));
+    assertEquals(0, sink.next().getTimestamp().getMinute());
+    // While the first reading is being sent, newer readings of the same sensor are coalesced and
+    // readings of sensors beyond the buffer limit are dropped.
+    publish(
+        reading("sensor1", "Galway", 1),
+        reading("sensor1", "Galway", 2),
+        reading("sensor2", "Galway", 1),
+        reading("sensor3", "Galway", 1));
+    release.countDown();
+
+    // Verify and assert
+    WeatherData first = sink.next();
+    WeatherData second = sink.next();
+    assertEquals(
+        Set.of("sensor1@2", "sensor2@1"),
+        Set.of(
+            first.getSensorId() + "@" + first.getTimestamp().getMinute(),
+            second.getSensorId() + "@" + second.getTimestamp().getMinute()));
+    assertNull(sink.received.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void testFailedSendClosesTheSubscription() throws Exception {
+    RecordingSink sink =
+        new RecordingSink() {
+          @Override
+          public void send(WeatherData reading) throws IOException {
+            throw new IOException("Broken pipe");
+          }
+        };
+    weatherLiveFeed.subscribe(null, null, sink);
+
+    publish(reading("sensor1", "Galway", 0));
+
+    // Verify and assert
+    assertTrue(sink.closed.await(5, TimeUnit.SECONDS));
+    assertEquals(0, weatherLiveFeed.getSubscriberCount());
+  }
+
+  @Test
+  void testHeartbeatIsSentToIdleSubscribers() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    weatherLiveFeed.subscribe(null, null, sink);
+
+    weatherLiveFeed.heartbeat();
+
+    // Verify and assert
+    assertTrue(sink.heartbeats.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testSubscriberBlockedOnAWriteIsDropped() throws Exception {
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingSink stalled =
+        new RecordingSink() {
+          @Override
+          public void send(WeatherData reading) throws IOException {
+            sending.countDown();
+            try {
+              release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+          }
+        };
+    weatherLiveFeed.subscribe(null, "Galway", stalled);
+    publish(reading("sensor1", "Galway", 0));
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+    Thread.sleep(300);
+
+    weatherLiveFeed.heartbeat();
+
+    // Verify and assert: the blocked subscriber is dropped, freeing its place and its sender, and
+    // its sink is closed only once the blocked write returns.
+    assertEquals(0, weatherLiveFeed.getSubscriberCount());
+    assertEquals(1, stalled.closed.getCount());
+    RecordingSink other = new RecordingSink();
+    weatherLiveFeed.subscribe(null, "Cork", other);
+    publish(reading("sensor2", "Cork", 0), reading("sensor1", "Galway", 1));
+    assertEquals("sensor2", other.next().getSensorId());
+    release.countDown();
+    assertTrue(stalled.closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testSubscriberLimitHoldsUnderConcurrentSubscribes() throws Exception {
+    WeatherLiveFeed liveFeed = new WeatherLiveFeed(5, 2, 60000, 1, 200);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] =
+          new Thread(
+              () -> {
+                for (int j = 0; j < 100; j++) {
+                  liveFeed.subscribe(null, null, new RecordingSink());
+                }
+              });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // Verify and assert
+    assertEquals(5, liveFeed.getSubscriberCount());
+    liveFeed.stop();
+  }
+
+  private void publish(WeatherData... readings) {
+    weatherLiveFeed.onWeatherDataSaved(new WeatherDataSavedEvent(List.of(readings)));
+  }
+
+  private static WeatherData reading(String sensorId, String location, int minute) {
+    return new WeatherData()
+        .setSensorId(sensorId)
+        .setLocation(location)
+        .setTimestamp(TIMESTAMP.plusMinutes(minute));
+  }
+
+  private static class RecordingSink implements WeatherLiveFeed.Sink {
+    final BlockingQueue<WeatherData> received = new LinkedBlockingQueue<>();
+    final CountDownLatch closed = new CountDownLatch(1);
+    final CountDownLatch heartbeats = new CountDownLatch(1);
+
+    @Override
+    public void send(WeatherData reading) throws IOException {
+      received.add(reading);
+    }
+
+    @Override
+    public void heartbeat() {
+      heartbeats.countDown();
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+
+    WeatherData next() throws InterruptedException {
+      return received.poll(5, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.RunningStats;
+import org.orourked.weatherapi.model.WeatherData;
+
+class WeatherLiveStatsTest {
+  private static final LocalDateTime NOW = LocalDateTime.of(2024, 11, 13, 10, 30);
+
+  private final WeatherLiveStats weatherLiveStats = new WeatherLiveStats(true, 15, 300);
+
+  @Test
+  void testWindowsResetAtTheirBoundaries() {
+    weatherLiveStats.apply(
+        List.of(
+            reading(NOW.minusDays(1), 100),
+            reading(NOW.minusHours(2), 4),
+            reading(NOW.minusMinutes(20), 6),
+            reading(NOW.minusMinutes(5), 8),
+            reading(NOW, 10)));
+
+    // Verify and assert
+    assertEquals(7.0, average(WeatherLiveStats.Window.DAY));
+    assertEquals(8.0, average(WeatherLiveStats.Window.HOUR));
+    assertEquals(9.0, average(WeatherLiveStats.Window.ROLLING));
+  }
+
+  @Test
+  void testReadingsTooFarInTheFutureAreIgnored() {
+    weatherLiveStats.apply(
+        List.of(reading(NOW, 10), reading(NOW.plusMinutes(4), 20), reading(NOW.plusDays(1), 100)),
+        NOW);
+
+    // Verify and assert: the skewed reading counts, the one a day ahead does not move the windows
+    assertEquals(15.0, average(WeatherLiveStats.Window.DAY));
+    assertEquals(15.0, average(WeatherLiveStats.Window.HOUR));
+  }
+
+  @Test
+  void testVarianceMatchesTheTwoPassFormulaForLargeValues() {
+    // Readings with a large offset, where summing squares loses all precision.
+    double[] values = {1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16};
+    RunningStats first = new RunningStats().add(values[0]).add(values[1]);
+    RunningStats second = new RunningStats().add(values[2]).add(values[3]);
+    RunningStats all = new RunningStats();
+    for (double value : values) {
+      all.add(value);
+    }
+
+    // Verify and assert: the mean is 1e9 + 10, so the population variance is (36+9+9+36)/4
+    assertEquals(22.5, all.getVariance(), 1e-6);
+    assertEquals(22.5, first.merge(second).getVariance(), 1e-6);
+    assertEquals(Math.sqrt(22.5), all.getStat("stddev"), 1e-6);
+  }
+
+  @Test
+  void testStatsAreReportedPerSensorWithTheirStart() {
+    weatherLiveStats.apply(List.of(reading(NOW, 10)));
+
+    List<Map<String, Object>> rows =
+        weatherLiveStats.getStats(
+            null,
+            List.of("temperature"),
+            List.of("min", "variance"),
+            WeatherLiveStats.Window.DAY,
+            NOW);
+
+    // Verify and assert
+    assertEquals(1, rows.size());
+    assertEquals("sensor1", rows.get(0).get("sensorId"));
+    assertTrue(rows.get(0).containsKey("since"));
+    assertEquals(10.0, rows.get(0).get("mintemperature"));
+    assertEquals(0.0, rows.get(0).get("variancetemperature"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            weatherLiveStats.getStats(
+                null, List.of("rainfall"), List.of("min"), WeatherLiveStats.Window.DAY, NOW));
+  }
+
+  private Object average(WeatherLiveStats.Window window) {
+    return weatherLiveStats
+        .getStats(List.of("sensor1"), List.of("temperature"), List.of("average"), window, NOW)
+        .get(0)
+        .get("avgtemperature");
+  }
+
+  private static WeatherData reading(LocalDateTime timestamp, double temperature) {
+    return new WeatherData()
+        .setSensorId("sensor1")
+        .setTemperature(temperature)
+        .setTimestamp(timestamp);
+  }
+}
@@ -0,0 +1,82 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.SensorResult;
+import org.orourked.weatherapi.model.WeatherData;
+import org.orourked.weatherapi.model.WeatherDataSavedEvent;
+
+class WeatherQueryCacheTest {
+  private static final LocalDate START = LocalDate.of(2024, 11, 2);
+  private static final LocalDate END = LocalDate.of(2024, 11, 8);
+
+  private WeatherQueryCache weatherQueryCache;
+  private AtomicInteger queries;
+
+  @BeforeEach
+  void setUp() {
+    weatherQueryCache = new WeatherQueryCache(new SimpleMeterRegistry(), true, 100, 60);
+    queries = new AtomicInteger();
+  }
+
+  @Test
+  void testNormalizedQueryIsCached() {
+    query(List.of("sensor1", "sensor2"), START, END);
+    query(List.of("sensor2", "sensor1", "sensor1"), START, END);
+
+    // Verify and assert
+    assertEquals(1, queries.get());
+  }
+
+  @Test
+  void testSavedReadingOnlyInvalidatesOverlappingQueries() {
+    query(List.of("sensor1"), START, END);
+    query(List.of("sensor2"), START, END);
+    query(List.of("sensor1"), END, END.plusDays(7));
+
+    // A reading for sensor1 inside the first range only
+    save("sensor1", START.plusDays(1).atTime(12, 0));
+    query(List.of("sensor1"), START, END);
+    query(List.of("sensor2"), START, END);
+    query(List.of("sensor1"), END, END.plusDays(7));
+
+    // Verify and assert
+    assertEquals(4, queries.get());
+  }
+
+  @Test
+  void testLatestReadingQueryIsInvalidatedByAnyReading() {
+    query(List.of("sensor1"), null, null);
+    save("sensor1", LocalDateTime.now());
+    query(List.of("sensor1"), null, null);
+
+    // Verify and assert
+    assertEquals(2, queries.get());
+  }
+
+  private void query(List<String> sensorIds, LocalDate startDate, LocalDate endDate) {
+    weatherQueryCache.get(
+        sensorIds,
+        List.of("temperature"),
+        List.of("average"),
+        startDate,
+        endDate,
+        () -> {
+          queries.incrementAndGet();
+          return List.<SensorResult>of();
+        });
+  }
+
+  private void save(String sensorId, LocalDateTime timestamp) {
+    weatherQueryCache.onWeatherDataSaved(
+        new WeatherDataSavedEvent(
+            List.of(new WeatherData().setSensorId(sensorId).setTimestamp(timestamp))));
+  }
+}
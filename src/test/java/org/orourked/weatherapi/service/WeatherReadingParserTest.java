@@ -0,0 +1,168 @@
+package org.orourked.weatherapi.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.orourked.weatherapi.model.WeatherData;
+
+class WeatherReadingParserTest {
+
+  @Test
+  void testParsesCsvAcrossChunksAndRejectsInvalidRows() throws Exception {
+    String csv =
+        "timestamp,sensorId,location,temperature,humidity,windspeed,pressure,note\r\n"
+            + "2024-11-13T10:00:00,sensor1,\"Galway, \"\"West\"\"\",18.5,60,10,1015,x\r\n"
+            + "\r\n"
+            + "2024-11-13T10:01,sensor2,Cork,-1.25,71,,1012\n"
+            + "2024-11-13T10:02:03.5,sensor3,\"Line\nbreak\",1e1,70,8,1010";
+    WeatherReadingParser parser =
+        new WeatherReadingParser(trickle(csv), WeatherReadingParser.Format.CSV);
+
+    WeatherData first = parser.next();
+    WeatherReadingParser.MalformedReadingException rejected =
+        assertThrows(WeatherReadingParser.MalformedReadingException.class, parser::next);
+    WeatherData third = parser.next();
+
+    // Verify and assert: blank lines are not records, and a rejected row does not stop the parser
+    assertEquals("sensor1", first.getSensorId());
+    assertEquals("Galway, \"West\"", first.getLocation());
+    assertEquals(18.5, first.getTemperature());
+    assertEquals(10.0, first.getWindspeed());
+    assertEquals(LocalDateTime.of(2024, 11, 13, 10, 0), first.getTimestamp());
+    assertEquals(2, rejected.getRecord());
+    assertEquals("windspeed is required", rejected.getMessage());
+    assertEquals("Line\nbreak", third.getLocation());
+    assertEquals(10.0, third.getTemperature());
+    assertEquals(LocalDateTime.of(2024, 11, 13, 10, 2, 3, 500_000_000), third.getTimestamp());
+    assertNull(parser.next());
+    assertEquals(3, parser.getRecord());
+  }
+
+  @Test
+  void testParsesNdjsonAndResumesFromARecord() throws Exception {
+    String ndjson =
+        """
+        {"sensorId": "sensor1", "location": "Galway", "temperature": 9, "humidity": 74.0, "pressure": 1036.0, "windspeed": 21.0, "timestamp": "2024-11-13T10:00:00"}
+        {"sensorId": "sensor2", "location":
+        {"id": "6734a1f0c2a4b5d6e7f80912", "sensorId": "sensor3", "location": "Cork", "temperature": "9.5", "humidity": 70.0, "pressure": 1030.0, "windspeed": 12.0, "timestamp": "2024-11-13T10:00:00", "extra": {"a": [1, 2]}}
+        {"sensorId": "sensor4", "location": "Cork", "temperature": 9.5, "humidity": 70.0, "pressure": 1030.0, "windspeed": 12.0}
+        """;
+    WeatherReadingParser parser =
+        new WeatherReadingParser(trickle(ndjson), WeatherReadingParser.Format.NDJSON);
+
+    // Verify and assert
+    assertEquals(9.0, parser.next().getTemperature());
+    assertEquals(
+        "Malformed reading",
+        assertThrows(WeatherReadingParser.MalformedReadingException.class, parser::next)
+            .getMessage());
+
+    parser = new WeatherReadingParser(trickle(ndjson), WeatherReadingParser.Format.NDJSON);
+    assertEquals(2, parser.skipTo(2));
+    WeatherData third = parser.next();
+    assertEquals("6734a1f0c2a4b5d6e7f80912", third.getId());
+    assertEquals(9.5, third.getTemperature());
+    assertEquals(
+        "timestamp is required",
+        assertThrows(WeatherReadingParser.MalformedReadingException.class, parser::next)
+            .getMessage());
+    assertNull(parser.next());
+  }
+
+  @Test
+  void testParsesInputLargerThanTheBuffer() throws Exception {
+    StringBuilder csv = new StringBuilder("sensorId,location,temperature,humidity,windspeed,");
+    csv.append("pressure,timestamp\n");
+    for (int i = 1; i <= 20_000; i++) {
+      csv.append("sensor").append(i).append(",Galway,").append(i % 40).append(".5,60,10,1015,");
+      csv.append("2024-11-13T10:00:00\n");
+    }
+    WeatherReadingParser parser =
+        new WeatherReadingParser(
+            new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)),
+            WeatherReadingParser.Format.CSV);
+
+    WeatherData last = null;
+    for (WeatherData reading = parser.next(); reading != null; reading = parser.next()) {
+      last = reading;
+    }
+
+    // Verify and assert
+    assertEquals(20_000, parser.getRecord());
+    assertEquals("sensor20000", last.getSensorId());
+    assertEquals(0.5, last.getTemperature());
+  }
+
+  @Test
+  void testQuoteInsideUnquotedFieldIsLiteral() throws Exception {
+    String csv =
+        "sensorId,location,temperature,humidity,windspeed,pressure,timestamp\n"
+            + "sensor1,Cork 5\" mast,1,2,3,4,2024-11-13T10:00\n"
+            + "sensor2,\"Quoted \"\"mast\"\"\",1,2,3,4,2024-11-13T10:01\n"
+            + "sensor3,Galway,1,2,3,4,2024-11-13T10:02\n";
+    WeatherReadingParser parser =
+        new WeatherReadingParser(trickle(csv), WeatherReadingParser.Format.CSV);
+
+    // Verify and assert: the stray quote does not swallow the line breaks after it
+    assertEquals("Cork 5\" mast", parser.next().getLocation());
+    assertEquals("Quoted \"mast\"", parser.next().getLocation());
+    assertEquals("Galway", parser.next().getLocation());
+    assertNull(parser.next());
+  }
+
+  @Test
+  void testCsvHeaderNeedsEveryRequiredColumn() {
+    WeatherReadingParser parser =
+        new WeatherReadingParser(
+            trickle("sensorId,location,temperature,humidity,pressure,timestamp\n"),
+            WeatherReadingParser.Format.CSV);
+
+    // Verify and assert
+    assertEquals(
+        "CSV header has no windspeed column",
+        assertThrows(IllegalArgumentException.class, parser::next).getMessage());
+  }
+
+  @Test
+  void testNumbersAndTimestampsParseLikeTheJdk() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      String number =
+          String.format(
+              Locale.ROOT, "%.0" + random.nextInt(6) + "f", (random.nextDouble() - 0.5) * 2000);
+      assertEquals(Double.parseDouble(number), WeatherReadingParser.parseNumber(number), number);
+    }
+    for (String number : new String[] {"1015", "-0", "0.1", "12345678901234567", "1.5e3"}) {
+      assertEquals(Double.parseDouble(number), WeatherReadingParser.parseNumber(number), number);
+    }
+    for (String timestamp :
+        new String[] {"2024-11-13T10:00", "2024-11-13T10:00:59", "2024-02-29T23:59:59.123456789"}) {
+      assertEquals(LocalDateTime.parse(timestamp), WeatherReadingParser.parseTimestamp(timestamp));
+    }
+
+    // Verify and assert
+    assertThrows(NumberFormatException.class, () -> WeatherReadingParser.parseNumber("1,5"));
+    assertThrows(
+        RuntimeException.class, () -> WeatherReadingParser.parseTimestamp("2024-13-01T00:00"));
+  }
+
+  // An input that returns at most a few bytes per read, so records span many chunks.
+  private static InputStream trickle(String text) {
+    return new FilterInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+  }
+}
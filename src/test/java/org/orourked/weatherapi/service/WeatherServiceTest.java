@@ -3,11 +3,13 @@ package org.orourked.weatherapi.service;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
@@ -16,15 +18,35 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.orourked.weatherapi.database.WeatherAggregation;
+import org.orourked.weatherapi.database.WeatherBulkWriter;
 import org.orourked.weatherapi.database.WeatherDatabase;
+import org.orourked.weatherapi.database.WeatherPartitions;
+import org.orourked.weatherapi.database.WeatherQueryMetrics;
+import org.orourked.weatherapi.database.WeatherQueryPlans;
 import org.orourked.weatherapi.model.WeatherData;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
 class WeatherServiceTest {
   @Mock private WeatherDatabase weatherDatabase;
   @Mock private WeatherAggregation weatherAggregation;
+  @Mock private WeatherBulkWriter weatherBulkWriter;
+  @Mock private WeatherIngestBuffer weatherIngestBuffer;
+  @Mock private WeatherPartitions weatherPartitions;
+  @Mock private ApplicationEventPublisher eventPublisher;
+
+  @Spy
+  private WeatherQueryCache weatherQueryCache =
+      new WeatherQueryCache(new SimpleMeterRegistry(), false, 0, 0);
+
+  @Spy private WeatherLiveStats weatherLiveStats = new WeatherLiveStats(true, 60, 300);
+
+  @Spy
+  private WeatherQueryMetrics weatherQueryMetrics =
+      new WeatherQueryMetrics(new SimpleMeterRegistry());
 
   @InjectMocks private WeatherService weatherService;
 
@@ -151,4 +173,50 @@ class WeatherServiceTest {
                     null));
     assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
   }
+
+  @Test
+  void testCollectionScanRejectionException() {
+    when(weatherAggregation.queryWeatherData(any(), any(), any(), any(), any()))
+        .thenThrow(new WeatherQueryPlans.CollectionScanException("Collection scan"));
+
+    ResponseStatusException exception =
+        assertThrows(
+            ResponseStatusException.class,
+            () ->
+                weatherService.queryWeatherData(
+                    List.of("sensor1"), List.of("temperature"), List.of("average"), null, null));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatusCode());
+  }
+
+  @Test
+  void testSaveAllWeatherDataThrowsException() {
+    // Stub the bulk writer's behavior
+    when(weatherBulkWriter.insertAll(anyList()))
+        .thenThrow(new RuntimeException("MongoDB connection error"));
+
+    // Call the service
+    ResponseStatusException exception =
+        assertThrows(
+            ResponseStatusException.class,
+            () -> weatherService.saveAllWeatherData(List.of(new WeatherData())));
+
+    // Verify and assert
+    assertEquals(HttpStatus.BAD_GATEWAY, exception.getStatusCode());
+  }
+
+  @Test
+  void testSaveWeatherDataQueueFullException() {
+    // Stub the buffer's behavior
+    when(weatherIngestBuffer.isEnabled()).thenReturn(true);
+    when(weatherIngestBuffer.offer(any())).thenReturn(false);
+
+    // Call the service
+    ResponseStatusException exception =
+        assertThrows(
+            ResponseStatusException.class, () -> weatherService.saveWeatherData(new WeatherData()));
+
+    // Verify and assert
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, exception.getStatusCode());
+    verify(weatherDatabase, times(0)).save(any());
+  }
 }